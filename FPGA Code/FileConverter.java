@@ -24,7 +24,8 @@ public class FileConverter {
 		try {
 			stdin = new Scanner(new File("semeion.data"));
 			while (stdin.hasNextLine()) {
-				printWriter.print("@" + instance + " ");
+				// $readmemb() reads addresses in hex
+				printWriter.print("@" + Integer.toHexString(instance) + " ");
 				String line[] = stdin.nextLine().split(" ");
 				for (int i = 0; i < line.length; i++) {
 					printWriter.print(Double.valueOf(line[i]).intValue());
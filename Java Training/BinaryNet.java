@@ -0,0 +1,237 @@
+import java.util.ArrayList;
+import java.util.SplittableRandom;
+
+/**
+ * Binarized neural network for binary inputs such as the 16x16 images of 'semeion.data'. Every 
+ * weight and every hidden activation is +1 or -1, so inference needs no multiplications: the 
+ * weighted sum of a unit over n inputs is n - 2 * (the number of inputs whose sign differs from 
+ * their weight's), which BinarySnapshot computes with XOR and Long.bitCount() over packed bits.
+ * A pixel is +1 when lit and -1 otherwise.
+ * 
+ * Training keeps a real-valued shadow weight behind every binary weight, clipped to [-1, 1], and 
+ * uses the straight-through estimator: the forward pass uses the signs of the shadow weights, and 
+ * the backward pass treats sign() as the identity, so the gradient updates the shadow weights.
+ * A hidden unit fires when its weighted sum plus a bias is at least 0; the gradient of the sign 
+ * is passed through where the sum is within sqrt(n) of 0 and cut off elsewhere. The biases are 
+ * rounded to integers in the forward pass, so a snapshot reproduces the trained network exactly 
+ * with integer thresholds. The outputs are the weighted sums plus biases, divided by sqrt(n) for 
+ * a softmax, and the network is trained by cross-entropy.
+ * 
+ * The shape of a network is described by a spec such as "256-256-10": the number of inputs 
+ * followed by the size of every other layer.
+ */
+public class BinaryNet {
+	private final int[] unitsPerLayer;
+	
+	// weights[l][j * (unitsPerLayer[l] + 1) + k] is the shadow weight from node k of layer l to 
+	// node j of layer l + 1; k == unitsPerLayer[l] is the bias, in units of the weighted sum
+	private final double[][] weights;
+	
+	private final double[][] activations;	// +1 or -1, activations[0] being the input
+	private final double[][] sums;	// Weighted sums plus rounded biases
+	private final double[][] errors;	// Error at each unit's weighted sum
+	private final double[] probabilities;
+	
+	/**
+	 * Constructs the network with shadow weights drawn uniformly from -1 to +1 from the next 
+	 * RandomStreams.WEIGHT_INIT stream, and biases of 0.
+	 * 
+	 * @param unitsPerLayer The number of units in each layer, from the input layer to the output 
+	 * layer
+	 */
+	public BinaryNet(int[] unitsPerLayer) {
+		if (unitsPerLayer.length < 2) throw new IllegalArgumentException("Expected at least two layers");
+		this.unitsPerLayer = unitsPerLayer.clone();
+		int numLayers = unitsPerLayer.length - 1;
+		weights = new double[numLayers][];
+		activations = new double[numLayers + 1][];
+		sums = new double[numLayers][];
+		errors = new double[numLayers][];
+		activations[0] = new double[unitsPerLayer[0]];
+		SplittableRandom random = RandomStreams.next(RandomStreams.WEIGHT_INIT);
+		for (int l = 0; l < numLayers; l++) {
+			int stride = unitsPerLayer[l] + 1;
+			weights[l] = new double[unitsPerLayer[l + 1] * stride];
+			for (int j = 0; j < unitsPerLayer[l + 1]; j++) {
+				for (int k = 0; k < stride - 1; k++) weights[l][j * stride + k] = 2 * random.nextDouble() - 1;
+			}
+			activations[l + 1] = new double[unitsPerLayer[l + 1]];
+			sums[l] = new double[unitsPerLayer[l + 1]];
+			errors[l] = new double[unitsPerLayer[l + 1]];
+		}
+		probabilities = new double[unitsPerLayer[numLayers]];
+	}
+	
+	/**
+	 * Constructs the network described by a spec; see getSpec().
+	 * 
+	 * @param spec The spec, e.g., "256-256-10"
+	 */
+	public BinaryNet(String spec) {
+		this(parseUnits(spec));
+	}
+	
+	private static int[] parseUnits(String spec) {
+		String[] layers = spec.trim().split("-");
+		int[] unitsPerLayer = new int[layers.length];
+		for (int i = 0; i < layers.length; i++) unitsPerLayer[i] = Integer.parseInt(layers[i]);
+		return unitsPerLayer;
+	}
+	
+	/**
+	 * @return The spec describing the network's shape, e.g., "256-256-10"
+	 */
+	public String getSpec() {
+		StringBuilder spec = new StringBuilder().append(unitsPerLayer[0]);
+		for (int i = 1; i < unitsPerLayer.length; i++) spec.append('-').append(unitsPerLayer[i]);
+		return spec.toString();
+	}
+	
+	/**
+	 * @return The number of units in each layer, from the input layer to the output layer
+	 */
+	public int[] getUnitsPerLayer() {
+		return unitsPerLayer.clone();
+	}
+	
+	/**
+	 * @return The shadow weights of each layer, laid out as described for 'weights'; the arrays 
+	 * are the network's own, not copies
+	 */
+	double[][] getShadowWeights() {
+		return weights;
+	}
+	
+	/**
+	 * Propagate an input forward through the binarized network.
+	 * 
+	 * @param input The input for a given instance; values of 0.5 or more are lit pixels
+	 * @return The score of each class, in a buffer owned by the network
+	 */
+	private double[] propagateFwd(double[] input) {
+		for (int k = 0; k < unitsPerLayer[0]; k++) activations[0][k] = input[k] >= 0.5 ? 1 : -1;
+		int last = weights.length - 1;
+		for (int l = 0; l <= last; l++) {
+			double[] prev = activations[l], w = weights[l];
+			int stride = unitsPerLayer[l] + 1;
+			for (int j = 0; j < unitsPerLayer[l + 1]; j++) {
+				int offset = j * stride;
+				double sum = Math.rint(w[offset + stride - 1]);	// Bias
+				for (int k = 0; k < stride - 1; k++) sum += w[offset + k] >= 0 ? prev[k] : -prev[k];
+				sums[l][j] = sum;
+				activations[l + 1][j] = l == last ? sum : sum >= 0 ? 1 : -1;
+			}
+		}
+		return activations[last + 1];
+	}
+	
+	/**
+	 * Trains the network on a single instance.
+	 * 
+	 * @param input The input for the instance
+	 * @param desiredOutput The instance's label
+	 * @param learningRate The learning rate for updating the shadow weights
+	 */
+	public void update(double[] input, int desiredOutput, double learningRate) {
+		int last = weights.length - 1;
+		double[] scores = propagateFwd(input);
+		double outputScale = 1 / Math.sqrt(unitsPerLayer[last]);
+		double max = scores[0];
+		for (int j = 1; j < scores.length; j++) max = Math.max(max, scores[j]);
+		double total = 0;
+		for (int j = 0; j < scores.length; j++) {
+			probabilities[j] = Math.exp((scores[j] - max) * outputScale);
+			total += probabilities[j];
+		}
+		// Cross-entropy gradient at the output sums, pointing the way the sums should move
+		for (int j = 0; j < scores.length; j++) {
+			errors[last][j] = ((j == desiredOutput ? 1 : 0) - probabilities[j] / total) * outputScale;
+		}
+		
+		for (int l = last; l >= 0; l--) {
+			double[] prev = activations[l], w = weights[l], error = errors[l];
+			int inputs = unitsPerLayer[l], stride = inputs + 1;
+			
+			// Errors at the previous layer's sums, through the binary weights and the straight- 
+			// through estimate of sign()'s gradient, computed before the weights change
+			if (l > 0) {
+				double[] prevError = errors[l - 1], prevSums = sums[l - 1];
+				double window = Math.sqrt(unitsPerLayer[l - 1]);
+				for (int k = 0; k < inputs; k++) prevError[k] = 0;
+				for (int j = 0; j < unitsPerLayer[l + 1]; j++) {
+					int offset = j * stride;
+					for (int k = 0; k < inputs; k++) {
+						prevError[k] += w[offset + k] >= 0 ? error[j] : -error[j];
+					}
+				}
+				for (int k = 0; k < inputs; k++) {
+					prevError[k] = Math.abs(prevSums[k]) <= window ? prevError[k] / window : 0;
+				}
+			}
+			
+			// Update and clip the shadow weights; the bias moves in units of the weighted sum
+			double biasScale = Math.sqrt(inputs);
+			for (int j = 0; j < unitsPerLayer[l + 1]; j++) {
+				int offset = j * stride;
+				double step = learningRate * error[j];
+				for (int k = 0; k < inputs; k++) {
+					double weight = w[offset + k] + step * prev[k];
+					w[offset + k] = weight > 1 ? 1 : weight < -1 ? -1 : weight;
+				}
+				double bias = w[offset + inputs] + step * biasScale * biasScale;
+				w[offset + inputs] = Math.max(-inputs, Math.min(inputs, bias));
+			}
+		}
+	}
+	
+	/**
+	 * Trains the network one instance at a time, in the order given.
+	 * 
+	 * @param inputs A list of inputs for each training instance
+	 * @param desiredOutputs A list of desired output labels for each training instance
+	 * @param numEpochs The number of epochs, i.e., passes through the training set
+	 * @param learningRate The learning rate for updating the shadow weights
+	 */
+	public void train(ArrayList<ArrayList<Double>> inputs, ArrayList<Integer> desiredOutputs, 
+			int numEpochs, double learningRate) {
+		double[] input = new double[unitsPerLayer[0]];
+		for (int e = 0; e < numEpochs; e++) {
+			for (int i = 0; i < inputs.size(); i++) {
+				for (int k = 0; k < input.length; k++) input[k] = inputs.get(i).get(k);
+				update(input, desiredOutputs.get(i), learningRate);
+			}
+		}
+	}
+	
+	/**
+	 * Classify a given instance with the binarized network.
+	 * 
+	 * @param input The input for a given instance
+	 * @return The classification according to the network
+	 */
+	public int classify(double[] input) {
+		return WeightSnapshot.argmax(propagateFwd(input));
+	}
+	
+	/**
+	 * Classify a given instance with the binarized network.
+	 * 
+	 * @param input The input for a given instance
+	 * @return The classification according to the network
+	 */
+	public int classify(ArrayList<Double> input) {
+		double[] array = new double[input.size()];
+		for (int i = 0; i < array.length; i++) array[i] = input.get(i);
+		return classify(array);
+	}
+	
+	/**
+	 * Packs the signs of the shadow weights and the rounded biases into an immutable snapshot 
+	 * for XNOR and popcount inference. Later training does not affect the snapshot.
+	 * 
+	 * @return A snapshot of the binarized network
+	 */
+	public BinarySnapshot snapshot() {
+		return new BinarySnapshot(this);
+	}
+}
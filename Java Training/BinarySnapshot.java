@@ -0,0 +1,278 @@
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.PrintWriter;
+
+/**
+ * Immutable, bit-packed copy of a BinaryNet for inference. The inputs of every layer and the 
+ * weights of every unit are packed 64 to a long, a set bit standing for +1 and a clear bit for
+ * -1, in the layout of PackedImage: input k is bit (k % 64) of word (k / 64). The weighted sum of 
+ * a unit over n inputs is then n - 2 * bitCount(inputs XOR weights), the XNOR of the inputs and 
+ * weights counting the agreeing signs. Unused bits of the last word are 0 in both, so they never 
+ * count.
+ * 
+ * A hidden unit fires when its sum plus its bias is at least 0, i.e., when at most 
+ * (n + bias) / 2 signs disagree, so each hidden unit keeps that number of mismatches as an 
+ * integer threshold and a layer is XORs, popcounts and comparisons. The output units keep their 
+ * integer biases, and the class is the output with the highest sum plus bias. Like WeightSnapshot, 
+ * a snapshot can be shared by any number of threads.
+ */
+public class BinarySnapshot {
+	private final int[] unitsPerLayer;
+	private final int[] wordsPerUnit;	// Words of packed inputs to each layer after the input layer
+	private final long[][] weights;	// weights[l][j * wordsPerUnit[l] + w], word w of unit j's weights
+	private final int[][] thresholds;	// Most mismatches at which a hidden unit fires; output biases
+	
+	/**
+	 * @param net The network to copy
+	 */
+	BinarySnapshot(BinaryNet net) {
+		unitsPerLayer = net.getUnitsPerLayer();
+		double[][] shadowWeights = net.getShadowWeights();
+		int numLayers = shadowWeights.length;
+		wordsPerUnit = new int[numLayers];
+		weights = new long[numLayers][];
+		thresholds = new int[numLayers][];
+		for (int l = 0; l < numLayers; l++) {
+			int inputs = unitsPerLayer[l], stride = inputs + 1;
+			wordsPerUnit[l] = (inputs + 63) / 64;
+			weights[l] = new long[unitsPerLayer[l + 1] * wordsPerUnit[l]];
+			thresholds[l] = new int[unitsPerLayer[l + 1]];
+			for (int j = 0; j < unitsPerLayer[l + 1]; j++) {
+				int offset = j * stride;
+				for (int k = 0; k < inputs; k++) {
+					if (shadowWeights[l][offset + k] >= 0) weights[l][j * wordsPerUnit[l] + (k >>> 6)] |= 1L << k;
+				}
+				int bias = (int) Math.rint(shadowWeights[l][offset + inputs]);
+				thresholds[l][j] = l == numLayers - 1 ? bias : Math.floorDiv(inputs + bias, 2);
+			}
+		}
+	}
+	
+	/**
+	 * @return The spec describing the network's shape, e.g., "256-256-10"
+	 */
+	public String getSpec() {
+		StringBuilder spec = new StringBuilder().append(unitsPerLayer[0]);
+		for (int i = 1; i < unitsPerLayer.length; i++) spec.append('-').append(unitsPerLayer[i]);
+		return spec.toString();
+	}
+	
+	/**
+	 * @return The number of units in each layer, from the input layer to the output layer
+	 */
+	public int[] getUnitsPerLayer() {
+		return unitsPerLayer.clone();
+	}
+	
+	/**
+	 * @return The number of bytes the packed weights and the thresholds take
+	 */
+	public int getSizeInBytes() {
+		int bytes = 0;
+		for (int l = 0; l < weights.length; l++) {
+			bytes += (unitsPerLayer[l] + 7) / 8 * unitsPerLayer[l + 1] + 2 * thresholds[l].length;
+		}
+		return bytes;
+	}
+	
+	/**
+	 * @return Buffers for the packed activations of the hidden layers, to pass to classify(); a 
+	 * buffer can be reused for any number of calls but not by two threads at a time
+	 */
+	public long[][] newBuffers() {
+		long[][] buffers = new long[weights.length][];
+		for (int l = 1; l < weights.length; l++) buffers[l] = new long[wordsPerUnit[l]];
+		return buffers;
+	}
+	
+	/**
+	 * Classify a given instance without allocating.
+	 * 
+	 * @param input The packed input, in words of 64 inputs as described above
+	 * @param buffers Buffers from newBuffers()
+	 * @param scores Receives the sum plus bias at each output unit, or null
+	 * @return The classification according to the network
+	 */
+	public int classify(long[] input, long[][] buffers, int[] scores) {
+		int last = weights.length - 1;
+		long[] layerInput = input;
+		for (int l = 0; l < last; l++) {
+			long[] layerOutput = buffers[l + 1], w = weights[l];
+			int words = wordsPerUnit[l];
+			for (int i = 0; i < layerOutput.length; i++) layerOutput[i] = 0;
+			for (int j = 0; j < unitsPerLayer[l + 1]; j++) {
+				int mismatches = 0;
+				for (int i = 0; i < words; i++) mismatches += Long.bitCount(layerInput[i] ^ w[j * words + i]);
+				if (mismatches <= thresholds[l][j]) layerOutput[j >>> 6] |= 1L << j;
+			}
+			layerInput = layerOutput;
+		}
+		
+		long[] w = weights[last];
+		int words = wordsPerUnit[last], inputs = unitsPerLayer[last];
+		int classification = 0, max = Integer.MIN_VALUE;
+		for (int j = 0; j < unitsPerLayer[last + 1]; j++) {
+			int mismatches = 0;
+			for (int i = 0; i < words; i++) mismatches += Long.bitCount(layerInput[i] ^ w[j * words + i]);
+			int score = inputs - 2 * mismatches + thresholds[last][j];
+			if (null != scores) scores[j] = score;
+			if (score > max) {
+				classification = j;
+				max = score;
+			}
+		}
+		return classification;
+	}
+	
+	/**
+	 * Classify a given image.
+	 * 
+	 * @param image The image; the network must take PackedImage.NUM_PIXELS inputs
+	 * @return The classification according to the network
+	 */
+	public int classify(PackedImage image) {
+		if (unitsPerLayer[0] != PackedImage.NUM_PIXELS) {
+			throw new IllegalArgumentException("The network takes " + unitsPerLayer[0] + 
+					" inputs, not " + PackedImage.NUM_PIXELS);
+		}
+		long[] input = new long[PackedImage.NUM_WORDS];
+		for (int i = 0; i < input.length; i++) input[i] = image.getWord(i);
+		return classify(input, newBuffers(), null);
+	}
+	
+	/**
+	 * Writes 'weights_binary.h' for the MCU: the packed weights as 32-bit words, since the 
+	 * Cortex-M4 has 32-bit registers, with the thresholds and output biases. Input k of a unit is 
+	 * bit (k % 32) of its word (k / 32). The file also describes the network's shape in place of 
+	 * 'network.h'; main.c includes it and classifies with XOR and popcount when compiled with 
+	 * BINARY_WEIGHTS defined.
+	 * 
+	 * @param fileName The name of the file to write
+	 * @throws FileNotFoundException
+	 */
+	private void writeWeightsToFile_MCU(String fileName) throws FileNotFoundException {
+		int numLayers = weights.length, maxUnits = 0;
+		for (int l = 1; l < unitsPerLayer.length; l++) maxUnits = Math.max(maxUnits, unitsPerLayer[l]);
+		PrintWriter printWriter = new PrintWriter(fileName);
+		printWriter.println("// Binarized " + getSpec() + " network. Bit k of a unit's weights is its weight " + 
+				"from input k,\n// 1 for +1 and 0 for -1, and the layer's inputs are packed the " +
+				"same way. A hidden unit\n// fires if at most binary_thresholds[l][j] bits of " +
+				"its inputs XOR its weights are\n// set; an output unit's score is " +
+				"n - 2 * (the bits set) + binary_thresholds[l][j]");
+		printWriter.println("#ifndef __WEIGHTS_BINARY_H__");
+		printWriter.println("#define __WEIGHTS_BINARY_H__");
+		printWriter.println();
+		printWriter.println("#define SIGMOID\t\t\t\t\t1\t\t\t// Activation functions");
+		printWriter.println("#define RELU\t\t\t\t\t2");
+		printWriter.println("#define SIGN\t\t\t\t\t3");
+		printWriter.println();
+		printWriter.println("#define NUM_WEIGHT_LAYERS\t\t" + numLayers);
+		printWriter.println("#define NUM_INPUT_UNITS\t\t\t" + unitsPerLayer[0]);
+		printWriter.println("#define NUM_OUTPUT_UNITS\t\t" + unitsPerLayer[numLayers]);
+		printWriter.println("#define MAX_LAYER_UNITS\t\t\t" + maxUnits + "\t\t\t// Largest layer after the input layer");
+		printWriter.println("#define BINARY_MAX_WORDS\t\t" + (Math.max(unitsPerLayer[0], maxUnits) + 31) / 32 + 
+				"\t\t\t// 32-bit words of the largest layer");
+		printWriter.println();
+		printWriter.print("static const uint16_t layer_sizes[NUM_WEIGHT_LAYERS + 1] = {");
+		for (int l = 0; l < unitsPerLayer.length; l++) printWriter.print((l > 0 ? ", " : "") + unitsPerLayer[l]);
+		printWriter.println("};");
+		printWriter.print("static const uint8_t layer_activations[NUM_WEIGHT_LAYERS] = {");
+		for (int l = 0; l < numLayers; l++) printWriter.print((l > 0 ? ", " : "") + "SIGN");
+		printWriter.println("};");
+		for (int l = 0; l < numLayers; l++) {
+			int words = (unitsPerLayer[l] + 31) / 32;
+			printWriter.println();
+			printWriter.println("// Weights from layer " + l + " to layer " + (l + 1) + ", " + words + 
+					" words per unit");
+			printWriter.print("static const uint32_t binary_weights_" + l + "[] = {");
+			for (int j = 0; j < unitsPerLayer[l + 1]; j++) {
+				printWriter.print((j > 0 ? "," : "") + "\n\t");
+				for (int i = 0; i < words; i++) {
+					long word = weights[l][j * wordsPerUnit[l] + i / 2];
+					printWriter.printf("%s0x%08x", i > 0 ? ", " : "", (int) (i % 2 == 0 ? word : word >>> 32));
+				}
+			}
+			printWriter.println("};");
+			printWriter.print("static const int16_t binary_thresholds_" + l + "[] = {");
+			for (int j = 0; j < thresholds[l].length; j++) {
+				printWriter.print((j > 0 ? ", " : "") + (j % 16 == 0 ? "\n\t" : "") + thresholds[l][j]);
+			}
+			printWriter.println("};");
+		}
+		printWriter.println();
+		String[] names = {"uint32_t", "binary_weights", "int16_t", "binary_thresholds"};
+		for (int i = 0; i < names.length; i += 2) {
+			printWriter.print("static const " + names[i] + " *const " + names[i + 1] + 
+					"[NUM_WEIGHT_LAYERS] = {");
+			for (int l = 0; l < numLayers; l++) printWriter.print((l > 0 ? ", " : "") + names[i + 1] + "_" + l);
+			printWriter.println("};");
+		}
+		printWriter.println();
+		printWriter.println("#endif");
+		printWriter.close();
+	}
+	
+	/**
+	 * Writes the packed weights for the FPGA, for $readmemh. 'weights_binary.dat' holds one word 
+	 * per unit, as wide as the layer before it, with input k in bit k, so a unit is a row of 
+	 * XNOR gates feeding a popcount adder tree, which map onto LUTs without any multipliers.
+	 * 'weights_binary_thresholds.dat' holds the matching 16-bit thresholds of the hidden units 
+	 * and biases of the output units, in two's complement.
+	 * 
+	 * @param fileName The name of the weight file; the threshold file is written next to it
+	 * @throws FileNotFoundException
+	 */
+	private void writeWeightsToFile_FPGA(String fileName, String thresholdFileName)
+			throws FileNotFoundException {
+		PrintWriter printWriter = new PrintWriter(fileName);
+		PrintWriter thresholdWriter = new PrintWriter(thresholdFileName);
+		int address = 0;
+		for (int l = 0; l < weights.length; l++) {
+			int words = wordsPerUnit[l];
+			boolean output = l == weights.length - 1;
+			printWriter.println("// Weights from layer " + l + " to layer " + (l + 1) + ", " + 
+					unitsPerLayer[l] + " bits per unit");
+			thresholdWriter.println("// " + (output ? "Biases" : "Thresholds") + " of layer " + (l + 1));
+			for (int j = 0; j < unitsPerLayer[l + 1]; j++) {
+				StringBuilder hex = new StringBuilder();
+				for (int i = words - 1; i >= 0; i--) {
+					String word = String.format("%016x", weights[l][j * words + i]);
+					// Only the digits holding inputs of the layer
+					if (i == words - 1) word = word.substring(16 - ((unitsPerLayer[l] - 64 * i) + 3) / 4);
+					hex.append(word);
+				}
+				printWriter.printf("@%d %s\t\t// Layer %d, node %d\n", address, hex, l + 1, j);
+				thresholdWriter.printf("@%d %04x\t\t// %d\n", address, thresholds[l][j] & 0xffff, 
+						thresholds[l][j]);
+				address++;
+			}
+		}
+		printWriter.close();
+		thresholdWriter.close();
+	}
+	
+	/**
+	 * Writes the packed weights in the format for the given device: 'weights_binary.h' for the 
+	 * MCU, 'weights_binary.dat' and 'weights_binary_thresholds.dat' for the FPGA.
+	 * 
+	 * @param device NeuralNet.MCU, NeuralNet.FPGA or NeuralNet.BOTH
+	 * @param directory The directory to write the files to
+	 * @throws FileNotFoundException
+	 */
+	public void writeWeightsToFile(int device, String directory) throws FileNotFoundException {
+		String mcuFile = new File(directory, "weights_binary.h").getPath();
+		String fpgaFile = new File(directory, "weights_binary.dat").getPath();
+		String fpgaThresholdFile = new File(directory, "weights_binary_thresholds.dat").getPath();
+		switch (device) {
+			case NeuralNet.MCU:		writeWeightsToFile_MCU(mcuFile);
+									break;
+			case NeuralNet.FPGA:	writeWeightsToFile_FPGA(fpgaFile, fpgaThresholdFile);
+									break;
+			case NeuralNet.BOTH:	writeWeightsToFile_MCU(mcuFile);
+									writeWeightsToFile_FPGA(fpgaFile, fpgaThresholdFile);
+									break;
+			default:				System.err.println("Invalid device argument, unable to write to a file");
+									return;
+		}
+	}
+}
@@ -0,0 +1,328 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Small HTTP server that classifies 16x16 binary images for the touchscreen devices.
+ * 
+ * POST /classify takes an image either as 64 hex digits (any content type) or as 32 packed bytes 
+ * (Content-Type: application/octet-stream), in the layout described in PackedImage. GET 
+ * /classify?image=<hex> works too. The reply is a JSON object holding the digit, the model 
+ * version, the value at each output unit and the probability of each class. Requests are 
+ * classified in micro-batches by a MicroBatcher, unless an optional PredictionCache already 
+ * holds the answer; a request that is not classified within CLASSIFY_TIMEOUT_MILLIS gets a 503 
+ * reply. POST /reload loads the checkpoint the server was started with again and publishes it as 
+ * a new model version. GET /metrics returns the InferenceMetrics (latency percentiles, 
+ * predictions per digit, batch sizes and cache hits) as Prometheus text; they are also 
+ * registered in JMX.
+ */
+public class ClassificationServer {
+	private static final int DEFAULT_PORT = 8080;
+	private static final int DEFAULT_MAX_BATCH_SIZE = 32;
+	private static final long DEFAULT_MAX_WAIT_MICROS = 500;
+	private static final int DEFAULT_NUM_THREADS = 64;
+	private static final int DEFAULT_CACHE_SIZE = 0;
+	private static final long METRICS_DUMP_SECONDS = 10;
+	private static final long CLASSIFY_TIMEOUT_MILLIS = 5000;
+	private static final String USAGE = "Usage: java ClassificationServer <checkpoint> [port] " + 
+			"[max batch size] [max wait in us] [threads] [cache size] [metrics file]";
+	
+	private final HttpServer server;
+	private final ExecutorService executor;
+	private final MicroBatcher batcher;
+	private final PredictionCache cache;
+	private final InferenceMetrics metrics;
+	private final ModelHolder holder;
+	private final String checkpointFile;
+	
+	/**
+	 * @param holder The holder of the model to serve
+	 * @param checkpointFile The checkpoint reloaded by POST /reload, or null to disable reloading
+	 * @param port The port to listen on
+	 * @param maxBatchSize The largest number of requests classified together
+	 * @param maxWaitMicros The longest time a request waits for others to join its batch
+	 * @param numThreads The number of threads handling HTTP exchanges; each one blocks while its 
+	 * request waits for a batch, so this also caps the number of requests in flight
+	 * @param cacheSize The number of predictions to cache, or 0 to disable the cache
+	 * @throws IOException If the server cannot bind to the port
+	 */
+	public ClassificationServer(ModelHolder holder, String checkpointFile, int port, 
+			int maxBatchSize, long maxWaitMicros, int numThreads, int cacheSize) throws IOException {
+		this.holder = holder;
+		this.checkpointFile = checkpointFile;
+		cache = cacheSize > 0 ? new PredictionCache(cacheSize) : null;
+		executor = Executors.newFixedThreadPool(numThreads);
+		
+		// Replies are sent as a header write followed by a body write; without TCP_NODELAY the 
+		// second write waits for the client's delayed ACK, adding ~40 ms to every request
+		System.setProperty("sun.net.httpserver.nodelay", "true");
+		server = HttpServer.create(new InetSocketAddress(port), 0);
+		server.setExecutor(executor);
+		
+		// Named after the bound port, so servers in the same JVM register separately
+		metrics = new InferenceMetrics(holder.current().getNumOutputs(), cache, 
+				"port-" + server.getAddress().getPort());
+		batcher = new MicroBatcher(holder, maxBatchSize, maxWaitMicros, metrics);
+		server.createContext("/classify", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				handleClassify(exchange);
+			}
+		});
+		server.createContext("/reload", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				handleReload(exchange);
+			}
+		});
+		server.createContext("/metrics", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				handleMetrics(exchange);
+			}
+		});
+	}
+	
+	/**
+	 * Starts accepting requests.
+	 */
+	public void start() {
+		batcher.start();
+		server.start();
+	}
+	
+	/**
+	 * Stops accepting requests and shuts down the worker threads.
+	 */
+	public void stop() {
+		server.stop(0);
+		batcher.stop();
+		executor.shutdown();
+	}
+	
+	/**
+	 * @return The server's prediction cache, or null if it has none
+	 */
+	public PredictionCache getCache() {
+		return cache;
+	}
+	
+	/**
+	 * @return The server's latency and throughput metrics
+	 */
+	public InferenceMetrics getMetrics() {
+		return metrics;
+	}
+	
+	/**
+	 * @return The port the server is listening on
+	 */
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+	
+	private void handleClassify(HttpExchange exchange) throws IOException {
+		long start = System.nanoTime();
+		PackedImage image;
+		try {
+			if ("GET".equals(exchange.getRequestMethod())) {
+				String query = exchange.getRequestURI().getQuery();
+				if (null == query || !query.startsWith("image=")) {
+					throw new IllegalArgumentException("Expected ?image=<64 hex digits>");
+				}
+				image = PackedImage.fromHex(query.substring("image=".length()));
+			}
+			else if ("POST".equals(exchange.getRequestMethod())) {
+				byte[] body = readBody(exchange.getRequestBody());
+				String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+				if (null != contentType && contentType.startsWith("application/octet-stream")) {
+					image = PackedImage.fromBytes(body);
+				}
+				else image = PackedImage.fromHex(new String(body, StandardCharsets.US_ASCII));
+			}
+			else {
+				metrics.recordError();
+				reply(exchange, 405, "{\"error\":\"Use GET or POST\"}");
+				return;
+			}
+		} catch (IllegalArgumentException e) {
+			metrics.recordError();
+			reply(exchange, 400, "{\"error\":\"Expected an image of 64 hex digits or 32 bytes\"}");
+			return;
+		}
+		
+		Prediction prediction = null;
+		if (null != cache) prediction = cache.get(image, holder.current().getVersion());
+		if (null != prediction) {
+			reply(exchange, 200, toJson(prediction));
+			metrics.recordRequest(prediction.digit, true, System.nanoTime() - start);
+			return;
+		}
+		try {
+			prediction = batcher.submit(image).get(CLASSIFY_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+			if (null != cache) cache.put(image, prediction);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			metrics.recordError();
+			reply(exchange, 503, "{\"error\":\"Interrupted\"}");
+			return;
+		} catch (TimeoutException e) {
+			metrics.recordError();
+			reply(exchange, 503, "{\"error\":\"Timed out\"}");
+			return;
+		} catch (ExecutionException e) {
+			metrics.recordError();
+			System.err.println("Cannot classify an image: " + e.getCause());
+			reply(exchange, 500, "{\"error\":\"Classification failed\"}");
+			return;
+		}
+		reply(exchange, 200, toJson(prediction));
+		metrics.recordRequest(prediction.digit, false, System.nanoTime() - start);
+	}
+	
+	private void handleMetrics(HttpExchange exchange) throws IOException {
+		if (!"GET".equals(exchange.getRequestMethod())) {
+			reply(exchange, 405, "{\"error\":\"Use GET\"}");
+			return;
+		}
+		byte[] bytes = metrics.toPrometheus().getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4");
+		exchange.sendResponseHeaders(200, bytes.length);
+		OutputStream out = exchange.getResponseBody();
+		out.write(bytes);
+		out.close();
+	}
+	
+	/**
+	 * Writes the metrics as Prometheus text to a file every 'periodSeconds' on a daemon thread, 
+	 * e.g., for the node exporter's textfile collector.
+	 * 
+	 * @param fileName The file to write
+	 * @param periodSeconds The time between writes
+	 */
+	public void dumpMetricsPeriodically(final String fileName, long periodSeconds) {
+		ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor( 
+				new ThreadFactory() {
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "metrics-dump");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		scheduler.scheduleAtFixedRate(new Runnable() {
+			public void run() {
+				try {
+					metrics.writePrometheus(fileName);
+				} catch (IOException e) {
+					System.err.println("Cannot write the metrics to " + fileName + ": " + e.getMessage());
+				}
+			}
+		}, periodSeconds, periodSeconds, TimeUnit.SECONDS);
+	}
+	
+	private void handleReload(HttpExchange exchange) throws IOException {
+		if (!"POST".equals(exchange.getRequestMethod())) {
+			reply(exchange, 405, "{\"error\":\"Use POST\"}");
+			return;
+		}
+		if (null == checkpointFile) {
+			reply(exchange, 404, "{\"error\":\"No checkpoint to reload\"}");
+			return;
+		}
+		try {
+			reply(exchange, 200, "{\"version\":" + holder.load(checkpointFile) + "}");
+		} catch (IOException e) {
+			System.err.println("Cannot reload " + checkpointFile + ": " + e.getMessage());
+			reply(exchange, 500, "{\"error\":\"Cannot read the checkpoint\"}");
+		}
+	}
+	
+	/**
+	 * @param prediction The result of classifying an image
+	 * @return The result as a JSON object
+	 */
+	static String toJson(Prediction prediction) {
+		StringBuilder json = new StringBuilder();
+		json.append("{\"digit\":").append(prediction.digit);
+		json.append(",\"version\":").append(prediction.version);
+		json.append(",\"scores\":[");
+		for (int i = 0; i < prediction.scores.length; i++) {
+			if (i > 0) json.append(',');
+			json.append(prediction.scores[i]);
+		}
+		json.append("],\"probabilities\":[");
+		for (int i = 0; i < prediction.probabilities.length; i++) {
+			if (i > 0) json.append(',');
+			json.append(prediction.probabilities[i]);
+		}
+		return json.append("]}").toString();
+	}
+	
+	private static byte[] readBody(InputStream in) throws IOException {
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		byte[] buffer = new byte[256];
+		for (int n = in.read(buffer); n >= 0; n = in.read(buffer)) body.write(buffer, 0, n);
+		in.close();
+		return body.toByteArray();
+	}
+	
+	private static void reply(HttpExchange exchange, int status, String json) throws IOException {
+		byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "application/json");
+		exchange.sendResponseHeaders(status, bytes.length);
+		OutputStream out = exchange.getResponseBody();
+		out.write(bytes);
+		out.close();
+	}
+	
+	/**
+	 * Serves a checkpoint written by Main.
+	 * 
+	 * Usage: java ClassificationServer <checkpoint> [port] [max batch size] [max wait in us] 
+	 * [threads] [cache size] [metrics file]
+	 */
+	public static void main(String[] args) {
+		if (args.length < 1) {
+			System.err.println(USAGE);
+			System.exit(0);
+		}
+		int port = DEFAULT_PORT, maxBatchSize = DEFAULT_MAX_BATCH_SIZE;
+		long maxWaitMicros = DEFAULT_MAX_WAIT_MICROS;
+		int numThreads = DEFAULT_NUM_THREADS, cacheSize = DEFAULT_CACHE_SIZE;
+		try {
+			if (args.length > 1) port = Integer.parseInt(args[1]);
+			if (args.length > 2) maxBatchSize = Integer.parseInt(args[2]);
+			if (args.length > 3) maxWaitMicros = Long.parseLong(args[3]);
+			if (args.length > 4) numThreads = Integer.parseInt(args[4]);
+			if (args.length > 5) cacheSize = Integer.parseInt(args[5]);
+		}
+		catch (NumberFormatException e) {
+			System.err.println("The port, batch size, wait, threads and cache size must be integers");
+			System.err.println(USAGE);
+			System.exit(0);
+		}
+		
+		try {
+			ModelHolder holder = new ModelHolder(WeightSnapshot.readCheckpoint(args[0]));
+			ClassificationServer server = new ClassificationServer(holder, args[0], port, 
+					maxBatchSize, maxWaitMicros, numThreads, cacheSize);
+			server.start();
+			if (args.length > 6) server.dumpMetricsPeriodically(args[6], METRICS_DUMP_SECONDS);
+			System.out.println("Serving " + args[0] + " on port " + server.getPort());
+		} catch (IOException e) {
+			System.err.println("Cannot start the server: " + e.getMessage());
+			System.exit(0);
+		}
+	}
+}
@@ -0,0 +1,229 @@
+/**
+ * 2D convolution layer. Each output channel slides its own kernel, spanning every input 
+ * channel, over the input image and applies the activation function to the result plus a bias.
+ * 
+ * The convolution is computed with im2col: every window of the input the kernel visits is 
+ * copied into one column of a matrix, so the whole layer becomes a single product of the weight 
+ * matrix (one row per output channel) and that matrix, computed by Gemm. Back-propagation uses 
+ * the same matrix for the weight update and scatters the errors of its columns back onto the 
+ * input (col2im).
+ */
+public class ConvLayer extends Layer {
+	private final int inputChannels, inputHeight, inputWidth;
+	private final int outputChannels, outputHeight, outputWidth;
+	private final int kernelSize, stride, padding;
+	private final int activationFunction;
+	private final int columnRows;	// Rows of the im2col matrix: one per kernel weight, plus the bias
+	
+	private final double[] weights;	// weights[c * columnRows + r], the bias last in each row
+	private final double[] columns;	// columns[r * (outputHeight * outputWidth) + p]
+	private final double[] columnError;
+	private final double[] weightedSums;
+	private final double[] delta;
+	private final double[] output;
+	private final double[] inputError;
+	
+	/**
+	 * @param inputChannels The number of channels in the input image
+	 * @param inputHeight The height of the input image
+	 * @param inputWidth The width of the input image
+	 * @param outputChannels The number of kernels, i.e., output channels
+	 * @param kernelSize The width and height of each kernel
+	 * @param stride The distance between successive positions of a kernel
+	 * @param padding The number of zero pixels added to each side of the input
+	 * @param activationFunction The number corresponding to the desired activation function, as 
+	 * in NeuralNet; the kernels are initialized by the scheme suited to it
+	 */
+	public ConvLayer(int inputChannels, int inputHeight, int inputWidth, int outputChannels, 
+			int kernelSize, int stride, int padding, int activationFunction) {
+		super(inputChannels * inputHeight * inputWidth, outputChannels * 
+				((inputHeight + 2 * padding - kernelSize) / stride + 1) *
+				((inputWidth + 2 * padding - kernelSize) / stride + 1));
+		if (kernelSize > inputHeight + 2 * padding || kernelSize > inputWidth + 2 * padding) {
+			throw new IllegalArgumentException("The kernel is larger than the input");
+		}
+		this.inputChannels = inputChannels;
+		this.inputHeight = inputHeight;
+		this.inputWidth = inputWidth;
+		this.outputChannels = outputChannels;
+		this.outputHeight = (inputHeight + 2 * padding - kernelSize) / stride + 1;
+		this.outputWidth = (inputWidth + 2 * padding - kernelSize) / stride + 1;
+		this.kernelSize = kernelSize;
+		this.stride = stride;
+		this.padding = padding;
+		this.activationFunction = activationFunction;
+		columnRows = inputChannels * kernelSize * kernelSize + 1;
+		
+		int positions = outputHeight * outputWidth;
+		weights = new double[outputChannels * columnRows];
+		columns = new double[columnRows * positions];
+		columnError = new double[columnRows * positions];
+		weightedSums = new double[outputSize];
+		delta = new double[outputSize];
+		output = new double[outputSize];
+		inputError = new double[inputSize];
+		initialize(weights, outputChannels, columnRows - 1, outputChannels * kernelSize * kernelSize, 
+				WeightInitializer.forActivation(activationFunction));
+		
+		// The last row of the im2col matrix multiplies the bias and never changes
+		for (int p = 0; p < positions; p++) columns[(columnRows - 1) * positions + p] = 1.0;
+	}
+	
+	/**
+	 * Copies every window of the input into a column of 'columns'. Positions in the padding 
+	 * are zero.
+	 */
+	private void im2col(double[] input) {
+		int positions = outputHeight * outputWidth;
+		for (int c = 0; c < inputChannels; c++) {
+			for (int ky = 0; ky < kernelSize; ky++) {
+				for (int kx = 0; kx < kernelSize; kx++) {
+					int row = ((c * kernelSize + ky) * kernelSize + kx) * positions;
+					for (int oy = 0; oy < outputHeight; oy++) {
+						int y = oy * stride + ky - padding;
+						for (int ox = 0; ox < outputWidth; ox++) {
+							int x = ox * stride + kx - padding;
+							columns[row + oy * outputWidth + ox] = y < 0 || y >= inputHeight || 
+									x < 0 || x >= inputWidth ? 0 : input[(c * inputHeight + y) * inputWidth + x];
+						}
+					}
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Adds the error of every column of 'columnError' back onto the input pixel it was copied 
+	 * from; the inverse of im2col().
+	 */
+	private void col2im() {
+		int positions = outputHeight * outputWidth;
+		for (int i = 0; i < inputSize; i++) inputError[i] = 0;
+		for (int c = 0; c < inputChannels; c++) {
+			for (int ky = 0; ky < kernelSize; ky++) {
+				for (int kx = 0; kx < kernelSize; kx++) {
+					int row = ((c * kernelSize + ky) * kernelSize + kx) * positions;
+					for (int oy = 0; oy < outputHeight; oy++) {
+						int y = oy * stride + ky - padding;
+						if (y < 0 || y >= inputHeight) continue;
+						for (int ox = 0; ox < outputWidth; ox++) {
+							int x = ox * stride + kx - padding;
+							if (x < 0 || x >= inputWidth) continue;
+							inputError[(c * inputHeight + y) * inputWidth + x] += 
+									columnError[row + oy * outputWidth + ox];
+						}
+					}
+				}
+			}
+		}
+	}
+	
+	@Override
+	public double[] forward(double[] input) {
+		im2col(input);
+		Gemm.multiply(outputChannels, outputHeight * outputWidth, columnRows, weights, columns, 
+				weightedSums);
+		for (int i = 0; i < outputSize; i++) {
+			output[i] = NeuralNet.activationFunction(weightedSums[i], activationFunction);
+		}
+		return output;
+	}
+	
+	@Override
+	public double[] backward(double[] error, double learningRate) {
+		int positions = outputHeight * outputWidth;
+		for (int i = 0; i < outputSize; i++) {
+			delta[i] = error[i] * NeuralNet.activationDerivative(weightedSums[i], activationFunction);
+		}
+		Gemm.multiplyTransA(columnRows, positions, outputChannels, weights, delta, columnError);
+		col2im();
+		Gemm.multiplyAddTransB(outputChannels, columnRows, positions, learningRate, delta, columns, 
+				weights);
+		return inputError;
+	}
+	
+	@Override
+	public double[] getWeights() {
+		return weights;
+	}
+	
+	@Override
+	public int getWeightRows() {
+		return outputChannels;
+	}
+	
+	/**
+	 * @return The number of channels in the input image
+	 */
+	public int getInputChannels() {
+		return inputChannels;
+	}
+	
+	/**
+	 * @return The height of the input image
+	 */
+	public int getInputHeight() {
+		return inputHeight;
+	}
+	
+	/**
+	 * @return The width of the input image
+	 */
+	public int getInputWidth() {
+		return inputWidth;
+	}
+	
+	/**
+	 * @return The width and height of each kernel
+	 */
+	public int getKernelSize() {
+		return kernelSize;
+	}
+	
+	/**
+	 * @return The distance between successive positions of a kernel
+	 */
+	public int getStride() {
+		return stride;
+	}
+	
+	/**
+	 * @return The number of zero pixels added to each side of the input
+	 */
+	public int getPadding() {
+		return padding;
+	}
+	
+	/**
+	 * @return The number of output channels
+	 */
+	public int getOutputChannels() {
+		return outputChannels;
+	}
+	
+	/**
+	 * @return The height of each output channel
+	 */
+	public int getOutputHeight() {
+		return outputHeight;
+	}
+	
+	/**
+	 * @return The width of each output channel
+	 */
+	public int getOutputWidth() {
+		return outputWidth;
+	}
+	
+	/**
+	 * @return The number corresponding to the layer's activation function
+	 */
+	public int getActivationFunction() {
+		return activationFunction;
+	}
+	
+	@Override
+	public long getNumMultiplyAdds() {
+		return (long) outputChannels * columnRows * outputHeight * outputWidth;
+	}
+}
@@ -0,0 +1,409 @@
+import java.io.PrintStream;
+import java.util.ArrayList;
+
+/**
+ * Static estimate of what a network will cost on the MCU and the FPGA, worked out from its 
+ * layers and the export settings without flashing or synthesizing anything. For every layer it 
+ * gives the multiply-adds, the parameters, the memory they take in the chosen MCU export, the 
+ * activations live while the layer runs and the cycles on each device; the totals say whether 
+ * the network fits the board.
+ * 
+ * The MCU figures model 'main.c' on the TM4C123's Cortex-M4F, whose FPU has no double precision, 
+ * so every double operation runs in software. The dense export of NeuralNet assigns every weight 
+ * in create_weights(), so the weights take flash for the code and the heap for the values; the 
+ * sparse export of SparseSnapshot keeps only the nonzero weights, as constant arrays in flash.
+ * The first layer of the MCU's network reads binary pixels and only adds the weights of the lit 
+ * ones. 'main.c' runs convolution and pooling layers before the dense ones; a convolution skips 
+ * its zero inputs, which for the first layer are the unlit pixels.
+ * 
+ * The FPGA figures model the datapath of VerilogGenerator: 'lanes' multiply-accumulate units of 
+ * one DSP slice each, a weight ROM in block RAM and an activation LUT per hidden layer. The 
+ * datapath only runs dense layers, so a network with other layers cannot be deployed to the 
+ * FPGA and its other layers get no FPGA figures; see deploysToFpga(). Block RAMs are counted 
+ * as 18 Kb blocks and logic as LUT6s; both are rough, for comparing networks rather than for 
+ * predicting a synthesis report.
+ */
+public class CostModel {
+	// The TM4C123GH6PM on the board, running at the clock of main.h: 2500 ticks with a 
+	// prescaler of 100 for 5 ms
+	public static final int MCU_FLASH_BYTES = 256 * 1024;
+	public static final int MCU_RAM_BYTES = 32 * 1024;
+	public static final double MCU_CLOCK_HZ = 2500 * 100 / 5e-3;
+	
+	// RAM 'main.c' takes whatever the network: the pixel map of the 240x320 screen
+	private static final int MCU_BASE_RAM_BYTES = 320 / 32 * 240 * 4;
+	
+	// Flash of one assignment in create_weights(), the literal double and the code storing it, 
+	// and the header malloc() puts before each block
+	private static final int FLASH_BYTES_PER_ASSIGNMENT = 16;
+	private static final int MALLOC_OVERHEAD = 8;
+	
+	// Rough cycle counts for the software double routines and loop overhead on the Cortex-M4F
+	static final int CYCLES_DADD = 60;
+	static final int CYCLES_DMUL = 70;
+	static final int CYCLES_DDIV = 300;
+	static final int CYCLES_EXP = 1800;
+	static final int CYCLES_LOOP = 4;
+	
+	// Fraction of the pixels lit in 'semeion.data'
+	public static final double INPUT_DENSITY = 0.33;
+	
+	// Shapes an 18 Kb block RAM can take, as depth and width
+	private static final int[][] BRAM_SHAPES = {{16384, 1}, {8192, 2}, {4096, 4}, {2048, 9}, 
+			{1024, 18}, {512, 36}};
+	
+	// Logic of the datapath besides the lanes and the activation multiplexers
+	private static final int CONTROL_LUTS = 100;
+	
+	private final LayerStack network;
+	private final ArrayList<Layer> layers;
+	private boolean sparse = false;
+	private double sparsity = -1;
+	private double inputDensity = INPUT_DENSITY;
+	private FixedPointFormat fpgaFormat = FixedPointFormat.FPGA;
+	private int lanes = 1;
+	
+	/**
+	 * Maintains a tuple of the costs of one layer. Like Prediction, its fields are public and 
+	 * final.
+	 */
+	public static class LayerCost {
+		public final String type;
+		public final int inputs;
+		public final int outputs;
+		public final long multiplyAdds;
+		public final int parameters;	// Weights and biases
+		public final int nonzeros;	// Nonzero weights and all biases
+		public final long flashBytes;
+		public final long heapBytes;
+		public final long activationBytes;	// Inputs and outputs, while the layer runs on the MCU
+		public final long mcuCycles;
+		public final long fpgaCycles;
+		public final long romBits;
+		
+		LayerCost(String type, int inputs, int outputs, long multiplyAdds, int parameters, 
+				int nonzeros, long flashBytes, long heapBytes, long activationBytes, long mcuCycles,
+				long fpgaCycles, long romBits) {
+			this.type = type;
+			this.inputs = inputs;
+			this.outputs = outputs;
+			this.multiplyAdds = multiplyAdds;
+			this.parameters = parameters;
+			this.nonzeros = nonzeros;
+			this.flashBytes = flashBytes;
+			this.heapBytes = heapBytes;
+			this.activationBytes = activationBytes;
+			this.mcuCycles = mcuCycles;
+			this.fpgaCycles = fpgaCycles;
+			this.romBits = romBits;
+		}
+	}
+	
+	/**
+	 * @param network The network, trained or not; only the sparse export depends on the weights
+	 */
+	public CostModel(LayerStack network) {
+		this.network = network;
+		layers = network.getLayers();
+	}
+	
+	/**
+	 * @param sparse Whether the MCU gets the sparse export of SparseSnapshot rather than the dense 
+	 * one of NeuralNet; dense unless set otherwise
+	 */
+	public void setSparse(boolean sparse) {
+		this.sparse = sparse;
+	}
+	
+	/**
+	 * @param sparsity The fraction of each layer's weights, excluding biases, assumed pruned, as 
+	 * by "java Main spec sparsity"; or a negative number, the default, to count the weights that 
+	 * are actually zero
+	 */
+	public void setSparsity(double sparsity) {
+		this.sparsity = sparsity;
+	}
+	
+	/**
+	 * @param inputDensity The fraction of the input pixels lit, on average; INPUT_DENSITY unless 
+	 * set otherwise
+	 */
+	public void setInputDensity(double inputDensity) {
+		this.inputDensity = inputDensity;
+	}
+	
+	/**
+	 * @param format The fixed-point format of the FPGA's weights; FixedPointFormat.FPGA unless set 
+	 * otherwise
+	 */
+	public void setFpgaFormat(FixedPointFormat format) {
+		fpgaFormat = format;
+	}
+	
+	/**
+	 * @param lanes The number of multiply-accumulate lanes of the FPGA datapath; 1 unless set 
+	 * otherwise
+	 */
+	public void setLanes(int lanes) {
+		if (lanes < 1) throw new IllegalArgumentException("Expected at least 1 lane, not " + lanes);
+		this.lanes = lanes;
+	}
+	
+	/**
+	 * @return The costs of every layer, in order
+	 */
+	public ArrayList<LayerCost> getLayerCosts() {
+		ArrayList<LayerCost> costs = new ArrayList<LayerCost>();
+		for (int i = 0; i < layers.size(); i++) costs.add(cost(layers.get(i), 0 == i));
+		return costs;
+	}
+	
+	/**
+	 * @param function The number corresponding to an activation function
+	 * @return The cycles the MCU takes to add a unit's bias and apply the function
+	 */
+	static long activationCycles(int function) {
+		return CYCLES_DADD + (function == NeuralNet.ReLU ? CYCLES_DADD : 
+				CYCLES_EXP + CYCLES_DADD + CYCLES_DDIV);
+	}
+	
+	private LayerCost cost(Layer layer, boolean first) {
+		int inputs = layer.getInputSize(), outputs = layer.getOutputSize();
+		double[] weights = layer.getWeights();
+		int rows = layer.getWeightRows();
+		int parameters = null == weights ? 0 : weights.length;
+		int nonzeros = countNonzeros(weights, rows);
+		long multiplyAdds = layer.getNumMultiplyAdds();
+		
+		// The first layer reads binary pixels, one byte each; the rest read doubles
+		long activationBytes = (first ? inputs : 8L * inputs) + 8L * outputs;
+		
+		long flashBytes = 0, heapBytes = 0;
+		if (null != weights) {
+			if (sparse) flashBytes = 10L * (nonzeros - rows) + 2L * (rows + 1) + 8L * rows;
+			else {
+				flashBytes = (long) FLASH_BYTES_PER_ASSIGNMENT * parameters;
+				heapBytes = 8L * parameters + (long) MALLOC_OVERHEAD * rows + 4L * rows + MALLOC_OVERHEAD;
+			}
+		}
+		
+		long mcuCycles, fpgaCycles, romBits = 0;
+		if (layer instanceof DenseLayer) {
+			int function = ((DenseLayer) layer).getActivationFunction();
+			long visited = sparse ? nonzeros - rows : (long) rows * inputs;
+			long perWeight = sparse ? 2 * CYCLES_LOOP : CYCLES_LOOP;
+			if (first) mcuCycles = visited * perWeight + Math.round(visited * inputDensity * CYCLES_DADD);
+			else mcuCycles = visited * (perWeight + CYCLES_DMUL + CYCLES_DADD);
+			mcuCycles += rows * activationCycles(function);
+			
+			int groups = (rows + lanes - 1) / lanes;
+			fpgaCycles = (long) groups * (inputs + 1) + VerilogGenerator.PIPELINE_DEPTH;
+			romBits = (long) groups * (inputs + 1) * lanes * fpgaFormat.getBits();
+		}
+		else {
+			if (layer instanceof ConvLayer) {
+				int function = ((ConvLayer) layer).getActivationFunction();
+				if (first) {
+					mcuCycles = multiplyAdds * CYCLES_LOOP + 
+							Math.round(multiplyAdds * inputDensity * (CYCLES_DMUL + CYCLES_DADD));
+				}
+				else mcuCycles = multiplyAdds * (CYCLES_LOOP + CYCLES_DMUL + CYCLES_DADD);
+				mcuCycles += outputs * activationCycles(function);
+			}
+			else if (layer instanceof PoolLayer) mcuCycles = (long) inputs * (CYCLES_LOOP + CYCLES_DADD);
+			else mcuCycles = 0;
+			fpgaCycles = 0;
+		}
+		return new LayerCost(layer.getClass().getSimpleName(), inputs, outputs, multiplyAdds, 
+				parameters, nonzeros, flashBytes, heapBytes, activationBytes, mcuCycles, fpgaCycles,
+				romBits);
+	}
+	
+	/**
+	 * @return The nonzero weights and all the biases of a layer, at the assumed sparsity if one 
+	 * is set
+	 */
+	private int countNonzeros(double[] weights, int rows) {
+		if (null == weights) return 0;
+		int columns = weights.length / rows;
+		if (sparsity >= 0) return rows + (int) Math.round((1 - sparsity) * rows * (columns - 1));
+		int nonzeros = rows;
+		for (int j = 0; j < rows; j++) {
+			for (int k = 0; k < columns - 1; k++) if (0.0 != weights[j * columns + k]) nonzeros++;
+		}
+		return nonzeros;
+	}
+	
+	/**
+	 * @return The multiply-adds of one forward pass
+	 */
+	public long getMultiplyAdds() {
+		long total = 0;
+		for (LayerCost cost : getLayerCosts()) total += cost.multiplyAdds;
+		return total;
+	}
+	
+	/**
+	 * @return The weights and biases
+	 */
+	public long getParameters() {
+		long total = 0;
+		for (LayerCost cost : getLayerCosts()) total += cost.parameters;
+		return total;
+	}
+	
+	/**
+	 * @return The flash the network's weights take on the MCU, excluding the rest of the program
+	 */
+	public long getFlashBytes() {
+		long total = 0;
+		for (LayerCost cost : getLayerCosts()) total += cost.flashBytes;
+		return total;
+	}
+	
+	/**
+	 * @return The most activation memory any layer needs at once on the MCU
+	 */
+	public long getPeakActivationBytes() {
+		long peak = 0;
+		for (LayerCost cost : getLayerCosts()) peak = Math.max(peak, cost.activationBytes);
+		return peak;
+	}
+	
+	/**
+	 * @return The RAM the MCU needs: that of 'main.c' itself, the weights on the heap and the 
+	 * activations
+	 */
+	public long getRamBytes() {
+		long total = MCU_BASE_RAM_BYTES + getPeakActivationBytes();
+		for (LayerCost cost : getLayerCosts()) total += cost.heapBytes;
+		return total;
+	}
+	
+	/**
+	 * @return Whether 'main.c' can run the network in the chosen export: the dense export runs 
+	 * convolution and pooling layers followed by dense layers, the sparse export dense layers only
+	 */
+	public boolean deploysToMcu() {
+		return sparse ? network.runsOnFpga() : network.runsOnMcu();
+	}
+	
+	/**
+	 * @return Whether the FPGA datapath of VerilogGenerator can run the network
+	 */
+	public boolean deploysToFpga() {
+		return network.runsOnFpga();
+	}
+	
+	/**
+	 * @return Whether the network fits the MCU's flash and RAM
+	 */
+	public boolean fitsMcu() {
+		return getFlashBytes() <= MCU_FLASH_BYTES && getRamBytes() <= MCU_RAM_BYTES;
+	}
+	
+	/**
+	 * @return The cycles of one classification on the MCU
+	 */
+	public long getMcuCycles() {
+		long total = 0;
+		for (LayerCost cost : getLayerCosts()) total += cost.mcuCycles;
+		return total;
+	}
+	
+	/**
+	 * @return The time of one classification on the MCU, in milliseconds
+	 */
+	public double getMcuMilliseconds() {
+		return getMcuCycles() / MCU_CLOCK_HZ * 1e3;
+	}
+	
+	/**
+	 * @return The cycles of one classification on the FPGA, as getCyclesPerInstance() of 
+	 * VerilogGenerator
+	 */
+	public long getFpgaCycles() {
+		long total = 1;
+		for (LayerCost cost : getLayerCosts()) total += cost.fpgaCycles;
+		return total;
+	}
+	
+	/**
+	 * @return The 18 Kb block RAMs of the weight ROM and the activation LUTs; each LUT block 
+	 * serves two lanes through its two ports
+	 */
+	public int getFpgaBlockRams() {
+		long depth = 0;
+		int hiddenLayers = 0;
+		for (LayerCost cost : getLayerCosts()) {
+			if (cost.romBits > 0) {
+				depth += cost.romBits / ((long) lanes * fpgaFormat.getBits());
+				hiddenLayers++;
+			}
+		}
+		hiddenLayers = Math.max(0, hiddenLayers - 1);
+		long width = (long) lanes * fpgaFormat.getBits();
+		long romBlocks = Long.MAX_VALUE;
+		for (int[] shape : BRAM_SHAPES) {
+			romBlocks = Math.min(romBlocks, ((depth + shape[0] - 1) / shape[0]) * ((width + shape[1] - 1) / shape[1]));
+		}
+		int lutBlocks = hiddenLayers * ((lanes + 1) / 2);
+		return (int) romBlocks + lutBlocks;
+	}
+	
+	/**
+	 * @return The DSP slices of the FPGA datapath, one multiplier per lane
+	 */
+	public int getFpgaDsps() {
+		return lanes;
+	}
+	
+	/**
+	 * @return The LUT6s of the FPGA datapath: an adder and a comparator of the accumulator's 
+	 * width per lane, the multiplexers selecting the activation that is broadcast, and control
+	 */
+	public int getFpgaLuts() {
+		int maxInputs = 0, maxHidden = 0;
+		ArrayList<LayerCost> costs = getLayerCosts();
+		for (int i = 0; i < costs.size(); i++) {
+			maxInputs = Math.max(maxInputs, costs.get(i).inputs);
+			if (i > 0) maxHidden = Math.max(maxHidden, costs.get(i).inputs);
+		}
+		int accumulatorBits = VerilogGenerator.accumulatorBits(maxInputs, fpgaFormat.getBits());
+		int multiplexers = (costs.get(0).inputs + 3) / 4 + 
+				VerilogGenerator.ACT_BITS * ((2 * maxHidden + 3) / 4);
+		return CONTROL_LUTS + lanes * 2 * accumulatorBits + multiplexers;
+	}
+	
+	/**
+	 * Prints the costs of every layer and the totals.
+	 * 
+	 * @param out The stream to print to
+	 */
+	public void printReport(PrintStream out) {
+		out.printf("%-12s %9s %9s %8s %8s %9s %9s %9s %11s %9s %9s\n", "layer", "in-out", "MACs", 
+				"params", "nonzero", "flash B", "heap B", "act B", "MCU cycles", "FPGA cyc", "ROM bits");
+		for (LayerCost cost : getLayerCosts()) {
+			out.printf("%-12s %9s %9d %8d %8d %9d %9d %9d %11d %9d %9d\n", cost.type, 
+					cost.inputs + "-" + cost.outputs, cost.multiplyAdds, cost.parameters, cost.nonzeros,
+					cost.flashBytes, cost.heapBytes, cost.activationBytes, cost.mcuCycles,
+					cost.fpgaCycles, cost.romBits);
+		}
+		if (!deploysToMcu()) {
+			out.printf("MCU (%s export): not deployable, the export does not run these layers\n", 
+					sparse ? "sparse" : "dense");
+		}
+		else {
+			out.printf("MCU (%s export): %d of %d bytes of flash for the weights, %d of %d bytes of RAM, " + 
+					"%s; %d cycles, %.2f ms per classification\n", sparse ? "sparse" : "dense",
+					getFlashBytes(), MCU_FLASH_BYTES, getRamBytes(), MCU_RAM_BYTES,
+					fitsMcu() ? "fits" : "does not fit", getMcuCycles(), getMcuMilliseconds());
+		}
+		if (!deploysToFpga()) out.println("FPGA: not deployable, the datapath only runs dense layers");
+		else {
+			out.printf("FPGA (%d lanes, %s weights): %d cycles per classification, %d DSPs, " + 
+					"%d 18 Kb block RAMs, about %d LUTs\n", lanes, fpgaFormat, getFpgaCycles(),
+					getFpgaDsps(), getFpgaBlockRams(), getFpgaLuts());
+		}
+	}
+}
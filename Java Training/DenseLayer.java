@@ -0,0 +1,295 @@
+import java.util.Arrays;
+
+/**
+ * Fully connected layer: every output is the activation function applied to a weighted sum of 
+ * all the inputs plus a bias, as in the layers of NeuralNet.
+ */
+public class DenseLayer extends Layer {
+	private final int activationFunction;
+	private final double[] weights;	// weights[j * (inputSize + 1) + k], the bias last in each row
+	private final double[] weightedSums;
+	private final double[] output;
+	private final double[] inputError;
+	private double[] input;
+	
+	// mask[i] is 0.0 for each weight removed by prune() and 1.0 for every other weight; null 
+	// until the layer is pruned
+	private double[] mask;
+	
+	// With quantization-aware training, 'weights' holds the quantized weights the forward pass 
+	// uses and 'shadowWeights' the full-precision weights the updates accumulate in; both are null 
+	// otherwise
+	private FixedPointFormat quantization;
+	private double[] shadowWeights;
+	
+	/**
+	 * @param inputSize The number of inputs
+	 * @param outputSize The number of units
+	 * @param activationFunction The number corresponding to the desired activation function, as 
+	 * in NeuralNet; the weights are initialized by the scheme suited to it
+	 */
+	public DenseLayer(int inputSize, int outputSize, int activationFunction) {
+		this(inputSize, outputSize, activationFunction, 
+				WeightInitializer.forActivation(activationFunction));
+	}
+	
+	/**
+	 * @param inputSize The number of inputs
+	 * @param outputSize The number of units
+	 * @param activationFunction The number corresponding to the desired activation function, as 
+	 * in NeuralNet
+	 * @param initializer The scheme to initialize the weights by
+	 */
+	public DenseLayer(int inputSize, int outputSize, int activationFunction, 
+			WeightInitializer initializer) {
+		super(inputSize, outputSize);
+		this.activationFunction = activationFunction;
+		weights = new double[outputSize * (inputSize + 1)];
+		weightedSums = new double[outputSize];
+		output = new double[outputSize];
+		inputError = new double[inputSize];
+		initialize(weights, outputSize, inputSize, outputSize, initializer);
+	}
+	
+	/**
+	 * Constructs a replica of a layer for another training thread: it shares the layer's 
+	 * weights, and its pruning mask if it has one, but has its own buffers for the values of the 
+	 * instance propagated through it, so threads training the replicas update the same weights 
+	 * without locks, as HogwildTrainer does.
+	 * 
+	 * @param shared The layer whose weights to share; it must not be quantized
+	 */
+	public DenseLayer(DenseLayer shared) {
+		super(shared.inputSize, shared.outputSize);
+		if (null != shared.quantization) {
+			throw new IllegalArgumentException("Quantized layers cannot be shared");
+		}
+		activationFunction = shared.activationFunction;
+		weights = shared.weights;
+		mask = shared.mask;
+		weightedSums = new double[outputSize];
+		output = new double[outputSize];
+		inputError = new double[inputSize];
+	}
+	
+	@Override
+	public double[] forward(double[] input) {
+		this.input = input;
+		int stride = inputSize + 1;
+		for (int j = 0; j < outputSize; j++) {
+			int offset = j * stride;
+			double weightedSum = weights[offset + inputSize];	// Bias node
+			for (int k = 0; k < inputSize; k++) weightedSum += input[k] * weights[offset + k];
+			weightedSums[j] = weightedSum;
+			output[j] = NeuralNet.activationFunction(weightedSum, activationFunction);
+		}
+		return output;
+	}
+	
+	@Override
+	public double[] backward(double[] error, double learningRate) {
+		return backward(error, true, learningRate);
+	}
+	
+	/**
+	 * Like backward(), but takes the error at the weighted sums rather than at the outputs, so 
+	 * the activation function's derivative is not applied, e.g., for a loss defined on the 
+	 * weighted sums themselves.
+	 * 
+	 * @param error The error at each unit's weighted sum
+	 * @param learningRate The learning rate for updating weights
+	 * @return The error at each input, in a buffer owned by the layer
+	 */
+	public double[] backwardFromWeightedSums(double[] error, double learningRate) {
+		return backward(error, false, learningRate);
+	}
+	
+	private double[] backward(double[] error, boolean atOutputs, double learningRate) {
+		// One pass over the weights both accumulates the input errors and applies the update; 
+		// each weight is read for the error before it is changed
+		for (int k = 0; k < inputSize; k++) inputError[k] = 0;
+		int stride = inputSize + 1;
+		for (int j = 0; j < outputSize; j++) {
+			double delta = !atOutputs ? error[j] : 
+					error[j] * NeuralNet.activationDerivative(weightedSums[j], activationFunction);
+			if (0 == delta) continue;
+			int offset = j * stride;
+			double step = learningRate * delta;
+			if (null != quantization) {
+				// Straight-through: the gradient with respect to the quantized weights updates the 
+				// shadow weights, which are quantized again for the next forward pass
+				for (int k = 0; k < inputSize; k++) {
+					inputError[k] += weights[offset + k] * delta;
+					double shadow = shadowWeights[offset + k] + 
+							step * input[k] * (null == mask ? 1.0 : mask[offset + k]);
+					shadowWeights[offset + k] = clip(shadow);
+					weights[offset + k] = quantization.quantize(shadow);
+				}
+				double bias = clip(shadowWeights[offset + inputSize] + step);
+				shadowWeights[offset + inputSize] = bias;
+				weights[offset + inputSize] = quantization.quantize(bias);
+			}
+			else if (null == mask) {
+				// Weights of zero inputs, most of the pixels of 'semeion.data', are left alone rather 
+				// than rewritten unchanged, which would also undo the updates of other threads
+				for (int k = 0; k < inputSize; k++) {
+					inputError[k] += weights[offset + k] * delta;
+					if (0 != input[k]) weights[offset + k] += step * input[k];
+				}
+			}
+			else {
+				// Pruned weights stay at zero; as above, zero inputs leave their weights alone
+				for (int k = 0; k < inputSize; k++) {
+					inputError[k] += weights[offset + k] * delta;
+					if (0 != input[k]) weights[offset + k] += step * input[k] * mask[offset + k];
+				}
+			}
+			if (null == quantization) weights[offset + inputSize] += step;
+		}
+		return inputError;
+	}
+	
+	/**
+	 * @return The shadow weight clipped to the range of a saturating format, so it never drifts 
+	 * where updates no longer change the quantized weight
+	 */
+	private double clip(double shadow) {
+		if (!quantization.isSaturating()) return shadow;
+		return Math.max(quantization.getMinValue(), Math.min(quantization.getMaxValue(), shadow));
+	}
+	
+	/**
+	 * Starts or stops quantization-aware training. While a format is set, the layer keeps 
+	 * full-precision shadow weights, and its weights, biases included, are the shadow weights 
+	 * quantized to the format, as the hardware would store them. The forward pass and 
+	 * getWeights() see the quantized weights, while the updates of backward() go to the shadow 
+	 * weights as if quantization were the identity: the straight-through estimator. Shadow weights 
+	 * are clipped to the range of a saturating format.
+	 * 
+	 * @param format The format to simulate, or null to go back to the full-precision weights
+	 */
+	public void setQuantization(FixedPointFormat format) {
+		if (null == format) {
+			if (null != shadowWeights) System.arraycopy(shadowWeights, 0, weights, 0, weights.length);
+			shadowWeights = null;
+			quantization = null;
+			return;
+		}
+		if (null == shadowWeights) shadowWeights = weights.clone();
+		quantization = format;
+		for (int i = 0; i < weights.length; i++) {
+			shadowWeights[i] = clip(shadowWeights[i]);
+			weights[i] = format.quantize(shadowWeights[i]);
+		}
+	}
+	
+	/**
+	 * @return The format simulated for quantization-aware training, or null if there is none
+	 */
+	public FixedPointFormat getQuantization() {
+		return quantization;
+	}
+	
+	/**
+	 * Replaces the weights, e.g., with those of a checkpoint. With quantization-aware training 
+	 * they become the shadow weights.
+	 * 
+	 * @param newWeights The weights, laid out as in getWeights()
+	 */
+	public void setWeights(double[] newWeights) {
+		if (newWeights.length != weights.length) {
+			throw new IllegalArgumentException("Expected " + weights.length + " weights, not " + 
+					newWeights.length);
+		}
+		System.arraycopy(newWeights, 0, weights, 0, weights.length);
+		if (null != quantization) {
+			shadowWeights = null;
+			setQuantization(quantization);
+		}
+	}
+	
+	/**
+	 * Removes the weights of smallest magnitude, setting them to zero for good, until the given 
+	 * fraction of the layer's weights is removed. Weights removed earlier stay removed, and bias 
+	 * weights are never removed.
+	 * 
+	 * @param sparsity The fraction of weights to remove, from 0 to 1
+	 */
+	public void prune(double sparsity) {
+		int stride = inputSize + 1;
+		if (null == mask) {
+			mask = new double[weights.length];
+			Arrays.fill(mask, 1.0);
+		}
+		
+		// Collect the magnitudes of the weights still in place and find the cut-off; with 
+		// quantization-aware training, of the full-precision weights
+		double[] values = null == shadowWeights ? weights : shadowWeights;
+		int numWeights = outputSize * inputSize, numPruned = 0;
+		double[] magnitudes = new double[numWeights];
+		int n = 0;
+		for (int j = 0; j < outputSize; j++) {
+			for (int k = 0; k < inputSize; k++) {
+				if (0.0 == mask[j * stride + k]) numPruned++;
+				else magnitudes[n++] = Math.abs(values[j * stride + k]);
+			}
+		}
+		int toPrune = (int) Math.round(sparsity * numWeights) - numPruned;
+		if (toPrune <= 0) return;
+		Arrays.sort(magnitudes, 0, n);
+		double cutoff = magnitudes[Math.min(toPrune, n) - 1];
+		
+		for (int j = 0; j < outputSize && toPrune > 0; j++) {
+			for (int k = 0; k < inputSize && toPrune > 0; k++) {
+				int i = j * stride + k;
+				if (0.0 != mask[i] && Math.abs(values[i]) <= cutoff) {
+					mask[i] = 0.0;
+					weights[i] = 0.0;
+					if (null != shadowWeights) shadowWeights[i] = 0.0;
+					toPrune--;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * @return The fraction of weights, excluding biases, that are zero
+	 */
+	public double getSparsity() {
+		int stride = inputSize + 1, numZero = 0;
+		for (int j = 0; j < outputSize; j++) {
+			for (int k = 0; k < inputSize; k++) if (0.0 == weights[j * stride + k]) numZero++;
+		}
+		return (double) numZero / (outputSize * inputSize);
+	}
+	
+	@Override
+	public double[] getWeights() {
+		return weights;
+	}
+	
+	@Override
+	public int getWeightRows() {
+		return outputSize;
+	}
+	
+	/**
+	 * @return The weighted sum at each unit for the instance last propagated forward, in a buffer 
+	 * owned by the layer
+	 */
+	public double[] getWeightedSums() {
+		return weightedSums;
+	}
+	
+	/**
+	 * @return The number corresponding to the layer's activation function
+	 */
+	public int getActivationFunction() {
+		return activationFunction;
+	}
+	
+	@Override
+	public long getNumMultiplyAdds() {
+		return (long) outputSize * (inputSize + 1);
+	}
+}
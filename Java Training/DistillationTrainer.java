@@ -0,0 +1,90 @@
+/**
+ * Trains a small student network to mimic a large teacher network (knowledge distillation), so 
+ * that a network small enough for the MCU gets close to the accuracy of one that is not. The 
+ * output weighted sums (logits) of both networks are divided by a temperature and passed 
+ * through a softmax; the higher the temperature, the more the teacher's soft targets say about 
+ * which wrong classes it finds plausible, e.g., that a 7 looks more like a 1 than like a 0.
+ * 
+ * Each step combines two errors at the student's output weighted sums: the cross-entropy between 
+ * the softened distributions, whose gradient T * (teacher - student) is scaled by T^2 so that its 
+ * size does not depend on the temperature, and the squared error against the one-hot label that 
+ * NeuralNet always trains on. With a soft target weight of 0, training is exactly NeuralNet's.
+ * The student's classification is still the argmax of its outputs, as on the MCU.
+ */
+public class DistillationTrainer {
+	private final WeightSnapshot softenedTeacher;
+	private final LogitCache logits;
+	private final double temperature;
+	private final double softTargetWeight;
+	
+	/**
+	 * @param teacher The trained teacher network
+	 * @param logits The teacher's logits for the training inputs, from LogitCache.open()
+	 * @param temperature The temperature both networks' logits are softened with
+	 * @param softTargetWeight The weight of the soft targets against the labels, from 0 (labels 
+	 * only) to 1 (soft targets only)
+	 */
+	public DistillationTrainer(WeightSnapshot teacher, LogitCache logits, double temperature, 
+			double softTargetWeight) {
+		if (temperature <= 0) throw new IllegalArgumentException("The temperature must be positive");
+		if (softTargetWeight < 0 || softTargetWeight > 1) {
+			throw new IllegalArgumentException("The soft target weight must be from 0 to 1");
+		}
+		this.softenedTeacher = teacher.withTemperature(temperature);
+		this.logits = logits;
+		this.temperature = temperature;
+		this.softTargetWeight = softTargetWeight;
+	}
+	
+	/**
+	 * Computes the teacher's softened probabilities for a training instance.
+	 * 
+	 * @param instance The index of the instance among the inputs the logits were computed for
+	 * @param softTargets Receives the probability of each class
+	 */
+	public void getSoftTargets(int instance, double[] softTargets) {
+		logits.getLogits(instance, softTargets);
+		softenedTeacher.softmax(softTargets, softTargets);
+	}
+	
+	/**
+	 * Trains a student using backpropagation. The instances are visited in the given order in 
+	 * every epoch.
+	 * 
+	 * @param student The student network; its output layer must be a DenseLayer with as many 
+	 * units as the teacher's
+	 * @param inputs The inputs for each training instance, in the order the logits were computed
+	 * @param desiredOutputs The desired output label for each training instance
+	 * @param order The indices of the instances, in the order to train on them
+	 * @param numEpochs The number of epochs, i.e., passes through the training set
+	 * @param learningRate The learning rate for updating weights
+	 */
+	public void train(LayerStack student, double[][] inputs, int[] desiredOutputs, int[] order, 
+			int numEpochs, double learningRate) {
+		if (inputs.length != logits.getNumInstances()) {
+			throw new IllegalArgumentException("The logits are for " + logits.getNumInstances() + 
+					" instances, not " + inputs.length);
+		}
+		int numOutputs = softenedTeacher.getNumOutputs();
+		double[] softTargets = new double[numOutputs];
+		double[] studentProbabilities = new double[numOutputs];
+		double[] error = new double[numOutputs];
+		int outputFunction = ((DenseLayer) student.getLayers().get(student.getLayers().size() - 1))
+				.getActivationFunction();
+		for (int i = 0; i < numEpochs; i++) {
+			for (int j : order) {
+				double[] output = student.propagateFwd(inputs[j]);
+				double[] outputSums = student.getOutputWeightedSums();
+				getSoftTargets(j, softTargets);
+				softenedTeacher.softmax(outputSums, studentProbabilities);
+				for (int k = 0; k < numOutputs; k++) {
+					double hardError = ((desiredOutputs[j] == k ? 1.0 : 0.0) - output[k]) * 
+							NeuralNet.activationDerivative(outputSums[k], outputFunction);
+					double softError = temperature * (softTargets[k] - studentProbabilities[k]);
+					error[k] = softTargetWeight * softError + (1 - softTargetWeight) * hardError;
+				}
+				student.backPropagateFromWeightedSums(error, learningRate);
+			}
+		}
+	}
+}
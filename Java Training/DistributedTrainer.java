@@ -0,0 +1,114 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.SplittableRandom;
+
+/**
+ * Trains one replica of a network in data-parallel training across processes: each worker 
+ * trains its own replica on its own shard of the instances, and after every mini-batch the 
+ * workers sum their replicas' weight changes over a RingAllReduce and all apply the sum, so the 
+ * replicas stay identical. The layers update their weights as they back-propagate, so the change 
+ * a worker contributes is the one backpropagation made over its part of the batch, i.e., the 
+ * learning rate times the sum of its gradients, to first order. Summing rather than averaging 
+ * the changes makes an epoch of N workers take as large a step per instance as an epoch of 
+ * NeuralNet.train() in one process.
+ * 
+ * The replicas are ordinary LayerStacks, e.g., NeuralNets, so the trained network is written 
+ * and exported as any other. Pruned and quantized layers are not supported: the summed changes 
+ * would undo the masks and miss the shadow weights.
+ */
+public class DistributedTrainer {
+	private final LayerStack network;
+	private final RingAllReduce ring;
+	private final ArrayList<double[]> weights = new ArrayList<double[]>();
+	private final double[] before;
+	private final double[] changes;
+	
+	/**
+	 * @param network This worker's replica
+	 * @param ring The ring of workers, summing vectors of getNumParameters(network) values
+	 */
+	public DistributedTrainer(LayerStack network, RingAllReduce ring) {
+		this.network = network;
+		this.ring = ring;
+		for (Layer layer : network.getLayers()) {
+			if (null != layer.getWeights()) weights.add(layer.getWeights());
+		}
+		before = new double[getNumParameters(network)];
+		changes = new double[before.length];
+	}
+	
+	/**
+	 * @param network A network
+	 * @return The number of values every worker's ring must sum to train the network, i.e., its 
+	 * number of weights, biases included
+	 */
+	public static int getNumParameters(LayerStack network) {
+		return network.getNumWeights();
+	}
+	
+	/**
+	 * Replaces every worker's weights with those of worker 0, so the replicas start out 
+	 * identical however they were initialized. Every worker must call it.
+	 * 
+	 * @throws IOException If the ring fails
+	 */
+	public void broadcastWeights() throws IOException {
+		copyWeights(changes);
+		if (0 != ring.getRank()) {
+			for (int i = 0; i < changes.length; i++) changes[i] = 0;
+		}
+		ring.allReduce(changes);
+		setWeights(changes);
+	}
+	
+	/**
+	 * Trains the replica on this worker's shard. Every worker must make the same call with the 
+	 * same number of batches, even if its shard is smaller; a worker that runs out of instances 
+	 * in a batch contributes the changes of the instances it has, if any.
+	 * 
+	 * @param inputs The inputs of the shard's instances
+	 * @param desiredOutputs The desired output label of each of the shard's instances
+	 * @param batchesPerEpoch The number of mini-batches in an epoch
+	 * @param batchSize The number of instances each worker trains on in a mini-batch
+	 * @param numEpochs The number of epochs
+	 * @param learningRate The learning rate for updating weights
+	 * @param random The generator shuffling the shard every epoch
+	 * @throws IOException If the ring fails
+	 */
+	public void train(double[][] inputs, int[] desiredOutputs, int batchesPerEpoch, int batchSize, 
+			int numEpochs, double learningRate, SplittableRandom random) throws IOException {
+		int[] order = new int[inputs.length];
+		for (int i = 0; i < order.length; i++) order[i] = i;
+		for (int epoch = 0; epoch < numEpochs; epoch++) {
+			RandomStreams.shuffle(order, random);
+			for (int b = 0; b < batchesPerEpoch; b++) {
+				copyWeights(before);
+				int end = Math.min(order.length, (b + 1) * batchSize);
+				for (int n = b * batchSize; n < end; n++) {
+					network.update(inputs[order[n]], desiredOutputs[order[n]], learningRate);
+				}
+				copyWeights(changes);
+				for (int i = 0; i < changes.length; i++) changes[i] -= before[i];
+				ring.allReduce(changes);
+				for (int i = 0; i < changes.length; i++) changes[i] += before[i];
+				setWeights(changes);
+			}
+		}
+	}
+	
+	private void copyWeights(double[] values) {
+		int offset = 0;
+		for (double[] layerWeights : weights) {
+			System.arraycopy(layerWeights, 0, values, offset, layerWeights.length);
+			offset += layerWeights.length;
+		}
+	}
+	
+	private void setWeights(double[] values) {
+		int offset = 0;
+		for (double[] layerWeights : weights) {
+			System.arraycopy(values, offset, layerWeights, 0, layerWeights.length);
+			offset += layerWeights.length;
+		}
+	}
+}
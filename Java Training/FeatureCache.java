@@ -0,0 +1,140 @@
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+
+/**
+ * The outputs of the first layers of a network, the frozen ones, for a fixed list of inputs, 
+ * computed once so that the layers after them, the head, can be retrained without running the 
+ * frozen layers again; see LayerStack.trainHead(). The features are stored as floats, half the 
+ * size of doubles, either off the heap in a direct buffer or in a memory-mapped file that later 
+ * runs reuse. Like LogitCache, a file is tagged with a fingerprint of the frozen layers' weights 
+ * and of the inputs, and a file whose fingerprint does not match is recomputed rather than read.
+ * 
+ * The buffer is read with absolute gets, so a cache can be shared by any number of threads.
+ */
+public class FeatureCache {
+	// Identifies feature files, see MappedCacheFile; each instance's features follow as floats
+	private static final int FEATURES_MAGIC = 0x4E4E4631;	// "NNF1"
+	
+	private final FloatBuffer features;
+	private final int numInstances;
+	private final int numFeatures;
+	private final int numFrozen;
+	
+	private FeatureCache(FloatBuffer features, int numInstances, int numFeatures, int numFrozen) {
+		this.features = features;
+		this.numInstances = numInstances;
+		this.numFeatures = numFeatures;
+		this.numFrozen = numFrozen;
+	}
+	
+	/**
+	 * Computes the features of the given inputs into a direct buffer, off the heap.
+	 * 
+	 * @param network The network
+	 * @param numFrozen The number of layers to freeze, from the input layer on
+	 * @param inputs The inputs, in the order the features are looked up by
+	 * @return The cache
+	 */
+	public static FeatureCache compute(LayerStack network, int numFrozen, double[][] inputs) {
+		ArrayList<Layer> frozen = frozenLayers(network, numFrozen);
+		int numFeatures = frozen.get(numFrozen - 1).getOutputSize();
+		FloatBuffer features = ByteBuffer.allocateDirect(4 * inputs.length * numFeatures).asFloatBuffer();
+		for (double[] input : inputs) {
+			for (double feature : propagateFwd(frozen, input)) features.put((float) feature);
+		}
+		return new FeatureCache(features, inputs.length, numFeatures, numFrozen);
+	}
+	
+	/**
+	 * Maps the features of the given inputs, computing them and writing the file first if it 
+	 * does not exist or was computed for other frozen layers or other inputs.
+	 * 
+	 * @param fileName The name of the feature file
+	 * @param network The network
+	 * @param numFrozen The number of layers to freeze, from the input layer on
+	 * @param inputs The inputs, in the order the features are looked up by
+	 * @return The cache
+	 * @throws IOException If the file cannot be read or written
+	 */
+	public static FeatureCache open(String fileName, LayerStack network, int numFrozen, 
+			final double[][] inputs) throws IOException {
+		final ArrayList<Layer> frozen = frozenLayers(network, numFrozen);
+		int numFeatures = frozen.get(numFrozen - 1).getOutputSize();
+		FloatBuffer features = new MappedCacheFile(fileName, FEATURES_MAGIC, fingerprint(frozen, inputs), 
+				inputs.length, numFeatures, 4) {
+			@Override
+			protected void writeValues(DataOutputStream out) throws IOException {
+				for (double[] input : inputs) {
+					for (double feature : propagateFwd(frozen, input)) out.writeFloat((float) feature);
+				}
+			}
+		}.open().asFloatBuffer();
+		return new FeatureCache(features, inputs.length, numFeatures, numFrozen);
+	}
+	
+	private static ArrayList<Layer> frozenLayers(LayerStack network, int numFrozen) {
+		ArrayList<Layer> layers = network.getLayers();
+		if (numFrozen < 1 || numFrozen >= layers.size()) {
+			throw new IllegalArgumentException("Expected 1 to " + (layers.size() - 1) + 
+					" frozen layers, not " + numFrozen);
+		}
+		return new ArrayList<Layer>(layers.subList(0, numFrozen));
+	}
+	
+	private static double[] propagateFwd(ArrayList<Layer> frozen, double[] input) {
+		double[] values = input;
+		for (Layer layer : frozen) values = layer.forward(values);
+		return values;
+	}
+	
+	/**
+	 * Hashes the type, shape and every weight of the frozen layers and every input, so that a 
+	 * feature file is only reused for the same layers and the same inputs in the same order.
+	 */
+	private static long fingerprint(ArrayList<Layer> frozen, double[][] inputs) {
+		long hash = 0;
+		for (Layer layer : frozen) {
+			hash = 31 * hash + layer.getClass().getName().hashCode();
+			hash = 31 * (31 * hash + layer.getInputSize()) + layer.getOutputSize();
+			double[] weights = layer.getWeights();
+			if (null == weights) continue;
+			for (double weight : weights) hash = 31 * hash + Double.doubleToLongBits(weight);
+		}
+		return MappedCacheFile.hashInputs(hash, inputs);
+	}
+	
+	/**
+	 * @return The number of instances the cache holds features for
+	 */
+	public int getNumInstances() {
+		return numInstances;
+	}
+	
+	/**
+	 * @return The number of features of each instance, the output size of the last frozen layer
+	 */
+	public int getNumFeatures() {
+		return numFeatures;
+	}
+	
+	/**
+	 * @return The number of layers frozen, from the input layer on
+	 */
+	public int getNumFrozen() {
+		return numFrozen;
+	}
+	
+	/**
+	 * Copies the features of an instance.
+	 * 
+	 * @param instance The index of the instance among the inputs the cache was made with
+	 * @param features Receives the output of the last frozen layer for the instance
+	 */
+	public void getFeatures(int instance, double[] features) {
+		int offset = instance * numFeatures;
+		for (int i = 0; i < numFeatures; i++) features[i] = this.features.get(offset + i);
+	}
+}
@@ -0,0 +1,166 @@
+/**
+ * Fixed-point number format of a hardware target, such as the 12-bit weights in 'weights.dat' 
+ * for the FPGA. A value is stored as an integer code of 'bits' bits standing for code / scale, 
+ * either in two's complement or in sign-magnitude form, where the top bit is the sign and the 
+ * other bits hold the magnitude. Values are rounded to the nearest code; values beyond the 
+ * largest code either saturate to it or wrap around as they would in a register of that width.
+ * 
+ * A spec such as "12:1024:twos:saturate" names a format: the bit width, then optionally the 
+ * scale, "twos" or "sign" and "saturate" or "wrap". The scale defaults to 2^(bits - 2), which 
+ * leaves two bits for the sign and integer part as in the FPGA format; the format defaults to 
+ * two's complement with saturation. Formats are immutable.
+ */
+public final class FixedPointFormat {
+	// The format of the weights the FPGA reads: 12-bit two's complement, 1024 per unit
+	public static final FixedPointFormat FPGA = new FixedPointFormat(12, 1024, false, true);
+	
+	private final int bits;
+	private final double scale;
+	private final boolean signMagnitude;
+	private final boolean saturate;
+	private final long maxCode;	// Largest code as a signed integer
+	private final long minCode;	// Smallest code as a signed integer
+	
+	/**
+	 * @param bits The number of bits of a code, from 2 to 32
+	 * @param scale The code that stands for 1.0
+	 * @param signMagnitude Whether codes are in sign-magnitude rather than two's complement form
+	 * @param saturate Whether values beyond the range saturate rather than wrap around
+	 */
+	public FixedPointFormat(int bits, double scale, boolean signMagnitude, boolean saturate) {
+		if (bits < 2 || bits > 32) throw new IllegalArgumentException("Expected 2 to 32 bits, not " + bits);
+		if (!(scale > 0)) throw new IllegalArgumentException("The scale must be positive");
+		this.bits = bits;
+		this.scale = scale;
+		this.signMagnitude = signMagnitude;
+		this.saturate = saturate;
+		maxCode = (1L << (bits - 1)) - 1;
+		minCode = signMagnitude ? -maxCode : -maxCode - 1;
+	}
+	
+	/**
+	 * @param spec A spec as described above, e.g., "8:64:sign:saturate"
+	 * @return The format
+	 */
+	public static FixedPointFormat parse(String spec) {
+		String[] fields = spec.trim().split(":");
+		try {
+			int bits = Integer.parseInt(fields[0]);
+			double scale = fields.length > 1 ? Double.parseDouble(fields[1]) : Math.pow(2, bits - 2);
+			boolean signMagnitude = false, saturate = true;
+			for (int i = 2; i < fields.length; i++) {
+				String field = fields[i].toLowerCase();
+				if (field.equals("twos")) signMagnitude = false;
+				else if (field.equals("sign")) signMagnitude = true;
+				else if (field.equals("saturate")) saturate = true;
+				else if (field.equals("wrap")) saturate = false;
+				else throw new IllegalArgumentException("Unknown option " + fields[i]);
+			}
+			return new FixedPointFormat(bits, scale, signMagnitude, saturate);
+		}
+		catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Expected the bit width and scale as numbers");
+		}
+	}
+	
+	/**
+	 * @return The spec of the format, as accepted by parse()
+	 */
+	@Override
+	public String toString() {
+		String scaleText = scale == Math.rint(scale) ? Long.toString((long) scale) : Double.toString(scale);
+		return bits + ":" + scaleText + (signMagnitude ? ":sign" : ":twos") + 
+				(saturate ? ":saturate" : ":wrap");
+	}
+	
+	public int getBits() {
+		return bits;
+	}
+	
+	public double getScale() {
+		return scale;
+	}
+	
+	public boolean isSignMagnitude() {
+		return signMagnitude;
+	}
+	
+	public boolean isSaturating() {
+		return saturate;
+	}
+	
+	/**
+	 * @return The largest value the format holds
+	 */
+	public double getMaxValue() {
+		return maxCode / scale;
+	}
+	
+	/**
+	 * @return The smallest, i.e., most negative, value the format holds
+	 */
+	public double getMinValue() {
+		return minCode / scale;
+	}
+	
+	/**
+	 * @param value A real number
+	 * @return The code of the value as a signed integer, rounded to the nearest code and 
+	 * saturated or wrapped around
+	 */
+	private long toSignedCode(double value) {
+		double scaled = Math.rint(value * scale);
+		if (saturate || Double.isInfinite(scaled) || Double.isNaN(scaled)) {
+			if (Double.isNaN(scaled)) return 0;
+			return (long) Math.max(minCode, Math.min(maxCode, scaled));
+		}
+		long code = (long) scaled;
+		if (signMagnitude) {
+			long magnitude = Math.abs(code) & maxCode;
+			return code < 0 ? -magnitude : magnitude;
+		}
+		return code << (64 - bits) >> (64 - bits);
+	}
+	
+	/**
+	 * Rounds a value to the nearest value of the format, saturating or wrapping around as the 
+	 * hardware would; the fake quantization of quantization-aware training.
+	 * 
+	 * @param value A real number
+	 * @return The value of the format the hardware would store for it
+	 */
+	public double quantize(double value) {
+		return toSignedCode(value) / scale;
+	}
+	
+	/**
+	 * @param value A real number
+	 * @return The bits of the value's code, in the low 'bits' bits
+	 */
+	public int encode(double value) {
+		long code = toSignedCode(value);
+		if (signMagnitude && code < 0) code = -code | 1L << (bits - 1);
+		return (int) (code & ((1L << bits) - 1));
+	}
+	
+	/**
+	 * @param code The bits of a code, in the low 'bits' bits
+	 * @return The value the code stands for
+	 */
+	public double decode(int code) {
+		long bitsOfCode = code & ((1L << bits) - 1);
+		long signBit = 1L << (bits - 1);
+		long value;
+		if (signMagnitude) value = 0 != (bitsOfCode & signBit) ? -(bitsOfCode & maxCode) : bitsOfCode;
+		else value = bitsOfCode << (64 - bits) >> (64 - bits);
+		return value / scale;
+	}
+	
+	/**
+	 * @param value A real number
+	 * @return The code of the value in hex, as many digits as the width takes
+	 */
+	public String toHex(double value) {
+		return String.format("%0" + (bits + 3) / 4 + "x", encode(value));
+	}
+}
@@ -0,0 +1,28 @@
+/**
+ * Marks the point where an image becomes a plain vector, e.g., between the last PoolLayer and 
+ * the first DenseLayer. Images are already stored flat, so the layer passes values through 
+ * unchanged; it only checks that the sizes on either side agree.
+ */
+public class FlattenLayer extends Layer {
+	/**
+	 * @param size The number of values in the image, i.e., channels x height x width
+	 */
+	public FlattenLayer(int size) {
+		super(size, size);
+	}
+	
+	@Override
+	public double[] forward(double[] input) {
+		return input;
+	}
+	
+	@Override
+	public double[] backward(double[] error, double learningRate) {
+		return error;
+	}
+	
+	@Override
+	public long getNumMultiplyAdds() {
+		return 0;
+	}
+}
@@ -0,0 +1,79 @@
+/**
+ * Matrix multiplication kernels on flat, row-major double arrays, used by ConvLayer after 
+ * im2col has turned a convolution into a matrix product. The loops are ordered so that the 
+ * innermost one walks consecutive elements of every array it touches.
+ */
+public final class Gemm {
+	private Gemm() {
+	}
+	
+	/**
+	 * Computes C = A * B.
+	 * 
+	 * @param m The number of rows of A and C
+	 * @param n The number of columns of B and C
+	 * @param k The number of columns of A and rows of B
+	 * @param a The m x k matrix A
+	 * @param b The k x n matrix B
+	 * @param c Receives the m x n matrix C
+	 */
+	public static void multiply(int m, int n, int k, double[] a, double[] b, double[] c) {
+		for (int i = 0; i < m; i++) {
+			int rowC = i * n;
+			for (int j = 0; j < n; j++) c[rowC + j] = 0;
+			for (int p = 0; p < k; p++) {
+				double aip = a[i * k + p];
+				if (0 == aip) continue;
+				int rowB = p * n;
+				for (int j = 0; j < n; j++) c[rowC + j] += aip * b[rowB + j];
+			}
+		}
+	}
+	
+	/**
+	 * Computes C = transpose(A) * B.
+	 * 
+	 * @param m The number of columns of A and rows of C
+	 * @param n The number of columns of B and C
+	 * @param k The number of rows of A and B
+	 * @param a The k x m matrix A
+	 * @param b The k x n matrix B
+	 * @param c Receives the m x n matrix C
+	 */
+	public static void multiplyTransA(int m, int n, int k, double[] a, double[] b, double[] c) {
+		for (int i = 0; i < m * n; i++) c[i] = 0;
+		for (int p = 0; p < k; p++) {
+			int rowB = p * n;
+			for (int i = 0; i < m; i++) {
+				double api = a[p * m + i];
+				if (0 == api) continue;
+				int rowC = i * n;
+				for (int j = 0; j < n; j++) c[rowC + j] += api * b[rowB + j];
+			}
+		}
+	}
+	
+	/**
+	 * Computes C += alpha * A * transpose(B).
+	 * 
+	 * @param m The number of rows of A and C
+	 * @param n The number of rows of B and columns of C
+	 * @param k The number of columns of A and B
+	 * @param alpha The factor applied to the product
+	 * @param a The m x k matrix A
+	 * @param b The n x k matrix B
+	 * @param c The m x n matrix C, which the product is added to
+	 */
+	public static void multiplyAddTransB(int m, int n, int k, double alpha, double[] a, double[] b, 
+			double[] c) {
+		for (int i = 0; i < m; i++) {
+			int rowA = i * k;
+			for (int j = 0; j < n; j++) {
+				int rowB = j * k;
+				double dot = 0;
+				for (int p = 0; p < k; p++) dot += a[rowA + p] * b[rowB + p];
+				c[i * n + j] += alpha * dot;
+			}
+		}
+	}
+}
@@ -0,0 +1,161 @@
+import java.util.ArrayList;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Trains a network with several threads at once by Hogwild SGD: every thread trains its own 
+ * replica of the network, made of DenseLayer replicas that share the network's weight arrays 
+ * but have their own activation and error buffers, and applies its updates to the shared 
+ * weights without any locking. Updates of different threads may interleave or, rarely, one may 
+ * overwrite another; with Semeion's sparse binary inputs, most updates touch only the weights 
+ * of the lit pixels, so threads seldom collide and the lost updates hardly matter. In exchange, 
+ * no thread ever waits for another within an epoch.
+ * 
+ * The replicas are made at the start of every train(), so they see the layers' pruning masks as 
+ * they are then, and the threads are those of one pool kept for the trainer's lifetime. Each 
+ * epoch the instances are shuffled, or drawn by a SampleScheduler if one is set, and split 
+ * into one contiguous share per thread. Unlike single-threaded training, a run is not exactly 
+ * repeatable: the same seed gives the same shares, but the order in which the threads' updates 
+ * land depends on scheduling.
+ */
+public class HogwildTrainer {
+	private final LayerStack network;
+	private final int numThreads;
+	private final ExecutorService executor;
+	private TrainingMetrics metrics;
+	private SampleScheduler scheduler;
+	
+	/**
+	 * @param network The network to train; every layer must be a DenseLayer, as in NeuralNet, 
+	 * and unquantized whenever train() is called
+	 * @param numThreads The number of training threads
+	 */
+	public HogwildTrainer(LayerStack network, int numThreads) {
+		if (numThreads < 1) throw new IllegalArgumentException("Expected at least 1 thread, not " + numThreads);
+		for (Layer layer : network.getLayers()) {
+			if (!(layer instanceof DenseLayer)) {
+				throw new IllegalArgumentException("Only dense layers can be trained by Hogwild");
+			}
+		}
+		this.network = network;
+		this.numThreads = numThreads;
+		executor = Executors.newFixedThreadPool(numThreads, new ThreadFactory() {
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "hogwild");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+	
+	/**
+	 * @return A replica of the network for one thread, sharing the layers' weights and pruning 
+	 * masks as they are now
+	 */
+	private LayerStack newReplica() {
+		ArrayList<Layer> layers = new ArrayList<Layer>();
+		for (Layer layer : network.getLayers()) layers.add(new DenseLayer((DenseLayer) layer));
+		return new LayerStack(layers);
+	}
+	
+	/**
+	 * Attaches metrics that every later epoch of train() is recorded in, each thread through its 
+	 * own accumulator.
+	 * 
+	 * @param metrics The metrics, or null to train without recording anything
+	 */
+	public void setMetrics(TrainingMetrics metrics) {
+		this.metrics = metrics;
+	}
+	
+	/**
+	 * @param scheduler The scheduler drawing the instances of each epoch, made for as many 
+	 * instances as train() gets, or null to visit every instance once per epoch
+	 */
+	public void setScheduler(SampleScheduler scheduler) {
+		this.scheduler = scheduler;
+	}
+	
+	/**
+	 * Trains the network using backpropagation on all threads.
+	 * 
+	 * @param inputs The inputs for each training instance
+	 * @param desiredOutputs The desired output label for each training instance
+	 * @param numEpochs The number of epochs
+	 * @param learningRate The learning rate for updating weights
+	 * @throws IllegalArgumentException If a layer is quantized
+	 */
+	public void train(final double[][] inputs, final int[] desiredOutputs, int numEpochs, 
+			final double learningRate) {
+		LayerStack[] replicas = new LayerStack[numThreads];
+		for (int t = 0; t < numThreads; t++) replicas[t] = newReplica();
+		int[] order = new int[inputs.length];
+		for (int i = 0; i < order.length; i++) order[i] = i;
+		SplittableRandom random = RandomStreams.next(RandomStreams.SHUFFLE);
+		ArrayList<Future<Void>> futures = new ArrayList<Future<Void>>();
+		try {
+			for (int i = 0; i < numEpochs; i++) {
+				final int[] plan;
+				if (null != scheduler) plan = scheduler.nextEpoch();
+				else {
+					RandomStreams.shuffle(order, random);
+					plan = order;
+				}
+				futures.clear();
+				for (int t = 0; t < numThreads; t++) {
+					final LayerStack replica = replicas[t];
+					final int start = (int) ((long) plan.length * t / numThreads);
+					final int end = (int) ((long) plan.length * (t + 1) / numThreads);
+					futures.add(executor.submit(new Callable<Void>() {
+						public Void call() {
+							trainShare(replica, inputs, desiredOutputs, plan, start, end, learningRate);
+							return null;
+						}
+					}));
+				}
+				for (Future<Void> future : futures) future.get();
+				if (null != metrics) metrics.endEpoch(network);
+			}
+		}
+		catch (InterruptedException e) {
+			for (Future<Void> future : futures) future.cancel(true);
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while training");
+		}
+		catch (ExecutionException e) {
+			for (Future<Void> future : futures) future.cancel(true);
+			throw new IllegalStateException("A training thread failed", e.getCause());
+		}
+	}
+	
+	/**
+	 * Stops the training threads; train() must not be called afterwards.
+	 */
+	public void close() {
+		executor.shutdownNow();
+	}
+	
+	/**
+	 * Trains a replica on one thread's share of an epoch, recording it in the thread's own 
+	 * accumulator of 'metrics'.
+	 */
+	private void trainShare(LayerStack replica, double[][] inputs, int[] desiredOutputs, int[] plan, 
+			int start, int end, double learningRate) {
+		TrainingMetrics.Accumulator accumulator = null;
+		if (null != metrics) {
+			accumulator = new TrainingMetrics.Accumulator();
+			accumulator.start();
+		}
+		for (int n = start; n < end; n++) {
+			boolean timed = null != accumulator && 0 == (n & (TrainingMetrics.SAMPLE_INTERVAL - 1));
+			replica.trainInstance(inputs, desiredOutputs, plan[n], scheduler, accumulator, timed, 
+					learningRate);
+		}
+		if (null != accumulator) metrics.add(accumulator);
+	}
+}
@@ -0,0 +1,162 @@
+/**
+ * Classifies a binary image that changes a few pixels at a time, such as a digit while it is 
+ * being drawn. The inputs are 0 or 1, so the weighted sum at each unit of the first hidden layer 
+ * is its bias plus the weights of the lit pixels. The classifier keeps those sums and, when a 
+ * pixel flips, adds or subtracts just that pixel's column of weights: O(hidden units) per changed 
+ * pixel instead of O(256 * hidden units) per full forward pass. Only the smaller layers after 
+ * the first are computed anew by classify().
+ * 
+ * The first layer's weights are kept transposed, one contiguous column per pixel, so a flip 
+ * reads consecutive memory. Because adding and later subtracting a weight can leave rounding 
+ * error behind, the sums are recomputed exactly every REFRESH_FLIPS flips; between refreshes they 
+ * differ from a full forward pass by a few ulps at most.
+ * 
+ * An instance keeps the state of one image, e.g., one stroke stream, and must not be used by 
+ * more than one thread at a time.
+ */
+public class IncrementalClassifier {
+	// Flips after which the first layer's sums are recomputed from the lit pixels
+	public static final int REFRESH_FLIPS = 4096;
+	
+	private final WeightSnapshot snapshot;
+	private final int numInputs;
+	private final int numHidden;
+	private final double[] columns;	// columns[k * numHidden + j], the weight from pixel k to unit j
+	private final double[] biases;
+	private final double[] sums;
+	private final long[] lit = new long[PackedImage.NUM_WORDS];
+	private final double[][] activations;
+	private int flipsSinceRefresh;
+	
+	/**
+	 * Starts from an image with no pixels lit.
+	 * 
+	 * @param snapshot The network to classify with; it must take PackedImage.NUM_PIXELS inputs
+	 */
+	public IncrementalClassifier(WeightSnapshot snapshot) {
+		if (snapshot.getNumInputs() != PackedImage.NUM_PIXELS) {
+			throw new IllegalArgumentException("The network takes " + snapshot.getNumInputs() + 
+					" inputs, not " + PackedImage.NUM_PIXELS);
+		}
+		this.snapshot = snapshot;
+		numInputs = snapshot.getNumInputs();
+		numHidden = snapshot.getUnitsPerLayer()[1];
+		double[] weights = snapshot.getWeights(0);
+		columns = new double[numInputs * numHidden];
+		biases = new double[numHidden];
+		for (int j = 0; j < numHidden; j++) {
+			for (int k = 0; k < numInputs; k++) columns[k * numHidden + j] = weights[j * (numInputs + 1) + k];
+			biases[j] = weights[j * (numInputs + 1) + numInputs];
+		}
+		sums = biases.clone();
+		activations = snapshot.newActivations();
+	}
+	
+	/**
+	 * @return The network the classifier uses
+	 */
+	public WeightSnapshot getSnapshot() {
+		return snapshot;
+	}
+	
+	/**
+	 * @return The image as it currently stands
+	 */
+	public PackedImage getImage() {
+		return PackedImage.fromWords(lit);
+	}
+	
+	/**
+	 * Turns every pixel off.
+	 */
+	public void clear() {
+		for (int w = 0; w < lit.length; w++) lit[w] = 0;
+		System.arraycopy(biases, 0, sums, 0, numHidden);
+		flipsSinceRefresh = 0;
+	}
+	
+	/**
+	 * Lights or clears a pixel. Costs O(hidden units) if the pixel changes and nothing otherwise.
+	 * 
+	 * @param pixel The pixel, counting row by row from the upper-left corner
+	 * @param on Whether the pixel is lit
+	 */
+	public void setPixel(int pixel, boolean on) {
+		long bit = 1L << pixel;
+		if (((lit[pixel >>> 6] & bit) != 0) == on) return;
+		lit[pixel >>> 6] ^= bit;
+		flip(pixel, on);
+	}
+	
+	/**
+	 * Changes the image to another, flipping only the pixels that differ, e.g., the next frame of 
+	 * a stroke stream.
+	 * 
+	 * @param image The new image
+	 * @return The number of pixels that flipped
+	 */
+	public int setImage(PackedImage image) {
+		int flipped = 0;
+		for (int w = 0; w < lit.length; w++) {
+			// Toggle one pixel at a time, so a refresh during the loop sees a consistent image
+			for (long changed = lit[w] ^ image.getWord(w); changed != 0; changed &= changed - 1) {
+				long bit = Long.lowestOneBit(changed);
+				lit[w] ^= bit;
+				flip(w * 64 + Long.numberOfTrailingZeros(bit), (lit[w] & bit) != 0);
+				flipped++;
+			}
+		}
+		return flipped;
+	}
+	
+	/**
+	 * Adds or subtracts a pixel's column of weights; 'lit' already holds the new value.
+	 */
+	private void flip(int pixel, boolean on) {
+		int offset = pixel * numHidden;
+		if (on) {
+			for (int j = 0; j < numHidden; j++) sums[j] += columns[offset + j];
+		}
+		else {
+			for (int j = 0; j < numHidden; j++) sums[j] -= columns[offset + j];
+		}
+		if (++flipsSinceRefresh >= REFRESH_FLIPS) refresh();
+	}
+	
+	/**
+	 * Recomputes the first layer's sums from the lit pixels, discarding accumulated rounding 
+	 * error.
+	 */
+	public void refresh() {
+		System.arraycopy(biases, 0, sums, 0, numHidden);
+		for (int w = 0; w < lit.length; w++) {
+			for (long bits = lit[w]; bits != 0; bits &= bits - 1) {
+				int offset = (w * 64 + Long.numberOfTrailingZeros(bits)) * numHidden;
+				for (int j = 0; j < numHidden; j++) sums[j] += columns[offset + j];
+			}
+		}
+		flipsSinceRefresh = 0;
+	}
+	
+	/**
+	 * Classifies the current image.
+	 * 
+	 * @return The classification according to the network
+	 */
+	public int classify() {
+		snapshot.propagateFwdFromFirstSums(sums, activations, null);
+		return WeightSnapshot.argmax(activations[activations.length - 1]);
+	}
+	
+	/**
+	 * Classifies the current image, also reporting the value at each output unit.
+	 * 
+	 * @param outputs Receives the value at each output unit
+	 * @return The classification according to the network
+	 */
+	public int classify(double[] outputs) {
+		int classification = classify();
+		System.arraycopy(activations[activations.length - 1], 0, outputs, 0, outputs.length);
+		return classification;
+	}
+}
@@ -0,0 +1,234 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Latency and throughput metrics of the classification service: the distribution of request 
+ * latencies, separately for requests answered from the PredictionCache and by the model, how 
+ * often each digit is predicted, the distribution of MicroBatcher batch sizes and forward pass 
+ * times, errors, and the cache's hit rate. Latencies are kept in LatencyHistograms, so 
+ * percentiles such as p99 are real to within 1/64 rather than derived from averages.
+ * 
+ * Recording never locks or allocates. The metrics are published over JMX and as Prometheus text, 
+ * which ClassificationServer serves at GET /metrics and can also write to a file periodically.
+ */
+public class InferenceMetrics implements InferenceMetricsMXBean {
+	// Upper bounds of the Prometheus buckets for the batch size histogram
+	private static final long[] BATCH_SIZE_BOUNDS = {1, 2, 4, 8, 16, 32, 64, 128, 256};
+	
+	private final LatencyHistogram cachedLatency = new LatencyHistogram();
+	private final LatencyHistogram modelLatency = new LatencyHistogram();
+	private final LatencyHistogram allLatency = new LatencyHistogram();
+	private final LatencyHistogram batchSizes = new LatencyHistogram();
+	private final LatencyHistogram batchNanos = new LatencyHistogram();
+	private final LongAdder[] predictions;
+	private final LongAdder errors = new LongAdder();
+	private final PredictionCache cache;
+	
+	/**
+	 * @param numClasses The number of classes the model predicts
+	 * @param cache The cache whose hit rate to report, or null if there is none
+	 * @param name The name the metrics are registered under in JMX, as 
+	 * "NeuralNet:type=InferenceMetrics,name=<name>", or null not to register them
+	 */
+	public InferenceMetrics(int numClasses, PredictionCache cache, String name) {
+		predictions = new LongAdder[numClasses];
+		for (int i = 0; i < numClasses; i++) predictions[i] = new LongAdder();
+		this.cache = cache;
+		if (null != name) {
+			try {
+				ManagementFactory.getPlatformMBeanServer().registerMBean(this, 
+						new ObjectName("NeuralNet:type=InferenceMetrics,name=" + name));
+			} catch (JMException e) {
+				throw new IllegalArgumentException("Cannot register the metrics as " + name + ": " + 
+						e.getMessage());
+			}
+		}
+	}
+	
+	/**
+	 * Records a request that was answered with a prediction.
+	 * 
+	 * @param digit The predicted digit
+	 * @param fromCache Whether the prediction came from the cache rather than the model
+	 * @param nanos The time from receiving the request to sending the reply
+	 */
+	public void recordRequest(int digit, boolean fromCache, long nanos) {
+		(fromCache ? cachedLatency : modelLatency).record(nanos);
+		allLatency.record(nanos);
+		if (digit >= 0 && digit < predictions.length) predictions[digit].increment();
+	}
+	
+	/**
+	 * Records a request that was answered with an error.
+	 */
+	public void recordError() {
+		errors.increment();
+	}
+	
+	/**
+	 * Records a batch classified by the model.
+	 * 
+	 * @param size The number of images in the batch
+	 * @param nanos The time the batch's forward pass took
+	 */
+	public void recordBatch(int size, long nanos) {
+		batchSizes.record(size);
+		batchNanos.record(nanos);
+	}
+	
+	/**
+	 * Formats the metrics in the Prometheus text exposition format, version 0.0.4. Latencies are 
+	 * summaries with quantiles, in seconds; batch sizes are a histogram.
+	 * 
+	 * @return The metrics as text
+	 */
+	public String toPrometheus() {
+		StringBuilder text = new StringBuilder();
+		text.append("# HELP classify_request_latency_seconds Time from receiving a classification " + 
+				"request to sending its reply\n");
+		text.append("# TYPE classify_request_latency_seconds summary\n");
+		appendSummary(text, "classify_request_latency_seconds", "source=\"cache\",", cachedLatency);
+		appendSummary(text, "classify_request_latency_seconds", "source=\"model\",", modelLatency);
+		
+		text.append("# HELP classify_predictions_total Predictions of each digit\n");
+		text.append("# TYPE classify_predictions_total counter\n");
+		for (int i = 0; i < predictions.length; i++) {
+			text.append("classify_predictions_total{digit=\"").append(i).append("\"} ");
+			text.append(predictions[i].sum()).append('\n');
+		}
+		
+		text.append("# HELP classify_errors_total Requests answered with an error\n");
+		text.append("# TYPE classify_errors_total counter\n");
+		text.append("classify_errors_total ").append(errors.sum()).append('\n');
+		
+		text.append("# HELP classify_batch_size Images classified together by the model\n");
+		text.append("# TYPE classify_batch_size histogram\n");
+		long[] cumulative = batchSizes.getCumulativeCounts(BATCH_SIZE_BOUNDS);
+		for (int b = 0; b < BATCH_SIZE_BOUNDS.length; b++) {
+			text.append("classify_batch_size_bucket{le=\"").append(BATCH_SIZE_BOUNDS[b]).append("\"} ");
+			text.append(cumulative[b]).append('\n');
+		}
+		long numBatches = batchSizes.getCount();
+		text.append("classify_batch_size_bucket{le=\"+Inf\"} ").append(numBatches).append('\n');
+		text.append("classify_batch_size_sum ").append(batchSizes.getSum()).append('\n');
+		text.append("classify_batch_size_count ").append(numBatches).append('\n');
+		
+		text.append("# HELP classify_batch_seconds Time of a batch's forward pass\n");
+		text.append("# TYPE classify_batch_seconds summary\n");
+		appendSummary(text, "classify_batch_seconds", "", batchNanos);
+		
+		if (null != cache) {
+			text.append("# HELP classify_cache_lookups_total Prediction cache lookups\n");
+			text.append("# TYPE classify_cache_lookups_total counter\n");
+			text.append("classify_cache_lookups_total{result=\"hit\"} ").append(cache.getHits()).append('\n');
+			text.append("classify_cache_lookups_total{result=\"miss\"} ").append(cache.getMisses()).append('\n');
+			text.append("# HELP classify_cache_evictions_total Predictions evicted from the cache\n");
+			text.append("# TYPE classify_cache_evictions_total counter\n");
+			text.append("classify_cache_evictions_total ").append(cache.getEvictions()).append('\n');
+		}
+		return text.toString();
+	}
+	
+	/**
+	 * Appends the quantiles, sum and count of a histogram of nanoseconds as a summary in seconds.
+	 * 
+	 * @param labels Labels to put before the quantile, each followed by a comma, or ""
+	 */
+	private static void appendSummary(StringBuilder text, String name, String labels, 
+			LatencyHistogram histogram) {
+		final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+		for (double q : QUANTILES) {
+			text.append(name).append('{').append(labels).append("quantile=\"").append(q).append("\"} ");
+			text.append(histogram.getValueAtPercentile(q) / 1e9).append('\n');
+		}
+		String plainLabels = labels.isEmpty() ? "" : "{" + labels.substring(0, labels.length() - 1) + "}";
+		text.append(name).append("_sum").append(plainLabels).append(' ');
+		text.append(histogram.getSum() / 1e9).append('\n');
+		text.append(name).append("_count").append(plainLabels).append(' ');
+		text.append(histogram.getCount()).append('\n');
+	}
+	
+	/**
+	 * Writes the Prometheus text to a file, e.g., for the node exporter's textfile collector.
+	 * The text is written to a temporary file first and moved into place, so readers never see 
+	 * a partial file.
+	 * 
+	 * @param fileName The name of the file
+	 * @throws IOException If the file cannot be written
+	 */
+	public void writePrometheus(String fileName) throws IOException {
+		File file = new File(fileName).getAbsoluteFile();
+		File temporary = File.createTempFile("metrics", ".tmp", file.getParentFile());
+		PrintWriter printWriter = new PrintWriter(temporary);
+		printWriter.print(toPrometheus());
+		printWriter.close();
+		if (printWriter.checkError()) {
+			temporary.delete();
+			throw new IOException("Cannot write " + temporary);
+		}
+		Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, 
+				StandardCopyOption.ATOMIC_MOVE);
+	}
+	
+	public long getRequests() {
+		return allLatency.getCount();
+	}
+	
+	public long getErrors() {
+		return errors.sum();
+	}
+	
+	public double getP50LatencyMicros() {
+		return allLatency.getValueAtPercentile(0.5) / 1e3;
+	}
+	
+	public double getP90LatencyMicros() {
+		return allLatency.getValueAtPercentile(0.9) / 1e3;
+	}
+	
+	public double getP99LatencyMicros() {
+		return allLatency.getValueAtPercentile(0.99) / 1e3;
+	}
+	
+	public double getP999LatencyMicros() {
+		return allLatency.getValueAtPercentile(0.999) / 1e3;
+	}
+	
+	public double getMaxLatencyMicros() {
+		return allLatency.getMax() / 1e3;
+	}
+	
+	public double getMeanLatencyMicros() {
+		return allLatency.getMean() / 1e3;
+	}
+	
+	public long[] getPredictionCounts() {
+		long[] counts = new long[predictions.length];
+		for (int i = 0; i < counts.length; i++) counts[i] = predictions[i].sum();
+		return counts;
+	}
+	
+	public long getBatches() {
+		return batchSizes.getCount();
+	}
+	
+	public double getMeanBatchSize() {
+		return batchSizes.getMean();
+	}
+	
+	public double getP99BatchMicros() {
+		return batchNanos.getValueAtPercentile(0.99) / 1e3;
+	}
+	
+	public double getCacheHitRate() {
+		return null == cache ? -1 : cache.getHitRate();
+	}
+}
@@ -0,0 +1,70 @@
+/**
+ * Management interface of InferenceMetrics, as seen in JConsole or any other JMX client. Every 
+ * value covers all requests since the metrics were created.
+ */
+public interface InferenceMetricsMXBean {
+	/**
+	 * @return The number of images classified, from the cache or by the model
+	 */
+	long getRequests();
+	
+	/**
+	 * @return The number of requests answered with an error
+	 */
+	long getErrors();
+	
+	/**
+	 * @return The median time from receiving a request to sending its reply, in microseconds
+	 */
+	double getP50LatencyMicros();
+	
+	/**
+	 * @return The 90th percentile latency, in microseconds
+	 */
+	double getP90LatencyMicros();
+	
+	/**
+	 * @return The 99th percentile latency, in microseconds
+	 */
+	double getP99LatencyMicros();
+	
+	/**
+	 * @return The 99.9th percentile latency, in microseconds
+	 */
+	double getP999LatencyMicros();
+	
+	/**
+	 * @return The longest latency, in microseconds
+	 */
+	double getMaxLatencyMicros();
+	
+	/**
+	 * @return The mean latency, in microseconds
+	 */
+	double getMeanLatencyMicros();
+	
+	/**
+	 * @return The number of times each digit was predicted
+	 */
+	long[] getPredictionCounts();
+	
+	/**
+	 * @return The number of batches classified by the model
+	 */
+	long getBatches();
+	
+	/**
+	 * @return The mean number of images in a batch
+	 */
+	double getMeanBatchSize();
+	
+	/**
+	 * @return The 99th percentile time of a batch's forward pass, in microseconds
+	 */
+	double getP99BatchMicros();
+	
+	/**
+	 * @return The fraction of cache lookups that found a prediction, or -1 if there is no cache
+	 */
+	double getCacheHitRate();
+}
@@ -0,0 +1,129 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free histogram of non-negative values such as latencies in nanoseconds, laid out like 
+ * HdrHistogram: values below 2 * SUB_BUCKETS are counted exactly, and every power of two above 
+ * that is split into SUB_BUCKETS equal buckets, so a percentile is reported to within 1 part in 
+ * SUB_BUCKETS of the true value over the whole range of a long. Recording is one atomic 
+ * increment plus two striped counters, and never allocates; any number of threads can record 
+ * and read at once.
+ */
+public class LatencyHistogram {
+	// Buckets per power of two; the relative error of a reported value is at most 1 / SUB_BUCKETS
+	public static final int SUB_BUCKETS = 64;
+	private static final int SUB_BUCKET_BITS = 6;
+	
+	// Values below 2 * SUB_BUCKETS get a bucket each; the 63 - SUB_BUCKET_BITS - 1 powers of two 
+	// above that get SUB_BUCKETS buckets each
+	private static final int NUM_BUCKETS = 2 * SUB_BUCKETS + (63 - SUB_BUCKET_BITS - 1) * SUB_BUCKETS;
+	
+	private final AtomicLongArray counts = new AtomicLongArray(NUM_BUCKETS);
+	private final LongAdder count = new LongAdder();
+	private final LongAdder sum = new LongAdder();
+	private final AtomicLong max = new AtomicLong();
+	
+	/**
+	 * @return The bucket of a non-negative value
+	 */
+	static int bucket(long value) {
+		if (value < 2 * SUB_BUCKETS) return (int) value;
+		// Keep the top SUB_BUCKET_BITS + 1 bits of the value; the highest is always set
+		int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+		return 2 * SUB_BUCKETS + (shift - 1) * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+	}
+	
+	/**
+	 * @return The largest value counted in a bucket
+	 */
+	static long highestValue(int bucket) {
+		if (bucket < 2 * SUB_BUCKETS) return bucket;
+		int shift = (bucket - 2 * SUB_BUCKETS) / SUB_BUCKETS + 1;
+		long subBucket = (bucket - 2 * SUB_BUCKETS) % SUB_BUCKETS + SUB_BUCKETS;
+		return ((subBucket + 1) << shift) - 1;
+	}
+	
+	/**
+	 * Records a value.
+	 * 
+	 * @param value The value; negative values, e.g., from a clock step, are recorded as 0
+	 */
+	public void record(long value) {
+		if (value < 0) value = 0;
+		counts.incrementAndGet(bucket(value));
+		count.increment();
+		sum.add(value);
+		long seen = max.get();
+		while (value > seen && !max.compareAndSet(seen, value)) seen = max.get();
+	}
+	
+	/**
+	 * @return The number of values recorded
+	 */
+	public long getCount() {
+		return count.sum();
+	}
+	
+	/**
+	 * @return The sum of the values recorded
+	 */
+	public long getSum() {
+		return sum.sum();
+	}
+	
+	/**
+	 * @return The mean of the values recorded, or 0 if there are none
+	 */
+	public double getMean() {
+		long n = count.sum();
+		return n > 0 ? (double) sum.sum() / n : 0;
+	}
+	
+	/**
+	 * @return The largest value recorded, exactly
+	 */
+	public long getMax() {
+		return max.get();
+	}
+	
+	/**
+	 * Finds the value at a percentile, e.g., 0.99 for the p99 latency. Values recorded while the 
+	 * percentile is computed may or may not be included.
+	 * 
+	 * @param p The percentile as a fraction, from 0 to 1
+	 * @return The smallest value that at least a fraction 'p' of the values do not exceed, up to 
+	 * the resolution of the buckets and never above the maximum, or 0 if nothing was recorded
+	 */
+	public long getValueAtPercentile(double p) {
+		long[] snapshot = new long[NUM_BUCKETS];
+		long total = 0;
+		for (int i = 0; i < NUM_BUCKETS; i++) total += snapshot[i] = counts.get(i);
+		if (0 == total) return 0;
+		long rank = Math.max(1, (long) Math.ceil(p * total));
+		long seen = 0;
+		for (int i = 0; i < NUM_BUCKETS; i++) {
+			seen += snapshot[i];
+			if (seen >= rank) return Math.min(highestValue(i), max.get());
+		}
+		return max.get();
+	}
+	
+	/**
+	 * @return The number of values at most each of the given bounds, e.g., for the cumulative 
+	 * buckets of a Prometheus histogram; values are counted against the highest value of their 
+	 * bucket
+	 */
+	public long[] getCumulativeCounts(long[] upperBounds) {
+		long[] cumulative = new long[upperBounds.length];
+		for (int i = 0; i < NUM_BUCKETS; i++) {
+			long n = counts.get(i);
+			if (0 == n) continue;
+			long value = highestValue(i);
+			for (int b = 0; b < upperBounds.length; b++) {
+				if (value <= upperBounds[b]) cumulative[b] += n;
+			}
+		}
+		return cumulative;
+	}
+}
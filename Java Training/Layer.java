@@ -0,0 +1,96 @@
+/**
+ * A layer of a LayerStack. Every layer takes a flat input vector and produces a flat output 
+ * vector; layers working on images store them channel by channel, each channel row by row, so 
+ * the 16x16 input is a single channel as read from 'semeion.data'.
+ * 
+ * Like the units of NeuralNet, a layer keeps the values of the last instance propagated through 
+ * it, so a layer must not be used by more than one thread at a time. All buffers are allocated 
+ * when the layer is constructed.
+ */
+public abstract class Layer {
+	protected final int inputSize;
+	protected final int outputSize;
+	
+	/**
+	 * @param inputSize The number of values the layer takes
+	 * @param outputSize The number of values the layer produces
+	 */
+	protected Layer(int inputSize, int outputSize) {
+		this.inputSize = inputSize;
+		this.outputSize = outputSize;
+	}
+	
+	/**
+	 * @return The number of values the layer takes
+	 */
+	public int getInputSize() {
+		return inputSize;
+	}
+	
+	/**
+	 * @return The number of values the layer produces
+	 */
+	public int getOutputSize() {
+		return outputSize;
+	}
+	
+	/**
+	 * Propagates an input through the layer.
+	 * 
+	 * @param input The input; the layer keeps a reference to it until the next call
+	 * @return The output, in a buffer owned by the layer that is overwritten by the next call
+	 */
+	public abstract double[] forward(double[] input);
+	
+	/**
+	 * Back-propagates the error at the layer's outputs for the instance last propagated forward, 
+	 * and updates the weights. As in NeuralNet, the error at an output is the direction the 
+	 * output should move in, e.g., (label - output) at the output layer, and weights move along 
+	 * the error.
+	 * 
+	 * @param error The error at each output
+	 * @param learningRate The learning rate for updating weights
+	 * @return The error at each input, computed with the weights from before the update, in a 
+	 * buffer owned by the layer
+	 */
+	public abstract double[] backward(double[] error, double learningRate);
+	
+	/**
+	 * @return The layer's weights, laid out as a matrix with one row per output unit or channel 
+	 * and the bias weight at the end of each row, or null if the layer has no weights. The array 
+	 * is the layer's own, not a copy
+	 */
+	public double[] getWeights() {
+		return null;
+	}
+	
+	/**
+	 * @return The number of rows in the matrix returned by getWeights(), or 0 if the layer has 
+	 * no weights
+	 */
+	public int getWeightRows() {
+		return 0;
+	}
+	
+	/**
+	 * @return The number of multiply-adds one forward pass through the layer takes
+	 */
+	public abstract long getNumMultiplyAdds();
+	
+	/**
+	 * Fills a weight array by an initialization scheme. Each array draws from the next 
+	 * RandomStreams.WEIGHT_INIT stream, so a network built in the same order from the same seed 
+	 * gets the same weights.
+	 * 
+	 * @param weights The weights, laid out as described in getWeights()
+	 * @param rows The number of rows
+	 * @param fanIn The number of weights in each row, excluding the bias
+	 * @param fanOut The number of outputs each input contributes to
+	 * @param initializer The scheme
+	 */
+	protected static void initialize(double[] weights, int rows, int fanIn, int fanOut, 
+			WeightInitializer initializer) {
+		initializer.initialize(weights, rows, fanIn, fanOut, 
+				RandomStreams.next(RandomStreams.WEIGHT_INIT));
+	}
+}
@@ -0,0 +1,702 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+
+/**
+ * Feedforward network built from a sequence of Layers, e.g., convolution and pooling layers 
+ * followed by dense layers. Trained and used like NeuralNet: train() runs backpropagation one 
+ * instance at a time. 'main.c' runs convolution and pooling layers followed by dense layers; 
+ * the FPGA datapath runs dense layers only.
+ */
+public class LayerStack {
+	// Identifies checkpoint files written by writeCheckpoint(), and the type of each layer in them
+	private static final int CHECKPOINT_MAGIC = 0x4E4E4C31;	// "NNL1"
+	private static final int DENSE = 1;
+	private static final int CONV = 2;
+	private static final int POOL = 3;
+	private static final int FLATTEN = 4;
+	
+	private final ArrayList<Layer> layers;
+	private final double[] input;
+	private final double[] outputError;
+	private TrainingMetrics metrics;
+	private FixedPointFormat fpgaFormat = FixedPointFormat.FPGA;
+	private final TrainingMetrics.Accumulator accumulator = new TrainingMetrics.Accumulator();
+	
+	/**
+	 * @param layers The layers, in order from input to output; the output size of each layer 
+	 * must equal the input size of the next
+	 */
+	public LayerStack(ArrayList<Layer> layers) {
+		if (layers.isEmpty()) throw new IllegalArgumentException("No layers");
+		for (int i = 1; i < layers.size(); i++) {
+			if (layers.get(i - 1).getOutputSize() != layers.get(i).getInputSize()) {
+				throw new IllegalArgumentException("Layer " + i + " takes " + 
+						layers.get(i).getInputSize() + " inputs, but layer " + (i - 1) + " produces " +
+						layers.get(i - 1).getOutputSize());
+			}
+		}
+		this.layers = new ArrayList<Layer>(layers);
+		input = new double[layers.get(0).getInputSize()];
+		outputError = new double[layers.get(layers.size() - 1).getOutputSize()];
+	}
+	
+	/**
+	 * @return The layers, in order from input to output
+	 */
+	public ArrayList<Layer> getLayers() {
+		return new ArrayList<Layer>(layers);
+	}
+	
+	/**
+	 * Propagate an input forward through every layer.
+	 * 
+	 * @param input The input for a given instance
+	 * @return The outputs of the last layer, in a buffer owned by that layer
+	 */
+	public double[] propagateFwd(double[] input) {
+		double[] values = input;
+		for (Layer layer : layers) values = layer.forward(values);
+		return values;
+	}
+	
+	/**
+	 * Classify a given instance based on the input vector.
+	 * 
+	 * @param input The input for a given instance
+	 * @return The classification according to the network
+	 */
+	public int classify(double[] input) {
+		return WeightSnapshot.argmax(propagateFwd(input));
+	}
+	
+	/**
+	 * Classify a given instance based on the input vector.
+	 * 
+	 * @param input The input for a given instance
+	 * @return The classification according to the network
+	 */
+	public int classify(ArrayList<Double> input) {
+		for (int i = 0; i < this.input.length; i++) this.input[i] = input.get(i);
+		return classify(this.input);
+	}
+	
+	/**
+	 * Trains the network using backpropagation.
+	 * 
+	 * @param inputs A list of inputs for each training instance
+	 * @param desiredOutputs A list of desired output labels for each training instance
+	 * @param numEpochs The number of epochs, i.e., passes through the training set
+	 * @param learningRate The learning rate for updating weights
+	 */
+	public void train(ArrayList<ArrayList<Double>> inputs, ArrayList<Integer> desiredOutputs, 
+			int numEpochs, double learningRate) {
+		double[][] inputArrays = new double[inputs.size()][input.length];
+		int[] labels = new int[inputs.size()], order = new int[inputs.size()];
+		for (int j = 0; j < inputArrays.length; j++) {
+			for (int i = 0; i < input.length; i++) inputArrays[j][i] = inputs.get(j).get(i);
+			labels[j] = desiredOutputs.get(j);
+			order[j] = j;
+		}
+		for (int i = 0; i < numEpochs; i++) trainEpoch(inputArrays, labels, order, null, learningRate);
+	}
+	
+	/**
+	 * Trains for one epoch, the loop shared by both train() methods, recording every instance in 
+	 * 'metrics', if any, and timing every TrainingMetrics.SAMPLE_INTERVAL-th.
+	 * 
+	 * @param order The indices of the instances to train on, in order
+	 * @param scheduler The scheduler to record each instance's error in and to scale each step's 
+	 * learning rate by the instance's importance weight, or null to train at the learning rate
+	 */
+	private void trainEpoch(double[][] inputs, int[] desiredOutputs, int[] order, 
+			SampleScheduler scheduler, double learningRate) {
+		if (null != metrics) accumulator.start();
+		for (int n = 0; n < order.length; n++) {
+			boolean timed = null != metrics && 0 == (n & (TrainingMetrics.SAMPLE_INTERVAL - 1));
+			trainInstance(inputs, desiredOutputs, order[n], scheduler, 
+					null == metrics ? null : accumulator, timed, learningRate);
+		}
+		if (null != metrics) {
+			metrics.add(accumulator);
+			metrics.endEpoch(this);
+		}
+	}
+	
+	/**
+	 * Trains on one instance by backpropagation: the step of trainEpoch(), which HogwildTrainer's 
+	 * threads also take, each on its own replica of the network.
+	 * 
+	 * @param j The index of the instance
+	 * @param scheduler The scheduler to record the instance's error in and to scale the learning 
+	 * rate by its importance weight, or null to train at the learning rate
+	 * @param accumulator The accumulator to record the instance in, or null
+	 * @param timed Whether to record the time of the forward and backward passes as well
+	 */
+	void trainInstance(double[][] inputs, int[] desiredOutputs, int j, SampleScheduler scheduler, 
+			TrainingMetrics.Accumulator accumulator, boolean timed, double learningRate) {
+		long start = timed ? System.nanoTime() : 0;
+		double[] output = propagateFwd(inputs[j]);
+		long forwardEnd = timed ? System.nanoTime() : 0;
+		for (int k = 0; k < output.length; k++) {
+			outputError[k] = (desiredOutputs[j] == k ? 1.0 : 0.0) - output[k];
+		}
+		if (null != scheduler) scheduler.record(j, output, outputError, desiredOutputs[j]);
+		if (null != accumulator) accumulator.recordSample(output, outputError, desiredOutputs[j]);
+		double rate = null == scheduler ? learningRate : learningRate * scheduler.getWeight(j);
+		double[] error = outputError;
+		for (int l = layers.size() - 1; l >= 0; l--) error = layers.get(l).backward(error, rate);
+		if (timed) accumulator.recordTiming(forwardEnd - start, System.nanoTime() - forwardEnd);
+	}
+	
+	/**
+	 * Attaches metrics that every later epoch of train() is recorded in.
+	 * 
+	 * @param metrics The metrics, or null to train without recording anything
+	 */
+	public void setMetrics(TrainingMetrics metrics) {
+		this.metrics = metrics;
+	}
+	
+	/**
+	 * @return The metrics train() records in, or null if there are none
+	 */
+	public TrainingMetrics getMetrics() {
+		return metrics;
+	}
+	
+	/**
+	 * Retrains only the layers after the frozen ones of a FeatureCache, the head, from the cached 
+	 * outputs of the frozen layers, which keep their weights. Each epoch runs the head alone, so 
+	 * it takes a fraction of an epoch of train() when the frozen layers hold most of the 
+	 * multiply-adds, as the first layer of a 256-input network does.
+	 * 
+	 * @param features The outputs of this network's frozen layers for each training instance
+	 * @param desiredOutputs The desired output label for each instance, by its index in the cache
+	 * @param order The indices of the instances in the order to visit them each epoch
+	 * @param numEpochs The number of epochs, i.e., passes through the training set
+	 * @param learningRate The learning rate for updating weights
+	 */
+	public void trainHead(FeatureCache features, int[] desiredOutputs, int[] order, int numEpochs, 
+			double learningRate) {
+		int numFrozen = features.getNumFrozen();
+		if (numFrozen >= layers.size() || 
+				layers.get(numFrozen).getInputSize() != features.getNumFeatures()) {
+			throw new IllegalArgumentException("The cache holds " + features.getNumFeatures() + 
+					" features after " + numFrozen + " layers, which do not fit the network");
+		}
+		LayerStack head = new LayerStack(new ArrayList<Layer>(layers.subList(numFrozen, layers.size())));
+		double[] input = new double[features.getNumFeatures()];
+		for (int i = 0; i < numEpochs; i++) {
+			for (int j : order) {
+				features.getFeatures(j, input);
+				head.update(input, desiredOutputs[j], learningRate);
+			}
+		}
+	}
+	
+	/**
+	 * Trains the network using backpropagation on the instances a SampleScheduler draws for each 
+	 * epoch, scaling each step's learning rate by the instance's importance weight. Records every 
+	 * epoch in 'metrics' as train() does.
+	 * 
+	 * @param inputs The inputs for each training instance
+	 * @param desiredOutputs The desired output label for each training instance
+	 * @param scheduler The scheduler, made for as many instances as there are inputs
+	 * @param numEpochs The number of epochs, each taking the scheduler's number of steps
+	 * @param learningRate The learning rate for updating weights, before the importance weights
+	 */
+	public void train(double[][] inputs, int[] desiredOutputs, SampleScheduler scheduler, 
+			int numEpochs, double learningRate) {
+		if (inputs.length != scheduler.getNumInstances()) {
+			throw new IllegalArgumentException("The scheduler is for " + scheduler.getNumInstances() + 
+					" instances, not " + inputs.length);
+		}
+		for (int i = 0; i < numEpochs; i++) {
+			trainEpoch(inputs, desiredOutputs, scheduler.nextEpoch(), scheduler, learningRate);
+		}
+	}
+	
+	/**
+	 * Applies a single backpropagation step for one instance.
+	 * 
+	 * @param input The input for a given instance
+	 * @param desiredOutput The desired output label for the instance
+	 * @param learningRate The learning rate for updating weights
+	 */
+	public void update(ArrayList<Double> input, int desiredOutput, double learningRate) {
+		for (int i = 0; i < this.input.length; i++) this.input[i] = input.get(i);
+		update(this.input, desiredOutput, learningRate);
+	}
+	
+	/**
+	 * Applies a single backpropagation step for one instance.
+	 * 
+	 * @param input The input for a given instance
+	 * @param desiredOutput The desired output label for the instance
+	 * @param learningRate The learning rate for updating weights
+	 */
+	public void update(double[] input, int desiredOutput, double learningRate) {
+		double[] output = propagateFwd(input);
+		for (int k = 0; k < output.length; k++) {
+			outputError[k] = (desiredOutput == k ? 1.0 : 0.0) - output[k];
+		}
+		double[] error = outputError;
+		for (int i = layers.size() - 1; i >= 0; i--) error = layers.get(i).backward(error, learningRate);
+	}
+	
+	/**
+	 * @return The weighted sum at each output unit for the instance last propagated forward, in a 
+	 * buffer owned by the output layer, which must be a DenseLayer
+	 */
+	public double[] getOutputWeightedSums() {
+		return ((DenseLayer) layers.get(layers.size() - 1)).getWeightedSums();
+	}
+	
+	/**
+	 * Back-propagates an error given at the output units' weighted sums rather than at their 
+	 * outputs, for the instance last propagated forward, and updates the weights. The output 
+	 * layer must be a DenseLayer.
+	 * 
+	 * @param error The error at each output unit's weighted sum
+	 * @param learningRate The learning rate for updating weights
+	 */
+	public void backPropagateFromWeightedSums(double[] error, double learningRate) {
+		int last = layers.size() - 1;
+		error = ((DenseLayer) layers.get(last)).backwardFromWeightedSums(error, learningRate);
+		for (int i = last - 1; i >= 0; i--) error = layers.get(i).backward(error, learningRate);
+	}
+	
+	/**
+	 * @return The number of multiply-adds one forward pass takes
+	 */
+	public long getNumMultiplyAdds() {
+		long multiplyAdds = 0;
+		for (Layer layer : layers) multiplyAdds += layer.getNumMultiplyAdds();
+		return multiplyAdds;
+	}
+	
+	/**
+	 * @return The number of weights, biases included
+	 */
+	public int getNumWeights() {
+		int numWeights = 0;
+		for (Layer layer : layers) {
+			if (null != layer.getWeights()) numWeights += layer.getWeights().length;
+		}
+		return numWeights;
+	}
+	
+	/**
+	 * Writes the weights in the MCU format of NeuralNet, as the assignments create_weights() in 
+	 * 'main.c' makes: weights[l][j][k] is weight k of unit j of the l-th dense layer, with the 
+	 * bias last. The kernels of convolution layers come first, as kernel_weights[f][j][k], weight 
+	 * k of kernel j of the f-th layer before the dense ones, in the order of ConvLayer.
+	 * 
+	 * @param fileName The name of the file to write
+	 * @throws FileNotFoundException
+	 */
+	private void writeWeightsToFile_MCU(String fileName) throws FileNotFoundException {
+		PrintWriter printWriter = new PrintWriter(fileName);
+		int f = 0, l = 0;
+		for (Layer layer : layers) {
+			if (layer instanceof FlattenLayer) continue;
+			double[] weights = layer.getWeights();
+			if (!(layer instanceof DenseLayer)) {
+				if (null != weights) {
+					int rows = layer.getWeightRows(), columns = weights.length / rows;
+					printWriter.println("// Kernels of feature layer " + f);
+					for (int j = 0; j < rows; j++) {
+						printWriter.println("// Kernel " + j + " of feature layer " + f);
+						for (int k = 0; k < columns; k++) {
+							printWriter.println("kernel_weights[" + f + "][" + j + "][" + k + "] = " + 
+									weights[j * columns + k] + ";");
+						}
+						printWriter.println();
+					}
+				}
+				f++;
+				continue;
+			}
+			int rows = layer.getWeightRows(), columns = weights.length / rows;
+			printWriter.println("// Weights from layer " + l + " to layer " + (l + 1));
+			for (int j = 0; j < rows; j++) {
+				printWriter.println("// Weights feeding into layer " + (l + 1) + ", node " + j);
+				for (int k = 0; k < columns; k++) {
+					printWriter.println("weights[" + l + "][" + j + "][" + k + "] = " + 
+							weights[j * columns + k] + ";");
+				}
+				printWriter.println();
+			}
+			l++;
+		}
+		printWriter.close();
+	}
+	
+	/**
+	 * Writes 'network.h', which describes the shape of the network to the MCU code so that 
+	 * create_weights() and classify() in main.c handle any number of layers. The dense layers 
+	 * are described by layer_sizes and layer_activations, whose first entry is the input of the 
+	 * first dense layer. Convolution and pooling layers before them are described by the 
+	 * feature_ arrays under CONV_LAYERS; their shapes run from the input image to the last output.
+	 * 
+	 * @param fileName The name of the file to write
+	 * @throws FileNotFoundException
+	 */
+	private void writeNetworkHeader(String fileName) throws FileNotFoundException {
+		ArrayList<Layer> features = new ArrayList<Layer>();
+		ArrayList<DenseLayer> dense = new ArrayList<DenseLayer>();
+		for (Layer layer : layers) {
+			if (layer instanceof DenseLayer) dense.add((DenseLayer) layer);
+			else if (!(layer instanceof FlattenLayer)) features.add(layer);
+		}
+		int maxUnits = 0;
+		for (DenseLayer layer : dense) maxUnits = Math.max(maxUnits, layer.getOutputSize());
+		StringBuilder sizes = new StringBuilder(), activations = new StringBuilder();
+		sizes.append(dense.get(0).getInputSize());
+		for (int i = 0; i < dense.size(); i++) {
+			sizes.append(", ").append(dense.get(i).getOutputSize());
+			activations.append(i > 0 ? ", " : "").append(activationName(dense.get(i).getActivationFunction()));
+		}
+		
+		PrintWriter printWriter = new PrintWriter(fileName);
+		printWriter.println("// Shape of the network whose weights are in weights.txt: " + describe());
+		printWriter.println("#ifndef __NETWORK_H__");
+		printWriter.println("#define __NETWORK_H__");
+		printWriter.println();
+		printWriter.println("#define SIGMOID\t\t\t\t\t" + NeuralNet.SIGMOID + "\t\t\t// Activation functions");
+		printWriter.println("#define RELU\t\t\t\t\t" + NeuralNet.ReLU);
+		printWriter.println();
+		printWriter.println("#define NUM_WEIGHT_LAYERS\t\t" + dense.size());
+		printWriter.println("#define NUM_INPUT_UNITS\t\t\t" + layers.get(0).getInputSize());
+		printWriter.println("#define NUM_OUTPUT_UNITS\t\t" + dense.get(dense.size() - 1).getOutputSize());
+		printWriter.println("#define MAX_LAYER_UNITS\t\t\t" + maxUnits + "\t\t\t// Largest layer after the input layer");
+		printWriter.println();
+		printWriter.println("static const uint16_t layer_sizes[NUM_WEIGHT_LAYERS + 1] = {" + sizes + "};");
+		printWriter.println("static const uint8_t layer_activations[NUM_WEIGHT_LAYERS] = {" + activations + "};");
+		printWriter.println();
+		if (!features.isEmpty()) writeFeatureLayers(printWriter, features);
+		printWriter.println("#endif");
+		printWriter.close();
+	}
+	
+	/**
+	 * Writes the CONV_LAYERS part of 'network.h'.
+	 * 
+	 * @param printWriter The writer of 'network.h'
+	 * @param features The convolution and pooling layers, in order
+	 */
+	private static void writeFeatureLayers(PrintWriter printWriter, ArrayList<Layer> features) {
+		StringBuilder types = new StringBuilder(), channels = new StringBuilder();
+		StringBuilder heights = new StringBuilder(), widths = new StringBuilder();
+		StringBuilder sizes = new StringBuilder(), strides = new StringBuilder();
+		StringBuilder paddings = new StringBuilder(), activations = new StringBuilder();
+		for (int f = 0; f < features.size(); f++) {
+			String separator = f > 0 ? ", " : "";
+			Layer layer = features.get(f);
+			if (layer instanceof ConvLayer) {
+				ConvLayer conv = (ConvLayer) layer;
+				if (0 == f) {
+					channels.append(conv.getInputChannels());
+					heights.append(conv.getInputHeight());
+					widths.append(conv.getInputWidth());
+				}
+				types.append(separator).append("CONV");
+				channels.append(", ").append(conv.getOutputChannels());
+				heights.append(", ").append(conv.getOutputHeight());
+				widths.append(", ").append(conv.getOutputWidth());
+				sizes.append(separator).append(conv.getKernelSize());
+				strides.append(separator).append(conv.getStride());
+				paddings.append(separator).append(conv.getPadding());
+				activations.append(separator).append(activationName(conv.getActivationFunction()));
+			}
+			else {
+				PoolLayer pool = (PoolLayer) layer;
+				if (0 == f) {
+					channels.append(pool.getChannels());
+					heights.append(pool.getInputHeight());
+					widths.append(pool.getInputWidth());
+				}
+				types.append(separator).append(PoolLayer.MAX == pool.getType() ? "MAX_POOL" : "AVERAGE_POOL");
+				channels.append(", ").append(pool.getChannels());
+				heights.append(", ").append(pool.getInputHeight() / pool.getSize());
+				widths.append(", ").append(pool.getInputWidth() / pool.getSize());
+				sizes.append(separator).append(pool.getSize());
+				strides.append(separator).append(pool.getSize());
+				paddings.append(separator).append(0);
+				activations.append(separator).append(0);
+			}
+		}
+		
+		printWriter.println("#define CONV_LAYERS\t\t\t\t\t\t\t// Convolution and pooling before the dense layers");
+		printWriter.println("#define CONV\t\t\t\t\t1\t\t\t// Types of those layers");
+		printWriter.println("#define MAX_POOL\t\t\t\t2");
+		printWriter.println("#define AVERAGE_POOL\t\t\t3");
+		printWriter.println("#define NUM_FEATURE_LAYERS\t\t" + features.size());
+		printWriter.println();
+		printWriter.println("static const uint8_t feature_types[NUM_FEATURE_LAYERS] = {" + types + "};");
+		printWriter.println("// Channels, height and width of the image each layer takes, then of the last output");
+		printWriter.println("static const uint16_t feature_channels[NUM_FEATURE_LAYERS + 1] = {" + channels + "};");
+		printWriter.println("static const uint16_t feature_heights[NUM_FEATURE_LAYERS + 1] = {" + heights + "};");
+		printWriter.println("static const uint16_t feature_widths[NUM_FEATURE_LAYERS + 1] = {" + widths + "};");
+		printWriter.println("// Kernel or window size, stride, zero padding and activation function of each layer");
+		printWriter.println("static const uint8_t feature_sizes[NUM_FEATURE_LAYERS] = {" + sizes + "};");
+		printWriter.println("static const uint8_t feature_strides[NUM_FEATURE_LAYERS] = {" + strides + "};");
+		printWriter.println("static const uint8_t feature_paddings[NUM_FEATURE_LAYERS] = {" + paddings + "};");
+		printWriter.println("static const uint8_t feature_activations[NUM_FEATURE_LAYERS] = {" + activations + "};");
+		printWriter.println();
+	}
+	
+	/**
+	 * @param function The number corresponding to an activation function
+	 * @return The name 'network.h' defines for it
+	 */
+	private static String activationName(int function) {
+		return NeuralNet.ReLU == function ? "RELU" : "SIGMOID";
+	}
+	
+	/**
+	 * @return A description of the network's layers, written at the top of 'network.h', e.g., 
+	 * "256-conv4x3x3:relu-maxpool2-flatten-10:sigmoid"
+	 */
+	protected String describe() {
+		StringBuilder description = new StringBuilder().append(layers.get(0).getInputSize());
+		for (Layer layer : layers) {
+			description.append('-');
+			if (layer instanceof ConvLayer) {
+				ConvLayer conv = (ConvLayer) layer;
+				description.append("conv").append(conv.getOutputChannels()).append('x');
+				description.append(conv.getKernelSize()).append('x').append(conv.getKernelSize());
+				description.append(':').append(activationName(conv.getActivationFunction()).toLowerCase());
+			}
+			else if (layer instanceof PoolLayer) {
+				PoolLayer pool = (PoolLayer) layer;
+				description.append(PoolLayer.MAX == pool.getType() ? "maxpool" : "avgpool").append(pool.getSize());
+			}
+			else if (layer instanceof DenseLayer) {
+				DenseLayer dense = (DenseLayer) layer;
+				description.append(dense.getOutputSize()).append(':');
+				description.append(activationName(dense.getActivationFunction()).toLowerCase());
+			}
+			else description.append("flatten");
+		}
+		return description.toString();
+	}
+	
+	/**
+	 * @return Whether 'main.c' can run the network, i.e., whether it is convolution and pooling 
+	 * layers, if any, followed by at least one dense layer, with flatten layers anywhere
+	 */
+	public boolean runsOnMcu() {
+		boolean dense = false;
+		for (Layer layer : layers) {
+			if (layer instanceof DenseLayer) dense = true;
+			else if (layer instanceof ConvLayer || layer instanceof PoolLayer) {
+				if (dense) return false;
+			}
+			else if (!(layer instanceof FlattenLayer)) return false;
+		}
+		return dense;
+	}
+	
+	/**
+	 * @return Whether the FPGA datapath can run the network, i.e., whether every layer is a 
+	 * DenseLayer
+	 */
+	public boolean runsOnFpga() {
+		for (Layer layer : layers) {
+			if (!(layer instanceof DenseLayer)) return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * @param format The fixed-point format to write the FPGA file in; FixedPointFormat.FPGA unless 
+	 * set otherwise
+	 */
+	public void setFpgaFormat(FixedPointFormat format) {
+		fpgaFormat = format;
+	}
+	
+	/**
+	 * @return The fixed-point format the FPGA file is written in
+	 */
+	public FixedPointFormat getFpgaFormat() {
+		return fpgaFormat;
+	}
+	
+	/**
+	 * Writes the weights in the FPGA format of NeuralNet, in the same order as the MCU format: 
+	 * each weight rounded to the fixed-point format of getFpgaFormat(), saturating as that 
+	 * format does, with its code in hex.
+	 * 
+	 * @param fileName The name of the file to write
+	 * @throws FileNotFoundException
+	 */
+	private void writeWeightsToFile_FPGA(String fileName) throws FileNotFoundException {
+		PrintWriter printWriter = new PrintWriter(fileName);
+		int address = 0, l = 0;
+		for (Layer layer : layers) {
+			double[] weights = layer.getWeights();
+			if (null == weights) continue;
+			int rows = layer.getWeightRows(), columns = weights.length / rows;
+			printWriter.println("// Weights from layer " + l + " to layer " + (l + 1));
+			for (int j = 0; j < rows; j++) {
+				printWriter.println("// Weights feeding into layer " + (l + 1) + ", node " + j);
+				for (int k = 0; k < columns; k++) {
+					double weight = weights[j * columns + k];
+					printWriter.printf("@%d 0x%s\t\t// %.5f\n", address++, fpgaFormat.toHex(weight), weight);
+				}
+			}
+			l++;
+		}
+		printWriter.close();
+	}
+	
+	/**
+	 * Writes edge weights to a file in a format specified by the 'device' argument, placing the 
+	 * file in the given directory. For the MCU, 'network.h' is written alongside 'weights.txt'.
+	 * 
+	 * @param device The device reading the file: NeuralNet.MCU, NeuralNet.FPGA or NeuralNet.BOTH
+	 * @param directory The directory to write the files to
+	 * @throws FileNotFoundException
+	 * @throws IllegalStateException If the device cannot run the network; see runsOnMcu() and 
+	 * runsOnFpga()
+	 */
+	public void writeWeightsToFile(int device, String directory) throws FileNotFoundException {
+		if ((NeuralNet.MCU == device || NeuralNet.BOTH == device) && !runsOnMcu()) {
+			throw new IllegalStateException("The MCU only runs convolution and pooling layers followed by dense layers");
+		}
+		if ((NeuralNet.FPGA == device || NeuralNet.BOTH == device) && !runsOnFpga()) {
+			throw new IllegalStateException("The FPGA only runs networks of dense layers");
+		}
+		String mcuFile = new File(directory, "weights.txt").getPath();
+		String headerFile = new File(directory, "network.h").getPath();
+		String fpgaFile = new File(directory, "weights.dat").getPath();
+		switch (device) {
+			case NeuralNet.MCU:		writeWeightsToFile_MCU(mcuFile);
+									writeNetworkHeader(headerFile);
+									break;
+			case NeuralNet.FPGA:	writeWeightsToFile_FPGA(fpgaFile);
+									break;
+			case NeuralNet.BOTH:	writeWeightsToFile_MCU(mcuFile);
+									writeNetworkHeader(headerFile);
+									writeWeightsToFile_FPGA(fpgaFile);
+									break;
+			default:				System.err.println("Invalid device argument, unable to write to a file");
+									return;
+		}
+	}
+	
+	/**
+	 * Writes the layers and their weights to a checkpoint file that readCheckpoint() can load. 
+	 * Each layer is stored as its type and shape followed by its weights; pruning masks and 
+	 * quantization are not stored.
+	 * 
+	 * @param fileName The name of the checkpoint file
+	 * @throws IOException
+	 */
+	public void writeCheckpoint(String fileName) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream( 
+				new FileOutputStream(fileName)));
+		try {
+			out.writeInt(CHECKPOINT_MAGIC);
+			out.writeInt(layers.size());
+			for (Layer layer : layers) {
+				if (layer instanceof DenseLayer) {
+					DenseLayer dense = (DenseLayer) layer;
+					out.writeInt(DENSE);
+					out.writeInt(dense.getInputSize());
+					out.writeInt(dense.getOutputSize());
+					out.writeInt(dense.getActivationFunction());
+				}
+				else if (layer instanceof ConvLayer) {
+					ConvLayer conv = (ConvLayer) layer;
+					out.writeInt(CONV);
+					out.writeInt(conv.getInputChannels());
+					out.writeInt(conv.getInputHeight());
+					out.writeInt(conv.getInputWidth());
+					out.writeInt(conv.getOutputChannels());
+					out.writeInt(conv.getKernelSize());
+					out.writeInt(conv.getStride());
+					out.writeInt(conv.getPadding());
+					out.writeInt(conv.getActivationFunction());
+				}
+				else if (layer instanceof PoolLayer) {
+					PoolLayer pool = (PoolLayer) layer;
+					out.writeInt(POOL);
+					out.writeInt(pool.getChannels());
+					out.writeInt(pool.getInputHeight());
+					out.writeInt(pool.getInputWidth());
+					out.writeInt(pool.getSize());
+					out.writeInt(pool.getType());
+				}
+				else {
+					out.writeInt(FLATTEN);
+					out.writeInt(layer.getInputSize());
+				}
+				double[] weights = layer.getWeights();
+				if (null != weights) {
+					for (double weight : weights) out.writeDouble(weight);
+				}
+			}
+		}
+		finally {
+			out.close();
+		}
+	}
+	
+	/**
+	 * Reads a checkpoint file written by writeCheckpoint(), or one written by 
+	 * WeightSnapshot.writeCheckpoint(), which is loaded as a NeuralNet.
+	 * 
+	 * @param fileName The name of the checkpoint file
+	 * @return The network stored in the file
+	 * @throws IOException If the file cannot be read or is not a checkpoint
+	 */
+	public static LayerStack readCheckpoint(String fileName) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream( 
+				new FileInputStream(fileName)));
+		try {
+			if (in.readInt() != CHECKPOINT_MAGIC) {
+				return NeuralNet.fromSnapshot(WeightSnapshot.readCheckpoint(fileName));
+			}
+			ArrayList<Layer> layers = new ArrayList<Layer>();
+			int numLayers = in.readInt();
+			for (int i = 0; i < numLayers; i++) {
+				Layer layer;
+				switch (in.readInt()) {
+					case DENSE:		layer = new DenseLayer(in.readInt(), in.readInt(), in.readInt());
+									break;
+					case CONV:		layer = new ConvLayer(in.readInt(), in.readInt(), in.readInt(), 
+											in.readInt(), in.readInt(), in.readInt(), in.readInt(), 
+											in.readInt());
+									break;
+					case POOL:		layer = new PoolLayer(in.readInt(), in.readInt(), in.readInt(), 
+											in.readInt(), in.readInt());
+									break;
+					case FLATTEN:	layer = new FlattenLayer(in.readInt());
+									break;
+					default:		throw new IOException(fileName + " has a layer of unknown type");
+				}
+				double[] weights = layer.getWeights();
+				if (null != weights) {
+					for (int j = 0; j < weights.length; j++) weights[j] = in.readDouble();
+				}
+				layers.add(layer);
+			}
+			return new LayerStack(layers);
+		}
+		finally {
+			in.close();
+		}
+	}
+}
@@ -0,0 +1,75 @@
+import java.util.ArrayList;
+
+/**
+ * Wraps a trained network so that newly labeled instances can be folded into it while other 
+ * threads keep classifying. Updates are applied to the wrapped NeuralNet one at a time; after 
+ * each update a fresh WeightSnapshot is published, i.e., the weights are copied on write.
+ * Classification only reads the most recently published snapshot, so it never blocks and never 
+ * sees a half-updated set of weights.
+ */
+public class LiveModel {
+	private final NeuralNet nn;
+	private final double learningRate;
+	private final ModelHolder holder;
+	
+	/**
+	 * @param nn The network to update; it should not be trained elsewhere afterwards
+	 * @param learningRate The learning rate for updating weights
+	 */
+	public LiveModel(NeuralNet nn, double learningRate) {
+		this.nn = nn;
+		this.learningRate = learningRate;
+		holder = new ModelHolder(nn.snapshot());
+	}
+	
+	/**
+	 * @return The most recently published weights
+	 */
+	public WeightSnapshot getSnapshot() {
+		return holder.current();
+	}
+	
+	/**
+	 * @return The holder that updated weights are published to, e.g., for serving them
+	 */
+	public ModelHolder getHolder() {
+		return holder;
+	}
+	
+	/**
+	 * Classify a given instance using the most recently published weights.
+	 * 
+	 * @param input The input for a given instance
+	 * @return The classification according to the neural net
+	 */
+	public int classify(ArrayList<Double> input) {
+		return holder.current().classify(input);
+	}
+	
+	/**
+	 * Applies one backpropagation step for a newly labeled instance, then publishes the 
+	 * updated weights.
+	 * 
+	 * @param input The input for the instance
+	 * @param desiredOutput The desired output label for the instance
+	 */
+	public synchronized void update(ArrayList<Double> input, int desiredOutput) {
+		nn.update(input, desiredOutput, learningRate);
+		holder.publish(nn);
+	}
+	
+	/**
+	 * Applies one backpropagation step for each of several newly labeled instances, then 
+	 * publishes the updated weights once. Readers see either none or all of the batch.
+	 * 
+	 * @param inputs A list of inputs for each instance
+	 * @param desiredOutputs A list of desired output labels for each instance
+	 */
+	public synchronized void updateBatch(ArrayList<ArrayList<Double>> inputs, 
+			ArrayList<Integer> desiredOutputs) {
+		for (int i = 0; i < inputs.size(); i++) {
+			nn.update(inputs.get(i), desiredOutputs.get(i), learningRate);
+		}
+		holder.publish(nn);
+	}
+}
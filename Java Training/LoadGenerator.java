@@ -0,0 +1,117 @@
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sends the instances in 'semeion.data' to a running ClassificationServer from several threads 
+ * at once, then reports latency percentiles, throughput and accuracy.
+ */
+public class LoadGenerator {
+	/**
+	 * Usage: java LoadGenerator [url] [concurrent clients] [total requests]
+	 */
+	public static void main(String[] args) throws InterruptedException {
+		final String url = args.length > 0 ? args[0] : "http://localhost:8080/classify";
+		final int numClients = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+		final int numRequests = args.length > 2 ? Integer.parseInt(args[2]) : 20000;
+		
+		ArrayList<Instance> instances = null;
+		try {
+			instances = Main.readInstances("semeion.data");
+		}
+		catch (FileNotFoundException e) {
+			System.err.println("Cannot find semeion.data");
+			System.exit(0);
+		}
+		final String[] images = new String[instances.size()];
+		final int[] labels = new int[instances.size()];
+		for (int i = 0; i < images.length; i++) {
+			images[i] = PackedImage.fromInput(instances.get(i).input).toHex();
+			labels[i] = instances.get(i).desiredOutput;
+		}
+		
+		// Each client repeatedly claims the next request number and records its latency
+		final long[] latencies = new long[numRequests];
+		final AtomicInteger nextRequest = new AtomicInteger();
+		final AtomicInteger numCorrect = new AtomicInteger();
+		final AtomicInteger numFailed = new AtomicInteger();
+		Thread[] clients = new Thread[numClients];
+		for (int c = 0; c < numClients; c++) {
+			clients[c] = new Thread(new Runnable() {
+				public void run() {
+					for (int r = nextRequest.getAndIncrement(); r < numRequests;
+							r = nextRequest.getAndIncrement()) {
+						int instance = r % images.length;
+						long start = System.nanoTime();
+						try {
+							int digit = classify(url, images[instance]);
+							if (digit == labels[instance]) numCorrect.incrementAndGet();
+						} catch (IOException e) {
+							numFailed.incrementAndGet();
+						}
+						latencies[r] = System.nanoTime() - start;
+					}
+				}
+			});
+		}
+		long start = System.nanoTime();
+		for (Thread t : clients) t.start();
+		for (Thread t : clients) t.join();
+		double seconds = (System.nanoTime() - start) / 1e9;
+		
+		Arrays.sort(latencies);
+		System.out.printf("%d requests from %d clients in %.2f s (%.0f requests/s)\n", numRequests, 
+				numClients, seconds, numRequests / seconds);
+		System.out.printf("Latency p50 %.3f ms, p99 %.3f ms, max %.3f ms\n", 
+				percentile(latencies, 0.50) / 1e6, percentile(latencies, 0.99) / 1e6,
+				latencies[numRequests - 1] / 1e6);
+		System.out.printf("Correctly classified: %.4f, failed requests: %d\n", 
+				(double) numCorrect.get() / numRequests, numFailed.get());
+	}
+	
+	/**
+	 * @param sorted Values sorted in ascending order
+	 * @param p The percentile as a fraction, e.g., 0.99
+	 * @return The smallest value that at least a fraction 'p' of the values do not exceed
+	 */
+	static long percentile(long[] sorted, double p) {
+		int index = (int) Math.ceil(p * sorted.length) - 1;
+		return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+	}
+	
+	/**
+	 * Sends one image to the server.
+	 * 
+	 * @param url The URL of the server's /classify endpoint
+	 * @param hex The image as 64 hex digits
+	 * @return The digit in the server's reply
+	 * @throws IOException If the request fails
+	 */
+	private static int classify(String url, String hex) throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+		connection.setRequestMethod("POST");
+		connection.setDoOutput(true);
+		connection.setRequestProperty("Content-Type", "text/plain");
+		byte[] body = hex.getBytes(StandardCharsets.US_ASCII);
+		connection.setFixedLengthStreamingMode(body.length);
+		OutputStream out = connection.getOutputStream();
+		out.write(body);
+		out.close();
+		if (connection.getResponseCode() != 200) throw new IOException("HTTP " + 
+				connection.getResponseCode());
+		InputStream in = connection.getInputStream();
+		String reply = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+		in.close();
+		
+		// The reply starts with {"digit":<digit>,
+		int begin = reply.indexOf(':') + 1;
+		return Integer.parseInt(reply.substring(begin, reply.indexOf(',', begin)));
+	}
+}
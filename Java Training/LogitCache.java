@@ -0,0 +1,87 @@
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.DoubleBuffer;
+
+/**
+ * A teacher network's output weighted sums (logits) for a fixed list of inputs, computed once 
+ * and kept in a memory-mapped file so that any number of student runs, in this process or 
+ * others, can read them without running the teacher again. The file is tagged with a fingerprint 
+ * of the teacher's weights and of the inputs; a file whose fingerprint does not match is 
+ * recomputed rather than read.
+ * 
+ * The mapped file is read-only and read with absolute gets, so a cache can be shared by any 
+ * number of threads.
+ */
+public class LogitCache {
+	// Identifies logit files, see MappedCacheFile; each instance's logits follow as doubles
+	private static final int LOGITS_MAGIC = 0x4E4E4C31;	// "NNL1"
+	
+	private final DoubleBuffer logits;
+	private final int numInstances;
+	private final int numOutputs;
+	
+	private LogitCache(DoubleBuffer logits, int numInstances, int numOutputs) {
+		this.logits = logits;
+		this.numInstances = numInstances;
+		this.numOutputs = numOutputs;
+	}
+	
+	/**
+	 * Maps the logits of a teacher for the given inputs, computing them and writing the file 
+	 * first if it does not exist or was computed for another teacher or other inputs.
+	 * 
+	 * @param fileName The name of the logit file
+	 * @param teacher The teacher network
+	 * @param inputs The inputs, in the order the logits are looked up by
+	 * @return The cache
+	 * @throws IOException If the file cannot be read or written
+	 */
+	public static LogitCache open(String fileName, final WeightSnapshot teacher, 
+			final double[][] inputs) throws IOException {
+		int numOutputs = teacher.getNumOutputs();
+		DoubleBuffer logits = new MappedCacheFile(fileName, LOGITS_MAGIC, fingerprint(teacher, inputs), 
+				inputs.length, numOutputs, 8) {
+			@Override
+			protected void writeValues(DataOutputStream out) throws IOException {
+				double[][] activations = teacher.newActivations();
+				double[] outputSums = new double[teacher.getNumOutputs()];
+				for (double[] input : inputs) {
+					teacher.propagateFwd(input, activations, outputSums);
+					for (double sum : outputSums) out.writeDouble(sum);
+				}
+			}
+		}.open().asDoubleBuffer();
+		return new LogitCache(logits, inputs.length, numOutputs);
+	}
+	
+	/**
+	 * Hashes every weight of the teacher, its shape and every input, so that a logit file is 
+	 * only reused for the same teacher and the same inputs in the same order.
+	 */
+	private static long fingerprint(WeightSnapshot teacher, double[][] inputs) {
+		long hash = teacher.getSpec().hashCode();
+		int numLayers = teacher.getUnitsPerLayer().length - 1;
+		for (int l = 0; l < numLayers; l++) {
+			for (double weight : teacher.getWeights(l)) hash = 31 * hash + Double.doubleToLongBits(weight);
+		}
+		return MappedCacheFile.hashInputs(hash, inputs);
+	}
+	
+	/**
+	 * @return The number of instances the cache holds logits for
+	 */
+	public int getNumInstances() {
+		return numInstances;
+	}
+	
+	/**
+	 * Copies the teacher's logits for an instance.
+	 * 
+	 * @param instance The index of the instance among the inputs the cache was opened with
+	 * @param logits Receives the weighted sum at each of the teacher's output units
+	 */
+	public void getLogits(int instance, double[] logits) {
+		int offset = instance * numOutputs;
+		for (int i = 0; i < numOutputs; i++) logits[i] = this.logits.get(offset + i);
+	}
+}
@@ -1,8 +1,13 @@
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Scanner;
+import java.util.SplittableRandom;
 
 /**
  * @author Zachary Zhou
@@ -13,47 +18,162 @@ public class Main {
 	private static final int NUM_OUTPUTS = 10;
 	private static final int NUM_EPOCHS = 100;
 	private static final double LEARNING_RATE = 0.02;
+	private static final String CHECKPOINT_FILE = "network.ckpt";
+	
+	// Run with -Dtraining.metrics=<file> to append per-epoch training metrics to the file as JSON 
+	// lines; they are also published over JMX while training runs
+	private static final String METRICS_PROPERTY = "training.metrics";
+	
+	// Run with -Dtraining.seed=<integer> to repeat a run exactly: the seed initializes the 
+	// weights and shuffles the instances, see RandomStreams. Each run prints the seed it used
+	private static final String SEED_PROPERTY = "training.seed";
+	
+	// Run with -Dtraining.init=<checkpoint> to continue training a saved network of the same 
+	// spec instead of initializing the weights afresh
+	private static final String INIT_PROPERTY = "training.init";
+	
+	// Run with -Dtraining.quantize=<format> to train with the weights quantized to a fixed-point 
+	// format, e.g., 8:64:twos:saturate, see FixedPointFormat; the FPGA file is written in it
+	private static final String QUANTIZE_PROPERTY = "training.quantize";
+	
+	// Run with -Dtraining.sampling=<fraction> to train each epoch on that fraction of the 
+	// instances' number, drawn with the hard instances oversampled, see SampleScheduler
+	private static final String SAMPLING_PROPERTY = "training.sampling";
+	
+	// Run with -Dtraining.sampling.correction=<c> to scale the sampled steps by importance 
+	// weights raised to c, from 0 to 1; 1, the default, corrects the oversampling exactly
+	private static final String CORRECTION_PROPERTY = "training.sampling.correction";
+	
+	// Run with -Dtraining.holdout=<fraction> to train on all but that fraction of the shuffled 
+	// instances and report the accuracy on the ones held out, e.g., to compare training.sampling 
+	// with training on every instance
+	private static final String HOLDOUT_PROPERTY = "training.holdout";
+	
+	// Convolutional network trained by "java Main conv", saved in a checkpoint of its layers
+	private static final int NUM_KERNELS = 4;
+	private static final int KERNEL_SIZE = 3;
+	private static final int POOL_SIZE = 2;
+	private static final int CONV_EPOCHS = 20;
+	private static final String CONV_CHECKPOINT_FILE = "conv.ckpt";
+	
+	// Distillation by "java Main distill": the teacher is kept in its own checkpoint and its 
+	// logits in a cache file, so later runs only train the student
+	private static final String TEACHER_SPEC = "256-256:relu-10:sigmoid";
+	private static final String TEACHER_CHECKPOINT_FILE = "teacher.ckpt";
+	private static final String LOGIT_CACHE_FILE = "teacher.logits";
+	private static final double TEMPERATURE = 4;
+	private static final double SOFT_TARGET_WEIGHT = 0.9;
+	private static final double DISTILLATION_LEARNING_RATE = 0.005;
+	
+	// Binarized network trained by "java Main binary"
+	private static final String BINARY_SPEC = "256-256-10";
+	private static final int BINARY_EPOCHS = 30;
+	private static final double BINARY_LEARNING_RATE = 0.2;
+	
+	// Verilog datapath generated by "java Main verilog" from the checkpoint of the last run, next to 
+	// the FPGA building blocks and 'training_instances.dat', which its testbench reads
+	private static final int VERILOG_LANES = 10;
+	private static final String VERILOG_DIRECTORY = "../FPGA Code";
+	private static final int[] STOCHASTIC_LENGTHS = {256, 1024};
+	
+	// Head retraining by "java Main head": the outputs of the frozen layers are cached in a file, 
+	// so later runs with the same frozen layers only train the head
+	private static final String FEATURE_CACHE_FILE = "frozen.features";
+	
+	// Data-parallel training by "java Main distributed": worker r listens on DISTRIBUTED_PORT + r 
+	// of this machine, or the port of -Ddistributed.port=<port> plus r. To train across machines, 
+	// run "java Main worker" on each with -Ddistributed.hosts=<host:port>,<host:port>,..., the 
+	// address of every worker by rank. Every worker trains on batches of DISTRIBUTED_BATCH_SIZE 
+	// instances
+	private static final String DISTRIBUTED_PORT_PROPERTY = "distributed.port";
+	private static final String DISTRIBUTED_HOSTS_PROPERTY = "distributed.hosts";
+	private static final int DISTRIBUTED_PORT = 47000;
+	private static final String DISTRIBUTED_HOST = "127.0.0.1";
+	private static final int DISTRIBUTED_BATCH_SIZE = 16;
+	private static final int DISTRIBUTED_TIMEOUT_MILLIS = 30000;
+	
+	// Comparison of Hogwild and synchronous training by "java Main hogwild", reported every 
+	// HOGWILD_REPORT_EPOCHS epochs
+	private static final int HOGWILD_REPORT_EPOCHS = 10;
+	
+	// Cost estimates by "java Main cost": run with -Dcost.sparsity=<fraction> to cost the sparse 
+	// MCU export at that sparsity and -Dcost.lanes=<integer> for the lanes of the FPGA datapath
+	private static final String COST_SPARSITY_PROPERTY = "cost.sparsity";
+	private static final String COST_LANES_PROPERTY = "cost.lanes";
 	
 	/**
 	 * Creates a neural network using instances from a training set. Uses the trained network to 
 	 * classify instances from a testing set.
+	 * 
+	 * Usage: java Main [conv | distill [teacher spec [temperature]] | binary [spec] | verilog [lanes] 
+	 * | head [frozen layers] | cost [latency | footprint] [spec ...] | distributed workers [spec] | 
+	 * worker rank workers [spec] | hogwild [threads [spec]] | spec [sparsity]], where 'spec' 
+	 * describes the network as in NeuralNet, e.g., 256-128:relu-64:relu-10:sigmoid, and 'sparsity' is 
+	 * the fraction of the hidden layers' weights to prune while training, e.g., 0.9. A pruned 
+	 * network's nonzero weights are also written in the sparse formats of SparseSnapshot. "distill" 
+	 * trains the usual network from a larger teacher network; see distill(). "binary" trains a 
+	 * BinaryNet, whose spec has no activation functions, e.g., 256-256-10. "verilog" generates the 
+	 * FPGA datapath of the network saved by the last run, see generateVerilog(). "head" retrains the 
+	 * last layers of that network with the first ones frozen, see retrainHead(). "distributed" trains 
+	 * the network in as many worker processes, see launchWorkers(); "worker" runs one of them, e.g., 
+	 * on each of several machines, see trainWorker(). "hogwild" compares training on many threads 
+	 * without locks against training on one, see compareHogwild(). "cost" estimates what networks 
+	 * cost on the devices without training them, see estimateCosts()
 	 */
 	public static void main(String[] args) {
-		// Read the 'semeion.data' file
-		ArrayList<Instance> instances = new ArrayList<Instance>();
-		Scanner stdin;
-		try {
-			stdin = new Scanner(new File("semeion.data"));
-			while (stdin.hasNextLine()) {
-				String[] line = stdin.nextLine().split(" ");
-				
-				// Create input for an instance
-				ArrayList<Double> input = new ArrayList<Double>();
-				for (int i = 0; i < NUM_INPUTS; i++) input.add(Double.valueOf(line[i]));
-				
-				// Create desired output for an instance
-				int desiredOutput = 0;	// Default 'desiredOutput' to 0
-				if (line[NUM_INPUTS + 1].equals("1")) desiredOutput = 1;
-				else if (line[NUM_INPUTS + 2].equals("1")) desiredOutput = 2;
-				else if (line[NUM_INPUTS + 3].equals("1")) desiredOutput = 3;
-				else if (line[NUM_INPUTS + 4].equals("1")) desiredOutput = 4;
-				else if (line[NUM_INPUTS + 5].equals("1")) desiredOutput = 5;
-				else if (line[NUM_INPUTS + 6].equals("1")) desiredOutput = 6;
-				else if (line[NUM_INPUTS + 7].equals("1")) desiredOutput = 7;
-				else if (line[NUM_INPUTS + 8].equals("1")) desiredOutput = 8;
-				else if (line[NUM_INPUTS + 9].equals("1")) desiredOutput = 9;
-				
-				// Add the instance to 'instances'
-				instances.add(new Instance(input, desiredOutput));
+		if (args.length > 0 && args[0].equals("cost")) {
+			estimateCosts(args);
+			return;
+		}
+		
+		String seed = System.getProperty(SEED_PROPERTY);
+		if (null != seed) {
+			try {
+				RandomStreams.setSeed(Long.parseLong(seed));
+			}
+			catch (NumberFormatException e) {
+				System.err.println("Invalid " + SEED_PROPERTY + " " + seed + ": must be an integer");
+				System.exit(0);
 			}
 		}
+		System.out.println("Random seed " + RandomStreams.getSeed());
+		
+		// The workers get the seed, so they all shuffle the instances alike
+		if (args.length > 0 && args[0].equals("distributed")) {
+			launchWorkers(args);
+			return;
+		}
+		
+		// Read the 'semeion.data' file
+		ArrayList<Instance> instances = null;
+		try {
+			instances = readInstances("semeion.data");
+		}
 		catch (FileNotFoundException e) {
 			System.err.println("Cannot find semeion.data");
 			System.exit(0);
 		}
 		
+		// Distillation looks the teacher's logits up by the instances' order in the file
+		if (args.length > 0 && args[0].equals("distill")) {
+			distill(instances, args);
+			return;
+		}
+		
+		// The testbench of the datapath reads the instances in the order of the file
+		if (args.length > 0 && args[0].equals("verilog")) {
+			generateVerilog(instances, args);
+			return;
+		}
+		
+		// The frozen layers' outputs are cached for the instances in the order of the file
+		if (args.length > 0 && args[0].equals("head")) {
+			retrainHead(instances, args);
+			return;
+		}
+		
 		// Shuffle instances so that instances with the same class labels aren't grouped together
-		Collections.shuffle(instances);
+		RandomStreams.shuffle(instances, RandomStreams.next(RandomStreams.SHUFFLE));
 		
 		// Create lists for training inputs and desired outputs
 		ArrayList<ArrayList<Double>> inputs = new ArrayList<ArrayList<Double>>();
@@ -63,20 +183,1058 @@ public class Main {
 			desiredOutputs.add(i.desiredOutput);
 		}
 		
+		if (args.length > 0 && args[0].equals("conv")) {
+			trainConvNet(inputs, desiredOutputs);
+			return;
+		}
+		if (args.length > 0 && args[0].equals("worker")) {
+			trainWorker(inputs, desiredOutputs, args);
+			return;
+		}
+		if (args.length > 0 && args[0].equals("hogwild")) {
+			compareHogwild(instances, args);
+			return;
+		}
+		if (args.length > 0 && args[0].equals("binary")) {
+			trainBinaryNet(inputs, desiredOutputs, args.length > 1 ? args[1] : BINARY_SPEC);
+			return;
+		}
+		
 		// Construct and train the network
+		NeuralNet nn = null;
+		double sparsity = 0;
+		if (args.length > 1) {
+			try {
+				sparsity = Double.parseDouble(args[1]);
+			}
+			catch (NumberFormatException e) {
+				sparsity = -1;
+			}
+			if (!(sparsity >= 0 && sparsity < 1)) {
+				System.err.println("Invalid sparsity " + args[1] + ": must be at least 0 and below 1");
+				System.exit(0);
+			}
+		}
+		if (args.length > 0) {
+			try {
+				nn = new NeuralNet(args[0]);
+			}
+			catch (IllegalArgumentException e) {
+				System.err.println("Invalid network spec " + args[0] + ": " + e.getMessage());
+				System.exit(0);
+			}
+		}
+		else nn = newDefaultNetwork();
+		String initFile = System.getProperty(INIT_PROPERTY);
+		if (null != initFile) {
+			WeightSnapshot snapshot = null;
+			try {
+				snapshot = WeightSnapshot.readCheckpoint(initFile);
+			} catch (IOException e) {
+				System.err.println("Cannot read " + initFile);
+				System.exit(0);
+			}
+			if (!snapshot.getSpec().equals(nn.getSpec())) {
+				System.err.println(initFile + " holds a " + snapshot.getSpec() + " network, not " + 
+						nn.getSpec());
+				System.exit(0);
+			}
+			nn = NeuralNet.fromSnapshot(snapshot);
+		}
+		String quantization = System.getProperty(QUANTIZE_PROPERTY);
+		if (null != quantization) {
+			try {
+				nn.setQuantization(FixedPointFormat.parse(quantization));
+			}
+			catch (IllegalArgumentException e) {
+				System.err.println("Invalid " + QUANTIZE_PROPERTY + " " + quantization + ": " + 
+						e.getMessage());
+				System.exit(0);
+			}
+		}
+		double stepFraction = 0;
+		String sampling = System.getProperty(SAMPLING_PROPERTY);
+		if (null != sampling) {
+			stepFraction = -1;
+			try {
+				stepFraction = Double.parseDouble(sampling);
+			}
+			catch (NumberFormatException e) {
+				// Reported below
+			}
+			if (!(stepFraction > 0)) {
+				System.err.println("Invalid " + SAMPLING_PROPERTY + " " + sampling + ": must be positive");
+				System.exit(0);
+			}
+			if (sparsity > 0) {
+				System.err.println(SAMPLING_PROPERTY + " cannot be combined with pruning");
+				System.exit(0);
+			}
+		}
+		double correction = SampleScheduler.DEFAULT_CORRECTION;
+		String correctionValue = System.getProperty(CORRECTION_PROPERTY);
+		if (null != correctionValue) {
+			correction = -1;
+			try {
+				correction = Double.parseDouble(correctionValue);
+			}
+			catch (NumberFormatException e) {
+				// Reported below
+			}
+			if (!(correction >= 0 && correction <= 1)) {
+				System.err.println("Invalid " + CORRECTION_PROPERTY + " " + correctionValue + 
+						": must be from 0 to 1");
+				System.exit(0);
+			}
+		}
+		double holdout = 0;
+		String holdoutValue = System.getProperty(HOLDOUT_PROPERTY);
+		if (null != holdoutValue) {
+			holdout = -1;
+			try {
+				holdout = Double.parseDouble(holdoutValue);
+			}
+			catch (NumberFormatException e) {
+				// Reported below
+			}
+			if (!(holdout > 0 && holdout < 1)) {
+				System.err.println("Invalid " + HOLDOUT_PROPERTY + " " + holdoutValue + 
+						": must be above 0 and below 1");
+				System.exit(0);
+			}
+		}
+		
+		// Hold out the last of the shuffled instances
+		int numTraining = inputs.size() - (int) Math.round(holdout * inputs.size());
+		if (holdout > 0 && (numTraining < 1 || numTraining == inputs.size())) {
+			System.err.println(HOLDOUT_PROPERTY + " " + holdoutValue + " leaves no instances to " + 
+					(numTraining < 1 ? "train on" : "hold out"));
+			System.exit(0);
+		}
+		ArrayList<ArrayList<Double>> heldOutInputs = 
+				new ArrayList<ArrayList<Double>>(inputs.subList(numTraining, inputs.size()));
+		ArrayList<Integer> heldOutDesiredOutputs = 
+				new ArrayList<Integer>(desiredOutputs.subList(numTraining, inputs.size()));
+		inputs.subList(numTraining, inputs.size()).clear();
+		desiredOutputs.subList(numTraining, desiredOutputs.size()).clear();
+		
+		SampleScheduler scheduler = null;
+		if (stepFraction > 0) {
+			scheduler = new SampleScheduler(inputs.size(), stepFraction, 
+					RandomStreams.next(RandomStreams.SAMPLING));
+			scheduler.setCorrection(correction);
+		}
+		TrainingMetrics metrics = newMetrics();
+		nn.setMetrics(metrics);
+		if (sparsity > 0) nn.train(inputs, desiredOutputs, NUM_EPOCHS, LEARNING_RATE, sparsity);
+		else if (null != scheduler) {
+			List<Instance> training = instances.subList(0, numTraining);
+			nn.train(toArrays(training), toLabels(training), scheduler, NUM_EPOCHS, LEARNING_RATE);
+		}
+		else nn.train(inputs, desiredOutputs, NUM_EPOCHS, LEARNING_RATE);
+		if (null != metrics) metrics.close();
+		if (!heldOutInputs.isEmpty()) {
+			System.out.printf("Training accuracy %.4f, held-out accuracy %.4f on %d instances\n", 
+					accuracy(nn, inputs, desiredOutputs), 
+					accuracy(nn, heldOutInputs, heldOutDesiredOutputs), heldOutInputs.size());
+		}
+		saveNetwork(nn, sparsity > 0);
+	}
+	
+	/**
+	 * @return The fraction of the given instances the network classifies correctly
+	 */
+	private static double accuracy(NeuralNet nn, ArrayList<ArrayList<Double>> inputs, 
+			ArrayList<Integer> desiredOutputs) {
+		int numCorrect = 0;
+		for (int i = 0; i < inputs.size(); i++) {
+			if (nn.classify(inputs.get(i)) == desiredOutputs.get(i)) numCorrect++;
+		}
+		return (double) numCorrect / inputs.size();
+	}
+	
+	/**
+	 * @return Metrics writing to the file named by the training.metrics system property, or null 
+	 * if it is not set
+	 */
+	private static TrainingMetrics newMetrics() {
+		String fileName = System.getProperty(METRICS_PROPERTY);
+		if (null == fileName) return null;
+		try {
+			return new TrainingMetrics("Main", fileName);
+		} catch (IOException e) {
+			System.err.println("Cannot open " + fileName);
+			System.exit(0);
+			return null;
+		}
+	}
+	
+	/**
+	 * @return A network of the shape deployed on the MCU: NUM_HIDDEN sigmoid units between the 
+	 * inputs and outputs
+	 */
+	private static NeuralNet newDefaultNetwork() {
 		ArrayList<Integer> unitsPerLayer = new ArrayList<Integer>();
 		unitsPerLayer.add(NUM_INPUTS);
 		for (int i : NUM_HIDDEN) unitsPerLayer.add(i);
 		unitsPerLayer.add(NUM_OUTPUTS);
-		NeuralNet nn = new NeuralNet(unitsPerLayer, NeuralNet.SIGMOID);
-		nn.train(inputs, desiredOutputs, NUM_EPOCHS, LEARNING_RATE);
-		
+		return new NeuralNet(unitsPerLayer, NeuralNet.SIGMOID);
+	}
+	
+	/**
+	 * Writes a trained network's weights for both devices and saves its checkpoint.
+	 * 
+	 * @param nn The trained network
+	 * @param sparse Whether to write the nonzero weights in the sparse formats as well
+	 */
+	private static void saveNetwork(NeuralNet nn, boolean sparse) {
 		// Write the edge weights to the files
 		try {
 			nn.writeWeightsToFile(NeuralNet.BOTH);
+			if (sparse) new SparseSnapshot(nn.snapshot()).writeWeightsToFile(NeuralNet.BOTH, ".");
 		} catch (FileNotFoundException e) {
 			System.err.println("Cannot create the file");
 			System.exit(0);
 		}
+		
+		// Save a checkpoint that ModelHolder can load into a running inference service
+		try {
+			nn.snapshot().writeCheckpoint(CHECKPOINT_FILE);
+		} catch (IOException e) {
+			System.err.println("Cannot write " + CHECKPOINT_FILE);
+			System.exit(0);
+		}
+	}
+	
+	/**
+	 * Trains the network of the usual shape as the student of a larger teacher network, see 
+	 * DistillationTrainer, and writes its weights and checkpoint as usual. The teacher is read 
+	 * from 'teacher.ckpt' if that holds a network of the requested shape, and is trained and 
+	 * saved there otherwise. Its logits are cached in 'teacher.logits', so runs that only change 
+	 * the temperature do not run the teacher again.
+	 * 
+	 * @param instances The instances, in the order of the data file
+	 * @param args The arguments of main(): "distill", then optionally the teacher's spec and the 
+	 * temperature
+	 */
+	private static void distill(ArrayList<Instance> instances, String[] args) {
+		String teacherSpec = args.length > 1 ? args[1] : TEACHER_SPEC;
+		double temperature = TEMPERATURE;
+		if (args.length > 2) {
+			try {
+				temperature = Double.parseDouble(args[2]);
+			}
+			catch (NumberFormatException e) {
+				temperature = -1;
+			}
+			if (!(temperature > 0)) {
+				System.err.println("Invalid temperature " + args[2] + ": must be positive");
+				System.exit(0);
+			}
+		}
+		
+		double[][] inputs = toArrays(instances);
+		int[] desiredOutputs = toLabels(instances);
+		int[] order = shuffledOrder(instances.size());
+		
+		NeuralNet teacherNet = null;
+		try {
+			teacherNet = new NeuralNet(teacherSpec);
+		}
+		catch (IllegalArgumentException e) {
+			System.err.println("Invalid network spec " + teacherSpec + ": " + e.getMessage());
+			System.exit(0);
+		}
+		WeightSnapshot teacher = null;
+		try {
+			teacher = WeightSnapshot.readCheckpoint(TEACHER_CHECKPOINT_FILE);
+		}
+		catch (IOException e) {
+			// No teacher yet; it is trained below
+		}
+		if (null != teacher && !teacher.getSpec().equals(teacherNet.getSpec())) teacher = null;
+		if (null == teacher) {
+			for (int i = 0; i < NUM_EPOCHS; i++) {
+				for (int j : order) teacherNet.update(inputs[j], desiredOutputs[j], LEARNING_RATE);
+			}
+			teacher = teacherNet.snapshot();
+			try {
+				teacher.writeCheckpoint(TEACHER_CHECKPOINT_FILE);
+			} catch (IOException e) {
+				System.err.println("Cannot write " + TEACHER_CHECKPOINT_FILE);
+				System.exit(0);
+			}
+		}
+		
+		LogitCache logits = null;
+		try {
+			logits = LogitCache.open(LOGIT_CACHE_FILE, teacher, inputs);
+		} catch (IOException e) {
+			System.err.println("Cannot cache the teacher's logits in " + LOGIT_CACHE_FILE + ": " + 
+					e.getMessage());
+			System.exit(0);
+		}
+		
+		NeuralNet student = newDefaultNetwork();
+		new DistillationTrainer(teacher, logits, temperature, SOFT_TARGET_WEIGHT).train(student, 
+				inputs, desiredOutputs, order, NUM_EPOCHS, DISTILLATION_LEARNING_RATE);
+		
+		int teacherCorrect = 0, studentCorrect = 0;
+		double[][] activations = teacher.newActivations();
+		for (int i = 0; i < inputs.length; i++) {
+			if (teacher.classify(inputs[i], activations) == desiredOutputs[i]) teacherCorrect++;
+			if (student.classify(inputs[i]) == desiredOutputs[i]) studentCorrect++;
+		}
+		System.out.printf("Training accuracy: teacher %s %.4f, student %s %.4f\n", teacher.getSpec(), 
+				(double) teacherCorrect / inputs.length, student.getSpec(), 
+				(double) studentCorrect / inputs.length);
+		saveNetwork(student, false);
+	}
+	
+	/**
+	 * Starts the workers of data-parallel training as processes of this JVM on this machine, each 
+	 * running "java Main worker rank workers [spec]" with this run's seed, and waits for them. 
+	 * When a worker fails, e.g., because it lost a neighbour in the ring, the others are stopped 
+	 * and the launcher exits with status 1. Worker 0 writes the weights and checkpoint as usual. 
+	 * The workers listen on the addresses of workerAddresses().
+	 * 
+	 * @param args The arguments of main(): "distributed", the number of workers and optionally 
+	 * the spec of the network
+	 */
+	private static void launchWorkers(String[] args) {
+		int numWorkers = 0;
+		if (args.length > 1) {
+			try {
+				numWorkers = Integer.parseInt(args[1]);
+			}
+			catch (NumberFormatException e) {
+				numWorkers = 0;
+			}
+		}
+		if (numWorkers < 1) {
+			System.err.println("Expected the number of workers as a positive integer");
+			System.exit(0);
+		}
+		int basePort = Integer.getInteger(DISTRIBUTED_PORT_PROPERTY, DISTRIBUTED_PORT);
+		String hosts = System.getProperty(DISTRIBUTED_HOSTS_PROPERTY);
+		workerAddresses(numWorkers);	// Reports an invalid list before any worker starts
+		String java = new File(new File(System.getProperty("java.home"), "bin"), "java").getPath();
+		ArrayList<Process> workers = new ArrayList<Process>();
+		try {
+			for (int rank = 0; rank < numWorkers; rank++) {
+				ArrayList<String> command = new ArrayList<String>();
+				command.add(java);
+				command.add("-cp");
+				command.add(System.getProperty("java.class.path"));
+				command.add("-D" + SEED_PROPERTY + "=" + RandomStreams.getSeed());
+				command.add("-D" + DISTRIBUTED_PORT_PROPERTY + "=" + basePort);
+				if (null != hosts) command.add("-D" + DISTRIBUTED_HOSTS_PROPERTY + "=" + hosts);
+				command.add("Main");
+				command.add("worker");
+				command.add(Integer.toString(rank));
+				command.add(Integer.toString(numWorkers));
+				if (args.length > 2) command.add(args[2]);
+				workers.add(new ProcessBuilder(command).inheritIO().start());
+			}
+		}
+		catch (IOException e) {
+			System.err.println("Cannot start a worker: " + e.getMessage());
+			for (Process worker : workers) worker.destroy();
+			System.exit(1);
+		}
+		
+		// Poll rather than wait for the workers in turn, so a failure of any is seen at once
+		try {
+			boolean running = true;
+			while (running) {
+				running = false;
+				for (int rank = 0; rank < numWorkers; rank++) {
+					Process worker = workers.get(rank);
+					if (worker.isAlive()) running = true;
+					else if (0 != worker.exitValue()) {
+						System.err.println("Worker " + rank + " failed; stopping the others");
+						for (Process other : workers) other.destroy();
+						System.exit(1);
+					}
+				}
+				if (running) Thread.sleep(100);
+			}
+		}
+		catch (InterruptedException e) {
+			for (Process worker : workers) worker.destroy();
+		}
+	}
+	
+	/**
+	 * @param numWorkers The number of workers
+	 * @return The address of every worker by rank: those listed by DISTRIBUTED_HOSTS_PROPERTY if 
+	 * it is set, which must list numWorkers, or else consecutive ports of this machine from 
+	 * DISTRIBUTED_PORT_PROPERTY
+	 */
+	private static InetSocketAddress[] workerAddresses(int numWorkers) {
+		InetSocketAddress[] addresses = new InetSocketAddress[numWorkers];
+		String hosts = System.getProperty(DISTRIBUTED_HOSTS_PROPERTY);
+		if (null == hosts) {
+			int basePort = Integer.getInteger(DISTRIBUTED_PORT_PROPERTY, DISTRIBUTED_PORT);
+			for (int rank = 0; rank < numWorkers; rank++) {
+				addresses[rank] = new InetSocketAddress(DISTRIBUTED_HOST, basePort + rank);
+			}
+			return addresses;
+		}
+		
+		String[] entries = hosts.split(",");
+		if (entries.length != numWorkers) {
+			System.err.println("Invalid " + DISTRIBUTED_HOSTS_PROPERTY + " " + hosts + ": lists " + 
+					entries.length + " workers, not " + numWorkers);
+			System.exit(0);
+		}
+		for (int rank = 0; rank < numWorkers; rank++) {
+			String entry = entries[rank].trim();
+			int colon = entry.lastIndexOf(':');
+			int port = -1;
+			try {
+				if (colon > 0) port = Integer.parseInt(entry.substring(colon + 1));
+			}
+			catch (NumberFormatException e) {
+				port = -1;
+			}
+			if (port < 1 || port > 65535) {
+				System.err.println("Invalid " + DISTRIBUTED_HOSTS_PROPERTY + " entry " + entry + 
+						": expected host:port");
+				System.exit(0);
+			}
+			addresses[rank] = new InetSocketAddress(entry.substring(0, colon), port);
+			if (addresses[rank].isUnresolved()) {
+				System.err.println("Cannot resolve " + entry.substring(0, colon));
+				System.exit(0);
+			}
+		}
+		return addresses;
+	}
+	
+	/**
+	 * Trains as one worker of data-parallel training, see DistributedTrainer: joins the ring of 
+	 * workers, trains on every workers-th instance from the rank-th on and, on worker 0, prints 
+	 * the accuracy and writes the weights and checkpoint as usual. Exits with status 1 if the 
+	 * ring fails, so that the launcher stops the other workers. Run directly on each machine, with 
+	 * DISTRIBUTED_HOSTS_PROPERTY set, to train across machines; every worker needs the same seed.
+	 * 
+	 * @param inputs A list of inputs for each training instance, shuffled alike by every worker
+	 * @param desiredOutputs A list of desired output labels for each training instance
+	 * @param args The arguments of main(): "worker", the rank, the number of workers and 
+	 * optionally the spec of the network
+	 */
+	private static void trainWorker(ArrayList<ArrayList<Double>> inputs, 
+			ArrayList<Integer> desiredOutputs, String[] args) {
+		int rank = -1, numWorkers = 0;
+		try {
+			rank = Integer.parseInt(args[1]);
+			numWorkers = Integer.parseInt(args[2]);
+		}
+		catch (RuntimeException e) {
+			// Reported below
+		}
+		if (numWorkers < 1 || rank < 0 || rank >= numWorkers) {
+			System.err.println("Expected the rank and the number of workers");
+			System.exit(0);
+		}
+		NeuralNet nn = null;
+		if (args.length > 3) {
+			try {
+				nn = new NeuralNet(args[3]);
+			}
+			catch (IllegalArgumentException e) {
+				System.err.println("Invalid network spec " + args[3] + ": " + e.getMessage());
+				System.exit(0);
+			}
+		}
+		else nn = newDefaultNetwork();
+		
+		// Every worker runs the same number of batches, as many as the largest shard takes
+		int shardSize = (inputs.size() - rank + numWorkers - 1) / numWorkers;
+		int maxShardSize = (inputs.size() + numWorkers - 1) / numWorkers;
+		int batchesPerEpoch = (maxShardSize + DISTRIBUTED_BATCH_SIZE - 1) / DISTRIBUTED_BATCH_SIZE;
+		double[][] shardInputs = new double[shardSize][NUM_INPUTS];
+		int[] shardOutputs = new int[shardSize];
+		for (int i = 0; i < shardSize; i++) {
+			ArrayList<Double> input = inputs.get(rank + i * numWorkers);
+			for (int j = 0; j < NUM_INPUTS; j++) shardInputs[i][j] = input.get(j);
+			shardOutputs[i] = desiredOutputs.get(rank + i * numWorkers);
+		}
+		
+		InetSocketAddress[] addresses = workerAddresses(numWorkers);
+		long start = System.nanoTime();
+		RingAllReduce ring = null;
+		try {
+			ring = RingAllReduce.connect(rank, addresses, DistributedTrainer.getNumParameters(nn), 
+					DISTRIBUTED_TIMEOUT_MILLIS);
+			DistributedTrainer trainer = new DistributedTrainer(nn, ring);
+			trainer.broadcastWeights();
+			trainer.train(shardInputs, shardOutputs, batchesPerEpoch, DISTRIBUTED_BATCH_SIZE, 
+					NUM_EPOCHS, LEARNING_RATE, RandomStreams.stream(RandomStreams.SHUFFLE, 1 + rank));
+			ring.close();
+		}
+		catch (IOException e) {
+			// Unlike the other errors, a nonzero status, which the launcher watches for
+			System.err.println("Worker " + rank + ": " + e.getMessage());
+			System.exit(1);
+		}
+		if (0 != rank) return;
+		
+		int numCorrect = 0;
+		for (int i = 0; i < inputs.size(); i++) {
+			if (nn.classify(inputs.get(i)) == desiredOutputs.get(i)) numCorrect++;
+		}
+		System.out.printf("Trained %s on %d workers in %.1f s: training accuracy %.4f\n", nn.getSpec(), 
+				numWorkers, (System.nanoTime() - start) / 1e9, (double) numCorrect / inputs.size());
+		saveNetwork(nn, false);
+	}
+	
+	/**
+	 * Trains two copies of a network from the same initial weights, one on a single thread and 
+	 * one by Hogwild on several threads, see HogwildTrainer, and prints how their loss 
+	 * and accuracy on the training set converge and how many instances per second each trains. 
+	 * The Hogwild network's weights and checkpoint are written as usual.
+	 * 
+	 * @param instances The instances, shuffled
+	 * @param args The arguments of main(): "hogwild", then optionally the number of threads, by 
+	 * default one per processor, and the spec of the network
+	 */
+	private static void compareHogwild(ArrayList<Instance> instances, String[] args) {
+		int numThreads = Runtime.getRuntime().availableProcessors();
+		if (args.length > 1) {
+			try {
+				numThreads = Integer.parseInt(args[1]);
+			}
+			catch (NumberFormatException e) {
+				numThreads = 0;
+			}
+			if (numThreads < 1) {
+				System.err.println("Invalid number of threads " + args[1] + ": must be a positive integer");
+				System.exit(0);
+			}
+		}
+		NeuralNet synchronous = null;
+		if (args.length > 2) {
+			try {
+				synchronous = new NeuralNet(args[2]);
+			}
+			catch (IllegalArgumentException e) {
+				System.err.println("Invalid network spec " + args[2] + ": " + e.getMessage());
+				System.exit(0);
+			}
+		}
+		else synchronous = newDefaultNetwork();
+		NeuralNet hogwild = NeuralNet.fromSnapshot(synchronous.snapshot());
+		HogwildTrainer trainer = new HogwildTrainer(hogwild, numThreads);
+		TrainingMetrics metrics = newMetrics();
+		trainer.setMetrics(metrics);
+		
+		double[][] inputArrays = toArrays(instances);
+		int[] labels = toLabels(instances), order = new int[inputArrays.length];
+		for (int i = 0; i < order.length; i++) order[i] = i;
+		
+		// The single thread reshuffles every epoch like the Hogwild threads, from its own stream
+		SplittableRandom random = RandomStreams.next(RandomStreams.SHUFFLE);
+		System.out.printf("%s, 1 thread against %d Hogwild threads\n", synchronous.getSpec(), numThreads);
+		System.out.printf("%6s %12s %10s %12s %12s %10s %12s\n", "epoch", "sync loss", "accuracy", 
+				"inst/s", "hogwild loss", "accuracy", "inst/s");
+		long synchronousNanos = 0, hogwildNanos = 0;
+		for (int epoch = 0; epoch < NUM_EPOCHS; epoch += HOGWILD_REPORT_EPOCHS) {
+			int numEpochs = Math.min(HOGWILD_REPORT_EPOCHS, NUM_EPOCHS - epoch);
+			long start = System.nanoTime();
+			for (int i = 0; i < numEpochs; i++) {
+				RandomStreams.shuffle(order, random);
+				for (int j : order) synchronous.update(inputArrays[j], labels[j], LEARNING_RATE);
+			}
+			long synchronousEnd = System.nanoTime();
+			trainer.train(inputArrays, labels, numEpochs, LEARNING_RATE);
+			long hogwildEnd = System.nanoTime();
+			synchronousNanos += synchronousEnd - start;
+			hogwildNanos += hogwildEnd - synchronousEnd;
+			
+			double numTrained = (double) numEpochs * inputArrays.length;
+			double[] synchronousResult = evaluate(synchronous, inputArrays, labels);
+			double[] hogwildResult = evaluate(hogwild, inputArrays, labels);
+			System.out.printf("%6d %12.5f %10.4f %12.0f %12.5f %10.4f %12.0f\n", epoch + numEpochs, 
+					synchronousResult[0], synchronousResult[1], numTrained / ((synchronousEnd - start) / 1e9), 
+					hogwildResult[0], hogwildResult[1], numTrained / ((hogwildEnd - synchronousEnd) / 1e9));
+		}
+		trainer.close();
+		if (null != metrics) metrics.close();
+		System.out.printf("Hogwild trained %.2fx as many instances per second\n", 
+				(double) synchronousNanos / hogwildNanos);
+		saveNetwork(hogwild, false);
+	}
+	
+	/**
+	 * @return The loss, half the mean squared error as in TrainingMetrics, and the accuracy of a 
+	 * network on the given instances
+	 */
+	private static double[] evaluate(NeuralNet nn, double[][] inputs, int[] desiredOutputs) {
+		double squaredError = 0;
+		int numCorrect = 0;
+		for (int i = 0; i < inputs.length; i++) {
+			double[] output = nn.propagateFwd(inputs[i]);
+			for (int k = 0; k < output.length; k++) {
+				double error = (desiredOutputs[i] == k ? 1.0 : 0.0) - output[k];
+				squaredError += error * error;
+			}
+			if (WeightSnapshot.argmax(output) == desiredOutputs[i]) numCorrect++;
+		}
+		return new double[] {squaredError / (2 * inputs.length), (double) numCorrect / inputs.length};
+	}
+	
+	/**
+	 * Retrains the last layers of the network in 'network.ckpt', e.g., to fix a class it gets 
+	 * wrong, with the first layers frozen, and writes its weights and checkpoint as usual. The 
+	 * frozen layers' outputs are computed once into 'frozen.features', see FeatureCache, and 
+	 * every epoch only runs the head; a later run with the same frozen layers reuses the file. 
+	 * Prints the accuracy on each class before and after.
+	 * 
+	 * @param instances The instances, in the order of the data file
+	 * @param args The arguments of main(): "head", then optionally the number of layers to 
+	 * freeze, all but the output layer by default
+	 */
+	private static void retrainHead(ArrayList<Instance> instances, String[] args) {
+		WeightSnapshot snapshot = null;
+		try {
+			snapshot = WeightSnapshot.readCheckpoint(CHECKPOINT_FILE);
+		} catch (IOException e) {
+			System.err.println("Cannot read " + CHECKPOINT_FILE + "; train a network first");
+			System.exit(0);
+		}
+		NeuralNet nn = NeuralNet.fromSnapshot(snapshot);
+		int numLayers = nn.getLayers().size();
+		if (numLayers < 2) {
+			System.err.println("The " + nn.getSpec() + " network in " + CHECKPOINT_FILE + 
+					" has a single layer, so there is no layer to freeze");
+			System.exit(0);
+		}
+		int numFrozen = numLayers - 1;
+		if (args.length > 1) {
+			try {
+				numFrozen = Integer.parseInt(args[1]);
+			}
+			catch (NumberFormatException e) {
+				numFrozen = 0;
+			}
+			if (numFrozen < 1 || numFrozen >= numLayers) {
+				System.err.println("Invalid number of frozen layers " + args[1] + ": must be from 1 to " + 
+						(numLayers - 1) + " for " + nn.getSpec());
+				System.exit(0);
+			}
+		}
+		
+		double[][] inputs = toArrays(instances);
+		int[] desiredOutputs = toLabels(instances);
+		int[] order = shuffledOrder(instances.size());
+		
+		printClassAccuracies("Before", nn, inputs, desiredOutputs);
+		long start = System.nanoTime();
+		FeatureCache features = null;
+		try {
+			features = FeatureCache.open(FEATURE_CACHE_FILE, nn, numFrozen, inputs);
+		} catch (IOException e) {
+			System.err.println("Cannot cache the frozen layers' outputs in " + FEATURE_CACHE_FILE + 
+					": " + e.getMessage());
+			System.exit(0);
+		}
+		long cached = System.nanoTime();
+		nn.trainHead(features, desiredOutputs, order, NUM_EPOCHS, LEARNING_RATE);
+		long trained = System.nanoTime();
+		printClassAccuracies("After", nn, inputs, desiredOutputs);
+		System.out.printf("Froze %d of %d layers: %.1f ms to cache %d features per instance, " + 
+				"%.1f ms to train the head for %d epochs\n", numFrozen, numLayers, (cached - start) / 1e6, 
+				features.getNumFeatures(), (trained - cached) / 1e6, NUM_EPOCHS);
+		saveNetwork(nn, false);
+	}
+	
+	/**
+	 * Prints a network's accuracy on all instances and on the instances of each class.
+	 */
+	private static void printClassAccuracies(String label, NeuralNet nn, double[][] inputs, 
+			int[] desiredOutputs) {
+		int[] numCorrect = new int[NUM_OUTPUTS], numInstances = new int[NUM_OUTPUTS];
+		int totalCorrect = 0;
+		for (int i = 0; i < inputs.length; i++) {
+			numInstances[desiredOutputs[i]]++;
+			if (nn.classify(inputs[i]) == desiredOutputs[i]) {
+				numCorrect[desiredOutputs[i]]++;
+				totalCorrect++;
+			}
+		}
+		System.out.printf("%s: accuracy %.4f; by class", label, (double) totalCorrect / inputs.length);
+		for (int k = 0; k < NUM_OUTPUTS; k++) {
+			System.out.printf(" %d:%.3f", k, (double) numCorrect[k] / Math.max(1, numInstances[k]));
+		}
+		System.out.println();
+	}
+	
+	/**
+	 * Trains a small convolutional network instead of the MLP: a layer of 3x3 kernels over the 
+	 * 16x16 image, 2x2 max pooling and a dense output layer. Its weights are exported for the 
+	 * MCU, with 'network.h', and saved in CONV_CHECKPOINT_FILE, which McuSimulator loads; the 
+	 * FPGA datapath only runs dense networks, so 'weights.dat' of the last dense run is left as 
+	 * it is.
+	 * 
+	 * @param inputs A list of inputs for each training instance
+	 * @param desiredOutputs A list of desired output labels for each training instance
+	 */
+	private static void trainConvNet(ArrayList<ArrayList<Double>> inputs, 
+			ArrayList<Integer> desiredOutputs) {
+		LayerStack convNet = newConvNet();
+		TrainingMetrics metrics = newMetrics();
+		convNet.setMetrics(metrics);
+		convNet.train(inputs, desiredOutputs, CONV_EPOCHS, LEARNING_RATE);
+		if (null != metrics) metrics.close();
+		
+		int numCorrect = 0;
+		for (int i = 0; i < inputs.size(); i++) {
+			if (convNet.classify(inputs.get(i)) == desiredOutputs.get(i)) numCorrect++;
+		}
+		System.out.printf("Training accuracy %.4f, %d weights, %d multiply-adds per instance\n", 
+				(double) numCorrect / inputs.size(), convNet.getNumWeights(), 
+				convNet.getNumMultiplyAdds());
+		
+		try {
+			convNet.writeWeightsToFile(NeuralNet.MCU, ".");
+		} catch (FileNotFoundException e) {
+			System.err.println("Cannot create the file");
+			System.exit(0);
+		}
+		try {
+			convNet.writeCheckpoint(CONV_CHECKPOINT_FILE);
+		} catch (IOException e) {
+			System.err.println("Cannot write " + CONV_CHECKPOINT_FILE);
+			System.exit(0);
+		}
+		System.out.println("weights.dat not written: the FPGA datapath only runs networks of dense layers");
+	}
+	
+	/**
+	 * @return The convolutional network trained by "java Main conv": a layer of 3x3 kernels over 
+	 * the 16x16 image, 2x2 max pooling and a dense output layer
+	 */
+	private static LayerStack newConvNet() {
+		final int SIDE = 16;
+		ArrayList<Layer> layers = new ArrayList<Layer>();
+		layers.add(new ConvLayer(1, SIDE, SIDE, NUM_KERNELS, KERNEL_SIZE, 1, KERNEL_SIZE / 2, 
+				NeuralNet.ReLU));
+		layers.add(new PoolLayer(NUM_KERNELS, SIDE, SIDE, POOL_SIZE, PoolLayer.MAX));
+		int pooledSize = NUM_KERNELS * (SIDE / POOL_SIZE) * (SIDE / POOL_SIZE);
+		layers.add(new FlattenLayer(pooledSize));
+		layers.add(new DenseLayer(pooledSize, NUM_OUTPUTS, NeuralNet.SIGMOID));
+		return new LayerStack(layers);
+	}
+	
+	/**
+	 * Estimates the cost of networks on the MCU and the FPGA with CostModel, without training 
+	 * them, and ranks them by MCU latency or by footprint, i.e., the flash and RAM they take; 
+	 * networks that do not fit the MCU come last. Networks the MCU export cannot run, e.g., the 
+	 * convolutional network with a sparsity set, are left out of the ranking and listed after 
+	 * it, and the FPGA figures are left blank for networks the datapath cannot run. Prints the 
+	 * costs of every layer of the best.
+	 * 
+	 * @param args The arguments of main(): "cost", then optionally "latency", the default, or 
+	 * "footprint", then the specs of the networks, as in NeuralNet, or "conv" for the 
+	 * convolutional network; the usual network if none are given
+	 */
+	private static void estimateCosts(String[] args) {
+		int first = 1;
+		final boolean byFootprint = args.length > 1 && args[1].equals("footprint");
+		if (args.length > 1 && (byFootprint || args[1].equals("latency"))) first = 2;
+		
+		double sparsity = -1;
+		String sparsityText = System.getProperty(COST_SPARSITY_PROPERTY);
+		if (null != sparsityText) {
+			try {
+				sparsity = Double.parseDouble(sparsityText);
+			}
+			catch (NumberFormatException e) {
+				sparsity = -1;
+			}
+			if (!(sparsity >= 0 && sparsity < 1)) {
+				System.err.println("Invalid " + COST_SPARSITY_PROPERTY + " " + sparsityText + 
+						": must be at least 0 and below 1");
+				System.exit(0);
+			}
+		}
+		int lanes = Integer.getInteger(COST_LANES_PROPERTY, VERILOG_LANES);
+		FixedPointFormat format = FixedPointFormat.FPGA;
+		String quantization = System.getProperty(QUANTIZE_PROPERTY);
+		try {
+			if (null != quantization) format = FixedPointFormat.parse(quantization);
+		}
+		catch (IllegalArgumentException e) {
+			System.err.println("Invalid " + QUANTIZE_PROPERTY + " " + quantization + ": " + 
+					e.getMessage());
+			System.exit(0);
+		}
+		
+		ArrayList<String> specs = new ArrayList<String>();
+		final ArrayList<CostModel> models = new ArrayList<CostModel>();
+		for (int i = first; i < Math.max(args.length, first + 1); i++) {
+			LayerStack network = null;
+			String spec = null;
+			if (i >= args.length) {
+				network = newDefaultNetwork();
+				spec = ((NeuralNet) network).getSpec();
+			}
+			else if (args[i].equals("conv")) {
+				network = newConvNet();
+				spec = "conv";
+			}
+			else {
+				try {
+					network = new NeuralNet(args[i]);
+					spec = ((NeuralNet) network).getSpec();
+				}
+				catch (IllegalArgumentException e) {
+					System.err.println("Invalid network spec " + args[i] + ": " + e.getMessage());
+					System.exit(0);
+				}
+			}
+			CostModel model = new CostModel(network);
+			try {
+				model.setLanes(lanes);
+			}
+			catch (IllegalArgumentException e) {
+				System.err.println("Invalid " + COST_LANES_PROPERTY + " " + lanes + ": " + e.getMessage());
+				System.exit(0);
+			}
+			model.setSparse(sparsity >= 0);
+			model.setSparsity(sparsity);
+			model.setFpgaFormat(format);
+			specs.add(spec);
+			models.add(model);
+		}
+		
+		ArrayList<Integer> order = new ArrayList<Integer>();
+		ArrayList<String> undeployable = new ArrayList<String>();
+		for (int i = 0; i < models.size(); i++) {
+			if (models.get(i).deploysToMcu()) order.add(i);
+			else undeployable.add(specs.get(i));
+		}
+		Collections.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				CostModel x = models.get(a), y = models.get(b);
+				if (x.fitsMcu() != y.fitsMcu()) return x.fitsMcu() ? -1 : 1;
+				if (byFootprint) {
+					return Long.compare(x.getFlashBytes() + x.getRamBytes(), y.getFlashBytes() + y.getRamBytes());
+				}
+				return Long.compare(x.getMcuCycles(), y.getMcuCycles());
+			}
+		});
+		System.out.printf("%-36s %10s %9s %9s %9s %10s %10s %5s %5s\n", "network", "MACs", "flash B", 
+				"RAM B", "MCU fits", "MCU ms", "FPGA cyc", "BRAM", "DSP");
+		for (int i : order) {
+			CostModel model = models.get(i);
+			boolean fpga = model.deploysToFpga();
+			System.out.printf("%-36s %10d %9d %9d %9s %10.2f %10s %5s %5s\n", specs.get(i), 
+					model.getMultiplyAdds(), model.getFlashBytes(), model.getRamBytes(), 
+					model.fitsMcu() ? "yes" : "no", model.getMcuMilliseconds(), 
+					fpga ? String.valueOf(model.getFpgaCycles()) : "-", 
+					fpga ? String.valueOf(model.getFpgaBlockRams()) : "-", 
+					fpga ? String.valueOf(model.getFpgaDsps()) : "-");
+		}
+		if (!undeployable.isEmpty()) {
+			System.out.println("Not deployable to the MCU in this export: " + String.join(", ", undeployable));
+		}
+		if (order.isEmpty()) return;
+		System.out.println();
+		System.out.println(specs.get(order.get(0)) + ":");
+		models.get(order.get(0)).printReport(System.out);
+	}
+	
+	/**
+	 * Trains a binarized network, see BinaryNet, and writes its packed weights in the formats of 
+	 * BinarySnapshot.
+	 * 
+	 * @param inputs A list of inputs for each training instance
+	 * @param desiredOutputs A list of desired output labels for each training instance
+	 * @param spec The shape of the network, e.g., 256-256-10
+	 */
+	private static void trainBinaryNet(ArrayList<ArrayList<Double>> inputs, 
+			ArrayList<Integer> desiredOutputs, String spec) {
+		BinaryNet binaryNet = null;
+		try {
+			binaryNet = new BinaryNet(spec);
+		}
+		catch (IllegalArgumentException e) {
+			System.err.println("Invalid network spec " + spec + ": " + e.getMessage());
+			System.exit(0);
+		}
+		binaryNet.train(inputs, desiredOutputs, BINARY_EPOCHS, BINARY_LEARNING_RATE);
+		
+		BinarySnapshot snapshot = binaryNet.snapshot();
+		int numCorrect = 0;
+		for (int i = 0; i < inputs.size(); i++) {
+			if (snapshot.classify(PackedImage.fromInput(inputs.get(i))) == desiredOutputs.get(i)) numCorrect++;
+		}
+		System.out.printf("Training accuracy %.4f, %d bytes of weights and thresholds\n", 
+				(double) numCorrect / inputs.size(), snapshot.getSizeInBytes());
+		
+		try {
+			snapshot.writeWeightsToFile(NeuralNet.BOTH, ".");
+		} catch (FileNotFoundException e) {
+			System.err.println("Cannot create the file");
+			System.exit(0);
+		}
+	}
+	
+	/**
+	 * Generates the Verilog datapath of the network in 'network.ckpt', see VerilogGenerator, in 
+	 * the weight format of training.quantize if that is set and the FPGA format otherwise. Prints 
+	 * the accuracy of the integer model against the floating-point network, and the cycles and 
+	 * memory of the datapath at a range of lane counts against a stochastic datapath with as many 
+	 * AND-gate multipliers.
+	 * 
+	 * @param instances The instances, in the order of the data file
+	 * @param args The arguments of main(): "verilog", then optionally the number of lanes
+	 */
+	private static void generateVerilog(ArrayList<Instance> instances, String[] args) {
+		int lanes = VERILOG_LANES;
+		if (args.length > 1) {
+			try {
+				lanes = Integer.parseInt(args[1]);
+			}
+			catch (NumberFormatException e) {
+				lanes = 0;
+			}
+			if (lanes < 1) {
+				System.err.println("Invalid number of lanes " + args[1] + ": must be a positive integer");
+				System.exit(0);
+			}
+		}
+		FixedPointFormat format = FixedPointFormat.FPGA;
+		String quantization = System.getProperty(QUANTIZE_PROPERTY);
+		if (null != quantization) {
+			try {
+				format = FixedPointFormat.parse(quantization);
+			}
+			catch (IllegalArgumentException e) {
+				System.err.println("Invalid " + QUANTIZE_PROPERTY + " " + quantization + ": " + 
+						e.getMessage());
+				System.exit(0);
+			}
+		}
+		WeightSnapshot snapshot = null;
+		try {
+			snapshot = WeightSnapshot.readCheckpoint(CHECKPOINT_FILE);
+		} catch (IOException e) {
+			System.err.println("Cannot read " + CHECKPOINT_FILE + "; train a network first");
+			System.exit(0);
+		}
+		
+		double[][] inputs = toArrays(instances);
+		VerilogGenerator generator = new VerilogGenerator(snapshot, format, lanes);
+		int floatCorrect = 0, integerCorrect = 0, agreements = 0;
+		double[][] activations = snapshot.newActivations();
+		for (int i = 0; i < inputs.length; i++) {
+			int floatClass = snapshot.classify(inputs[i], activations);
+			int integerClass = generator.classify(inputs[i]);
+			if (floatClass == instances.get(i).desiredOutput) floatCorrect++;
+			if (integerClass == instances.get(i).desiredOutput) integerCorrect++;
+			if (floatClass == integerClass) agreements++;
+		}
+		System.out.printf("Accuracy of %s: floating point %.4f, %s fixed point %.4f, %d of %d agree\n", 
+				snapshot.getSpec(), (double) floatCorrect / inputs.length, format, 
+				(double) integerCorrect / inputs.length, agreements, inputs.length);
+		
+		// Beyond the widest layer, more lanes only add unused ones
+		int[] unitsPerLayer = snapshot.getUnitsPerLayer();
+		int maxLanes = 0;
+		for (int l = 1; l < unitsPerLayer.length; l++) maxLanes = Math.max(maxLanes, unitsPerLayer[l]);
+		System.out.printf("%6s %12s %12s %10s", "lanes", "cycles", "ROM bits", "LUT bits");
+		for (int length : STOCHASTIC_LENGTHS) System.out.printf(" %16s", "stochastic " + length);
+		System.out.println();
+		for (int n = 1; n < 2 * maxLanes; n *= 2) {
+			VerilogGenerator candidate = new VerilogGenerator(snapshot, format, n);
+			System.out.printf("%6d %12d %12d %10d", n, candidate.getCyclesPerInstance(), 
+					candidate.getWeightRomBits(), candidate.getLutBits());
+			for (int length : STOCHASTIC_LENGTHS) {
+				System.out.printf(" %16d", candidate.getStochasticCyclesPerInstance(length));
+			}
+			System.out.println();
+		}
+		
+		try {
+			generator.writeToDirectory(VERILOG_DIRECTORY, inputs);
+		} catch (FileNotFoundException e) {
+			System.err.println("Cannot create the files in " + VERILOG_DIRECTORY);
+			System.exit(0);
+		}
+		System.out.printf("Wrote mlp.v and mlp_tb.v with %d lanes to %s: %d cycles per instance\n", lanes, 
+				VERILOG_DIRECTORY, generator.getCyclesPerInstance());
+	}
+	
+	/**
+	 * @return The inputs of the given instances, in order, as the arrays the networks train on
+	 */
+	private static double[][] toArrays(List<Instance> instances) {
+		double[][] inputs = new double[instances.size()][NUM_INPUTS];
+		for (int i = 0; i < inputs.length; i++) {
+			for (int j = 0; j < NUM_INPUTS; j++) inputs[i][j] = instances.get(i).input.get(j);
+		}
+		return inputs;
+	}
+	
+	/**
+	 * @return The desired outputs of the given instances, in order
+	 */
+	private static int[] toLabels(List<Instance> instances) {
+		int[] desiredOutputs = new int[instances.size()];
+		for (int i = 0; i < desiredOutputs.length; i++) desiredOutputs[i] = instances.get(i).desiredOutput;
+		return desiredOutputs;
+	}
+	
+	/**
+	 * @return The indices of the given number of instances in a shuffled order, to visit them in 
+	 * so that instances with the same class labels aren't grouped together
+	 */
+	private static int[] shuffledOrder(int numInstances) {
+		int[] order = new int[numInstances];
+		for (int i = 0; i < order.length; i++) order[i] = i;
+		RandomStreams.shuffle(order, RandomStreams.next(RandomStreams.SHUFFLE));
+		return order;
+	}
+	
+	/**
+	 * Reads instances from a file in the format of 'semeion.data': 256 input values followed by 
+	 * 10 values, exactly one of which is 1, indicating the desired output.
+	 * 
+	 * @param fileName The name of the file
+	 * @return The instances in the file, in order
+	 * @throws FileNotFoundException
+	 */
+	static ArrayList<Instance> readInstances(String fileName) throws FileNotFoundException {
+		ArrayList<Instance> instances = new ArrayList<Instance>();
+		Scanner stdin = new Scanner(new File(fileName));
+		while (stdin.hasNextLine()) {
+			String[] line = stdin.nextLine().split(" ");
+			
+			// Create input for an instance
+			ArrayList<Double> input = new ArrayList<Double>();
+			for (int i = 0; i < NUM_INPUTS; i++) input.add(Double.valueOf(line[i]));
+			
+			// Create desired output for an instance
+			int desiredOutput = 0;	// Default 'desiredOutput' to 0
+			if (line[NUM_INPUTS + 1].equals("1")) desiredOutput = 1;
+			else if (line[NUM_INPUTS + 2].equals("1")) desiredOutput = 2;
+			else if (line[NUM_INPUTS + 3].equals("1")) desiredOutput = 3;
+			else if (line[NUM_INPUTS + 4].equals("1")) desiredOutput = 4;
+			else if (line[NUM_INPUTS + 5].equals("1")) desiredOutput = 5;
+			else if (line[NUM_INPUTS + 6].equals("1")) desiredOutput = 6;
+			else if (line[NUM_INPUTS + 7].equals("1")) desiredOutput = 7;
+			else if (line[NUM_INPUTS + 8].equals("1")) desiredOutput = 8;
+			else if (line[NUM_INPUTS + 9].equals("1")) desiredOutput = 9;
+			
+			// Add the instance to 'instances'
+			instances.add(new Instance(input, desiredOutput));
+		}
+		stdin.close();
+		return instances;
 	}
 }
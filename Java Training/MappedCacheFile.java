@@ -0,0 +1,129 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A file of values computed once per instance of a fixed list of inputs and memory-mapped so 
+ * that later runs, in this process or others, read them instead of computing them again; the 
+ * file behind LogitCache and FeatureCache. The file starts with a header of the cache's magic 
+ * number, a fingerprint of whatever the values were computed from, the number of instances and 
+ * the number of values per instance; a file whose header does not match is recomputed rather 
+ * than read. Subclasses only write the values, instance after instance.
+ */
+public abstract class MappedCacheFile {
+	private static final int HEADER_BYTES = 4 + 8 + 4 + 4;
+	
+	private final String fileName;
+	private final int magic;
+	private final long fingerprint;
+	private final int numInstances;
+	private final int valuesPerInstance;
+	private final int bytesPerValue;
+	
+	/**
+	 * @param fileName The name of the file
+	 * @param magic Identifies the kind of values in the file
+	 * @param fingerprint The hash of whatever the values are computed from
+	 * @param numInstances The number of instances
+	 * @param valuesPerInstance The number of values of each instance
+	 * @param bytesPerValue The size of each value as written by writeValues()
+	 */
+	public MappedCacheFile(String fileName, int magic, long fingerprint, int numInstances, 
+			int valuesPerInstance, int bytesPerValue) {
+		this.fileName = fileName;
+		this.magic = magic;
+		this.fingerprint = fingerprint;
+		this.numInstances = numInstances;
+		this.valuesPerInstance = valuesPerInstance;
+		this.bytesPerValue = bytesPerValue;
+	}
+	
+	/**
+	 * Computes and writes the values of every instance, in order.
+	 * 
+	 * @param out The stream, positioned after the header
+	 * @throws IOException If the values cannot be written
+	 */
+	protected abstract void writeValues(DataOutputStream out) throws IOException;
+	
+	/**
+	 * Maps the values, computing them and writing the file first if it does not exist or does 
+	 * not match. The mapping is read-only and stays valid after the file is replaced.
+	 * 
+	 * @return The values, from position 0 on
+	 * @throws IOException If the file cannot be read or written
+	 */
+	public ByteBuffer open() throws IOException {
+		ByteBuffer values = map();
+		if (null != values) return values;
+		
+		// Write to a temporary file and move it into place, so that a concurrent run never maps 
+		// a half-written file
+		File file = new File(fileName).getAbsoluteFile();
+		File temporary = File.createTempFile("cache", ".tmp", file.getParentFile());
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream( 
+				new FileOutputStream(temporary)));
+		try {
+			out.writeInt(magic);
+			out.writeLong(fingerprint);
+			out.writeInt(numInstances);
+			out.writeInt(valuesPerInstance);
+			writeValues(out);
+		}
+		finally {
+			out.close();
+		}
+		Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		values = map();
+		if (null == values) throw new IOException(fileName + " was changed while it was written");
+		return values;
+	}
+	
+	/**
+	 * Maps the file if it exists and matches.
+	 * 
+	 * @return The values, or null if the file does not exist or does not match
+	 */
+	private ByteBuffer map() throws IOException {
+		File file = new File(fileName);
+		long size = HEADER_BYTES + (long) bytesPerValue * numInstances * valuesPerInstance;
+		if (!file.exists() || file.length() != size) return null;
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		try {
+			// The mapping stays valid after the channel is closed
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+			if (buffer.getInt(0) != magic || buffer.getLong(4) != fingerprint || 
+					buffer.getInt(12) != numInstances || buffer.getInt(16) != valuesPerInstance) {
+				return null;
+			}
+			buffer.position(HEADER_BYTES);
+			return buffer.slice();
+		}
+		finally {
+			channel.close();
+		}
+	}
+	
+	/**
+	 * Continues a fingerprint with every input, so that a file is only reused for the same 
+	 * inputs in the same order.
+	 * 
+	 * @param hash The fingerprint so far
+	 * @param inputs The inputs
+	 * @return The fingerprint including the inputs
+	 */
+	public static long hashInputs(long hash, double[][] inputs) {
+		for (double[] input : inputs) {
+			for (double value : input) hash = 31 * hash + Double.doubleToLongBits(value);
+		}
+		return hash;
+	}
+}
@@ -0,0 +1,372 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Runs the MCU's C inference code on the host against the Java model, so the output of 
+ * writeWeightsToFile() can be checked without flashing a board. The weights of a checkpoint are 
+ * exported with NeuralNet.writeWeightsToFile(), compiled into a copy of 'main.c' in place of the 
+ * weights in create_weights(), and linked with the stubs and driver in 'Microcontroller 
+ * Code/host'. Every instance in 'semeion.data' is then classified by both the C code and 
+ * NeuralNet.classify(), and the network inputs produced by the C preprocessing are compared with 
+ * those of TracePreprocessor. The instances are also fed to the live classification of 'main.c' 
+ * as successive frames, which checks that updating the first layer's sums by the pixels that 
+ * changed gives the outputs of a full forward pass. The checkpoint may hold a NeuralNet or, as 
+ * written by LayerStack.writeCheckpoint(), convolution and pooling layers followed by dense 
+ * layers, which 'main.c' runs under CONV_LAYERS.
+ * 
+ * The report gives the agreement rate, the largest and mean difference between the output 
+ * values, and an estimate of the cycles classify() takes on the Cortex-M4F, which has no double 
+ * precision FPU and so runs every double operation in software. Exits with status 1 if the two 
+ * sides disagree on any instance, so the simulator can guard exports in scripts. Requires gcc.
+ * 
+ * With --sparse, the nonzero weights of a NeuralNet are exported with SparseSnapshot instead and 
+ * 'main.c' is compiled with SPARSE_WEIGHTS defined, so the CSR loops are checked against 
+ * SparseSnapshot.
+ */
+public class McuSimulator {
+	// Largest difference between a C and a Java output value that is put down to exp() rounding
+	private static final double MAX_DRIFT = 1e-9;
+	
+	// Headers included by main.h, all served by 'host/tm4c_host.h' on the host
+	private static final String[] DEVICE_HEADERS = {"TM4C123.h", "gpio_port.h", "timers.h", 
+			"i2c.h", "pc_buffer.h", "uart.h", "launchpad_io.h", "lcd.h", "ft6x06.h", "serial_debug.h",
+			"fonts.h"};
+	
+	// How host_sim.c draws an image on the pixel map
+	private static final int BLOCK_WIDTH = 12, BLOCK_HEIGHT = 16, ORIGIN_X = 24, ORIGIN_Y = 32;
+	
+	/**
+	 * Usage: java McuSimulator [checkpoint] [data file] [MCU code directory] [--sparse]
+	 */
+	public static void main(String[] args) throws InterruptedException {
+		boolean sparse = Arrays.asList(args).contains("--sparse");
+		if (sparse) {
+			ArrayList<String> positional = new ArrayList<String>(Arrays.asList(args));
+			positional.remove("--sparse");
+			args = positional.toArray(new String[0]);
+		}
+		String checkpointFile = args.length > 0 ? args[0] : "network.ckpt";
+		String dataFile = args.length > 1 ? args[1] : "semeion.data";
+		File mcuDirectory = new File(args.length > 2 ? args[2] : "../Microcontroller Code");
+		
+		ArrayList<Instance> instances = null;
+		LayerStack network = null;
+		try {
+			instances = Main.readInstances(dataFile);
+		}
+		catch (FileNotFoundException e) {
+			System.err.println("Cannot find " + dataFile);
+			System.exit(0);
+		}
+		try {
+			network = LayerStack.readCheckpoint(checkpointFile);
+		}
+		catch (IOException e) {
+			System.err.println("Cannot read " + checkpointFile + ": " + e.getMessage());
+			System.exit(0);
+		}
+		
+		// main.c takes convolution and pooling layers followed by dense layers, but the touchscreen 
+		// input is always 16x16
+		ArrayList<Layer> layers = network.getLayers();
+		if (layers.get(0).getInputSize() != PackedImage.NUM_PIXELS) {
+			System.err.println("The network must take " + PackedImage.NUM_PIXELS + " inputs");
+			System.exit(0);
+		}
+		if (!network.runsOnMcu()) {
+			System.err.println("The MCU only runs convolution and pooling layers followed by dense layers");
+			System.exit(0);
+		}
+		if (sparse && !(network instanceof NeuralNet)) {
+			System.err.println("--sparse requires a network of dense layers");
+			System.exit(0);
+		}
+		int numOutputs = layers.get(layers.size() - 1).getOutputSize();
+		
+		// The outputs of a NeuralNet are checked against its snapshot, as the server computes them
+		WeightSnapshot snapshot = network instanceof NeuralNet ? ((NeuralNet) network).snapshot() : null;
+		SparseSnapshot sparseSnapshot = sparse ? new SparseSnapshot(snapshot) : null;
+		
+		String[] images = new String[instances.size()];
+		for (int i = 0; i < images.length; i++) {
+			images[i] = PackedImage.fromInput(instances.get(i).input).toHex();
+		}
+		
+		File buildDirectory = null;
+		List<String> classified = null, preprocessed = null, incremental = null;
+		try {
+			buildDirectory = Files.createTempDirectory("mcu-sim").toFile();
+			File simulator = build(network, sparseSnapshot, mcuDirectory, buildDirectory);
+			File imageFile = new File(buildDirectory, "images.txt");
+			Files.write(imageFile.toPath(), Arrays.asList(images), StandardCharsets.US_ASCII);
+			classified = run(simulator, "classify", imageFile);
+			preprocessed = run(simulator, "preprocess", imageFile);
+			incremental = run(simulator, "incremental", imageFile);
+		} catch (IOException e) {
+			System.err.println("Cannot run the MCU code: " + e.getMessage());
+			System.exit(0);
+		} finally {
+			if (null != buildDirectory) {
+				for (File f : buildDirectory.listFiles()) f.delete();
+				buildDirectory.delete();
+			}
+		}
+		if (classified.size() != images.length || preprocessed.size() != images.length || 
+				incremental.size() != images.length) {
+			System.err.println("The MCU code did not process every instance");
+			System.exit(1);
+		}
+		
+		// Classify every instance in Java as well and compare
+		double[] input = new double[PackedImage.NUM_PIXELS];
+		double[][] activations = null == snapshot ? null : snapshot.newActivations();
+		int numAgreed = 0, numCorrectC = 0, numCorrectJava = 0, numPreprocessedAgreed = 0;
+		int numIncrementalAgreed = 0;
+		double maxDrift = 0, totalDrift = 0, maxIncrementalDrift = 0;
+		long totalCycles = 0, totalHostNanos = 0, totalIncrementalNanos = 0, totalFlips = 0;
+		TracePreprocessor preprocessor = new TracePreprocessor();
+		for (int i = 0; i < images.length; i++) {
+			Instance instance = instances.get(i);
+			String[] fields = classified.get(i).trim().split(" ");
+			int classificationC = Integer.parseInt(fields[0]);
+			int classificationJava = network.classify(instance.input);
+			if (classificationC == classificationJava) numAgreed++;
+			if (classificationC == instance.desiredOutput) numCorrectC++;
+			if (classificationJava == instance.desiredOutput) numCorrectJava++;
+			
+			PackedImage.fromHex(images[i]).toInput(input);
+			double[] outputs;
+			if (null == snapshot) outputs = network.propagateFwd(input);
+			else {
+				if (sparse) sparseSnapshot.propagateFwd(input, activations);
+				else snapshot.propagateFwd(input, activations);
+				outputs = activations[activations.length - 1];
+			}
+			for (int j = 0; j < outputs.length; j++) {
+				double drift = Math.abs(Double.parseDouble(fields[j + 1]) - outputs[j]);
+				maxDrift = Math.max(maxDrift, drift);
+				totalDrift += drift;
+			}
+			totalHostNanos += Long.parseLong(fields[outputs.length + 1]);
+			
+			String[] incrementalFields = incremental.get(i).trim().split(" ");
+			if (Integer.parseInt(incrementalFields[0]) == classificationJava) numIncrementalAgreed++;
+			for (int j = 0; j < outputs.length; j++) {
+				maxIncrementalDrift = Math.max(maxIncrementalDrift, 
+						Math.abs(Double.parseDouble(incrementalFields[j + 1]) - outputs[j]));
+			}
+			totalIncrementalNanos += Long.parseLong(incrementalFields[outputs.length + 1]);
+			totalFlips += Long.parseLong(incrementalFields[outputs.length + 2]);
+			totalCycles += null == snapshot ? estimateCycles(input, network) : 
+					estimateCycles(input, snapshot, sparse);
+			
+			// Draw the image the way host_sim.c does and preprocess it in Java
+			preprocessor.clear();
+			for (int p = 0; p < PackedImage.NUM_PIXELS; p++) {
+				if (0.0 == input[p]) continue;
+				for (int x = 0; x < BLOCK_WIDTH; x++) {
+					for (int y = 0; y < BLOCK_HEIGHT; y++) {
+						preprocessor.mapCoordinates(ORIGIN_X + p % 16 * BLOCK_WIDTH + x, 
+								ORIGIN_Y + p / 16 * BLOCK_HEIGHT + y);
+					}
+				}
+			}
+			if (preprocessor.toPackedImage().toHex().equals(preprocessed.get(i).trim())) {
+				numPreprocessedAgreed++;
+			}
+		}
+		
+		int n = images.length;
+		double cycles = (double) totalCycles / n;
+		System.out.printf("Instances: %d\n", n);
+		if (sparse) {
+			System.out.printf("Sparse weights: %d nonzero, %.1f%% pruned\n", 
+					sparseSnapshot.getNumNonzeros(), 100 * sparseSnapshot.getSparsity());
+		}
+		System.out.printf("Classification agreement: %.4f (%d disagree)\n", (double) numAgreed / n, 
+				n - numAgreed);
+		System.out.printf("Correctly classified: C %.4f, Java %.4f\n", (double) numCorrectC / n, 
+				(double) numCorrectJava / n);
+		System.out.printf("Output drift: max %.3g, mean %.3g\n", maxDrift, 
+				totalDrift / (n * numOutputs));
+		System.out.printf("Preprocessing agreement: %.4f\n", (double) numPreprocessedAgreed / n);
+		System.out.printf("Live classification agreement: %.4f, output drift max %.3g, " + 
+				"%.1f pixels flipped and %.0f ns on the host per update\n", 
+				(double) numIncrementalAgreed / n, maxIncrementalDrift, (double) totalFlips / n, 
+				(double) totalIncrementalNanos / n);
+		System.out.printf("classify() per instance: ~%.0f cycles (%.2f ms at %.0f MHz) on the MCU, " + 
+				"%.0f ns on the host\n", cycles, cycles / CostModel.MCU_CLOCK_HZ * 1e3, 
+				CostModel.MCU_CLOCK_HZ / 1e6,
+				(double) totalHostNanos / n);
+		
+		if (numAgreed != n || maxDrift > MAX_DRIFT || numPreprocessedAgreed != n || 
+				numIncrementalAgreed != n || maxIncrementalDrift > MAX_DRIFT) {
+			System.err.println("The MCU code does not match the Java model");
+			System.exit(1);
+		}
+	}
+	
+	/**
+	 * Estimates the cycles classify() in main.c takes for an input. The first layer adds a 
+	 * weight for every lit pixel only, so the cost depends on the input. With SPARSE_WEIGHTS, 
+	 * only the nonzero weights are visited, each with an extra load of its column.
+	 * 
+	 * @param input The input for an instance
+	 * @param snapshot The network
+	 * @param sparse Whether main.c is compiled with SPARSE_WEIGHTS
+	 * @return The estimated number of cycles
+	 */
+	static long estimateCycles(double[] input, WeightSnapshot snapshot, boolean sparse) {
+		int[] units = snapshot.getUnitsPerLayer();
+		if (!sparse) {
+			int numLit = 0;
+			for (double d : input) if (d != 0.0) numLit++;
+			
+			// First layer: one test per input and one add per lit input; later layers: a 
+			// multiply-add per input
+			long cycles = (long) units[1] * (units[0] * CostModel.CYCLES_LOOP + 
+					numLit * CostModel.CYCLES_DADD);
+			for (int l = 2; l < units.length; l++) {
+				cycles += (long) units[l] * units[l - 1] * 
+						(CostModel.CYCLES_LOOP + CostModel.CYCLES_DMUL + CostModel.CYCLES_DADD);
+			}
+			return cycles + estimateActivationCycles(snapshot);
+		}
+		
+		// The same work, but only for the nonzero weights
+		long cycles = 0;
+		for (int l = 1; l < units.length; l++) {
+			double[] weights = snapshot.getWeights(l - 1);
+			int stride = units[l - 1] + 1;
+			for (int j = 0; j < units[l]; j++) {
+				for (int k = 0; k < stride - 1; k++) {
+					if (0.0 == weights[j * stride + k]) continue;
+					cycles += 2 * CostModel.CYCLES_LOOP;
+					if (l > 1) cycles += CostModel.CYCLES_DMUL + CostModel.CYCLES_DADD;
+					else if (input[k] != 0.0) cycles += CostModel.CYCLES_DADD;
+				}
+			}
+		}
+		return cycles + estimateActivationCycles(snapshot);
+	}
+	
+	/**
+	 * Estimates the cycles classify() in main.c takes for an input to a network with convolution 
+	 * layers, with CostModel at the input's density of lit pixels.
+	 * 
+	 * @param input The input for an instance
+	 * @param network The network
+	 * @return The estimated number of cycles
+	 */
+	static long estimateCycles(double[] input, LayerStack network) {
+		int numLit = 0;
+		for (double d : input) if (d != 0.0) numLit++;
+		CostModel costModel = new CostModel(network);
+		costModel.setInputDensity((double) numLit / input.length);
+		return costModel.getMcuCycles();
+	}
+	
+	/**
+	 * @return The estimated cycles for adding the bias and applying the activation function of 
+	 * every unit
+	 */
+	private static long estimateActivationCycles(WeightSnapshot snapshot) {
+		int[] units = snapshot.getUnitsPerLayer();
+		long cycles = 0;
+		for (int l = 1; l < units.length; l++) {
+			cycles += units[l] * CostModel.activationCycles(snapshot.getActivationFunction(l));
+		}
+		return cycles;
+	}
+	
+	/**
+	 * Builds the host simulator: exports the weights and the network's shape, writes a copy of 
+	 * 'main.c' that includes them, writes the device headers and compiles everything with gcc.
+	 * 
+	 * @param network The network to export
+	 * @param sparseSnapshot The nonzero weights to export for SPARSE_WEIGHTS, or null
+	 * @param mcuDirectory The directory holding 'main.c', 'main.h' and 'host'
+	 * @param buildDirectory The directory to build in
+	 * @return The simulator executable
+	 * @throws IOException If a file cannot be read or written, or the build fails
+	 */
+	private static File build(LayerStack network, SparseSnapshot sparseSnapshot, File mcuDirectory, 
+			File buildDirectory) throws IOException, InterruptedException {
+		// Writes 'network.h' as well; main.h is copied next to it so that it includes that one
+		network.writeWeightsToFile(NeuralNet.MCU, buildDirectory.getPath());
+		if (null != sparseSnapshot) sparseSnapshot.writeWeightsToFile(NeuralNet.MCU, buildDirectory.getPath());
+		Files.copy(new File(mcuDirectory, "main.h").toPath(), new File(buildDirectory, "main.h").toPath());
+		
+		// Strip the inline assembly, route printf() to the driver and replace the weights
+		String source = new String(Files.readAllBytes(new File(mcuDirectory, "main.c").toPath()), 
+				StandardCharsets.ISO_8859_1);
+		source = source.replaceAll("__asm\\s*\\{[^}]*\\}", "");
+		source = source.replaceFirst("#include \"main.h\"", "#include \"main.h\"\n" + 
+				"int sim_printf(const char *format, ...);\n#define printf sim_printf\n" +
+				"#define main device_main\n");
+		int begin = source.indexOf("// Set the weights accordingly");
+		int end = source.indexOf("return weights;", begin);
+		if (begin < 0 || end < 0) throw new IOException("Cannot find the weights in main.c");
+		source = source.substring(0, begin) + "#include \"weights.txt\"\n\t" + source.substring(end);
+		Files.write(new File(buildDirectory, "main_host.c").toPath(), 
+				source.getBytes(StandardCharsets.ISO_8859_1));
+		
+		for (String header : DEVICE_HEADERS) {
+			PrintWriter printWriter = new PrintWriter(new File(buildDirectory, header));
+			printWriter.println("#include \"tm4c_host.h\"");
+			printWriter.close();
+		}
+		
+		File hostDirectory = new File(mcuDirectory, "host");
+		File simulator = new File(buildDirectory, "host_sim");
+		ArrayList<String> command = new ArrayList<String>(Arrays.asList("gcc", "-O2", "-w", 
+				"-I", buildDirectory.getPath(), "-I", hostDirectory.getPath(),
+				"-I", mcuDirectory.getPath(), "-o", simulator.getPath(),
+				new File(hostDirectory, "host_sim.c").getPath(),
+				new File(hostDirectory, "tm4c_host.c").getPath(),
+				new File(buildDirectory, "main_host.c").getPath(), "-lm"));
+		if (null != sparseSnapshot) command.add(1, "-DSPARSE_WEIGHTS");
+		ProcessBuilder gcc = new ProcessBuilder(command);
+		gcc.redirectErrorStream(true);
+		List<String> output = run(gcc);
+		if (!simulator.exists()) throw new IOException("gcc failed:\n" + String.join("\n", output));
+		return simulator;
+	}
+	
+	/**
+	 * Runs the simulator in a mode on a file of images.
+	 * 
+	 * @return The lines the simulator printed
+	 */
+	private static List<String> run(File simulator, String mode, File imageFile)
+			throws IOException, InterruptedException {
+		ProcessBuilder processBuilder = new ProcessBuilder(simulator.getPath(), mode);
+		processBuilder.redirectInput(imageFile);
+		processBuilder.redirectError(ProcessBuilder.Redirect.INHERIT);
+		return run(processBuilder);
+	}
+	
+	private static List<String> run(ProcessBuilder processBuilder)
+			throws IOException, InterruptedException {
+		Process process = processBuilder.start();
+		ArrayList<String> lines = new ArrayList<String>();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), 
+				StandardCharsets.US_ASCII));
+		for (String line = reader.readLine(); null != line; line = reader.readLine()) lines.add(line);
+		reader.close();
+		if (process.waitFor() != 0) {
+			throw new IOException(processBuilder.command().get(0) + " exited with status " + 
+					process.exitValue());
+		}
+		return lines;
+	}
+}
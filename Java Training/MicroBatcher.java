@@ -0,0 +1,171 @@
+import java.util.ArrayList;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects concurrent classification requests into small batches and runs each batch through 
+ * WeightSnapshot.propagateFwdBatch() on a single worker thread. A batch is closed as soon as it 
+ * holds 'maxBatchSize' requests or its first request has waited 'maxWaitMicros', whichever 
+ * comes first, so the wait bounds the latency added by batching.
+ */
+public class MicroBatcher {
+	private final ModelHolder holder;
+	private final int maxBatchSize;
+	private final long maxWaitNanos;
+	private final InferenceMetrics metrics;
+	private final BlockingQueue<Request> queue = new LinkedBlockingQueue<Request>();
+	private final Thread worker;
+	private volatile boolean running;
+	
+	/**
+	 * Maintains a tuple representing a request waiting to be classified.
+	 */
+	private static class Request {
+		final PackedImage image;
+		final CompletableFuture<Prediction> result = new CompletableFuture<Prediction>();
+		
+		Request(PackedImage image) {
+			this.image = image;
+		}
+	}
+	
+	/**
+	 * @param holder The holder of the model to classify with; each batch uses whichever version 
+	 * is current when the batch is closed
+	 * @param maxBatchSize The largest number of requests classified together
+	 * @param maxWaitMicros The longest time a request waits for others to join its batch
+	 */
+	public MicroBatcher(ModelHolder holder, int maxBatchSize, long maxWaitMicros) {
+		this(holder, maxBatchSize, maxWaitMicros, null);
+	}
+	
+	/**
+	 * @param holder The holder of the model to classify with; each batch uses whichever version 
+	 * is current when the batch is closed
+	 * @param maxBatchSize The largest number of requests classified together
+	 * @param maxWaitMicros The longest time a request waits for others to join its batch
+	 * @param metrics The metrics to record each batch's size and forward pass time in, or null
+	 */
+	public MicroBatcher(ModelHolder holder, int maxBatchSize, long maxWaitMicros, 
+			InferenceMetrics metrics) {
+		if (maxBatchSize < 1) throw new IllegalArgumentException("maxBatchSize must be positive");
+		this.holder = holder;
+		this.maxBatchSize = maxBatchSize;
+		this.maxWaitNanos = TimeUnit.MICROSECONDS.toNanos(maxWaitMicros);
+		this.metrics = metrics;
+		worker = new Thread(new Runnable() {
+			public void run() {
+				processBatches();
+			}
+		}, "micro-batcher");
+		worker.setDaemon(true);
+	}
+	
+	/**
+	 * Starts the worker thread.
+	 */
+	public void start() {
+		running = true;
+		worker.start();
+	}
+	
+	/**
+	 * Stops the worker thread. Requests that have not been classified yet fail.
+	 */
+	public void stop() {
+		running = false;
+		worker.interrupt();
+		try {
+			worker.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		ArrayList<Request> pending = new ArrayList<Request>();
+		queue.drainTo(pending);
+		for (Request r : pending) r.result.completeExceptionally(new IllegalStateException("Stopped"));
+	}
+	
+	/**
+	 * Queues an image for classification.
+	 * 
+	 * @param image The image to classify
+	 * @return A future that completes once the image's batch has been classified
+	 */
+	public CompletableFuture<Prediction> submit(PackedImage image) {
+		Request request = new Request(image);
+		if (!running) {
+			request.result.completeExceptionally(new IllegalStateException("Stopped"));
+			return request.result;
+		}
+		queue.add(request);
+		
+		// stop() may have drained the queue between the check and the add, leaving nobody to 
+		// complete the request; checking again after the add catches that
+		if (!running && queue.remove(request)) {
+			request.result.completeExceptionally(new IllegalStateException("Stopped"));
+		}
+		return request.result;
+	}
+	
+	/**
+	 * Body of the worker thread: repeatedly waits for a request, gathers a batch around it and 
+	 * classifies the batch.
+	 */
+	private void processBatches() {
+		ArrayList<Request> batch = new ArrayList<Request>(maxBatchSize);
+		double[][] inputs = new double[maxBatchSize][PackedImage.NUM_PIXELS];
+		double[][][] activations = null;
+		double[][] outputSums = null;
+		long buffersVersion = -1;
+		
+		while (running) {
+			try {
+				Request first = queue.poll(100, TimeUnit.MILLISECONDS);
+				if (null == first) continue;
+				batch.add(first);
+				
+				// Gather more requests until the batch is full or the first request's wait is up
+				long deadline = System.nanoTime() + maxWaitNanos;
+				while (batch.size() < maxBatchSize) {
+					long remaining = deadline - System.nanoTime();
+					Request next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : null;
+					if (null == next) {
+						queue.drainTo(batch, maxBatchSize - batch.size());
+						break;
+					}
+					batch.add(next);
+				}
+			} catch (InterruptedException e) {
+				// stop() interrupts the worker; classify whatever has been gathered, then exit
+			}
+			if (batch.isEmpty()) continue;
+			
+			// Read the model once so the whole batch is classified by the same version. The 
+			// buffers only need reallocating when a new version is published
+			WeightSnapshot snapshot = holder.current();
+			try {
+				if (snapshot.getVersion() != buffersVersion) {
+					activations = snapshot.newBatchActivations(maxBatchSize);
+					outputSums = new double[maxBatchSize][snapshot.getNumOutputs()];
+					buffersVersion = snapshot.getVersion();
+				}
+				long start = System.nanoTime();
+				for (int b = 0; b < batch.size(); b++) batch.get(b).image.toInput(inputs[b]);
+				snapshot.propagateFwdBatch(inputs, batch.size(), activations, outputSums);
+				if (null != metrics) metrics.recordBatch(batch.size(), System.nanoTime() - start);
+				double[][] outputs = activations[activations.length - 1];
+				for (int b = 0; b < batch.size(); b++) {
+					double[] probabilities = new double[outputSums[b].length];
+					snapshot.softmax(outputSums[b], probabilities);
+					batch.get(b).result.complete(new Prediction(WeightSnapshot.argmax(outputs[b]), 
+							snapshot.getVersion(), outputs[b].clone(), probabilities));
+				}
+			} catch (RuntimeException e) {
+				for (Request r : batch) r.result.completeExceptionally(e);
+			}
+			batch.clear();
+		}
+	}
+}
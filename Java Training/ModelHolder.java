@@ -0,0 +1,96 @@
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Holds the model that an inference service classifies with, and lets a retrained model replace 
+ * it while requests are being served. Each published model is an immutable WeightSnapshot tagged 
+ * with a new version. Classification reads the current snapshot exactly once, so a call that 
+ * started before a swap finishes on the old version, and no locks are taken on the read path.
+ */
+public class ModelHolder {
+	private final AtomicReference<WeightSnapshot> current = new AtomicReference<WeightSnapshot>();
+	
+	/**
+	 * Constructs a holder serving the given snapshot as version 1.
+	 * 
+	 * @param snapshot The initial model
+	 */
+	public ModelHolder(WeightSnapshot snapshot) {
+		publish(snapshot);
+	}
+	
+	/**
+	 * Atomically replaces the current model.
+	 * 
+	 * @param snapshot The new model
+	 * @return The version assigned to the new model
+	 */
+	public long publish(WeightSnapshot snapshot) {
+		// Two publishers may race, e.g., a retrained model and a reloaded checkpoint, so the version 
+		// is derived from the snapshot being replaced, and only set if that is still current
+		while (true) {
+			WeightSnapshot previous = current.get();
+			long version = null == previous ? 1 : previous.getVersion() + 1;
+			if (current.compareAndSet(previous, snapshot.withVersion(version))) return version;
+		}
+	}
+	
+	/**
+	 * Atomically replaces the current model with a snapshot of a trained network.
+	 * 
+	 * @param nn The trained network
+	 * @return The version assigned to the new model
+	 */
+	public long publish(NeuralNet nn) {
+		return publish(nn.snapshot());
+	}
+	
+	/**
+	 * Loads a checkpoint written by WeightSnapshot.writeCheckpoint() and atomically replaces the 
+	 * current model with it. If the checkpoint cannot be read, the current model stays in place.
+	 * 
+	 * @param fileName The name of the checkpoint file
+	 * @return The version assigned to the new model
+	 * @throws IOException
+	 */
+	public long load(String fileName) throws IOException {
+		return publish(WeightSnapshot.readCheckpoint(fileName));
+	}
+	
+	/**
+	 * @return The current model; callers that classify several instances as one unit of work 
+	 * should read this once and use the returned snapshot throughout
+	 */
+	public WeightSnapshot current() {
+		return current.get();
+	}
+	
+	/**
+	 * Classify a given instance with the current model.
+	 * 
+	 * @param input The input for a given instance
+	 * @return The classification, the output values, the class probabilities and the version of 
+	 * the model that produced them
+	 */
+	public Prediction classify(double[] input) {
+		return classify(input, 0);
+	}
+	
+	/**
+	 * Classify a given instance with the current model, rejecting it if no class is probable 
+	 * enough.
+	 * 
+	 * @param input The input for a given instance
+	 * @param rejectThreshold The lowest probability at which a class is accepted
+	 * @return The classification, or WeightSnapshot.REJECTED, along with the output values, the 
+	 * class probabilities and the version of the model that produced them
+	 */
+	public Prediction classify(double[] input, double rejectThreshold) {
+		WeightSnapshot snapshot = current.get();
+		double[][] activations = snapshot.newActivations();
+		double[] probabilities = new double[snapshot.getNumOutputs()];
+		int digit = snapshot.classify(input, activations, probabilities, rejectThreshold);
+		return new Prediction(digit, snapshot.getVersion(), activations[activations.length - 1], 
+				probabilities);
+	}
+}
@@ -1,15 +1,22 @@
 import java.io.FileNotFoundException;
-import java.io.PrintWriter;
+import java.io.IOException;
 import java.util.ArrayList;
 
 /**
- * Multilayer feedforward neural network implementation.
+ * Multilayer feedforward neural network implementation. The network is a LayerStack of 
+ * DenseLayers, one per layer after the input layer, and each layer has its own activation 
+ * function. All weights and buffers are allocated when the network is constructed.
+ * 
+ * The shape of a network is described by a compact spec such as "256-128:relu-64:relu-10:sigmoid":
+ * the number of inputs followed by the size and activation function of every other layer. A 
+ * layer may also name its WeightInitializer, as in "256-128:relu:orthogonal-10:sigmoid"; layers 
+ * that do not are initialized by the scheme suited to their activation function.
  * 
  * @author Zachary Zhou
  */
-public class NeuralNet {
-	private ArrayList<ArrayList<Unit>> layers;
-	private final int activationFunction;
+public class NeuralNet extends LayerStack {
+	private final int[] unitsPerLayer;
+	private final int[] activationFunctions;
 	public static final int SIGMOID = 1;
 	public static final int ReLU = 2;
 	public static final int MCU = 1;
@@ -17,46 +24,165 @@ public class NeuralNet {
 	public static final int BOTH = 3;
 	
 	/**
-	 * Constructs the neural network, i.e., the graph. Initializes all edge weights randomly. 
-	 * Also adds a bias node to each layer excluding the output layer.
+	 * Constructs the neural network, i.e., the graph. Initializes all edge weights randomly.
+	 * Every layer uses the same activation function.
 	 * 
 	 * @param unitsPerLayer Indicates how many layers there are and how many units should be in 
 	 * each layer
 	 * @param activationFunction The number corresponding to the desired activation function
 	 */
 	public NeuralNet(ArrayList<Integer> unitsPerLayer, int activationFunction) {
-		layers = new ArrayList<ArrayList<Unit>>();
-		this.activationFunction = activationFunction;
-		
-		// For each layer excluding the output layer, create a layer of nodes of the specified 
-		// size plus one for the bias node
-		for (int i = 0; i < unitsPerLayer.size() - 1; i++) {
-			ArrayList<Unit> layer = new ArrayList<Unit>();
-			for (int j = 0; j < unitsPerLayer.get(i); j++) layer.add(new Unit());
-			
-			// Add a bias node whose output is +1
-			Unit biasNode = new Unit();
-			biasNode.setOutput(1.0);
-			layer.add(biasNode);
-			
-			layers.add(layer);
+		this(toArray(unitsPerLayer), sameActivation(unitsPerLayer.size() - 1, activationFunction));
+	}
+	
+	/**
+	 * Constructs the neural network with a separate activation function for every layer after 
+	 * the input layer. Initializes all edge weights randomly.
+	 * 
+	 * @param unitsPerLayer The number of units in each layer, from the input layer to the output 
+	 * layer
+	 * @param activationFunctions The number corresponding to the activation function of each 
+	 * layer after the input layer
+	 */
+	public NeuralNet(int[] unitsPerLayer, int[] activationFunctions) {
+		this(unitsPerLayer, activationFunctions, new WeightInitializer[activationFunctions.length]);
+	}
+	
+	/**
+	 * Constructs the neural network with a separate activation function and weight initializer 
+	 * for every layer after the input layer.
+	 * 
+	 * @param unitsPerLayer The number of units in each layer, from the input layer to the output 
+	 * layer
+	 * @param activationFunctions The number corresponding to the activation function of each 
+	 * layer after the input layer
+	 * @param initializers The scheme initializing each layer's weights, or null for the scheme 
+	 * suited to the layer's activation function, e.g., WeightInitializer.fromSnapshot() to 
+	 * continue training a checkpoint
+	 */
+	public NeuralNet(int[] unitsPerLayer, int[] activationFunctions, 
+			WeightInitializer[] initializers) {
+		super(denseLayers(unitsPerLayer, activationFunctions, initializers));
+		this.unitsPerLayer = unitsPerLayer.clone();
+		this.activationFunctions = activationFunctions.clone();
+	}
+	
+	/**
+	 * Constructs the neural network described by a spec; see getSpec().
+	 * 
+	 * @param spec The spec, e.g., "256-10:sigmoid-10:sigmoid"
+	 */
+	public NeuralNet(String spec) {
+		this(parseUnits(spec), parseActivations(spec), parseInitializers(spec));
+	}
+	
+	/**
+	 * Constructs a neural network that starts from the weights of a snapshot, e.g., one loaded 
+	 * from a checkpoint, to continue training it.
+	 * 
+	 * @param snapshot The snapshot
+	 * @return A network of the snapshot's spec holding a copy of its weights
+	 */
+	public static NeuralNet fromSnapshot(WeightSnapshot snapshot) {
+		String spec = snapshot.getSpec();
+		int[] activationFunctions = parseActivations(spec);
+		WeightInitializer[] initializers = new WeightInitializer[activationFunctions.length];
+		for (int i = 0; i < initializers.length; i++) {
+			initializers[i] = WeightInitializer.fromSnapshot(snapshot, i);
 		}
-		
-		// For the output layer, create a layer of nodes of the specified size. No bias node 
-		// is needed
-		ArrayList<Unit> layer = new ArrayList<Unit>();
-		for (int i = 0; i < unitsPerLayer.get(unitsPerLayer.size() - 1); i++) layer.add(new Unit());
-		layers.add(layer);
-		
-		// Create weights initialized to a random number from -0.005 to +0.005
-		for (int i = 0; i < layers.size() - 1; i++) {
-			for (int j = 0; j < unitsPerLayer.get(i) + 1; j++) {
-				for (int k = 0; k < unitsPerLayer.get(i + 1); k++) {
-					layers.get(i).get(j).addRandWeight();
-				}
-				if (layers.size() - 2 == i) layers.get(i).get(j).addRandWeight();
-			}
+		return new NeuralNet(parseUnits(spec), activationFunctions, initializers);
+	}
+	
+	private static int[] toArray(ArrayList<Integer> list) {
+		int[] array = new int[list.size()];
+		for (int i = 0; i < array.length; i++) array[i] = list.get(i);
+		return array;
+	}
+	
+	private static int[] sameActivation(int numLayers, int activationFunction) {
+		int[] activationFunctions = new int[numLayers];
+		for (int i = 0; i < numLayers; i++) activationFunctions[i] = activationFunction;
+		return activationFunctions;
+	}
+	
+	private static WeightInitializer[] parseInitializers(String spec) {
+		String[] layers = spec.trim().split("-");
+		WeightInitializer[] initializers = new WeightInitializer[layers.length - 1];
+		for (int i = 1; i < layers.length; i++) {
+			String[] fields = layers[i].split(":");
+			if (fields.length > 3) throw new IllegalArgumentException("Invalid layer: " + layers[i]);
+			if (fields.length == 3) initializers[i - 1] = WeightInitializer.forName(fields[2]);
+		}
+		return initializers;
+	}
+	
+	private static ArrayList<Layer> denseLayers(int[] unitsPerLayer, int[] activationFunctions, 
+			WeightInitializer[] initializers) {
+		if (unitsPerLayer.length < 2 || activationFunctions.length != unitsPerLayer.length - 1 || 
+				initializers.length != activationFunctions.length) {
+			throw new IllegalArgumentException("Expected at least two layers and one activation " + 
+					"function and initializer per layer after the input layer");
+		}
+		ArrayList<Layer> layers = new ArrayList<Layer>();
+		for (int i = 0; i < activationFunctions.length; i++) {
+			activationFunction(0, activationFunctions[i]);	// Fails on an invalid function
+			WeightInitializer initializer = null != initializers[i] ? initializers[i] : 
+					WeightInitializer.forActivation(activationFunctions[i]);
+			layers.add(new DenseLayer(unitsPerLayer[i], unitsPerLayer[i + 1], activationFunctions[i], 
+					initializer));
+		}
+		return layers;
+	}
+	
+	private static int[] parseUnits(String spec) {
+		String[] layers = spec.trim().split("-");
+		int[] unitsPerLayer = new int[layers.length];
+		for (int i = 0; i < layers.length; i++) {
+			int colon = layers[i].indexOf(':');
+			unitsPerLayer[i] = Integer.parseInt(colon < 0 ? layers[i] : layers[i].substring(0, colon));
 		}
+		return unitsPerLayer;
+	}
+	
+	private static int[] parseActivations(String spec) {
+		String[] layers = spec.trim().split("-");
+		int[] activationFunctions = new int[layers.length - 1];
+		for (int i = 1; i < layers.length; i++) {
+			String[] fields = layers[i].split(":");
+			String name = fields.length < 2 ? "sigmoid" : fields[1];
+			if (name.equalsIgnoreCase("sigmoid")) activationFunctions[i - 1] = SIGMOID;
+			else if (name.equalsIgnoreCase("relu")) activationFunctions[i - 1] = ReLU;
+			else throw new IllegalArgumentException("Unknown activation function: " + name);
+		}
+		return activationFunctions;
+	}
+	
+	/**
+	 * @param unitsPerLayer The number of units in each layer
+	 * @param activationFunctions The activation function of each layer after the input layer
+	 * @return The spec describing a network of that shape, e.g., "256-10:sigmoid-10:sigmoid"
+	 */
+	static String getSpec(int[] unitsPerLayer, int[] activationFunctions) {
+		StringBuilder spec = new StringBuilder().append(unitsPerLayer[0]);
+		for (int i = 1; i < unitsPerLayer.length; i++) {
+			spec.append('-').append(unitsPerLayer[i]).append(':');
+			spec.append(activationFunctions[i - 1] == ReLU ? "relu" : "sigmoid");
+		}
+		return spec.toString();
+	}
+	
+	/**
+	 * @return The spec describing the network's shape, which the String constructor accepts
+	 */
+	public String getSpec() {
+		return getSpec(unitsPerLayer, activationFunctions);
+	}
+	
+	/**
+	 * @return The number of units in each layer, from the input layer to the output layer
+	 */
+	public int[] getUnitsPerLayer() {
+		return unitsPerLayer.clone();
 	}
 	
 	/**
@@ -64,7 +190,7 @@ public class NeuralNet {
 	 * @param function The number corresponding to the desired activation function
 	 * @return The activation function on input x
 	 */
-	private double activationFunction(double x, int function) {
+	static double activationFunction(double x, int function) {
 		switch (function) {
 			case SIGMOID:	return 1.0 / (1.0 + Math.exp(-x));
 			case ReLU:		return Math.max(0, x);
@@ -79,7 +205,7 @@ public class NeuralNet {
 	 * @param function The number corresponding to the desired activation function
 	 * @return The derivative of the activation function on input x
 	 */
-	private double activationDerivative(double x, int function) {
+	static double activationDerivative(double x, int function) {
 		switch (function) {
 			case SIGMOID:	return activationFunction(x, SIGMOID) * (1 - activationFunction(x, SIGMOID));
 			case ReLU:		return (x > 0) ? 1 : 0;
@@ -90,210 +216,94 @@ public class NeuralNet {
 	}
 	
 	/**
-	 * Propagate inputs forward to compute the 'output' field for each unit. Also computes the 
-	 * 'weightedSum' field for each unit.
+	 * Trains the network using backpropagation while gradually pruning it down to a target 
+	 * sparsity. The first quarter of the epochs train the dense network. Over the next half, the 
+	 * smallest weights are pruned after every epoch, following a cubic schedule that prunes 
+	 * quickly at first and more slowly as the target nears, so the remaining weights can 
+	 * compensate. The last quarter fine-tunes the pruned network.
 	 * 
-	 * @param input The input for a given instance
+	 * @param inputs A list of inputs for each training instance
+	 * @param desiredOutputs A list of desired output labels for each training instance
+	 * @param numEpochs The number of epochs, i.e., passes through the training set
+	 * @param learningRate The learning rate for updating weights
+	 * @param targetSparsity The fraction of weights to prune in every layer but the output layer
 	 */
-	private void propagateFwd(ArrayList<Double> input) {
-		// Set outputs of all input nodes
-		ArrayList<Unit> inputLayer = layers.get(0);
-		for (int i = 0; i < input.size(); i++) inputLayer.get(i).setOutput(input.get(i));
-		
-		// For each subsequent layer, compute the outputs of all nodes
-		for (int i = 1; i < layers.size(); i++) {
-			ArrayList<Unit> prevLayer = layers.get(i - 1);
-			for (int j = 0; j < layers.get(i).size() - 1; j++) {	// Exclude the bias node
-				double weightedSum = 0;
-				for (int k = 0; k < prevLayer.size(); k++) {
-					weightedSum += prevLayer.get(k).getOutput() * prevLayer.get(k).getWeight(j);
-				}
-				Unit u = layers.get(i).get(j);
-				u.setWeightedSum(weightedSum);
-				u.setOutput(activationFunction(weightedSum, activationFunction));
-			}
-			if (layers.size() - 1 == i) {
-				double weightedSum = 0;
-				for (int k = 0; k < prevLayer.size(); k++) {
-					weightedSum += prevLayer.get(k).getOutput() * 
-						prevLayer.get(k).getWeight(layers.get(i).size() - 1);
-				}
-				Unit u = layers.get(i).get(layers.get(i).size() - 1);
-				u.setWeightedSum(weightedSum);
-				u.setOutput(activationFunction(weightedSum, activationFunction));
+	public void train(ArrayList<ArrayList<Double>> inputs, ArrayList<Integer> desiredOutputs, 
+			int numEpochs, double learningRate, double targetSparsity) {
+		int firstPruningEpoch = numEpochs / 4, numPruningEpochs = Math.max(1, numEpochs / 2);
+		for (int i = 0; i < numEpochs; i++) {
+			train(inputs, desiredOutputs, 1, learningRate);
+			int step = i - firstPruningEpoch + 1;
+			if (step >= 1 && step <= numPruningEpochs) {
+				prune(targetSparsity * (1 - Math.pow(1 - (double) step / numPruningEpochs, 3)));
 			}
 		}
 	}
 	
 	/**
-	 * Classify a given instance based on the input vector.
+	 * Prunes every layer but the output layer, whose few weights each matter, down to a given 
+	 * sparsity; see DenseLayer.prune().
 	 * 
-	 * @param input The input for a given instance
-	 * @return The classification according to the neural net
+	 * @param sparsity The fraction of weights to remove from each layer, from 0 to 1
 	 */
-	public int classify(ArrayList<Double> input) {
-		propagateFwd(input);
-		ArrayList<Unit> outputLayer = layers.get(layers.size() - 1);
-		double highestValue = outputLayer.get(0).getOutput();
-		int index = 0;
-		for (int i = 1; i < outputLayer.size(); i++) {
-			if (outputLayer.get(i).getOutput() > highestValue) {
-				highestValue = outputLayer.get(i).getOutput();
-				index = i;
-			}
-		}
-		
-		// For debugging
-//		System.out.println("Values at each output unit:");
-//		for (int i = 0; i < outputLayer.size(); i++) {
-//			System.out.println(i + ") " + outputLayer.get(i).getOutput());
-//		}
-		
-		return index;	// Luckily enough, 'index' directly maps to the classification
+	public void prune(double sparsity) {
+		ArrayList<Layer> layers = getLayers();
+		for (int i = 0; i < layers.size() - 1; i++) ((DenseLayer) layers.get(i)).prune(sparsity);
 	}
 	
 	/**
-	 * Trains the network using backpropagation.
-	 * 
-	 * @param inputs A list of inputs for each training instance
-	 * @param desiredOutputs A list of desired output labels for each training instance
-	 * @param numEpochs The number of epochs, i.e., passes through the training set
-	 * @param learningRate The learning rate for updating weights
+	 * @return The fraction of all weights, excluding biases, that are zero
 	 */
-	public void train(ArrayList<ArrayList<Double>> inputs, ArrayList<Integer> desiredOutputs, 
-			int numEpochs, double learningRate) {
-		for (int i = 0; i < numEpochs; i++) {
-			for (int j = 0; j < inputs.size(); j++) {
-				// Feed forward
-				propagateFwd(inputs.get(j));
-				
-				// Calculate errors at all output nodes
-				ArrayList<Unit> outputLayer = layers.get(layers.size() - 1);
-				
-				for (int k = 0; k < outputLayer.size(); k++) {
-					Unit u = outputLayer.get(k);
-					double label = 0.0;
-					if (desiredOutputs.get(j) == k) label = 1.0;
-					u.setError(activationDerivative(u.getWeightedSum(), activationFunction) * 
-							(label - u.getOutput()));
-				}
-				
-				// Back-propagate errors from output layer to the second layer, i.e., the layer right 
-				// after the input layer; break this into two steps because the output layer doesn't 
-				// contain a bias node, while all the others before it do
-				
-				// Step 1: Back-propagate errors from output layer to layer right before it
-				for (int k = 0; k < layers.get(layers.size() - 2).size() - 1; k++) {
-					Unit u = layers.get(layers.size() - 2).get(k);
-					double error = 0;
-					for (int l = 0; l < outputLayer.size(); l++) {
-						error += u.getWeight(l) * outputLayer.get(l).getError();
-					}
-					error *= activationDerivative(u.getWeightedSum(), activationFunction);
-					u.setError(error);
-				}
-				
-				// Step 2: Continue back-propagating errors all the way to the second layer
-				for (int k = layers.size() - 3; k > 0; k--) {
-					for (int l = 0; l < layers.get(k).size() - 1; l++) {
-						Unit u = layers.get(k).get(l);
-						double error = 0;
-						for (int m = 0; m < layers.get(k + 1).size() - 1; m++) {
-							error += u.getWeight(m) * layers.get(k + 1).get(m).getError();
-						}
-						error *= activationDerivative(u.getWeightedSum(), activationFunction);
-						u.setError(error);
-					}
-				}
-				
-				// Update weights using errors
-				for (int k = 0; k < layers.size() - 2; k++) {
-					for (int l = 0; l < layers.get(k).size(); l++) {
-						Unit u = layers.get(k).get(l);
-						for (int m = 0; m < layers.get(k + 1).size() - 1; m++) {
-							double weight = u.getWeight(m) + 
-									learningRate * u.getOutput() * layers.get(k + 1).get(m).getError();
-							u.setWeight(m, weight);
-						}
-					}
-				}
-				for (Unit u : layers.get(layers.size() - 2)) {
-					for (int k = 0; k < layers.get(layers.size() - 1).size(); k++) {
-						double weight = u.getWeight(k) + 
-								learningRate * u.getOutput() * 
-								layers.get(layers.size() - 1).get(k).getError();
-						u.setWeight(k, weight);
-					}
-				}
-			}
+	public double getSparsity() {
+		double numZero = 0, numWeights = 0;
+		for (Layer layer : getLayers()) {
+			int n = layer.getInputSize() * layer.getOutputSize();
+			numZero += ((DenseLayer) layer).getSparsity() * n;
+			numWeights += n;
 		}
+		return numZero / numWeights;
 	}
 	
 	/**
-	 * Helper method for writeWeightsToFile().
+	 * Replaces the edge weights with those of a snapshot, e.g., one loaded from a checkpoint.
 	 * 
-	 * @throws FileNotFoundException
+	 * @param snapshot The snapshot; it must have the same spec as the network
 	 */
-	private void writeWeightsToFile_MCU() throws FileNotFoundException {
-		PrintWriter printWriter = new PrintWriter("weights.txt");
-		for (int i = 1; i < layers.size() - 1; i++) {
-			printWriter.println("// Weights from layer " + (i - 1) + " to layer " + i);
-			for (int j = 0; j < layers.get(i).size() - 1; j++) {
-				printWriter.println("// Weights feeding into layer " + i + ", node " + j);
-				for (int k = 0; k < layers.get(i - 1).size(); k++) {
-					printWriter.println("weights[" + (i - 1) + "][" + j + "][" + k + 
-							"] = " + layers.get(i - 1).get(k).getWeight(j) + ";");
-				}
-				printWriter.println();
-			}
-		}
-		printWriter.println("// Weights from layer " + (layers.size() - 2) + 
-				" to layer " + (layers.size() - 1));
-		for (int j = 0; j < layers.get(layers.size() - 1).size(); j++) {
-			printWriter.println("// Weights feeding into layer " + (layers.size() - 1) + ", node " + j);
-			for (int k = 0; k < layers.get(layers.size() - 2).size(); k++) {
-				printWriter.println("weights[" + (layers.size() - 2) + "][" + j + "][" + k + 
-						"] = " + layers.get(layers.size() - 2).get(k).getWeight(j) + ";");
-			}
-			if (layers.get(layers.size() - 1).size() - 1 != j) printWriter.println();
+	public void setWeights(WeightSnapshot snapshot) {
+		if (!snapshot.getSpec().equals(getSpec())) {
+			throw new IllegalArgumentException("The snapshot is a " + snapshot.getSpec() + 
+					" network, not " + getSpec());
 		}
-		printWriter.close();
+		ArrayList<Layer> layers = getLayers();
+		for (int i = 0; i < layers.size(); i++) ((DenseLayer) layers.get(i)).setWeights(snapshot.getWeights(i));
 	}
 	
 	/**
-	 * Helper method for writeWeightsToFile().
+	 * Starts or stops quantization-aware training of every layer, see DenseLayer.setQuantization(). 
+	 * The weights are then quantized to the format in the forward pass, in snapshots and in the 
+	 * exported files, so the network trains to work with the weights the hardware stores. The 
+	 * FPGA file is written in the format.
 	 * 
-	 * TODO: Writes negative numbers in two's-complement hex, which may be inconvenient.
+	 * @param format The format to simulate, or null to go back to the full-precision weights
+	 */
+	public void setQuantization(FixedPointFormat format) {
+		for (Layer layer : getLayers()) ((DenseLayer) layer).setQuantization(format);
+		setFpgaFormat(null == format ? FixedPointFormat.FPGA : format);
+	}
+	
+	/**
+	 * Copies the current edge weights into an immutable, flat WeightSnapshot. Later training 
+	 * does not affect the snapshot.
 	 * 
-	 * @throws FileNotFoundException
+	 * @return A snapshot of the network's weights
 	 */
-	private void writeWeightsToFile_FPGA() throws FileNotFoundException {
-		final int BITSTREAM_LENGTH = 1024;
-		
-		PrintWriter printWriter = new PrintWriter("weights.dat");
-		int address = 0;
-		for (int i = 1; i < layers.size() - 1; i++) {
-			printWriter.println("// Weights from layer " + (i - 1) + " to layer " + i);
-			for (int j = 0; j < layers.get(i).size() - 1; j++) {
-				printWriter.println("// Weights feeding into layer " + i + ", node " + j);
-				for (Unit u : layers.get(i - 1)) {
-					int integralWeight = (int) (u.getWeight(j) * BITSTREAM_LENGTH);
-					String hexNumber = String.format("%08x", integralWeight).substring(5, 8);
-					printWriter.printf("@%d 0x%s\t\t// %.5f\n", address++, hexNumber, u.getWeight(j));
-				}
-			}
-		}
-		printWriter.println("// Weights from layer " + (layers.size() - 2) + 
-				" to layer " + (layers.size() - 1));
-		for (int j = 0; j < layers.get(layers.size() - 1).size(); j++) {
-			printWriter.println("// Weights feeding into layer " + (layers.size() - 1) + ", node " + j);
-			for (Unit u : layers.get(layers.size() - 2)) {
-				int integralWeight = (int) (u.getWeight(j) * BITSTREAM_LENGTH);
-				String hexNumber = String.format("%08x", integralWeight).substring(5, 8);
-				printWriter.printf("@%d 0x%s\t\t// %.5f\n", address++, hexNumber, u.getWeight(j));
-			}
-		}
-		printWriter.close();
+	public WeightSnapshot snapshot() {
+		// weights[i] holds the weights from layer i to layer i + 1, grouped by the node they feed 
+		// into; the bias node's weight comes last in each group, as it does on the MCU
+		ArrayList<Layer> layers = getLayers();
+		double[][] weights = new double[layers.size()][];
+		for (int i = 0; i < layers.size(); i++) weights[i] = layers.get(i).getWeights().clone();
+		return new WeightSnapshot(unitsPerLayer.clone(), activationFunctions.clone(), weights);
 	}
 	
 	/**
@@ -303,16 +313,26 @@ public class NeuralNet {
 	 * @throws FileNotFoundException
 	 */
 	public void writeWeightsToFile(int device) throws FileNotFoundException {
-		switch (device) {
-			case MCU:	writeWeightsToFile_MCU();
-						break;
-			case FPGA:	writeWeightsToFile_FPGA();
-						break;
-			case BOTH:	writeWeightsToFile_MCU();
-						writeWeightsToFile_FPGA();
-						break;
-			default:	System.err.println("Invalid device argument, unable to write to a file");
-						return;
-		}
+		writeWeightsToFile(device, ".");
+	}
+	
+	/**
+	 * @return The spec of the network; see getSpec()
+	 */
+	@Override
+	protected String describe() {
+		return getSpec();
+	}
+	
+	/**
+	 * Writes the network's weights to a checkpoint file in the format of 
+	 * WeightSnapshot.writeCheckpoint(), which the server and the other tools load.
+	 * 
+	 * @param fileName The name of the checkpoint file
+	 * @throws IOException
+	 */
+	@Override
+	public void writeCheckpoint(String fileName) throws IOException {
+		snapshot().writeCheckpoint(fileName);
 	}
 }
@@ -0,0 +1,143 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * A 16x16 binary image packed into four longs. Pixel i, counting row by row from the upper-left 
+ * corner as in 'semeion.data', is bit (i % 64) of word (i / 64). Packed images are immutable and 
+ * can be used as hash keys.
+ */
+public class PackedImage {
+	public static final int NUM_PIXELS = 256;
+	public static final int NUM_WORDS = NUM_PIXELS / 64;
+	public static final int NUM_BYTES = NUM_PIXELS / 8;
+	
+	private final long[] words;
+	
+	private PackedImage(long[] words) {
+		this.words = words;
+	}
+	
+	/**
+	 * @param input The input for an instance; values of 0.5 or more are treated as lit pixels
+	 * @return The packed image
+	 */
+	public static PackedImage fromInput(double[] input) {
+		long[] words = new long[NUM_WORDS];
+		for (int i = 0; i < NUM_PIXELS; i++) {
+			if (input[i] >= 0.5) words[i >>> 6] |= 1L << i;
+		}
+		return new PackedImage(words);
+	}
+	
+	/**
+	 * @param input The input for an instance; values of 0.5 or more are treated as lit pixels
+	 * @return The packed image
+	 */
+	public static PackedImage fromInput(ArrayList<Double> input) {
+		long[] words = new long[NUM_WORDS];
+		for (int i = 0; i < NUM_PIXELS; i++) {
+			if (input.get(i) >= 0.5) words[i >>> 6] |= 1L << i;
+		}
+		return new PackedImage(words);
+	}
+	
+	/**
+	 * Parses 64 hex digits. Each digit covers four pixels, the most significant bit being the 
+	 * leftmost pixel, so the string reads like the image itself.
+	 * 
+	 * @param hex The hex string; whitespace is ignored
+	 * @return The packed image
+	 * @throws IllegalArgumentException If 'hex' does not contain exactly 64 hex digits
+	 */
+	public static PackedImage fromHex(String hex) {
+		long[] words = new long[NUM_WORDS];
+		int pixel = 0;
+		for (int i = 0; i < hex.length(); i++) {
+			char c = hex.charAt(i);
+			if (Character.isWhitespace(c)) continue;
+			int digit = Character.digit(c, 16);
+			if (digit < 0 || pixel >= NUM_PIXELS) {
+				throw new IllegalArgumentException("Expected 64 hex digits");
+			}
+			for (int bit = 3; bit >= 0; bit--, pixel++) {
+				if ((digit >>> bit & 1) != 0) words[pixel >>> 6] |= 1L << pixel;
+			}
+		}
+		if (pixel != NUM_PIXELS) throw new IllegalArgumentException("Expected 64 hex digits");
+		return new PackedImage(words);
+	}
+	
+	/**
+	 * Unpacks 32 bytes in the same order as fromHex(), i.e., the most significant bit of the 
+	 * first byte is pixel 0.
+	 * 
+	 * @param bytes The packed bytes
+	 * @return The packed image
+	 * @throws IllegalArgumentException If 'bytes' does not hold exactly 32 bytes
+	 */
+	public static PackedImage fromBytes(byte[] bytes) {
+		if (bytes.length != NUM_BYTES) throw new IllegalArgumentException("Expected 32 bytes");
+		long[] words = new long[NUM_WORDS];
+		for (int pixel = 0; pixel < NUM_PIXELS; pixel++) {
+			if ((bytes[pixel >>> 3] >>> (7 - (pixel & 7)) & 1) != 0) words[pixel >>> 6] |= 1L << pixel;
+		}
+		return new PackedImage(words);
+	}
+	
+	/**
+	 * @param words Four words in the layout described above; the array is copied
+	 * @return The packed image
+	 */
+	public static PackedImage fromWords(long[] words) {
+		if (words.length != NUM_WORDS) throw new IllegalArgumentException("Expected 4 words");
+		return new PackedImage(words.clone());
+	}
+	
+	/**
+	 * @param pixel The index of the pixel, from 0 to 255
+	 * @return Whether the pixel is lit
+	 */
+	public boolean get(int pixel) {
+		return (words[pixel >>> 6] >>> pixel & 1) != 0;
+	}
+	
+	/**
+	 * @param index The index of the word, from 0 to 3
+	 * @return The word holding pixels 64 * index to 64 * index + 63
+	 */
+	public long getWord(int index) {
+		return words[index];
+	}
+	
+	/**
+	 * Unpacks the image into a network input, without allocating.
+	 * 
+	 * @param input Receives 1.0 for every lit pixel and 0.0 for every other pixel
+	 */
+	public void toInput(double[] input) {
+		for (int i = 0; i < NUM_PIXELS; i++) input[i] = (words[i >>> 6] >>> i & 1) != 0 ? 1.0 : 0.0;
+	}
+	
+	/**
+	 * @return The image as 64 hex digits, in the format read by fromHex()
+	 */
+	public String toHex() {
+		StringBuilder hex = new StringBuilder(NUM_PIXELS / 4);
+		for (int pixel = 0; pixel < NUM_PIXELS; pixel += 4) {
+			int digit = 0;
+			for (int bit = 0; bit < 4; bit++) digit = digit << 1 | (get(pixel + bit) ? 1 : 0);
+			hex.append(Character.forDigit(digit, 16));
+		}
+		return hex.toString();
+	}
+	
+	@Override
+	public boolean equals(Object o) {
+		return o instanceof PackedImage && Arrays.equals(words, ((PackedImage) o).words);
+	}
+	
+	@Override
+	public int hashCode() {
+		return Arrays.hashCode(words);
+	}
+}
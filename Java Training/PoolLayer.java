@@ -0,0 +1,132 @@
+/**
+ * Pooling layer: downsamples every channel of an image by taking the maximum or the average of 
+ * each non-overlapping size x size window.
+ */
+public class PoolLayer extends Layer {
+	public static final int MAX = 1;
+	public static final int AVERAGE = 2;
+	
+	private final int channels, inputHeight, inputWidth, size, type;
+	private final int outputHeight, outputWidth;
+	private final double[] output;
+	private final double[] inputError;
+	private final int[] maxIndices;	// For MAX, the input each output was taken from
+	
+	/**
+	 * @param channels The number of channels in the input image
+	 * @param inputHeight The height of the input image; must be a multiple of 'size'
+	 * @param inputWidth The width of the input image; must be a multiple of 'size'
+	 * @param size The width and height of each window
+	 * @param type MAX or AVERAGE
+	 */
+	public PoolLayer(int channels, int inputHeight, int inputWidth, int size, int type) {
+		super(channels * inputHeight * inputWidth, channels * (inputHeight / size) * (inputWidth / size));
+		if (inputHeight % size != 0 || inputWidth % size != 0) {
+			throw new IllegalArgumentException("The input is not a multiple of the window size");
+		}
+		if (type != MAX && type != AVERAGE) throw new IllegalArgumentException("Invalid pooling type");
+		this.channels = channels;
+		this.inputHeight = inputHeight;
+		this.inputWidth = inputWidth;
+		this.size = size;
+		this.type = type;
+		outputHeight = inputHeight / size;
+		outputWidth = inputWidth / size;
+		output = new double[outputSize];
+		inputError = new double[inputSize];
+		maxIndices = new int[outputSize];
+	}
+	
+	@Override
+	public double[] forward(double[] input) {
+		int out = 0;
+		for (int c = 0; c < channels; c++) {
+			for (int oy = 0; oy < outputHeight; oy++) {
+				for (int ox = 0; ox < outputWidth; ox++, out++) {
+					int first = (c * inputHeight + oy * size) * inputWidth + ox * size;
+					if (MAX == type) {
+						int maxIndex = first;
+						for (int y = 0; y < size; y++) {
+							for (int x = 0; x < size; x++) {
+								int i = first + y * inputWidth + x;
+								if (input[i] > input[maxIndex]) maxIndex = i;
+							}
+						}
+						maxIndices[out] = maxIndex;
+						output[out] = input[maxIndex];
+					}
+					else {
+						double sum = 0;
+						for (int y = 0; y < size; y++) {
+							for (int x = 0; x < size; x++) sum += input[first + y * inputWidth + x];
+						}
+						output[out] = sum / (size * size);
+					}
+				}
+			}
+		}
+		return output;
+	}
+	
+	@Override
+	public double[] backward(double[] error, double learningRate) {
+		for (int i = 0; i < inputSize; i++) inputError[i] = 0;
+		if (MAX == type) {
+			for (int out = 0; out < outputSize; out++) inputError[maxIndices[out]] += error[out];
+			return inputError;
+		}
+		int out = 0;
+		for (int c = 0; c < channels; c++) {
+			for (int oy = 0; oy < outputHeight; oy++) {
+				for (int ox = 0; ox < outputWidth; ox++, out++) {
+					int first = (c * inputHeight + oy * size) * inputWidth + ox * size;
+					double share = error[out] / (size * size);
+					for (int y = 0; y < size; y++) {
+						for (int x = 0; x < size; x++) inputError[first + y * inputWidth + x] = share;
+					}
+				}
+			}
+		}
+		return inputError;
+	}
+	
+	/**
+	 * @return The number of channels in the input image
+	 */
+	public int getChannels() {
+		return channels;
+	}
+	
+	/**
+	 * @return The height of the input image
+	 */
+	public int getInputHeight() {
+		return inputHeight;
+	}
+	
+	/**
+	 * @return The width of the input image
+	 */
+	public int getInputWidth() {
+		return inputWidth;
+	}
+	
+	/**
+	 * @return The width and height of each window
+	 */
+	public int getSize() {
+		return size;
+	}
+	
+	/**
+	 * @return MAX or AVERAGE
+	 */
+	public int getType() {
+		return type;
+	}
+	
+	@Override
+	public long getNumMultiplyAdds() {
+		return 0;
+	}
+}
@@ -0,0 +1,20 @@
+/**
+ * Maintains a tuple representing the result of classifying an instance: the classification, the 
+ * values at each output unit, the probability of each class, and the version of the model that 
+ * produced them.
+ */
+public class Prediction {
+	// Like Instance, this class only maintains a tuple, so its fields are public; they are final 
+	// because a prediction may be shared between threads
+	public final int digit;
+	public final long version;
+	public final double[] scores;
+	public final double[] probabilities;
+	
+	public Prediction(int digit, long version, double[] scores, double[] probabilities) {
+		this.digit = digit;
+		this.version = version;
+		this.scores = scores;
+		this.probabilities = probabilities;
+	}
+}
@@ -0,0 +1,185 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded least-recently-used cache of predictions, keyed by the packed 256-bit image, for inputs 
+ * that show up over and over (demo loops, test patterns). A hit skips the forward pass entirely.
+ * 
+ * Every prediction remembers the model version that produced it. When a lookup is made against a 
+ * newer version, the whole cache is cleared, so a hot-swapped model never serves answers from 
+ * the previous one. The cache is split into independently locked segments so that concurrent 
+ * lookups rarely wait on each other.
+ */
+public class PredictionCache {
+	private static final int NUM_SEGMENTS = 16;
+	
+	private final Segment[] segments = new Segment[NUM_SEGMENTS];
+	private final AtomicLong currentVersion = new AtomicLong(-1);
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+	private final LongAdder invalidations = new LongAdder();
+	
+	/**
+	 * One independently locked LRU map holding the entries whose hash selects it.
+	 */
+	private class Segment extends LinkedHashMap<PackedImage, Prediction> {
+		private static final long serialVersionUID = 1L;
+		private final int capacity;
+		
+		Segment(int capacity) {
+			super(16, 0.75f, true);	// Access order, so iteration starts at the LRU entry
+			this.capacity = capacity;
+		}
+		
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<PackedImage, Prediction> eldest) {
+			if (size() <= capacity) return false;
+			evictions.increment();
+			return true;
+		}
+	}
+	
+	/**
+	 * @param capacity The most predictions kept at once
+	 */
+	public PredictionCache(int capacity) {
+		if (capacity < NUM_SEGMENTS) throw new IllegalArgumentException("capacity is too small");
+		for (int i = 0; i < NUM_SEGMENTS; i++) segments[i] = new Segment(capacity / NUM_SEGMENTS);
+	}
+	
+	private Segment segmentFor(PackedImage image) {
+		int h = image.hashCode();
+		return segments[(h ^ h >>> 16) & (NUM_SEGMENTS - 1)];
+	}
+	
+	/**
+	 * Looks up the prediction for an image.
+	 * 
+	 * @param image The image
+	 * @param version The version of the model currently being served
+	 * @return The cached prediction made by that version, or null on a miss
+	 */
+	public Prediction get(PackedImage image, long version) {
+		if (version != currentVersion.get()) invalidate(version);
+		Segment segment = segmentFor(image);
+		Prediction prediction;
+		synchronized (segment) {
+			prediction = segment.get(image);
+		}
+		if (null == prediction || prediction.version != version) {
+			misses.increment();
+			return null;
+		}
+		hits.increment();
+		return prediction;
+	}
+	
+	/**
+	 * Caches a prediction. Predictions made by an outdated model version are ignored.
+	 * 
+	 * @param image The image
+	 * @param prediction The prediction for the image
+	 */
+	public void put(PackedImage image, Prediction prediction) {
+		if (prediction.version != currentVersion.get()) return;
+		Segment segment = segmentFor(image);
+		synchronized (segment) {
+			segment.put(image, prediction);
+		}
+	}
+	
+	/**
+	 * Classify an image in the calling thread, going through the cache.
+	 * 
+	 * @param image The image
+	 * @param holder The holder of the model to classify with on a miss
+	 * @return The prediction for the image
+	 */
+	public Prediction classify(PackedImage image, ModelHolder holder) {
+		WeightSnapshot snapshot = holder.current();
+		Prediction prediction = get(image, snapshot.getVersion());
+		if (null != prediction) return prediction;
+		
+		double[] input = new double[PackedImage.NUM_PIXELS];
+		image.toInput(input);
+		double[][] activations = snapshot.newActivations();
+		double[] probabilities = new double[snapshot.getNumOutputs()];
+		int digit = snapshot.probabilities(input, activations, probabilities);
+		prediction = new Prediction(digit, snapshot.getVersion(), activations[activations.length - 1], 
+				probabilities);
+		put(image, prediction);
+		return prediction;
+	}
+	
+	/**
+	 * Clears the cache once a newer model version is seen. Lookups for an older version, e.g., 
+	 * from a request that started before a swap, do not clear it.
+	 */
+	private void invalidate(long version) {
+		long seen = currentVersion.get();
+		while (version > seen) {
+			if (currentVersion.compareAndSet(seen, version)) {
+				for (Segment segment : segments) {
+					synchronized (segment) {
+						segment.clear();
+					}
+				}
+				if (seen >= 0) invalidations.increment();
+				return;
+			}
+			seen = currentVersion.get();
+		}
+	}
+	
+	/**
+	 * @return The number of lookups that found a prediction
+	 */
+	public long getHits() {
+		return hits.sum();
+	}
+	
+	/**
+	 * @return The number of lookups that did not find a prediction
+	 */
+	public long getMisses() {
+		return misses.sum();
+	}
+	
+	/**
+	 * @return The fraction of lookups that found a prediction, or 0 if there were none
+	 */
+	public double getHitRate() {
+		long h = hits.sum(), total = h + misses.sum();
+		return total == 0 ? 0 : (double) h / total;
+	}
+	
+	/**
+	 * @return The number of predictions dropped to make room for newer ones
+	 */
+	public long getEvictions() {
+		return evictions.sum();
+	}
+	
+	/**
+	 * @return The number of times the cache was cleared because of a new model version
+	 */
+	public long getInvalidations() {
+		return invalidations.sum();
+	}
+	
+	/**
+	 * @return The number of predictions currently cached
+	 */
+	public int size() {
+		int size = 0;
+		for (Segment segment : segments) {
+			synchronized (segment) {
+				size += segment.size();
+			}
+		}
+		return size;
+	}
+}
@@ -0,0 +1,114 @@
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Seeded source of all randomness in training. Each purpose, such as weight initialization or 
+ * shuffling, draws from its own independent SplittableRandom streams, numbered from 0, and each 
+ * stream is derived from the seed, the purpose and the stream's number alone. The same seed 
+ * therefore reproduces a run exactly, and drawing more numbers for one purpose, e.g., adding a 
+ * layer, does not change the numbers of another, e.g., the shuffled order.
+ * 
+ * A stream is not thread-safe; code running on several threads takes a stream per thread, 
+ * either numbered explicitly with stream() or split from its own stream, so threads never 
+ * contend on a shared generator.
+ * 
+ * The seed is chosen at random unless setSeed() is called; getSeed() tells which seed a run used.
+ */
+public final class RandomStreams {
+	// Purposes used by the trainers; any other name gives another set of independent streams
+	public static final String WEIGHT_INIT = "weight-init";
+	public static final String SHUFFLE = "shuffle";
+	public static final String SAMPLING = "sampling";
+	public static final String DROPOUT = "dropout";
+	public static final String AUGMENTATION = "augmentation";
+	public static final String BITSTREAM = "bitstream";
+	
+	// Odd constant from SplittableRandom, the fractional part of the golden ratio
+	private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+	
+	private static volatile long seed = new SplittableRandom().nextLong();
+	private static final ConcurrentHashMap<String, AtomicLong> nextStreams = 
+			new ConcurrentHashMap<String, AtomicLong>();
+	
+	private RandomStreams() {
+	}
+	
+	/**
+	 * @return The seed all streams are derived from
+	 */
+	public static long getSeed() {
+		return seed;
+	}
+	
+	/**
+	 * Replaces the seed and numbers the streams handed out by next() from 0 again, so the 
+	 * components created afterwards draw the same numbers as in any other run with this seed.
+	 * 
+	 * @param newSeed The seed
+	 */
+	public static void setSeed(long newSeed) {
+		seed = newSeed;
+		nextStreams.clear();
+	}
+	
+	/**
+	 * @param purpose What the numbers are for, e.g., WEIGHT_INIT
+	 * @param index The number of the stream, e.g., of a layer or thread
+	 * @return A new generator for the stream, starting at its beginning
+	 */
+	public static SplittableRandom stream(String purpose, long index) {
+		long h = mix(seed ^ mix(purpose.hashCode() * GOLDEN_GAMMA));
+		return new SplittableRandom(mix(h + (index + 1) * GOLDEN_GAMMA));
+	}
+	
+	/**
+	 * Returns the next stream for a purpose: the first call after the seed is set returns 
+	 * stream 0, the next stream 1, and so on. Components created in a fixed order, such as the 
+	 * layers of a network, each get their own stream this way.
+	 * 
+	 * @param purpose What the numbers are for, e.g., WEIGHT_INIT
+	 * @return A new generator for the stream
+	 */
+	public static SplittableRandom next(String purpose) {
+		AtomicLong counter = nextStreams.get(purpose);
+		if (null == counter) {
+			AtomicLong added = new AtomicLong();
+			counter = nextStreams.putIfAbsent(purpose, added);
+			if (null == counter) counter = added;
+		}
+		return stream(purpose, counter.getAndIncrement());
+	}
+	
+	/**
+	 * Shuffles a list uniformly, as Collections.shuffle() does, with the given generator.
+	 */
+	public static <T> void shuffle(List<T> list, SplittableRandom random) {
+		for (int i = list.size() - 1; i > 0; i--) {
+			int j = random.nextInt(i + 1);
+			list.set(i, list.set(j, list.get(i)));
+		}
+	}
+	
+	/**
+	 * Shuffles an array uniformly with the given generator.
+	 */
+	public static void shuffle(int[] array, SplittableRandom random) {
+		for (int i = array.length - 1; i > 0; i--) {
+			int j = random.nextInt(i + 1);
+			int swapped = array[i];
+			array[i] = array[j];
+			array[j] = swapped;
+		}
+	}
+	
+	/**
+	 * Stafford's variant 13 of the MurmurHash3 finalizer, as used by SplittableRandom.
+	 */
+	private static long mix(long z) {
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+}
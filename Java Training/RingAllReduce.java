@@ -0,0 +1,257 @@
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Sums a vector of doubles across a ring of worker processes, each holding its own vector of 
+ * the same length, so that every worker ends up with the total. The workers are given a list of 
+ * addresses, one per worker, which may be on different machines: worker r listens on the r-th, 
+ * connects to worker r + 1 and accepts worker r - 1, wrapping around; the vector 
+ * is cut into one chunk per worker, and in 2 * (N - 1) steps each worker sends a chunk to the 
+ * next while receiving one from the previous: first adding the received chunks so that each 
+ * worker holds one chunk's total, then passing the totals on. Every worker thus sends and 
+ * receives about 2 * length doubles whatever the number of workers.
+ * 
+ * The channels are non-blocking and driven by a Selector, so a worker sends and receives at once 
+ * and a chunk larger than the sockets' buffers cannot deadlock the ring. The doubles travel in 
+ * direct ByteBuffers in network byte order; nothing is serialized. A worker that dies or hangs 
+ * is detected: a closed connection, or no progress for the timeout, makes every operation throw 
+ * an IOException instead of waiting forever.
+ * 
+ * Not thread-safe; each worker calls allReduce() from one thread, in the same order as the 
+ * others.
+ */
+public class RingAllReduce implements Closeable {
+	// Sent by each worker to the next when connecting; followed by its rank, the number of 
+	// workers and the length of the vectors
+	private static final int RING_MAGIC = 0x4E4E5231;	// "NNR1"
+	private static final int RETRY_MILLIS = 50;
+	
+	private final int rank;
+	private final int numWorkers;
+	private final int length;
+	private final int timeoutMillis;
+	private final SocketChannel next;
+	private final SocketChannel previous;
+	private final Selector selector;
+	private final SelectionKey nextKey;
+	private final SelectionKey previousKey;
+	private final ByteBuffer sendBuffer;
+	private final ByteBuffer receiveBuffer;
+	
+	private RingAllReduce(int rank, int numWorkers, int length, int timeoutMillis, SocketChannel next, 
+			SocketChannel previous) throws IOException {
+		this.rank = rank;
+		this.numWorkers = numWorkers;
+		this.length = length;
+		this.timeoutMillis = timeoutMillis;
+		this.next = next;
+		this.previous = previous;
+		selector = Selector.open();
+		next.configureBlocking(false);
+		previous.configureBlocking(false);
+		nextKey = next.register(selector, 0);
+		previousKey = previous.register(selector, 0);
+		int maxChunk = (length + numWorkers - 1) / numWorkers;
+		sendBuffer = ByteBuffer.allocateDirect(8 * maxChunk);
+		receiveBuffer = ByteBuffer.allocateDirect(8 * maxChunk);
+	}
+	
+	/**
+	 * Joins the ring, waiting up to the timeout for the neighbouring workers to start.
+	 * 
+	 * @param rank The number of this worker, from 0
+	 * @param addresses The address of every worker by rank; this worker listens on its own, so 
+	 * it must be one of this machine's
+	 * @param length The length of the vectors every worker sums
+	 * @param timeoutMillis How long to wait for a neighbour before giving up on it
+	 * @return The ring
+	 * @throws IOException If a neighbour does not connect in time, or was started for another 
+	 * ring
+	 */
+	public static RingAllReduce connect(int rank, InetSocketAddress[] addresses, int length, 
+			int timeoutMillis) throws IOException {
+		int numWorkers = addresses.length;
+		if (numWorkers < 1 || rank < 0 || rank >= numWorkers) {
+			throw new IllegalArgumentException("Invalid rank " + rank + " of " + numWorkers + " workers");
+		}
+		ServerSocketChannel server = ServerSocketChannel.open();
+		SocketChannel next = null, previous = null;
+		try {
+			server.socket().setReuseAddress(true);
+			server.bind(addresses[rank]);
+			long deadline = System.currentTimeMillis() + timeoutMillis;
+			int nextRank = (rank + 1) % numWorkers;
+			
+			// Every worker binds before it connects, so a connection only waits for the next 
+			// worker to start, not to reach accept()
+			while (null == next) {
+				try {
+					next = SocketChannel.open(addresses[nextRank]);
+				}
+				catch (ConnectException e) {
+					if (System.currentTimeMillis() > deadline) {
+						throw new IOException("Worker " + nextRank + " did not start within " + 
+								timeoutMillis + " ms");
+					}
+					sleep(RETRY_MILLIS);
+				}
+			}
+			next.socket().setTcpNoDelay(true);
+			DataOutputStream out = new DataOutputStream(next.socket().getOutputStream());
+			out.writeInt(RING_MAGIC);
+			out.writeInt(rank);
+			out.writeInt(numWorkers);
+			out.writeInt(length);
+			out.flush();
+			
+			server.configureBlocking(false);
+			int previousRank = (rank + numWorkers - 1) % numWorkers;
+			while (null == previous) {
+				previous = server.accept();
+				if (null != previous) break;
+				if (System.currentTimeMillis() > deadline) {
+					throw new IOException("Worker " + previousRank + " did not connect within " + 
+							timeoutMillis + " ms");
+				}
+				sleep(RETRY_MILLIS);
+			}
+			previous.configureBlocking(true);
+			previous.socket().setTcpNoDelay(true);
+			previous.socket().setSoTimeout(timeoutMillis);
+			DataInputStream in = new DataInputStream(previous.socket().getInputStream());
+			if (in.readInt() != RING_MAGIC || in.readInt() != previousRank || 
+					in.readInt() != numWorkers || in.readInt() != length) {
+				throw new IOException("The worker connecting as " + previousRank + " belongs to " + 
+						"another ring");
+			}
+			return new RingAllReduce(rank, numWorkers, length, timeoutMillis, next, previous);
+		}
+		catch (IOException e) {
+			if (null != next) next.close();
+			if (null != previous) previous.close();
+			throw e;
+		}
+		finally {
+			server.close();
+		}
+	}
+	
+	private static void sleep(int millis) throws IOException {
+		try {
+			Thread.sleep(millis);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while joining the ring");
+		}
+	}
+	
+	/**
+	 * @return The number of this worker, from 0
+	 */
+	public int getRank() {
+		return rank;
+	}
+	
+	/**
+	 * @return The number of workers in the ring
+	 */
+	public int getNumWorkers() {
+		return numWorkers;
+	}
+	
+	/**
+	 * Replaces a vector with its sum over all workers. Every worker gets exactly the same sums.
+	 * 
+	 * @param values The vector of this worker, of the ring's length
+	 * @throws IOException If a neighbour closed its connection or made no progress for the 
+	 * timeout; the ring is unusable afterwards
+	 */
+	public void allReduce(double[] values) throws IOException {
+		if (values.length != length) {
+			throw new IllegalArgumentException("The ring sums " + length + " values, not " + values.length);
+		}
+		
+		// Reduce-scatter: after step s, this worker has added s + 2 workers' parts of chunk 
+		// rank - s - 1, and after the last step holds the total of chunk rank + 1
+		for (int s = 0; s < numWorkers - 1; s++) exchange(values, rank - s, rank - s - 1, true);
+		
+		// All-gather: pass the totals around the ring
+		for (int s = 0; s < numWorkers - 1; s++) exchange(values, rank + 1 - s, rank - s, false);
+	}
+	
+	/**
+	 * Sends one chunk of a vector to the next worker while receiving another from the previous 
+	 * worker, and adds the received chunk to the vector or copies it in. Chunks are numbered 
+	 * modulo the number of workers.
+	 */
+	private void exchange(double[] values, int sendChunk, int receiveChunk, boolean add)
+			throws IOException {
+		sendChunk = (sendChunk + numWorkers) % numWorkers;
+		receiveChunk = (receiveChunk + numWorkers) % numWorkers;
+		int sendStart = chunkStart(sendChunk), sendEnd = chunkStart(sendChunk + 1);
+		int receiveStart = chunkStart(receiveChunk), receiveEnd = chunkStart(receiveChunk + 1);
+		sendBuffer.clear();
+		for (int i = sendStart; i < sendEnd; i++) sendBuffer.putDouble(values[i]);
+		sendBuffer.flip();
+		receiveBuffer.clear();
+		receiveBuffer.limit(8 * (receiveEnd - receiveStart));
+		
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		while (sendBuffer.hasRemaining() || receiveBuffer.hasRemaining()) {
+			nextKey.interestOps(sendBuffer.hasRemaining() ? SelectionKey.OP_WRITE : 0);
+			previousKey.interestOps(receiveBuffer.hasRemaining() ? SelectionKey.OP_READ : 0);
+			long remaining = deadline - System.currentTimeMillis();
+			if (remaining <= 0) {
+				throw new IOException("No progress with the neighbouring workers for " + 
+						timeoutMillis + " ms");
+			}
+			selector.select(remaining);
+			selector.selectedKeys().clear();
+			boolean progress = false;
+			if (sendBuffer.hasRemaining()) progress |= next.write(sendBuffer) > 0;
+			if (receiveBuffer.hasRemaining()) {
+				int read = previous.read(receiveBuffer);
+				if (read < 0) {
+					throw new IOException("Worker " + (rank + numWorkers - 1) % numWorkers + 
+							" closed its connection");
+				}
+				progress |= read > 0;
+			}
+			if (progress) deadline = System.currentTimeMillis() + timeoutMillis;
+		}
+		
+		receiveBuffer.flip();
+		for (int i = receiveStart; i < receiveEnd; i++) {
+			if (add) values[i] += receiveBuffer.getDouble();
+			else values[i] = receiveBuffer.getDouble();
+		}
+	}
+	
+	/**
+	 * @param chunk The number of a chunk, or the number of workers for the end of the vector
+	 * @return The index of the chunk's first value
+	 */
+	private int chunkStart(int chunk) {
+		return (int) ((long) length * chunk / numWorkers);
+	}
+	
+	/**
+	 * Leaves the ring, closing the connections to both neighbours.
+	 */
+	@Override
+	public void close() throws IOException {
+		selector.close();
+		next.close();
+		previous.close();
+	}
+}
@@ -0,0 +1,138 @@
+import java.util.SplittableRandom;
+
+/**
+ * Chooses the instances each epoch trains on by importance sampling, so that epochs spend their 
+ * steps on the instances the network still gets wrong or unsure of rather than on the many it 
+ * already classifies confidently. Every instance has a priority, its squared error the last time 
+ * it was trained on plus MISCLASSIFIED_PRIORITY if it was misclassified, and an epoch draws a 
+ * fixed number of instances with probability proportional to the priorities, mixed with a 
+ * uniform share so that no instance is ever left out for good.
+ * 
+ * Drawing instances unevenly biases the gradient towards the hard ones, so each step's learning 
+ * rate is scaled by the instance's importance weight (1 / (N * p))^c, N being the number of 
+ * instances, p its probability of being drawn and c the correction. With the default correction 
+ * of 1 the reweighting is exact: every instance contributes as much per step, on average, as in 
+ * an epoch visiting each instance once. Lower corrections keep part of the bias, which fits the 
+ * hard training instances sooner.
+ * 
+ * nextEpoch() is called by one thread between epochs; during an epoch, any number of training 
+ * threads may call record() and getWeight(), each for the instances of the plan it trains on.
+ * The priorities are plain doubles, so an instance recorded by two threads at once keeps either 
+ * error, which is as good.
+ */
+public class SampleScheduler {
+	// Priority added for a misclassified instance, and that of instances not trained on yet, so 
+	// the first epoch draws uniformly
+	public static final double MISCLASSIFIED_PRIORITY = 1.0;
+	public static final double INITIAL_PRIORITY = 1.0;
+	
+	// Share of the probability spread evenly over all instances; also bounds every importance 
+	// weight by (1 / UNIFORM_SHARE)^c
+	public static final double UNIFORM_SHARE = 0.2;
+	
+	// The correction c of the importance weights unless setCorrection() says otherwise
+	public static final double DEFAULT_CORRECTION = 1.0;
+	
+	private final double[] priorities;
+	private final double[] weights;
+	private final int stepsPerEpoch;
+	private final SplittableRandom random;
+	private double correction = DEFAULT_CORRECTION;
+	
+	/**
+	 * @param numInstances The number of training instances
+	 * @param stepFraction The number of steps each epoch takes, as a fraction of the number of 
+	 * instances, e.g., 0.5 for half as many steps as an epoch visiting every instance once
+	 * @param random The generator the epochs are drawn with, e.g., from RandomStreams
+	 */
+	public SampleScheduler(int numInstances, double stepFraction, SplittableRandom random) {
+		if (numInstances < 1) throw new IllegalArgumentException("No instances");
+		if (!(stepFraction > 0)) throw new IllegalArgumentException("The step fraction must be positive");
+		priorities = new double[numInstances];
+		weights = new double[numInstances];
+		for (int i = 0; i < numInstances; i++) priorities[i] = INITIAL_PRIORITY;
+		stepsPerEpoch = Math.max(1, (int) Math.round(stepFraction * numInstances));
+		this.random = random;
+	}
+	
+	/**
+	 * @param correction The exponent of the importance weights, from 0, for plain hard-example 
+	 * mining, to 1, for exact reweighting; DEFAULT_CORRECTION unless set otherwise
+	 */
+	public void setCorrection(double correction) {
+		if (!(correction >= 0 && correction <= 1)) {
+			throw new IllegalArgumentException("The correction must be from 0 to 1, not " + correction);
+		}
+		this.correction = correction;
+	}
+	
+	/**
+	 * Draws the instances of the next epoch from the current priorities, by systematic sampling: 
+	 * one random offset places stepsPerEpoch evenly spaced points along the cumulative 
+	 * probabilities, so an instance is drawn within one of its expected number of times. Fixes 
+	 * the importance weights getWeight() returns until the next call.
+	 * 
+	 * @return The indices of the instances to train on, in a random order; an instance may appear 
+	 * more than once
+	 */
+	public int[] nextEpoch() {
+		int n = priorities.length;
+		double total = 0;
+		for (double priority : priorities) total += priority;
+		
+		int[] plan = new int[stepsPerEpoch];
+		double spacing = 1.0 / stepsPerEpoch, point = random.nextDouble() * spacing, cumulative = 0;
+		int numDrawn = 0;
+		for (int i = 0; i < n; i++) {
+			double probability = (1 - UNIFORM_SHARE) * (total > 0 ? priorities[i] / total : 1.0 / n) + 
+					UNIFORM_SHARE / n;
+			weights[i] = Math.pow(n * probability, -correction);
+			cumulative += probability;
+			for (; point < cumulative && numDrawn < stepsPerEpoch; point += spacing) plan[numDrawn++] = i;
+		}
+		
+		// Rounding may leave the last point just past the end
+		while (numDrawn < stepsPerEpoch) plan[numDrawn++] = n - 1;
+		RandomStreams.shuffle(plan, random);
+		return plan;
+	}
+	
+	/**
+	 * @param instance The index of an instance
+	 * @return The factor to scale the learning rate of a step on the instance by in this epoch, 
+	 * its importance weight
+	 */
+	public double getWeight(int instance) {
+		return weights[instance];
+	}
+	
+	/**
+	 * Records how well the network did on an instance it was just trained on, which sets the 
+	 * instance's priority for the following epochs.
+	 * 
+	 * @param instance The index of the instance
+	 * @param output The value of each output
+	 * @param outputError The desired value minus the actual value of each output
+	 * @param desiredOutput The desired output label
+	 */
+	public void record(int instance, double[] output, double[] outputError, int desiredOutput) {
+		double squaredError = 0;
+		for (double error : outputError) squaredError += error * error;
+		if (WeightSnapshot.argmax(output) != desiredOutput) squaredError += MISCLASSIFIED_PRIORITY;
+		priorities[instance] = squaredError;
+	}
+	
+	/**
+	 * @return The number of steps each epoch takes
+	 */
+	public int getStepsPerEpoch() {
+		return stepsPerEpoch;
+	}
+	
+	/**
+	 * @return The number of instances
+	 */
+	public int getNumInstances() {
+		return priorities.length;
+	}
+}
@@ -0,0 +1,243 @@
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.PrintWriter;
+
+/**
+ * Immutable copy of a pruned network in compressed sparse row (CSR) form: only the nonzero 
+ * weights are kept, so a forward pass costs time in proportion to the weights that survived 
+ * pruning rather than to the size of the network. Like WeightSnapshot, a sparse snapshot can be 
+ * shared by any number of threads.
+ * 
+ * For each pair of adjacent layers, the nonzero weights feeding into node j are 
+ * values[rowStart[j]] through values[rowStart[j + 1] - 1], coming from the nodes listed in the 
+ * same positions of 'columns'. Biases are kept densely, one per node.
+ */
+public class SparseSnapshot {
+	private final int[] unitsPerLayer;
+	private final WeightSnapshot dense;
+	private final int[][] rowStart;
+	private final short[][] columns;
+	private final double[][] values;
+	private final double[][] biases;
+	
+	/**
+	 * Compresses a snapshot, dropping every weight that is exactly zero.
+	 * 
+	 * @param snapshot A snapshot of a pruned network
+	 */
+	public SparseSnapshot(WeightSnapshot snapshot) {
+		dense = snapshot;
+		unitsPerLayer = snapshot.getUnitsPerLayer();
+		int numLayers = unitsPerLayer.length - 1;
+		rowStart = new int[numLayers][];
+		columns = new short[numLayers][];
+		values = new double[numLayers][];
+		biases = new double[numLayers][];
+		for (int l = 0; l < numLayers; l++) {
+			double[] weights = snapshot.getWeights(l);
+			int rows = unitsPerLayer[l + 1], stride = unitsPerLayer[l] + 1;
+			int nonzeros = 0;
+			for (int j = 0; j < rows; j++) {
+				for (int k = 0; k < stride - 1; k++) if (0.0 != weights[j * stride + k]) nonzeros++;
+			}
+			rowStart[l] = new int[rows + 1];
+			columns[l] = new short[nonzeros];
+			values[l] = new double[nonzeros];
+			biases[l] = new double[rows];
+			int n = 0;
+			for (int j = 0; j < rows; j++) {
+				rowStart[l][j] = n;
+				for (int k = 0; k < stride - 1; k++) {
+					double weight = weights[j * stride + k];
+					if (0.0 == weight) continue;
+					columns[l][n] = (short) k;
+					values[l][n++] = weight;
+				}
+				biases[l][j] = weights[j * stride + stride - 1];
+			}
+			rowStart[l][rows] = n;
+		}
+	}
+	
+	/**
+	 * @return The number of nonzero weights, excluding biases
+	 */
+	public int getNumNonzeros() {
+		int nonzeros = 0;
+		for (double[] layerValues : values) nonzeros += layerValues.length;
+		return nonzeros;
+	}
+	
+	/**
+	 * @return The fraction of weights, excluding biases, that were dropped
+	 */
+	public double getSparsity() {
+		long numWeights = 0;
+		for (int l = 0; l < values.length; l++) numWeights += (long) unitsPerLayer[l] * unitsPerLayer[l + 1];
+		return 1.0 - (double) getNumNonzeros() / numWeights;
+	}
+	
+	/**
+	 * @return Buffers for the outputs of every layer, for propagateFwd()
+	 */
+	public double[][] newActivations() {
+		return dense.newActivations();
+	}
+	
+	/**
+	 * Propagate inputs forward, storing the outputs of each layer in 'activations'. Only the 
+	 * nonzero weights are visited.
+	 * 
+	 * @param input The input for a given instance
+	 * @param activations Buffers from newActivations(); activations[0] receives a copy of 'input'
+	 */
+	public void propagateFwd(double[] input, double[][] activations) {
+		System.arraycopy(input, 0, activations[0], 0, unitsPerLayer[0]);
+		for (int l = 0; l < values.length; l++) {
+			double[] prev = activations[l], next = activations[l + 1];
+			int[] starts = rowStart[l];
+			short[] cols = columns[l];
+			double[] vals = values[l];
+			int activationFunction = dense.getActivationFunction(l + 1);
+			for (int j = 0; j < next.length; j++) {
+				// The bias is added last, as in main.c, so both sum in the same order
+				double weightedSum = 0;
+				for (int n = starts[j]; n < starts[j + 1]; n++) weightedSum += prev[cols[n]] * vals[n];
+				next[j] = NeuralNet.activationFunction(weightedSum + biases[l][j], activationFunction);
+			}
+		}
+	}
+	
+	/**
+	 * Classify a given instance, using caller-provided buffers.
+	 * 
+	 * @param input The input for a given instance
+	 * @param activations Buffers from newActivations()
+	 * @return The classification according to the snapshot
+	 */
+	public int classify(double[] input, double[][] activations) {
+		propagateFwd(input, activations);
+		return WeightSnapshot.argmax(activations[activations.length - 1]);
+	}
+	
+	/**
+	 * Writes 'weights_sparse.h', which holds the nonzero weights as constant CSR arrays, so they 
+	 * are placed in flash. main.c uses them instead of create_weights() when compiled with 
+	 * SPARSE_WEIGHTS defined. 'network.h' must describe the same network.
+	 * 
+	 * @param fileName The name of the file to write
+	 * @throws FileNotFoundException
+	 */
+	private void writeWeightsToFile_MCU(String fileName) throws FileNotFoundException {
+		// classify() in main.c indexes the arrays with 16-bit counters
+		for (double[] layerValues : values) {
+			if (layerValues.length > 0xffff) {
+				throw new IllegalStateException("Too many nonzero weights in a layer for the MCU");
+			}
+		}
+		PrintWriter printWriter = new PrintWriter(fileName);
+		printWriter.printf("// Nonzero weights of a %s network in compressed sparse row form; " + 
+				"%.1f%% of the weights\n// are pruned. The weights feeding into node j of layer " +
+				"l + 1 are sparse_values[l][n]\n// for n from sparse_row_start[l][j] to " +
+				"sparse_row_start[l][j + 1] - 1, from the nodes\n// sparse_columns[l][n]\n",
+				dense.getSpec(), 100 * getSparsity());
+		printWriter.println("#ifndef __WEIGHTS_SPARSE_H__");
+		printWriter.println("#define __WEIGHTS_SPARSE_H__");
+		for (int l = 0; l < values.length; l++) {
+			printWriter.println();
+			printWriter.println("// Weights from layer " + l + " to layer " + (l + 1));
+			printWriter.print("static const uint16_t sparse_row_start_" + l + "[] = {");
+			for (int j = 0; j < rowStart[l].length; j++) printWriter.print((j > 0 ? ", " : "") + rowStart[l][j]);
+			printWriter.println("};");
+			printWriter.print("static const uint16_t sparse_columns_" + l + "[] = {");
+			for (int n = 0; n < columns[l].length; n++) {
+				printWriter.print((n > 0 ? ", " : "") + (n % 16 == 0 ? "\n\t" : "") + columns[l][n]);
+			}
+			printWriter.println("};");
+			printWriter.print("static const double sparse_values_" + l + "[] = {");
+			for (int n = 0; n < values[l].length; n++) {
+				printWriter.print((n > 0 ? "," : "") + "\n\t" + values[l][n]);
+			}
+			printWriter.println("};");
+			printWriter.print("static const double sparse_biases_" + l + "[] = {");
+			for (int j = 0; j < biases[l].length; j++) {
+				printWriter.print((j > 0 ? "," : "") + "\n\t" + biases[l][j]);
+			}
+			printWriter.println("};");
+		}
+		printWriter.println();
+		String[] names = {"uint16_t", "sparse_row_start", "uint16_t", "sparse_columns", "double", 
+				"sparse_values", "double", "sparse_biases"};
+		for (int i = 0; i < names.length; i += 2) {
+			printWriter.print("static const " + names[i] + " *const " + names[i + 1] + 
+					"[NUM_WEIGHT_LAYERS] = {");
+			for (int l = 0; l < values.length; l++) printWriter.print((l > 0 ? ", " : "") + names[i + 1] + "_" + l);
+			printWriter.println("};");
+		}
+		printWriter.println();
+		printWriter.println("#endif");
+		printWriter.close();
+	}
+	
+	/**
+	 * Writes the nonzero weights for the FPGA. 'weights_sparse.dat' holds one word per nonzero 
+	 * weight in row order, the column in the upper 12 bits and the weight in the lower 12 bits, 
+	 * in FixedPointFormat.FPGA as by NeuralNet; the bias of each row comes first, with column 0xfff.
+	 * 'weights_sparse_rows.dat' holds the address of each row's first word, plus one past the 
+	 * last row.
+	 * 
+	 * @param fileName The name of the weight file; the row file is written next to it
+	 * @throws FileNotFoundException
+	 */
+	private void writeWeightsToFile_FPGA(String fileName, String rowFileName)
+			throws FileNotFoundException {
+		final int BIAS_COLUMN = 0xfff;
+		
+		PrintWriter printWriter = new PrintWriter(fileName);
+		PrintWriter rowWriter = new PrintWriter(rowFileName);
+		int address = 0, rowAddress = 0;
+		for (int l = 0; l < values.length; l++) {
+			printWriter.println("// Weights from layer " + l + " to layer " + (l + 1));
+			rowWriter.println("// Rows of the weights from layer " + l + " to layer " + (l + 1));
+			for (int j = 0; j < biases[l].length; j++) {
+				printWriter.println("// Weights feeding into layer " + (l + 1) + ", node " + j);
+				rowWriter.printf("@%d 0x%04x\n", rowAddress++, address);
+				for (int n = rowStart[l][j] - 1; n < rowStart[l][j + 1]; n++) {
+					boolean bias = n < rowStart[l][j];
+					double weight = bias ? biases[l][j] : values[l][n];
+					int integralWeight = FixedPointFormat.FPGA.encode(weight);
+					printWriter.printf("@%d 0x%03x%03x\t\t// %.5f\n", address++, 
+							bias ? BIAS_COLUMN : columns[l][n], integralWeight, weight);
+				}
+			}
+		}
+		rowWriter.printf("@%d 0x%04x\n", rowAddress, address);
+		printWriter.close();
+		rowWriter.close();
+	}
+	
+	/**
+	 * Writes the nonzero weights in the format for the given device: 'weights_sparse.h' for the 
+	 * MCU, 'weights_sparse.dat' and 'weights_sparse_rows.dat' for the FPGA.
+	 * 
+	 * @param device NeuralNet.MCU, NeuralNet.FPGA or NeuralNet.BOTH
+	 * @param directory The directory to write the files to
+	 * @throws FileNotFoundException
+	 */
+	public void writeWeightsToFile(int device, String directory) throws FileNotFoundException {
+		String mcuFile = new File(directory, "weights_sparse.h").getPath();
+		String fpgaFile = new File(directory, "weights_sparse.dat").getPath();
+		String fpgaRowFile = new File(directory, "weights_sparse_rows.dat").getPath();
+		switch (device) {
+			case NeuralNet.MCU:		writeWeightsToFile_MCU(mcuFile);
+									break;
+			case NeuralNet.FPGA:	writeWeightsToFile_FPGA(fpgaFile, fpgaRowFile);
+									break;
+			case NeuralNet.BOTH:	writeWeightsToFile_MCU(mcuFile);
+									writeWeightsToFile_FPGA(fpgaFile, fpgaRowFile);
+									break;
+			default:				System.err.println("Invalid device argument, unable to write to a file");
+									return;
+		}
+	}
+}
@@ -0,0 +1,267 @@
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.Scanner;
+
+/**
+ * Java port of the touchscreen preprocessing done on the MCU, so raw traces can be turned into 
+ * network inputs off the device. Touch points are written to a 240x320 pixel map laid out like 
+ * 'pixel_map' in main.c, and the map is downsampled to the 16x16 network input exactly as 
+ * create_nn_input() does it.
+ * 
+ * The MCU scans the whole screen in find_boundaries() before its final classification. Here the 
+ * bounding box is kept up to date as points are added, as the live classification of main.c 
+ * does. Both sides precompute the column and row each pixel offset maps to as bit masks using 
+ * integer arithmetic, cellMasks() here and cell_masks() in main.c, so downsampling costs one 
+ * pass over the pixels in the bounding box. The cells are defined with floor() and ceil(); see 
+ * createNnInputReference().
+ */
+public class TracePreprocessor {
+	public static final int SCREEN_WIDTH = 240;
+	public static final int SCREEN_HEIGHT = 320;
+	public static final int GRID_SIZE = 16;
+	
+	// pixelMap[y / 32][x] holds the pixels (x, y) through (x, y + 31), one per bit, as on the MCU
+	private final int[][] pixelMap = new int[SCREEN_HEIGHT / 32][SCREEN_WIDTH];
+	
+	// Bounding box of the lit pixels, initialized like find_boundaries() leaves it for an empty 
+	// screen
+	private int upperBound, lowerBound, leftBound, rightBound;
+	
+	/**
+	 * Constructs a preprocessor with a blank screen.
+	 */
+	public TracePreprocessor() {
+		clear();
+	}
+	
+	/**
+	 * Blanks the screen.
+	 */
+	public void clear() {
+		for (int[] row : pixelMap) Arrays.fill(row, 0);
+		upperBound = SCREEN_HEIGHT;
+		lowerBound = 0;
+		leftBound = SCREEN_WIDTH;
+		rightBound = 0;
+	}
+	
+	/**
+	 * Writes a touch point to the pixel map, like map_coordinates() on the MCU, and grows the 
+	 * bounding box to include it. Points off the screen are ignored.
+	 * 
+	 * @param x The x-coordinate, with the upper-left corner of the screen as the origin
+	 * @param y The y-coordinate, with the upper-left corner of the screen as the origin
+	 */
+	public void mapCoordinates(int x, int y) {
+		if (x < 0 || x >= SCREEN_WIDTH || y < 0 || y >= SCREEN_HEIGHT) return;
+		pixelMap[y / 32][x] |= 1 << (y % 32);
+		if (y < upperBound) upperBound = y;
+		if (y > lowerBound) lowerBound = y;
+		if (x < leftBound) leftBound = x;
+		if (x > rightBound) rightBound = x;
+	}
+	
+	/**
+	 * Writes a whole stroke, i.e., a sequence of touch points, to the pixel map.
+	 * 
+	 * @param xs The x-coordinates of the points
+	 * @param ys The y-coordinates of the points
+	 */
+	public void addStroke(int[] xs, int[] ys) {
+		for (int i = 0; i < xs.length; i++) mapCoordinates(xs[i], ys[i]);
+	}
+	
+	/**
+	 * Replaces the screen with a pixel map read from the MCU and recomputes the bounding box.
+	 * 
+	 * @param map A copy of 'pixel_map', i.e., map[y / 32][x] bit (y % 32) is pixel (x, y)
+	 */
+	public void setPixelMap(int[][] map) {
+		clear();
+		for (int row = 0; row < pixelMap.length; row++) {
+			for (int x = 0; x < SCREEN_WIDTH; x++) {
+				int bits = map[row][x];
+				if (0 == bits) continue;
+				pixelMap[row][x] = bits;
+				mapCoordinates(x, row * 32 + Integer.numberOfTrailingZeros(bits));
+				mapCoordinates(x, row * 32 + 31 - Integer.numberOfLeadingZeros(bits));
+			}
+		}
+	}
+	
+	/**
+	 * @param x The x-coordinate
+	 * @param y The y-coordinate
+	 * @return Whether the pixel has been touched, like read_from_map() on the MCU
+	 */
+	public boolean readFromMap(int x, int y) {
+		return (pixelMap[y / 32][x] & 1 << (y % 32)) != 0;
+	}
+	
+	/**
+	 * @return The bounds as find_boundaries() would compute them: upper, lower, left, right
+	 */
+	public int[] getBoundaries() {
+		return new int[] {upperBound, lowerBound, leftBound, rightBound};
+	}
+	
+	/**
+	 * For each offset from the start of a range 'extent' pixels wide, computes which of the 
+	 * 16 cells along that axis the offset falls in, as a bit mask. Cell i of create_nn_input() 
+	 * covers offsets floor(i * extent / 16) through ceil((i + 1) * extent / 16); both are exact 
+	 * in integer arithmetic because extent / 16.0 is exact in binary floating point.
+	 * 
+	 * @param extent The width or height of the bounding box, minus one
+	 * @return The masks, indexed by offset
+	 */
+	private static int[] cellMasks(int extent) {
+		int[] masks = new int[extent + 1];
+		for (int i = 0; i < GRID_SIZE; i++) {
+			int first = i * extent >> 4;
+			int last = Math.min(((i + 1) * extent + 15) >> 4, extent);
+			for (int offset = first; offset <= last; offset++) masks[offset] |= 1 << i;
+		}
+		return masks;
+	}
+	
+	/**
+	 * Downsamples the screen into the network input, bit-exact with create_nn_input().
+	 * 
+	 * @param nnInput Receives the input; nnInput[16 * row + column] is set if any lit pixel maps 
+	 * to that cell
+	 */
+	public void createNnInput(boolean[] nnInput) {
+		Arrays.fill(nnInput, 0, GRID_SIZE * GRID_SIZE, false);
+		if (leftBound > rightBound) return;	// Nothing has been drawn
+		int[] columnMasks = cellMasks(rightBound - leftBound);
+		int[] rowMasks = cellMasks(lowerBound - upperBound);
+		
+		// cells[column] collects the rows that column is lit in
+		int[] cells = new int[GRID_SIZE];
+		for (int x = leftBound; x <= rightBound; x++) {
+			// Union of the rows hit by every lit pixel in this screen column
+			int rows = 0;
+			for (int word = upperBound / 32; word <= lowerBound / 32; word++) {
+				for (int bits = pixelMap[word][x]; bits != 0; bits &= bits - 1) {
+					rows |= rowMasks[word * 32 + Integer.numberOfTrailingZeros(bits) - upperBound];
+				}
+			}
+			if (0 == rows) continue;
+			for (int columns = columnMasks[x - leftBound]; columns != 0; columns &= columns - 1) {
+				cells[Integer.numberOfTrailingZeros(columns)] |= rows;
+			}
+		}
+		for (int i = 0; i < GRID_SIZE; i++) {
+			for (int j = 0; j < GRID_SIZE; j++) nnInput[GRID_SIZE * j + i] = (cells[i] >>> j & 1) != 0;
+		}
+	}
+	
+	/**
+	 * Downsamples the screen by the floating-point definition of the cells, testing every lit 
+	 * pixel against all 16 columns and 16 rows with floor() and ceil(). Kept as the reference 
+	 * that createNnInput() and the integer masks of main.c must stay bit-exact with.
+	 * 
+	 * @param nnInput Receives the input
+	 */
+	void createNnInputReference(boolean[] nnInput) {
+		Arrays.fill(nnInput, 0, GRID_SIZE * GRID_SIZE, false);
+		double deltaX = (rightBound - leftBound) / 16.0, deltaY = (lowerBound - upperBound) / 16.0;
+		for (int x = leftBound; x <= rightBound; x++) {
+			for (int y = upperBound; y <= lowerBound; y++) {
+				if (readFromMap(x, y)) {
+					for (int i = 0; i < 16; i++) {
+						if ((leftBound + Math.floor(i * deltaX) <= x) && 
+								(x <= leftBound + Math.ceil((i + 1) * deltaX))) {
+							for (int j = 0; j < 16; j++) {
+								if ((upperBound + Math.floor(j * deltaY) <= y) && 
+										(y <= upperBound + Math.ceil((j + 1) * deltaY))) {
+									nnInput[16 * j + i] = true;
+								}
+							}
+						}
+					}
+				}
+			}
+		}
+	}
+	
+	/**
+	 * @return The network input for the screen, packed
+	 */
+	public PackedImage toPackedImage() {
+		boolean[] nnInput = new boolean[GRID_SIZE * GRID_SIZE];
+		createNnInput(nnInput);
+		double[] input = new double[nnInput.length];
+		for (int i = 0; i < nnInput.length; i++) input[i] = nnInput[i] ? 1.0 : 0.0;
+		return PackedImage.fromInput(input);
+	}
+	
+	/**
+	 * Converts a file of raw traces into a file in the format of 'semeion.data', so archived 
+	 * traces can be used for training and evaluation. Each line of the trace file holds the 
+	 * desired output label followed by the trace's touch points as "x,y" pairs, all separated by 
+	 * spaces. With --verify, every trace is also run through createNnInputReference() and any 
+	 * mismatch is reported.
+	 * 
+	 * Usage: java TracePreprocessor <trace file> <output file> [--verify]
+	 */
+	public static void main(String[] args) {
+		if (args.length < 2) {
+			System.err.println("Usage: java TracePreprocessor <trace file> <output file> [--verify]");
+			System.exit(0);
+		}
+		boolean verify = args.length > 2 && args[2].equals("--verify");
+		
+		Scanner stdin = null;
+		PrintWriter printWriter = null;
+		try {
+			stdin = new Scanner(new File(args[0]));
+			printWriter = new PrintWriter(args[1]);
+		}
+		catch (FileNotFoundException e) {
+			System.err.println("Cannot open " + args[0] + " or create " + args[1]);
+			System.exit(0);
+		}
+		
+		TracePreprocessor preprocessor = new TracePreprocessor();
+		boolean[] nnInput = new boolean[GRID_SIZE * GRID_SIZE];
+		boolean[] reference = new boolean[GRID_SIZE * GRID_SIZE];
+		int numTraces = 0, numMismatches = 0;
+		long start = System.nanoTime();
+		while (stdin.hasNextLine()) {
+			String[] line = stdin.nextLine().trim().split("\\s+");
+			if (line[0].isEmpty()) continue;
+			int desiredOutput = Integer.parseInt(line[0]);
+			
+			preprocessor.clear();
+			for (int i = 1; i < line.length; i++) {
+				int comma = line[i].indexOf(',');
+				preprocessor.mapCoordinates(Integer.parseInt(line[i].substring(0, comma)), 
+						Integer.parseInt(line[i].substring(comma + 1)));
+			}
+			preprocessor.createNnInput(nnInput);
+			if (verify) {
+				preprocessor.createNnInputReference(reference);
+				if (!Arrays.equals(nnInput, reference)) {
+					numMismatches++;
+					System.err.println("Trace " + numTraces + " does not match the MCU");
+				}
+			}
+			
+			// Write the instance like a line of 'semeion.data'
+			StringBuilder out = new StringBuilder();
+			for (boolean b : nnInput) out.append(b ? "1.0000 " : "0.0000 ");
+			for (int i = 0; i < 10; i++) out.append(i == desiredOutput ? "1 " : "0 ");
+			printWriter.println(out);
+			numTraces++;
+		}
+		stdin.close();
+		printWriter.close();
+		
+		System.out.printf("Preprocessed %d traces in %.1f ms\n", numTraces, 
+				(System.nanoTime() - start) / 1e6);
+		if (verify) System.out.println(numMismatches + " traces did not match the MCU");
+	}
+}
@@ -0,0 +1,325 @@
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Convergence and performance metrics of a training run: per-epoch loss, accuracy, throughput, 
+ * the split of time between the forward and backward passes, allocation, and the norms and 
+ * magnitude histograms of the weights and their updates. Attach it with 
+ * LayerStack.setMetrics(); a network without metrics trains exactly as before.
+ * 
+ * Nothing is shared on the per-instance path. Each training thread fills its own Accumulator, 
+ * timing only one instance in every SAMPLE_INTERVAL, and hands it over once per epoch; the 
+ * totals are striped counters, so threads training the same network concurrently do not contend.
+ * After each epoch a summary is published over JMX and, if a file was given, appended to it as 
+ * one JSON object per line.
+ */
+public class TrainingMetrics implements TrainingMetricsMXBean {
+	// One instance in this many is timed; a power of two
+	public static final int SAMPLE_INTERVAL = 64;
+	
+	// Histogram bucket i counts magnitudes from 2^(i + MIN_EXPONENT) up to twice that; the first 
+	// bucket also counts everything smaller, zero included, and the last everything larger
+	public static final int MIN_EXPONENT = -24;
+	public static final int NUM_BUCKETS = 32;
+	
+	private final LongAdder totalSamples = new LongAdder();
+	private final PrintWriter jsonLines;
+	private long epoch;
+	private double[][] previousWeights;	// The weights at the end of the last epoch
+	private volatile Summary last = new Summary();
+	
+	// Striped totals of the current epoch, which several accumulators may be added to at once
+	private final LongAdder epochSamples = new LongAdder();
+	private final LongAdder epochCorrect = new LongAdder();
+	private final LongAdder epochTimedSamples = new LongAdder();
+	private final LongAdder epochForwardNanos = new LongAdder();
+	private final LongAdder epochBackwardNanos = new LongAdder();
+	private final LongAdder epochAllocatedBytes = new LongAdder();
+	private final DoubleAdder epochSquaredError = new DoubleAdder();
+	private final LongAdder[] epochErrorHistogram = new LongAdder[NUM_BUCKETS];
+	private volatile long epochStartNanos = -1;
+	
+	/**
+	 * The values for one epoch, published as a whole so that JMX readers never see a mix of two 
+	 * epochs.
+	 */
+	private static class Summary {
+		long epoch, samples;
+		double loss, accuracy, samplesPerSecond, forwardNanos, backwardNanos;
+		long allocatedBytes = -1;
+		double[] weightNorms = new double[0], updateNorms = new double[0];
+	}
+	
+	/**
+	 * Collects the metrics of the instances one thread trains on during an epoch. Not thread-safe; 
+	 * every training thread needs its own.
+	 */
+	public static class Accumulator {
+		long samples, correct, timedSamples, forwardNanos, backwardNanos, startNanos;
+		long startAllocatedBytes;
+		double squaredError;
+		final long[] errorHistogram = new long[NUM_BUCKETS];
+		
+		/**
+		 * Clears the accumulator and starts the clocks of an epoch on the calling thread.
+		 */
+		public void start() {
+			samples = correct = timedSamples = forwardNanos = backwardNanos = 0;
+			squaredError = 0;
+			for (int i = 0; i < NUM_BUCKETS; i++) errorHistogram[i] = 0;
+			startAllocatedBytes = allocatedBytes();
+			startNanos = System.nanoTime();
+		}
+		
+		/**
+		 * Records one instance from its forward pass and the error its backward pass starts from.
+		 * 
+		 * @param output The value of each output
+		 * @param outputError The desired value minus the actual value of each output
+		 * @param desiredOutput The desired output label
+		 */
+		public void recordSample(double[] output, double[] outputError, int desiredOutput) {
+			double sum = 0;
+			for (int k = 0; k < outputError.length; k++) sum += outputError[k] * outputError[k];
+			samples++;
+			if (WeightSnapshot.argmax(output) == desiredOutput) correct++;
+			squaredError += sum;
+			errorHistogram[bucket(Math.sqrt(sum))]++;
+		}
+		
+		/**
+		 * Records the time of the forward and backward passes of a sampled instance.
+		 */
+		public void recordTiming(long forwardNanos, long backwardNanos) {
+			timedSamples++;
+			this.forwardNanos += forwardNanos;
+			this.backwardNanos += backwardNanos;
+		}
+	}
+	
+	/**
+	 * @param name The name the metrics are registered under in JMX, as 
+	 * "NeuralNet:type=TrainingMetrics,name=<name>", or null not to register them
+	 * @param jsonLinesFile The file each epoch's summary is appended to, or null for none
+	 * @throws IOException If the file cannot be opened
+	 */
+	public TrainingMetrics(String name, String jsonLinesFile) throws IOException {
+		for (int i = 0; i < NUM_BUCKETS; i++) epochErrorHistogram[i] = new LongAdder();
+		jsonLines = null == jsonLinesFile ? null : new PrintWriter(new FileWriter(jsonLinesFile, true));
+		if (null != name) {
+			try {
+				ManagementFactory.getPlatformMBeanServer().registerMBean(this, 
+						new ObjectName("NeuralNet:type=TrainingMetrics,name=" + name));
+			} catch (JMException e) {
+				throw new IllegalArgumentException("Cannot register the metrics as " + name + ": " + 
+						e.getMessage());
+			}
+		}
+	}
+	
+	/**
+	 * @return The histogram bucket of a non-negative value
+	 */
+	static int bucket(double value) {
+		int bucket = Math.getExponent(value) - MIN_EXPONENT;
+		return Math.max(0, Math.min(NUM_BUCKETS - 1, bucket));
+	}
+	
+	/**
+	 * @return The bytes the calling thread has allocated so far, or -1 if the JVM cannot tell
+	 */
+	private static long allocatedBytes() {
+		java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		if (!(threads instanceof com.sun.management.ThreadMXBean)) return -1;
+		return ((com.sun.management.ThreadMXBean) threads).getCurrentThreadAllocatedBytes();
+	}
+	
+	/**
+	 * Adds a thread's accumulator to the current epoch. Each training thread calls this once at 
+	 * the end of its share of the epoch, before endEpoch() is called.
+	 * 
+	 * @param accumulator The thread's accumulator, started at the beginning of the epoch
+	 */
+	public void add(Accumulator accumulator) {
+		long allocated = allocatedBytes();
+		if (allocated >= 0) epochAllocatedBytes.add(allocated - accumulator.startAllocatedBytes);
+		epochSamples.add(accumulator.samples);
+		epochCorrect.add(accumulator.correct);
+		epochTimedSamples.add(accumulator.timedSamples);
+		epochForwardNanos.add(accumulator.forwardNanos);
+		epochBackwardNanos.add(accumulator.backwardNanos);
+		epochSquaredError.add(accumulator.squaredError);
+		for (int i = 0; i < NUM_BUCKETS; i++) {
+			if (0 != accumulator.errorHistogram[i]) epochErrorHistogram[i].add(accumulator.errorHistogram[i]);
+		}
+		synchronized (this) {
+			if (epochStartNanos < 0 || accumulator.startNanos < epochStartNanos) {
+				epochStartNanos = accumulator.startNanos;
+			}
+		}
+	}
+	
+	/**
+	 * Closes the current epoch: summarizes what the accumulators added, measures the network's 
+	 * weights, publishes the summary and writes it to the JSON-lines file. Must not run 
+	 * concurrently with training.
+	 * 
+	 * @param network The network being trained
+	 */
+	public synchronized void endEpoch(LayerStack network) {
+		long nanos = System.nanoTime() - epochStartNanos;
+		Summary summary = new Summary();
+		summary.epoch = ++epoch;
+		summary.samples = epochSamples.sumThenReset();
+		long correct = epochCorrect.sumThenReset(), timedSamples = epochTimedSamples.sumThenReset();
+		summary.loss = summary.samples > 0 ? epochSquaredError.sumThenReset() / (2 * summary.samples) : 0;
+		summary.accuracy = summary.samples > 0 ? (double) correct / summary.samples : 0;
+		summary.samplesPerSecond = summary.samples / (nanos / 1e9);
+		long forwardNanos = epochForwardNanos.sumThenReset();
+		long backwardNanos = epochBackwardNanos.sumThenReset();
+		summary.forwardNanos = timedSamples > 0 ? (double) forwardNanos / timedSamples : 0;
+		summary.backwardNanos = timedSamples > 0 ? (double) backwardNanos / timedSamples : 0;
+		summary.allocatedBytes = allocatedBytes() < 0 ? -1 : epochAllocatedBytes.sumThenReset();
+		long[] errorHistogram = new long[NUM_BUCKETS];
+		for (int i = 0; i < NUM_BUCKETS; i++) errorHistogram[i] = epochErrorHistogram[i].sumThenReset();
+		epochStartNanos = -1;
+		totalSamples.add(summary.samples);
+		
+		// Norms of the weights and of their change since the last epoch, and magnitude histograms
+		ArrayList<double[]> weights = new ArrayList<double[]>();
+		for (Layer layer : network.getLayers()) {
+			if (null != layer.getWeights()) weights.add(layer.getWeights());
+		}
+		if (null == previousWeights || previousWeights.length != weights.size()) {
+			previousWeights = new double[weights.size()][];
+		}
+		summary.weightNorms = new double[weights.size()];
+		summary.updateNorms = new double[weights.size()];
+		long[][] weightHistograms = new long[weights.size()][NUM_BUCKETS];
+		for (int l = 0; l < weights.size(); l++) {
+			double[] w = weights.get(l), previous = previousWeights[l];
+			if (null == previous || previous.length != w.length) previous = null;
+			double weightSum = 0, updateSum = 0;
+			for (int i = 0; i < w.length; i++) {
+				weightSum += w[i] * w[i];
+				if (null != previous) updateSum += (w[i] - previous[i]) * (w[i] - previous[i]);
+				weightHistograms[l][bucket(Math.abs(w[i]))]++;
+			}
+			summary.weightNorms[l] = Math.sqrt(weightSum);
+			summary.updateNorms[l] = null == previous ? Double.NaN : Math.sqrt(updateSum);
+			if (null == previousWeights[l] || previousWeights[l].length != w.length) {
+				previousWeights[l] = new double[w.length];
+			}
+			System.arraycopy(w, 0, previousWeights[l], 0, w.length);
+		}
+		last = summary;
+		
+		if (null != jsonLines) {
+			jsonLines.println(toJson(summary, errorHistogram, weightHistograms));
+			jsonLines.flush();
+		}
+	}
+	
+	/**
+	 * @return A summary as one line of JSON
+	 */
+	private static String toJson(Summary summary, long[] errorHistogram, long[][] weightHistograms) {
+		StringBuilder json = new StringBuilder();
+		json.append("{\"epoch\":").append(summary.epoch);
+		json.append(",\"samples\":").append(summary.samples);
+		json.append(",\"loss\":").append(summary.loss);
+		json.append(",\"accuracy\":").append(summary.accuracy);
+		json.append(",\"samplesPerSecond\":").append(summary.samplesPerSecond);
+		json.append(",\"forwardNanos\":").append(summary.forwardNanos);
+		json.append(",\"backwardNanos\":").append(summary.backwardNanos);
+		json.append(",\"allocatedBytes\":").append(summary.allocatedBytes);
+		json.append(",\"weightNorms\":");
+		appendArray(json, summary.weightNorms);
+		json.append(",\"updateNorms\":");
+		appendArray(json, summary.updateNorms);
+		json.append(",\"histogramMinExponent\":").append(MIN_EXPONENT);
+		json.append(",\"errorNormHistogram\":");
+		appendArray(json, errorHistogram);
+		json.append(",\"weightHistograms\":[");
+		for (int l = 0; l < weightHistograms.length; l++) {
+			if (l > 0) json.append(',');
+			appendArray(json, weightHistograms[l]);
+		}
+		return json.append("]}").toString();
+	}
+	
+	private static void appendArray(StringBuilder json, double[] values) {
+		json.append('[');
+		for (int i = 0; i < values.length; i++) {
+			if (i > 0) json.append(',');
+			// JSON has no NaN, e.g., for the update norm of the first epoch
+			if (Double.isNaN(values[i])) json.append("null");
+			else json.append(values[i]);
+		}
+		json.append(']');
+	}
+	
+	private static void appendArray(StringBuilder json, long[] values) {
+		json.append('[');
+		for (int i = 0; i < values.length; i++) {
+			if (i > 0) json.append(',');
+			json.append(values[i]);
+		}
+		json.append(']');
+	}
+	
+	/**
+	 * Closes the JSON-lines file.
+	 */
+	public void close() {
+		if (null != jsonLines) jsonLines.close();
+	}
+	
+	public long getEpoch() {
+		return last.epoch;
+	}
+	
+	public long getTotalSamples() {
+		return totalSamples.sum();
+	}
+	
+	public double getLoss() {
+		return last.loss;
+	}
+	
+	public double getAccuracy() {
+		return last.accuracy;
+	}
+	
+	public double getSamplesPerSecond() {
+		return last.samplesPerSecond;
+	}
+	
+	public double getForwardNanosPerSample() {
+		return last.forwardNanos;
+	}
+	
+	public double getBackwardNanosPerSample() {
+		return last.backwardNanos;
+	}
+	
+	public long getAllocatedBytes() {
+		return last.allocatedBytes;
+	}
+	
+	public double[] getWeightNorms() {
+		return last.weightNorms.clone();
+	}
+	
+	public double[] getUpdateNorms() {
+		return last.updateNorms.clone();
+	}
+}
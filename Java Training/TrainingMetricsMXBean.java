@@ -0,0 +1,58 @@
+/**
+ * Management interface of TrainingMetrics, as seen in JConsole or any other JMX client. Every 
+ * value describes the last completed epoch unless its name says otherwise.
+ */
+public interface TrainingMetricsMXBean {
+	/**
+	 * @return The number of epochs completed, counting from 1
+	 */
+	long getEpoch();
+	
+	/**
+	 * @return The number of instances trained on over all epochs
+	 */
+	long getTotalSamples();
+	
+	/**
+	 * @return The mean squared error, halved, over the instances of the epoch
+	 */
+	double getLoss();
+	
+	/**
+	 * @return The fraction of the epoch's instances the network classified correctly just 
+	 * before training on them
+	 */
+	double getAccuracy();
+	
+	/**
+	 * @return The number of instances trained on per second of the epoch
+	 */
+	double getSamplesPerSecond();
+	
+	/**
+	 * @return The mean time of a forward pass, in nanoseconds, over the sampled instances
+	 */
+	double getForwardNanosPerSample();
+	
+	/**
+	 * @return The mean time of a backward pass with its weight update, in nanoseconds, over the 
+	 * sampled instances
+	 */
+	double getBackwardNanosPerSample();
+	
+	/**
+	 * @return The bytes allocated by the training threads during the epoch, or -1 if the JVM 
+	 * cannot tell
+	 */
+	long getAllocatedBytes();
+	
+	/**
+	 * @return The L2 norm of each weighted layer's weights at the end of the epoch
+	 */
+	double[] getWeightNorms();
+	
+	/**
+	 * @return The L2 norm of the change in each weighted layer's weights over the epoch
+	 */
+	double[] getUpdateNorms();
+}
@@ -0,0 +1,618 @@
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.PrintWriter;
+import java.math.BigInteger;
+
+/**
+ * Generates synthesizable Verilog for a deterministic fixed-point inference datapath of a trained 
+ * network, together with the integer model of it that the generated testbench checks it against.
+ * 
+ * The datapath computes one layer at a time, 'lanes' neurons at a time: every cycle, one input 
+ * activation is broadcast to 'lanes' multiply-accumulate units, each multiplying it by the weight 
+ * of its own neuron read from a weight ROM. The bias is the last weight of every neuron and is 
+ * multiplied by an activation of 1, as in the layout of 'weights.dat'. The MAC pipeline has three 
+ * stages: read, multiply and accumulate. The finished sums of a group of neurons then pass 
+ * through an activation LUT into the activation registers of the next layer or, in the last 
+ * layer, into a running argmax of the sums, which gives the class.
+ * 
+ * Weights are the codes of a FixedPointFormat, in two's complement whatever the format's own 
+ * encoding. Activations are unsigned ACT_BITS-bit fractions of ACT_MAX; an input pixel is either 0 
+ * or ACT_MAX, which stands for 1.0. A hidden layer's activation is read from a LUT indexed by the 
+ * weighted sum, shifted right and clamped to LUT_BITS bits so the LUT covers sums from -LUT_RANGE 
+ * to LUT_RANGE. ACT_MAX then stands for the smallest power of 2 above the largest value in the 
+ * LUT: 1.0 after a sigmoid and LUT_RANGE after ReLU. The shift of the next layer's sums and its 
+ * biases, which are multiplied by ACT_MAX, are scaled to match, so the integer sums need no 
+ * rescaling between layers.
+ */
+public class VerilogGenerator {
+	public static final int ACT_BITS = 8;
+	public static final int ACT_MAX = (1 << ACT_BITS) - 1;
+	public static final int LUT_BITS = 10;
+	public static final double LUT_RANGE = 8;
+	
+	// Cycles from the last weight of a layer being read to its outputs being written: the 
+	// multiply, accumulate and LUT stages
+	static final int PIPELINE_DEPTH = 3;
+	
+	private final String spec;
+	private final int[] unitsPerLayer;
+	private final FixedPointFormat format;
+	private final int lanes;
+	private final long[][] codes;	// codes[l][j * (unitsPerLayer[l] + 1) + k], as in WeightSnapshot
+	private final int[] rangeBits;	// log2 of the value ACT_MAX stands for in the inputs of each layer
+	private final int[] lutShifts;	// Shift of the sums of each layer into a LUT index
+	private final int[][] luts;	// luts[l][offset], the activation of hidden layer l + 1
+	private final int accumulatorBits;
+	
+	/**
+	 * @param snapshot The trained network
+	 * @param format The fixed-point format of the weights, e.g., FixedPointFormat.FPGA
+	 * @param lanes The number of multiply-accumulate units, i.e., neurons computed at once
+	 */
+	public VerilogGenerator(WeightSnapshot snapshot, FixedPointFormat format, int lanes) {
+		if (lanes < 1) throw new IllegalArgumentException("Expected at least 1 lane, not " + lanes);
+		spec = snapshot.getSpec();
+		unitsPerLayer = snapshot.getUnitsPerLayer();
+		this.format = format;
+		this.lanes = lanes;
+		int numLayers = unitsPerLayer.length - 1;
+		
+		// Smallest shift at which a LUT covers sums from -LUT_RANGE to LUT_RANGE when ACT_MAX 
+		// stands for 1.0; when it stands for 2^b, as after ReLU, the sums are 2^b times smaller
+		double sumScale = format.getScale() * ACT_MAX;
+		int shift = 0;
+		while ((double) (1L << shift) * (1 << (LUT_BITS - 1)) < LUT_RANGE * sumScale) shift++;
+		rangeBits = new int[numLayers];
+		lutShifts = new int[numLayers];
+		luts = new int[numLayers - 1][1 << LUT_BITS];
+		for (int l = 0; l < numLayers; l++) {
+			lutShifts[l] = Math.max(0, shift - rangeBits[l]);
+			if (l == numLayers - 1) break;
+			
+			// Each entry holds the activation of the middle of the sums it stands for, relative to 
+			// the smallest power of 2 above every entry
+			double[] values = new double[1 << LUT_BITS];
+			double max = 1;
+			for (int offset = 0; offset < values.length; offset++) {
+				double x = (offset - (1 << (LUT_BITS - 1)) + 0.5) * (1L << lutShifts[l]) / sumScale * 
+						(1 << rangeBits[l]);
+				values[offset] = Math.max(0, NeuralNet.activationFunction(x, snapshot.getActivationFunction(l + 1)));
+				max = Math.max(max, values[offset]);
+			}
+			while (1 << rangeBits[l + 1] < max) rangeBits[l + 1]++;
+			for (int offset = 0; offset < values.length; offset++) {
+				luts[l][offset] = (int) Math.round(values[offset] / (1 << rangeBits[l + 1]) * ACT_MAX);
+			}
+		}
+		
+		// The bias multiplies ACT_MAX too, so it is scaled down with the activations
+		codes = new long[numLayers][];
+		for (int l = 0; l < numLayers; l++) {
+			double[] weights = snapshot.getWeights(l);
+			int stride = unitsPerLayer[l] + 1;
+			codes[l] = new long[weights.length];
+			for (int i = 0; i < weights.length; i++) {
+				double weight = i % stride == stride - 1 ? weights[i] / (1 << rangeBits[l]) : weights[i];
+				codes[l][i] = Math.round(format.quantize(weight) * format.getScale());
+			}
+		}
+		
+		int maxInputs = 0;
+		for (int l = 0; l < numLayers; l++) maxInputs = Math.max(maxInputs, unitsPerLayer[l]);
+		accumulatorBits = accumulatorBits(maxInputs, format.getBits());
+	}
+	
+	/**
+	 * @param maxInputs The number of inputs of the widest layer
+	 * @param weightBits The bits of a weight
+	 * @return The bits of an accumulator that cannot overflow
+	 */
+	static int accumulatorBits(int maxInputs, int weightBits) {
+		long maxSum = (maxInputs + 1L) * (1L << (weightBits - 1)) * ACT_MAX;
+		return 64 - Long.numberOfLeadingZeros(maxSum) + 1;
+	}
+	
+	/**
+	 * @return The number of multiply-accumulate units
+	 */
+	public int getLanes() {
+		return lanes;
+	}
+	
+	/**
+	 * @return The number of groups of 'lanes' neurons in layer l + 1
+	 */
+	private int getGroups(int l) {
+		return (unitsPerLayer[l + 1] + lanes - 1) / lanes;
+	}
+	
+	/**
+	 * Classifies an image as the generated datapath does, bit for bit.
+	 * 
+	 * @param input The input for a given instance; pixels above 0.5 are on
+	 * @return The classification
+	 */
+	public int classify(double[] input) {
+		int numLayers = codes.length;
+		int[] activations = new int[unitsPerLayer[0]];
+		for (int k = 0; k < activations.length; k++) activations[k] = input[k] > 0.5 ? ACT_MAX : 0;
+		int best = 0;
+		for (int l = 0; l < numLayers; l++) {
+			int inputs = unitsPerLayer[l], stride = inputs + 1;
+			int[] next = new int[unitsPerLayer[l + 1]];
+			long bestSum = 0;
+			for (int j = 0; j < next.length; j++) {
+				long sum = codes[l][j * stride + inputs] * ACT_MAX;
+				for (int k = 0; k < inputs; k++) sum += codes[l][j * stride + k] * activations[k];
+				if (l < numLayers - 1) next[j] = luts[l][lutOffset(sum, lutShifts[l])];
+				else if (0 == j || sum > bestSum) {
+					bestSum = sum;
+					best = j;
+				}
+			}
+			activations = next;
+		}
+		return best;
+	}
+	
+	/**
+	 * @return The LUT entry of a weighted sum
+	 */
+	private static int lutOffset(long sum, int lutShift) {
+		long index = Math.max(-(1 << (LUT_BITS - 1)), Math.min((1 << (LUT_BITS - 1)) - 1, sum >> lutShift));
+		return (int) index + (1 << (LUT_BITS - 1));
+	}
+	
+	/**
+	 * @return The number of cycles per instance: from the clock edge sampling 'start' to the one 
+	 * raising 'done', plus the cycle before 'start' can be sampled again
+	 */
+	public long getCyclesPerInstance() {
+		long cycles = 1;
+		for (int l = 0; l < codes.length; l++) {
+			cycles += (long) getGroups(l) * (unitsPerLayer[l] + 1) + PIPELINE_DEPTH;
+		}
+		return cycles;
+	}
+	
+	/**
+	 * @param length The length of the bitstreams
+	 * @return The number of cycles a stochastic datapath with as many AND-gate multipliers as 
+	 * this one has lanes would take per instance, each product taking 'length' cycles
+	 */
+	public long getStochasticCyclesPerInstance(int length) {
+		long cycles = 0;
+		for (int l = 0; l < codes.length; l++) {
+			cycles += (long) getGroups(l) * (unitsPerLayer[l] + 1) * length;
+		}
+		return cycles;
+	}
+	
+	/**
+	 * @return The bits of the weight ROM, including the zero weights of unused lanes
+	 */
+	public long getWeightRomBits() {
+		return (long) getRomDepth() * lanes * format.getBits();
+	}
+	
+	/**
+	 * @return The bits of the activation LUTs
+	 */
+	public long getLutBits() {
+		return (long) luts.length * (1 << LUT_BITS) * ACT_BITS;
+	}
+	
+	private int getRomDepth() {
+		int depth = 0;
+		for (int l = 0; l < codes.length; l++) depth += getGroups(l) * (unitsPerLayer[l] + 1);
+		return depth;
+	}
+	
+	/**
+	 * @return The number of bits needed to hold values from 0 to n
+	 */
+	private static int bitsFor(long n) {
+		return Math.max(1, 64 - Long.numberOfLeadingZeros(n));
+	}
+	
+	/**
+	 * Writes 'mlp_weights.dat', the weight ROM for $readmemh: one word per read, in the order the 
+	 * datapath reads them, lane p in bits [p * WEIGHT_BITS +: WEIGHT_BITS]. Lanes past the last 
+	 * neuron of a layer hold zeros.
+	 */
+	private void writeWeightRom(String fileName) throws FileNotFoundException {
+		int bits = format.getBits();
+		int digits = (lanes * bits + 3) / 4;
+		BigInteger laneMask = BigInteger.ONE.shiftLeft(bits).subtract(BigInteger.ONE);
+		PrintWriter printWriter = new PrintWriter(fileName);
+		for (int l = 0; l < codes.length; l++) {
+			int stride = unitsPerLayer[l] + 1;
+			printWriter.println("// Weights from layer " + l + " to layer " + (l + 1));
+			for (int g = 0; g < getGroups(l); g++) {
+				printWriter.printf("// Weights feeding into layer %d, nodes %d to %d\n", l + 1, g * lanes, 
+						Math.min(unitsPerLayer[l + 1], (g + 1) * lanes) - 1);
+				for (int k = 0; k < stride; k++) {
+					BigInteger word = BigInteger.ZERO;
+					for (int p = lanes - 1; p >= 0; p--) {
+						int j = g * lanes + p;
+						long code = j < unitsPerLayer[l + 1] ? codes[l][j * stride + k] : 0;
+						word = word.shiftLeft(bits).or(BigInteger.valueOf(code).and(laneMask));
+					}
+					String hex = word.toString(16);
+					while (hex.length() < digits) hex = "0" + hex;
+					printWriter.println(hex);
+				}
+			}
+		}
+		printWriter.close();
+	}
+	
+	/**
+	 * Writes 'mlp_activation_lut.dat', the activation LUT of each hidden layer in turn, for 
+	 * $readmemh. A network without hidden layers gets a single unused entry.
+	 */
+	private void writeLuts(String fileName) throws FileNotFoundException {
+		PrintWriter printWriter = new PrintWriter(fileName);
+		for (int l = 0; l < luts.length; l++) {
+			printWriter.println("// Activation of layer " + (l + 1) + " for sums from " + 
+					(-LUT_RANGE) + " to " + LUT_RANGE);
+			for (int offset = 0; offset < luts[l].length; offset++) printWriter.printf("%02x\n", luts[l][offset]);
+		}
+		if (0 == luts.length) printWriter.println("00");
+		printWriter.close();
+	}
+	
+	/**
+	 * Writes 'mlp_expected.dat', the classification of every instance by classify(), for $readmemh.
+	 */
+	private void writeExpected(String fileName, double[][] inputs) throws FileNotFoundException {
+		PrintWriter printWriter = new PrintWriter(fileName);
+		for (double[] input : inputs) printWriter.println(Integer.toHexString(classify(input)));
+		printWriter.close();
+	}
+	
+	/**
+	 * Writes the datapath itself, module 'mlp' in 'mlp.v'.
+	 */
+	private void writeDatapath(String fileName) throws FileNotFoundException {
+		int numLayers = codes.length;
+		int maxHidden = 1;
+		for (int l = 1; l < numLayers; l++) maxHidden = Math.max(maxHidden, unitsPerLayer[l]);
+		int numOutputs = unitsPerLayer[numLayers];
+		
+		PrintWriter printWriter = new PrintWriter(fileName);
+		printWriter.println("/* Fixed-point inference datapath for a " + spec + " network with " + lanes + " lanes, ");
+		printWriter.println(" * generated by VerilogGenerator in 'Java Training'; regenerate it rather than editing it. ");
+		printWriter.println(" * Weights are in the fixed-point format " + format + ", as two's complement, and ");
+		printWriter.println(" * activations " + ACT_BITS + "-bit unsigned fractions of " + ACT_MAX + ". */");
+		printWriter.println("module mlp(clk, rst_n, start, pixels, busy, done, classification);");
+		printWriter.println();
+		printWriter.println("localparam NUM_INPUTS = " + unitsPerLayer[0] + ";");
+		printWriter.println("localparam NUM_LAYERS = " + numLayers + ";");
+		printWriter.println("localparam LANES = " + lanes + ";");
+		printWriter.println("localparam WEIGHT_BITS = " + format.getBits() + ";");
+		printWriter.println("localparam ACT_BITS = " + ACT_BITS + ";");
+		printWriter.println("localparam ACT_MAX = " + ACT_MAX + ";");
+		printWriter.println("localparam PRODUCT_BITS = " + (format.getBits() + ACT_BITS + 1) + ";");
+		printWriter.println("localparam ACC_BITS = " + accumulatorBits + ";");
+		printWriter.println("localparam LUT_BITS = " + LUT_BITS + ";");
+		printWriter.println("localparam LUT_HALF = " + (1 << (LUT_BITS - 1)) + ";");
+		printWriter.println("localparam LUT_DEPTH = " + Math.max(1, luts.length << LUT_BITS) + ";");
+		printWriter.println("localparam ROM_DEPTH = " + getRomDepth() + ";");
+		printWriter.println("localparam ROM_ADDR_BITS = " + bitsFor(getRomDepth() - 1) + ";");
+		printWriter.println("localparam MAX_HIDDEN = " + maxHidden + ";");
+		printWriter.println("localparam COUNTER_BITS = 16;");
+		printWriter.println();
+		printWriter.println("// Clock and asynchronous low reset signals");
+		printWriter.println("input clk, rst_n;");
+		printWriter.println();
+		printWriter.println("// Raise 'start' for a cycle while not 'busy' to classify 'pixels', pixel k being pixels[k]. ");
+		printWriter.println("// 'done' is raised for a cycle once 'classification' holds the class");
+		printWriter.println("input start;");
+		printWriter.println("input [NUM_INPUTS - 1:0] pixels;");
+		printWriter.println("output reg busy, done;");
+		printWriter.println("output reg [" + (bitsFor(numOutputs - 1) - 1) + ":0] classification;");
+		printWriter.println();
+		printWriter.println("// Weight ROM: one word per read, the weight of lane p in bits [p * WEIGHT_BITS +: WEIGHT_BITS]. ");
+		printWriter.println("// The words are read in order, so the address simply counts up");
+		printWriter.println("reg [LANES * WEIGHT_BITS - 1:0] weight_rom [0:ROM_DEPTH - 1];");
+		printWriter.println();
+		printWriter.println("// Activation LUT of each hidden layer, indexed by the weighted sum shifted right by the layer's ");
+		printWriter.println("// 'layer_shift', clamped to LUT_BITS bits and offset by LUT_HALF");
+		printWriter.println("reg [ACT_BITS - 1:0] activation_lut [0:LUT_DEPTH - 1];");
+		printWriter.println();
+		printWriter.println("initial begin");
+		printWriter.println("\t$readmemh(\"mlp_weights.dat\", weight_rom);");
+		printWriter.println("\t$readmemh(\"mlp_activation_lut.dat\", activation_lut);");
+		printWriter.println("end");
+		printWriter.println();
+		printWriter.println("// The image being classified, and the outputs of the hidden layers: those of layers 1, 3 and so ");
+		printWriter.println("// on go to 'hidden_odd', those of layers 2, 4 and so on to 'hidden_even'");
+		printWriter.println("reg [NUM_INPUTS - 1:0] image;");
+		printWriter.println("reg [ACT_BITS - 1:0] hidden_odd [0:MAX_HIDDEN - 1];");
+		printWriter.println("reg [ACT_BITS - 1:0] hidden_even [0:MAX_HIDDEN - 1];");
+		printWriter.println();
+		printWriter.println("// Read position: weight 'k' of the neurons of 'group' in 'layer', the bias being weight ");
+		printWriter.println("// 'layer_inputs'. 'issuing' is low while a layer's last sums are still in the pipeline");
+		printWriter.println("reg [7:0] layer;");
+		printWriter.println("reg [COUNTER_BITS - 1:0] group, k;");
+		printWriter.println("reg [ROM_ADDR_BITS - 1:0] address;");
+		printWriter.println("reg issuing;");
+		printWriter.println();
+		printWriter.println("// Shape of the current layer");
+		printWriter.println("reg [COUNTER_BITS - 1:0] layer_inputs, layer_outputs, layer_groups;");
+		printWriter.println("reg [5:0] layer_shift;");
+		printWriter.println("always @(*) begin");
+		printWriter.println("\tcase (layer)");
+		for (int l = 0; l < numLayers; l++) {
+			printWriter.printf("\t\t%s\tbegin layer_inputs = %d; layer_outputs = %d; layer_groups = %d; " + 
+					"layer_shift = %d; end\n", l < numLayers - 1 ? l + ":\t" : "default:", unitsPerLayer[l], 
+					unitsPerLayer[l + 1], getGroups(l), lutShifts[l]);
+		}
+		printWriter.println("\tendcase");
+		printWriter.println("end");
+		printWriter.println();
+		printWriter.println("// Stage 1: the weights of the lanes and the activation they multiply");
+		printWriter.println("reg [LANES * WEIGHT_BITS - 1:0] weight_word;");
+		printWriter.println("reg [ACT_BITS - 1:0] activation;");
+		printWriter.println("reg s1_valid, s1_first, s1_last, s1_last_group;");
+		printWriter.println("reg [COUNTER_BITS - 1:0] s1_group;");
+		printWriter.println();
+		printWriter.println("// Stage 2: the products");
+		printWriter.println("reg signed [PRODUCT_BITS - 1:0] products [0:LANES - 1];");
+		printWriter.println("reg s2_valid, s2_first, s2_last, s2_last_group;");
+		printWriter.println("reg [COUNTER_BITS - 1:0] s2_group;");
+		printWriter.println();
+		printWriter.println("// Stage 3: the weighted sums, complete while 's3_last' is high");
+		printWriter.println("reg signed [ACC_BITS - 1:0] sums [0:LANES - 1];");
+		printWriter.println("reg s3_last, s3_last_group;");
+		printWriter.println("reg [COUNTER_BITS - 1:0] s3_group;");
+		printWriter.println();
+		printWriter.println("// Running argmax of the last layer's sums, and its value once the sums of stage 3 are included");
+		printWriter.println("reg signed [ACC_BITS - 1:0] best_sum, next_best_sum;");
+		printWriter.println("reg [COUNTER_BITS - 1:0] best_neuron, next_best_neuron, candidate, neuron;");
+		printWriter.println("integer p, q;");
+		printWriter.println();
+		printWriter.println("// Activation of a hidden layer's neuron from its weighted sum");
+		printWriter.println("function [ACT_BITS - 1:0] activate;");
+		printWriter.println("\tinput [7:0] hidden_layer;");
+		printWriter.println("\tinput signed [ACC_BITS - 1:0] sum;");
+		printWriter.println("\tinput [5:0] shift;");
+		printWriter.println("\treg signed [ACC_BITS - 1:0] index;");
+		printWriter.println("\tbegin");
+		printWriter.println("\t\tindex = sum >>> shift;");
+		printWriter.println("\t\tif (index >= LUT_HALF) index = LUT_HALF - 1;");
+		printWriter.println("\t\telse if (index < -LUT_HALF) index = -LUT_HALF;");
+		printWriter.println("\t\t// Flipping the sign bit offsets the index by LUT_HALF");
+		printWriter.println("\t\tactivate = activation_lut[hidden_layer * (2 * LUT_HALF) + ");
+		printWriter.println("\t\t\t\t{~index[LUT_BITS - 1], index[LUT_BITS - 2:0]}];");
+		printWriter.println("\tend");
+		printWriter.println("endfunction");
+		printWriter.println();
+		printWriter.println("always @(*) begin");
+		printWriter.println("\tnext_best_sum = best_sum;");
+		printWriter.println("\tnext_best_neuron = best_neuron;");
+		printWriter.println("\tfor (q = 0; q < LANES; q = q + 1) begin");
+		printWriter.println("\t\tcandidate = s3_group * LANES + q;");
+		printWriter.println("\t\tif (candidate < layer_outputs && (0 == candidate || sums[q] > next_best_sum)) begin");
+		printWriter.println("\t\t\tnext_best_sum = sums[q];");
+		printWriter.println("\t\t\tnext_best_neuron = candidate;");
+		printWriter.println("\t\tend");
+		printWriter.println("\tend");
+		printWriter.println("end");
+		printWriter.println();
+		printWriter.println("// Control: read the weights of one input of a group per cycle, and once a layer's last sums ");
+		printWriter.println("// are stored, start the next layer or finish");
+		printWriter.println("always @(posedge clk, negedge rst_n) begin");
+		printWriter.println("\tif (~rst_n) begin");
+		printWriter.println("\t\tbusy <= 0;");
+		printWriter.println("\t\tdone <= 0;");
+		printWriter.println("\t\tissuing <= 0;");
+		printWriter.println("\t\tlayer <= 0;");
+		printWriter.println("\t\tgroup <= 0;");
+		printWriter.println("\t\tk <= 0;");
+		printWriter.println("\t\taddress <= 0;");
+		printWriter.println("\t\tclassification <= 0;");
+		printWriter.println("\tend");
+		printWriter.println("\telse begin");
+		printWriter.println("\t\tdone <= 0;");
+		printWriter.println("\t\tif (start && !busy) begin");
+		printWriter.println("\t\t\tbusy <= 1;");
+		printWriter.println("\t\t\tissuing <= 1;");
+		printWriter.println("\t\t\timage <= pixels;");
+		printWriter.println("\t\t\tlayer <= 0;");
+		printWriter.println("\t\t\tgroup <= 0;");
+		printWriter.println("\t\t\tk <= 0;");
+		printWriter.println("\t\t\taddress <= 0;");
+		printWriter.println("\t\tend");
+		printWriter.println("\t\tif (issuing) begin");
+		printWriter.println("\t\t\taddress <= address + 1;");
+		printWriter.println("\t\t\tif (k == layer_inputs) begin");
+		printWriter.println("\t\t\t\tk <= 0;");
+		printWriter.println("\t\t\t\tif (group == layer_groups - 1) begin");
+		printWriter.println("\t\t\t\t\tgroup <= 0;");
+		printWriter.println("\t\t\t\t\tissuing <= 0;");
+		printWriter.println("\t\t\t\tend");
+		printWriter.println("\t\t\t\telse group <= group + 1;");
+		printWriter.println("\t\t\tend");
+		printWriter.println("\t\t\telse k <= k + 1;");
+		printWriter.println("\t\tend");
+		printWriter.println("\t\tif (s3_last && s3_last_group) begin");
+		printWriter.println("\t\t\tif (layer == NUM_LAYERS - 1) begin");
+		printWriter.println("\t\t\t\tbusy <= 0;");
+		printWriter.println("\t\t\t\tdone <= 1;");
+		printWriter.println("\t\t\t\tclassification <= next_best_neuron;");
+		printWriter.println("\t\t\tend");
+		printWriter.println("\t\t\telse begin");
+		printWriter.println("\t\t\t\tlayer <= layer + 1;");
+		printWriter.println("\t\t\t\tissuing <= 1;");
+		printWriter.println("\t\t\tend");
+		printWriter.println("\t\tend");
+		printWriter.println("\tend");
+		printWriter.println("end");
+		printWriter.println();
+		printWriter.println("// Pipeline flags");
+		printWriter.println("always @(posedge clk, negedge rst_n) begin");
+		printWriter.println("\tif (~rst_n) begin");
+		printWriter.println("\t\ts1_valid <= 0;");
+		printWriter.println("\t\ts2_valid <= 0;");
+		printWriter.println("\t\ts3_last <= 0;");
+		printWriter.println("\tend");
+		printWriter.println("\telse begin");
+		printWriter.println("\t\ts1_valid <= issuing;");
+		printWriter.println("\t\ts2_valid <= s1_valid;");
+		printWriter.println("\t\ts3_last <= s2_valid & s2_last;");
+		printWriter.println("\tend");
+		printWriter.println("end");
+		printWriter.println();
+		printWriter.println("// Datapath");
+		printWriter.println("always @(posedge clk) begin");
+		printWriter.println("\t// Stage 1: read the weights and the activation, 1 for the bias");
+		printWriter.println("\tweight_word <= weight_rom[address];");
+		printWriter.println("\tif (k == layer_inputs) activation <= ACT_MAX;");
+		printWriter.println("\telse if (0 == layer) activation <= image[k] ? ACT_MAX : 0;");
+		printWriter.println("\telse if (layer[0]) activation <= hidden_odd[k];");
+		printWriter.println("\telse activation <= hidden_even[k];");
+		printWriter.println("\ts1_first <= 0 == k;");
+		printWriter.println("\ts1_last <= k == layer_inputs;");
+		printWriter.println("\ts1_group <= group;");
+		printWriter.println("\ts1_last_group <= group == layer_groups - 1;");
+		printWriter.println();
+		printWriter.println("\t// Stage 2: multiply");
+		printWriter.println("\tfor (p = 0; p < LANES; p = p + 1) begin");
+		printWriter.println("\t\tproducts[p] <= $signed(weight_word[p * WEIGHT_BITS +: WEIGHT_BITS]) * $signed({1'b0, activation});");
+		printWriter.println("\tend");
+		printWriter.println("\ts2_first <= s1_first;");
+		printWriter.println("\ts2_last <= s1_last;");
+		printWriter.println("\ts2_group <= s1_group;");
+		printWriter.println("\ts2_last_group <= s1_last_group;");
+		printWriter.println();
+		printWriter.println("\t// Stage 3: accumulate");
+		printWriter.println("\tfor (p = 0; p < LANES; p = p + 1) begin");
+		printWriter.println("\t\tif (s2_valid) sums[p] <= s2_first ? products[p] : sums[p] + products[p];");
+		printWriter.println("\tend");
+		printWriter.println("\ts3_group <= s2_group;");
+		printWriter.println("\ts3_last_group <= s2_last_group;");
+		printWriter.println();
+		printWriter.println("\t// Store the finished sums: through the LUT for a hidden layer, into the argmax for the last");
+		printWriter.println("\tif (s3_last) begin");
+		printWriter.println("\t\tif (layer == NUM_LAYERS - 1) begin");
+		printWriter.println("\t\t\tbest_sum <= next_best_sum;");
+		printWriter.println("\t\t\tbest_neuron <= next_best_neuron;");
+		printWriter.println("\t\tend");
+		printWriter.println("\t\telse begin");
+		printWriter.println("\t\t\tfor (p = 0; p < LANES; p = p + 1) begin");
+		printWriter.println("\t\t\t\tneuron = s3_group * LANES + p;");
+		printWriter.println("\t\t\t\tif (neuron < layer_outputs) begin");
+		printWriter.println("\t\t\t\t\tif (layer[0]) hidden_even[neuron] <= activate(layer, sums[p], layer_shift);");
+		printWriter.println("\t\t\t\t\telse hidden_odd[neuron] <= activate(layer, sums[p], layer_shift);");
+		printWriter.println("\t\t\t\tend");
+		printWriter.println("\t\t\tend");
+		printWriter.println("\t\tend");
+		printWriter.println("\tend");
+		printWriter.println("end");
+		printWriter.println();
+		printWriter.println("endmodule");
+		printWriter.close();
+	}
+	
+	/**
+	 * Writes the self-checking testbench, module 'mlp_tb' in 'mlp_tb.v'. It classifies every 
+	 * instance of 'training_instances.dat', as written by FileConverter, and compares each class 
+	 * with 'mlp_expected.dat'.
+	 */
+	private void writeTestbench(String fileName, int numInstances) throws FileNotFoundException {
+		int numInputs = unitsPerLayer[0], numOutputs = unitsPerLayer[codes.length];
+		int instanceBits = numInputs + numOutputs;
+		PrintWriter printWriter = new PrintWriter(fileName);
+		printWriter.println("/* Testbench for mlp, generated by VerilogGenerator. Classifies every instance of ");
+		printWriter.println(" * 'training_instances.dat' and checks each class against 'mlp_expected.dat', the classes of the ");
+		printWriter.println(" * Java integer model. Prints PASS if all of them match. */");
+		printWriter.println("module mlp_tb();");
+		printWriter.println();
+		printWriter.println("localparam NUM_INSTANCES = " + numInstances + ";");
+		printWriter.println("localparam NUM_INPUTS = " + numInputs + ";");
+		printWriter.println("localparam NUM_OUTPUTS = " + numOutputs + ";");
+		printWriter.println("localparam INSTANCE_BITS = " + instanceBits + ";");
+		printWriter.println("localparam TIMEOUT = " + 2 * getCyclesPerInstance() + ";");
+		printWriter.println();
+		printWriter.println("// Connections to the DUT");
+		printWriter.println("reg clk, rst_n, start;");
+		printWriter.println("reg [NUM_INPUTS - 1:0] pixels;");
+		printWriter.println("wire busy, done;");
+		printWriter.println("wire [" + (bitsFor(numOutputs - 1) - 1) + ":0] classification;");
+		printWriter.println();
+		printWriter.println("// Instantiate the DUT");
+		printWriter.println("mlp iDUT(.clk(clk), .rst_n(rst_n), .start(start), .pixels(pixels), .busy(busy), .done(done), ");
+		printWriter.println("\t\t\t.classification(classification));");
+		printWriter.println();
+		printWriter.println("// Each instance holds the pixels, first pixel in the top bit, followed by the one-hot label");
+		printWriter.println("reg [INSTANCE_BITS - 1:0] instances [0:NUM_INSTANCES - 1];");
+		printWriter.println("reg [7:0] expected [0:NUM_INSTANCES - 1];");
+		printWriter.println("integer i, j, label, cycles, mismatches, num_correct;");
+		printWriter.println();
+		printWriter.println("initial begin");
+		printWriter.println("\t$readmemb(\"training_instances.dat\", instances);");
+		printWriter.println("\t$readmemh(\"mlp_expected.dat\", expected);");
+		printWriter.println("\tmismatches = 0;");
+		printWriter.println("\tnum_correct = 0;");
+		printWriter.println();
+		printWriter.println("\t// Initialize clock and reset. Deassert reset before first positive clock edge");
+		printWriter.println("\tclk = 0;");
+		printWriter.println("\trst_n = 0;");
+		printWriter.println("\tstart = 0;");
+		printWriter.println("\t#1 rst_n = 1;");
+		printWriter.println();
+		printWriter.println("\tfor (i = 0; i < NUM_INSTANCES; i = i + 1) begin");
+		printWriter.println("\t\t@(negedge clk) begin");
+		printWriter.println("\t\t\tfor (j = 0; j < NUM_INPUTS; j = j + 1) pixels[j] = instances[i][INSTANCE_BITS - 1 - j];");
+		printWriter.println("\t\t\tstart = 1;");
+		printWriter.println("\t\tend");
+		printWriter.println("\t\tcycles = 0;");
+		printWriter.println("\t\t@(negedge clk) start = 0;");
+		printWriter.println("\t\twhile (!done && cycles < TIMEOUT) begin");
+		printWriter.println("\t\t\t@(negedge clk);");
+		printWriter.println("\t\t\tcycles = cycles + 1;");
+		printWriter.println("\t\tend");
+		printWriter.println("\t\tlabel = 0;");
+		printWriter.println("\t\tfor (j = 0; j < NUM_OUTPUTS; j = j + 1) if (instances[i][NUM_OUTPUTS - 1 - j]) label = j;");
+		printWriter.println("\t\tif (classification == label) num_correct = num_correct + 1;");
+		printWriter.println("\t\tif (!done || classification != expected[i]) begin");
+		printWriter.println("\t\t\tif (mismatches < 10) $display(\"Instance %0d: classified as %0d, expected %0d\", ");
+		printWriter.println("\t\t\t\t\ti, classification, expected[i]);");
+		printWriter.println("\t\t\tmismatches = mismatches + 1;");
+		printWriter.println("\t\tend");
+		printWriter.println("\tend");
+		printWriter.println("\t$display(\"%0d cycles per instance, %0d of %0d correct, %0d mismatches\", cycles + 1, ");
+		printWriter.println("\t\t\t\tnum_correct, NUM_INSTANCES, mismatches);");
+		printWriter.println("\tif (0 == mismatches) $display(\"PASS\");");
+		printWriter.println("\telse $display(\"FAIL\");");
+		printWriter.println("\t$finish;");
+		printWriter.println("end");
+		printWriter.println();
+		printWriter.println("// Clock period is 10 time units");
+		printWriter.println("always #5 clk = ~clk;");
+		printWriter.println();
+		printWriter.println("endmodule");
+		printWriter.close();
+	}
+	
+	/**
+	 * Writes the datapath 'mlp.v', its testbench 'mlp_tb.v', the ROM and LUT files they read and 
+	 * the expected classes of the instances. The testbench reads 'training_instances.dat' from the 
+	 * directory it runs in, so the files are best written next to it. Run it with Icarus Verilog 
+	 * ("iverilog -o mlp_tb mlp.v mlp_tb.v", then "vvp mlp_tb") or Verilator 
+	 * ("verilator --binary --top-module mlp_tb mlp.v mlp_tb.v", then "obj_dir/Vmlp_tb").
+	 * 
+	 * @param directory The directory to write the files to
+	 * @param inputs The inputs of the instances of 'training_instances.dat', in order
+	 * @throws FileNotFoundException
+	 */
+	public void writeToDirectory(String directory, double[][] inputs) throws FileNotFoundException {
+		writeDatapath(new File(directory, "mlp.v").getPath());
+		writeTestbench(new File(directory, "mlp_tb.v").getPath(), inputs.length);
+		writeWeightRom(new File(directory, "mlp_weights.dat").getPath());
+		writeLuts(new File(directory, "mlp_activation_lut.dat").getPath());
+		writeExpected(new File(directory, "mlp_expected.dat").getPath(), inputs);
+	}
+}
@@ -0,0 +1,192 @@
+import java.util.SplittableRandom;
+
+/**
+ * Scheme for the initial weights of a layer, chosen per layer. A scheme fills a whole weight 
+ * matrix at once, laid out as in Layer.getWeights(): one row per unit or kernel with the bias 
+ * last. Random schemes scale the weights to the layer's fan-in and fan-out, so the outputs of a 
+ * fresh network neither vanish nor saturate however wide its layers are, and leave the biases 0.
+ * 
+ * Layers draw the random numbers from their own RandomStreams.WEIGHT_INIT stream, so a seeded 
+ * run always starts from the same weights.
+ */
+public abstract class WeightInitializer {
+	private final String name;
+	
+	/**
+	 * Uniform from -0.005 to +0.005 for every weight and bias, regardless of the layer's size; 
+	 * the range NeuralNet initialized its weights in before the other schemes existed.
+	 */
+	public static final WeightInitializer UNIFORM = new WeightInitializer("uniform") {
+		@Override
+		public void initialize(double[] weights, int rows, int fanIn, int fanOut, 
+				SplittableRandom random) {
+			for (int i = 0; i < weights.length; i++) weights[i] = (random.nextDouble() - 0.5) * 0.01;
+		}
+	};
+	
+	/**
+	 * Xavier or Glorot: uniform from -sqrt(6 / (fanIn + fanOut)) to +sqrt(6 / (fanIn + fanOut)), 
+	 * which keeps the variance of both the outputs and the back-propagated errors; suited to 
+	 * sigmoid layers.
+	 */
+	public static final WeightInitializer XAVIER = new WeightInitializer("xavier") {
+		@Override
+		public void initialize(double[] weights, int rows, int fanIn, int fanOut, 
+				SplittableRandom random) {
+			double limit = Math.sqrt(6.0 / (fanIn + fanOut));
+			fill(weights, rows, fanIn, random, false, limit);
+		}
+	};
+	
+	/**
+	 * He: normal with a standard deviation of sqrt(2 / fanIn), which makes up for ReLU zeroing 
+	 * half of its inputs; suited to ReLU layers.
+	 */
+	public static final WeightInitializer HE = new WeightInitializer("he") {
+		@Override
+		public void initialize(double[] weights, int rows, int fanIn, int fanOut, 
+				SplittableRandom random) {
+			fill(weights, rows, fanIn, random, true, Math.sqrt(2.0 / fanIn));
+		}
+	};
+	
+	/**
+	 * LeCun: normal with a standard deviation of sqrt(1 / fanIn), which keeps the variance of the 
+	 * outputs of a layer with a roughly linear activation function.
+	 */
+	public static final WeightInitializer LECUN = new WeightInitializer("lecun") {
+		@Override
+		public void initialize(double[] weights, int rows, int fanIn, int fanOut, 
+				SplittableRandom random) {
+			fill(weights, rows, fanIn, random, true, Math.sqrt(1.0 / fanIn));
+		}
+	};
+	
+	/**
+	 * Orthogonal: the rows, or the columns if there are more rows than columns, are orthonormal, 
+	 * made so by Gram-Schmidt from normal random numbers. Every direction of the input is passed 
+	 * on with the same gain, which helps deep networks.
+	 */
+	public static final WeightInitializer ORTHOGONAL = new WeightInitializer("orthogonal") {
+		@Override
+		public void initialize(double[] weights, int rows, int fanIn, int fanOut, 
+				SplittableRandom random) {
+			int stride = fanIn + 1;
+			for (int j = 0; j < rows; j++) {
+				for (int k = 0; k < fanIn; k++) weights[j * stride + k] = random.nextGaussian();
+				weights[j * stride + fanIn] = 0;
+			}
+			if (rows <= fanIn) {
+				// Orthonormalize the rows
+				for (int j = 0; j < rows; j++) {
+					for (int i = 0; i < j; i++) {
+						double dot = 0;
+						for (int k = 0; k < fanIn; k++) dot += weights[j * stride + k] * weights[i * stride + k];
+						for (int k = 0; k < fanIn; k++) weights[j * stride + k] -= dot * weights[i * stride + k];
+					}
+					double norm = 0;
+					for (int k = 0; k < fanIn; k++) norm += weights[j * stride + k] * weights[j * stride + k];
+					norm = Math.sqrt(norm);
+					for (int k = 0; k < fanIn; k++) weights[j * stride + k] /= norm;
+				}
+			}
+			else {
+				// Orthonormalize the columns
+				for (int k = 0; k < fanIn; k++) {
+					for (int i = 0; i < k; i++) {
+						double dot = 0;
+						for (int j = 0; j < rows; j++) dot += weights[j * stride + k] * weights[j * stride + i];
+						for (int j = 0; j < rows; j++) weights[j * stride + k] -= dot * weights[j * stride + i];
+					}
+					double norm = 0;
+					for (int j = 0; j < rows; j++) norm += weights[j * stride + k] * weights[j * stride + k];
+					norm = Math.sqrt(norm);
+					for (int j = 0; j < rows; j++) weights[j * stride + k] /= norm;
+				}
+			}
+		}
+	};
+	
+	/**
+	 * @param name The name of the scheme in network specs
+	 */
+	protected WeightInitializer(String name) {
+		this.name = name;
+	}
+	
+	/**
+	 * @return The name of the scheme, as accepted by forName()
+	 */
+	public String getName() {
+		return name;
+	}
+	
+	/**
+	 * Fills a layer's weight matrix.
+	 * 
+	 * @param weights The weights, 'rows' rows of 'fanIn' weights followed by a bias
+	 * @param rows The number of units or kernels
+	 * @param fanIn The number of inputs each unit or kernel position weighs
+	 * @param fanOut The number of outputs each input contributes to
+	 * @param random The generator to draw from
+	 */
+	public abstract void initialize(double[] weights, int rows, int fanIn, int fanOut, 
+			SplittableRandom random);
+	
+	/**
+	 * @param name The name of a scheme, e.g., "he"
+	 * @return The scheme
+	 */
+	public static WeightInitializer forName(String name) {
+		WeightInitializer[] schemes = {UNIFORM, XAVIER, HE, LECUN, ORTHOGONAL};
+		for (WeightInitializer scheme : schemes) {
+			if (scheme.name.equalsIgnoreCase(name)) return scheme;
+		}
+		throw new IllegalArgumentException("Unknown weight initializer: " + name);
+	}
+	
+	/**
+	 * @param activationFunction The number corresponding to a layer's activation function, as in 
+	 * NeuralNet
+	 * @return The scheme suited to the activation function: He for ReLU, Xavier otherwise
+	 */
+	public static WeightInitializer forActivation(int activationFunction) {
+		return NeuralNet.ReLU == activationFunction ? HE : XAVIER;
+	}
+	
+	/**
+	 * @param snapshot A snapshot of a trained network, e.g., loaded from a checkpoint
+	 * @param layer The index of the weight layer to copy
+	 * @return A scheme that copies the layer's weights, e.g., to fine-tune a trained network
+	 */
+	public static WeightInitializer fromSnapshot(WeightSnapshot snapshot, int layer) {
+		final double[] copied = snapshot.getWeights(layer);
+		return new WeightInitializer("checkpoint") {
+			@Override
+			public void initialize(double[] weights, int rows, int fanIn, int fanOut, 
+					SplittableRandom random) {
+				if (copied.length != weights.length) {
+					throw new IllegalArgumentException("The checkpoint's layer has " + copied.length + 
+							" weights, not " + weights.length);
+				}
+				System.arraycopy(copied, 0, weights, 0, weights.length);
+			}
+		};
+	}
+	
+	/**
+	 * Fills every weight but the biases with uniform numbers from -scale to +scale, or normal 
+	 * numbers with a standard deviation of 'scale', and sets the biases to 0.
+	 */
+	private static void fill(double[] weights, int rows, int fanIn, SplittableRandom random, 
+			boolean normal, double scale) {
+		int stride = fanIn + 1;
+		for (int j = 0; j < rows; j++) {
+			for (int k = 0; k < fanIn; k++) {
+				weights[j * stride + k] = scale * (normal ? random.nextGaussian() : 
+						2 * random.nextDouble() - 1);
+			}
+			weights[j * stride + fanIn] = 0;
+		}
+	}
+}
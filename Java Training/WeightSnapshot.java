@@ -0,0 +1,492 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * Immutable copy of a trained network's edge weights, stored as one flat array per pair of 
+ * adjacent layers. Because nothing in a snapshot ever changes after construction, any number of 
+ * threads can classify with it while the network it came from keeps training.
+ */
+public class WeightSnapshot {
+	// Returned by classify() when no class is probable enough
+	public static final int REJECTED = -1;
+	
+	// Identifies checkpoint files written by writeCheckpoint()
+	private static final int CHECKPOINT_MAGIC = 0x4E4E4333;	// "NNC3"
+	
+	private final long version;
+	private final int[] unitsPerLayer;
+	private final int[] activationFunctions;	// One per layer after the input layer
+	
+	// weights[i][j * (unitsPerLayer[i] + 1) + k] is the weight from node k of layer i to node j 
+	// of layer i + 1; k == unitsPerLayer[i] is the bias node
+	private final double[][] weights;
+	
+	// Output weighted sums are divided by 'temperature' before the softmax in probabilities()
+	private final double temperature;
+	
+	/**
+	 * @param unitsPerLayer The number of units in each layer, excluding bias nodes
+	 * @param activationFunctions The number corresponding to the activation function of each 
+	 * layer after the input layer
+	 * @param weights The flat weight arrays; the snapshot takes ownership of them
+	 */
+	WeightSnapshot(int[] unitsPerLayer, int[] activationFunctions, double[][] weights) {
+		this(0, unitsPerLayer, activationFunctions, weights, 1.0);
+	}
+	
+	private WeightSnapshot(long version, int[] unitsPerLayer, int[] activationFunctions, 
+			double[][] weights, double temperature) {
+		this.version = version;
+		this.unitsPerLayer = unitsPerLayer;
+		this.activationFunctions = activationFunctions;
+		this.weights = weights;
+		this.temperature = temperature;
+	}
+	
+	/**
+	 * Returns a snapshot with the same weights under a different version. The weight arrays are 
+	 * shared rather than copied, which is safe because neither snapshot modifies them.
+	 * 
+	 * @param version The version of the returned snapshot
+	 * @return A snapshot of the same weights tagged with 'version'
+	 */
+	public WeightSnapshot withVersion(long version) {
+		return new WeightSnapshot(version, unitsPerLayer, activationFunctions, weights, temperature);
+	}
+	
+	/**
+	 * Returns a snapshot with the same weights whose probabilities are computed at a different 
+	 * temperature; see fitTemperature().
+	 * 
+	 * @param temperature The softmax temperature, greater than 0
+	 * @return A snapshot of the same weights using 'temperature'
+	 */
+	public WeightSnapshot withTemperature(double temperature) {
+		if (!(temperature > 0)) throw new IllegalArgumentException("temperature must be positive");
+		return new WeightSnapshot(version, unitsPerLayer, activationFunctions, weights, temperature);
+	}
+	
+	/**
+	 * @return The softmax temperature used by probabilities()
+	 */
+	public double getTemperature() {
+		return temperature;
+	}
+	
+	/**
+	 * @return The version assigned when the snapshot was published, or 0 if it never was
+	 */
+	public long getVersion() {
+		return version;
+	}
+	
+	/**
+	 * @return The number of units in each layer, excluding bias nodes
+	 */
+	public int[] getUnitsPerLayer() {
+		return unitsPerLayer.clone();
+	}
+	
+	/**
+	 * @param layer The index of a layer after the input layer, from 1
+	 * @return The number corresponding to the layer's activation function
+	 */
+	public int getActivationFunction(int layer) {
+		return activationFunctions[layer - 1];
+	}
+	
+	/**
+	 * @return The spec describing the network's shape; see NeuralNet.getSpec()
+	 */
+	public String getSpec() {
+		return NeuralNet.getSpec(unitsPerLayer, activationFunctions);
+	}
+	
+	/**
+	 * @param layer The index of the layer the weights come from
+	 * @return A copy of the weights from 'layer' to the next layer, in the layout described above
+	 */
+	public double[] getWeights(int layer) {
+		return weights[layer].clone();
+	}
+	
+	/**
+	 * @return The number of units in the input layer
+	 */
+	public int getNumInputs() {
+		return unitsPerLayer[0];
+	}
+	
+	/**
+	 * @return The number of units in the output layer
+	 */
+	public int getNumOutputs() {
+		return unitsPerLayer[unitsPerLayer.length - 1];
+	}
+	
+	/**
+	 * Allocates one output buffer per layer for propagateFwd(). Callers that classify many 
+	 * instances on one thread can reuse the buffers to avoid allocating on every call.
+	 * 
+	 * @return Buffers for the outputs of every layer
+	 */
+	public double[][] newActivations() {
+		double[][] activations = new double[unitsPerLayer.length][];
+		for (int i = 0; i < unitsPerLayer.length; i++) activations[i] = new double[unitsPerLayer[i]];
+		return activations;
+	}
+	
+	/**
+	 * Propagate inputs forward, storing the outputs of each layer in 'activations'.
+	 * 
+	 * @param input The input for a given instance
+	 * @param activations Buffers from newActivations(); activations[0] receives a copy of 'input'
+	 */
+	public void propagateFwd(double[] input, double[][] activations) {
+		propagateFwd(input, activations, null);
+	}
+	
+	/**
+	 * Propagate inputs forward, storing the outputs of each layer in 'activations' and the 
+	 * weighted sums of the output layer in 'outputSums'.
+	 * 
+	 * @param input The input for a given instance
+	 * @param activations Buffers from newActivations(); activations[0] receives a copy of 'input'
+	 * @param outputSums Receives the weighted sum at each output unit, unless null
+	 */
+	public void propagateFwd(double[] input, double[][] activations, double[] outputSums) {
+		System.arraycopy(input, 0, activations[0], 0, unitsPerLayer[0]);
+		propagateFwd(0, activations, outputSums);
+	}
+	
+	/**
+	 * Propagates the weighted sums of the first layer after the input layer forward, e.g., sums 
+	 * kept up to date by IncrementalClassifier rather than computed from the input.
+	 * 
+	 * @param firstSums The weighted sum at each unit of the first layer after the input layer
+	 * @param activations Buffers from newActivations(); activations[0] is left as it is
+	 * @param outputSums Receives the weighted sum at each output unit, unless null
+	 */
+	public void propagateFwdFromFirstSums(double[] firstSums, double[][] activations, 
+			double[] outputSums) {
+		for (int j = 0; j < unitsPerLayer[1]; j++) {
+			activations[1][j] = NeuralNet.activationFunction(firstSums[j], activationFunctions[0]);
+		}
+		if (null != outputSums && 1 == weights.length) {
+			System.arraycopy(firstSums, 0, outputSums, 0, unitsPerLayer[1]);
+		}
+		propagateFwd(1, activations, outputSums);
+	}
+	
+	/**
+	 * Propagates the outputs of one layer through every layer after it.
+	 */
+	private void propagateFwd(int firstLayer, double[][] activations, double[] outputSums) {
+		for (int i = firstLayer; i < weights.length; i++) {
+			double[] prev = activations[i], next = activations[i + 1], w = weights[i];
+			int stride = unitsPerLayer[i] + 1;
+			for (int j = 0; j < unitsPerLayer[i + 1]; j++) {
+				int offset = j * stride;
+				double weightedSum = w[offset + stride - 1];	// Bias node
+				for (int k = 0; k < stride - 1; k++) weightedSum += prev[k] * w[offset + k];
+				next[j] = NeuralNet.activationFunction(weightedSum, activationFunctions[i]);
+				if (null != outputSums && weights.length - 1 == i) outputSums[j] = weightedSum;
+			}
+		}
+	}
+	
+	/**
+	 * Allocates buffers for propagateFwdBatch(): one output buffer per layer for each of up to 
+	 * 'maxBatchSize' instances.
+	 * 
+	 * @param maxBatchSize The largest batch the buffers will be used for
+	 * @return Buffers indexed by layer, then by instance
+	 */
+	public double[][][] newBatchActivations(int maxBatchSize) {
+		double[][][] activations = new double[unitsPerLayer.length][maxBatchSize][];
+		for (int i = 0; i < unitsPerLayer.length; i++) {
+			for (int j = 0; j < maxBatchSize; j++) activations[i][j] = new double[unitsPerLayer[i]];
+		}
+		return activations;
+	}
+	
+	/**
+	 * Propagates a batch of inputs forward at once. Each row of weights is applied to every 
+	 * instance in the batch before moving on to the next row, so the weights are read from memory 
+	 * once per batch rather than once per instance.
+	 * 
+	 * @param inputs The inputs for each instance; only the first 'batchSize' are used
+	 * @param batchSize The number of instances in the batch
+	 * @param activations Buffers from newBatchActivations(); activations[i][b] receives the 
+	 * outputs of layer i for instance b
+	 */
+	public void propagateFwdBatch(double[][] inputs, int batchSize, double[][][] activations) {
+		propagateFwdBatch(inputs, batchSize, activations, null);
+	}
+	
+	/**
+	 * Propagates a batch of inputs forward at once, as above, also storing the weighted sums of 
+	 * the output layer.
+	 * 
+	 * @param inputs The inputs for each instance; only the first 'batchSize' are used
+	 * @param batchSize The number of instances in the batch
+	 * @param activations Buffers from newBatchActivations()
+	 * @param outputSums outputSums[b] receives the weighted sum at each output unit for instance 
+	 * b, unless 'outputSums' is null
+	 */
+	public void propagateFwdBatch(double[][] inputs, int batchSize, double[][][] activations, 
+			double[][] outputSums) {
+		for (int b = 0; b < batchSize; b++) {
+			System.arraycopy(inputs[b], 0, activations[0][b], 0, unitsPerLayer[0]);
+		}
+		for (int i = 0; i < weights.length; i++) {
+			double[][] prev = activations[i], next = activations[i + 1];
+			double[] w = weights[i];
+			int stride = unitsPerLayer[i] + 1;
+			for (int j = 0; j < unitsPerLayer[i + 1]; j++) {
+				int offset = j * stride;
+				for (int b = 0; b < batchSize; b++) {
+					double[] in = prev[b];
+					double weightedSum = w[offset + stride - 1];	// Bias node
+					for (int k = 0; k < stride - 1; k++) weightedSum += in[k] * w[offset + k];
+					next[b][j] = NeuralNet.activationFunction(weightedSum, activationFunctions[i]);
+					if (null != outputSums && weights.length - 1 == i) outputSums[b][j] = weightedSum;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Classify a given instance, using caller-provided buffers.
+	 * 
+	 * @param input The input for a given instance
+	 * @param activations Buffers from newActivations()
+	 * @return The classification according to the snapshot
+	 */
+	public int classify(double[] input, double[][] activations) {
+		propagateFwd(input, activations);
+		return argmax(activations[activations.length - 1]);
+	}
+	
+	/**
+	 * Computes class probabilities as the softmax of the output layer's weighted sums divided by 
+	 * the temperature. Nothing is allocated.
+	 * 
+	 * @param outputSums The weighted sum at each output unit
+	 * @param probabilities Receives the probability of each class; may be 'outputSums' itself
+	 */
+	public void softmax(double[] outputSums, double[] probabilities) {
+		double max = outputSums[0];
+		for (int i = 1; i < outputSums.length; i++) max = Math.max(max, outputSums[i]);
+		double sum = 0;
+		for (int i = 0; i < outputSums.length; i++) {
+			probabilities[i] = Math.exp((outputSums[i] - max) / temperature);
+			sum += probabilities[i];
+		}
+		for (int i = 0; i < outputSums.length; i++) probabilities[i] /= sum;
+	}
+	
+	/**
+	 * Computes the probability of each class for a given instance, using caller-provided buffers.
+	 * 
+	 * @param input The input for a given instance
+	 * @param activations Buffers from newActivations()
+	 * @param probabilities Receives the probability of each class
+	 * @return The classification according to the snapshot
+	 */
+	public int probabilities(double[] input, double[][] activations, double[] probabilities) {
+		propagateFwd(input, activations, probabilities);
+		softmax(probabilities, probabilities);
+		return argmax(probabilities);
+	}
+	
+	/**
+	 * Classify a given instance, rejecting it if even the most probable class is not probable 
+	 * enough, e.g., because the input is not a digit at all.
+	 * 
+	 * @param input The input for a given instance
+	 * @param activations Buffers from newActivations()
+	 * @param probabilities Receives the probability of each class
+	 * @param rejectThreshold The lowest probability at which a class is accepted
+	 * @return The classification according to the snapshot, or REJECTED
+	 */
+	public int classify(double[] input, double[][] activations, double[] probabilities, 
+			double rejectThreshold) {
+		int digit = probabilities(input, activations, probabilities);
+		return probabilities[digit] >= rejectThreshold ? digit : REJECTED;
+	}
+	
+	/**
+	 * Finds the 'k' highest values, in descending order, without allocating.
+	 * 
+	 * @param values The values to search, e.g., class probabilities
+	 * @param k The number of values to find; at most values.length
+	 * @param indices Receives the indices of the 'k' highest values
+	 * @param topValues Receives the 'k' highest values, unless null
+	 */
+	public static void topK(double[] values, int k, int[] indices, double[] topValues) {
+		for (int i = 0; i < k; i++) {
+			// Find the highest value not yet taken; ties go to the lowest index
+			int best = -1;
+			for (int j = 0; j < values.length; j++) {
+				if (best >= 0 && values[j] <= values[best]) continue;
+				boolean taken = false;
+				for (int l = 0; l < i && !taken; l++) taken = indices[l] == j;
+				if (!taken) best = j;
+			}
+			indices[i] = best;
+			if (null != topValues) topValues[i] = values[best];
+		}
+	}
+	
+	/**
+	 * Fits the softmax temperature to held-out instances by minimizing the negative 
+	 * log-likelihood of their desired outputs, i.e., temperature scaling. The network is trained 
+	 * on squared error rather than log-likelihood, so its raw weighted sums are not calibrated 
+	 * probabilities until they are scaled. Pass the result to withTemperature().
+	 * 
+	 * @param inputs The inputs for each held-out instance
+	 * @param desiredOutputs The desired output label for each held-out instance
+	 * @return The temperature that best calibrates the probabilities
+	 */
+	public double fitTemperature(double[][] inputs, int[] desiredOutputs) {
+		// The weighted sums do not depend on the temperature, so compute them once
+		double[][] activations = newActivations();
+		double[][] outputSums = new double[inputs.length][getNumOutputs()];
+		for (int i = 0; i < inputs.length; i++) propagateFwd(inputs[i], activations, outputSums[i]);
+		
+		// Golden-section search over log(temperature); the log-likelihood is unimodal in it
+		final double RATIO = (Math.sqrt(5) - 1) / 2;
+		double low = Math.log(1e-2), high = Math.log(1e2);
+		double a = high - RATIO * (high - low), b = low + RATIO * (high - low);
+		double costA = negativeLogLikelihood(outputSums, desiredOutputs, Math.exp(a));
+		double costB = negativeLogLikelihood(outputSums, desiredOutputs, Math.exp(b));
+		for (int i = 0; i < 60; i++) {
+			if (costA < costB) {
+				high = b;
+				b = a;
+				costB = costA;
+				a = high - RATIO * (high - low);
+				costA = negativeLogLikelihood(outputSums, desiredOutputs, Math.exp(a));
+			}
+			else {
+				low = a;
+				a = b;
+				costA = costB;
+				b = low + RATIO * (high - low);
+				costB = negativeLogLikelihood(outputSums, desiredOutputs, Math.exp(b));
+			}
+		}
+		return Math.exp((low + high) / 2);
+	}
+	
+	private static double negativeLogLikelihood(double[][] outputSums, int[] desiredOutputs, 
+			double temperature) {
+		double total = 0;
+		for (int i = 0; i < outputSums.length; i++) {
+			double[] z = outputSums[i];
+			double max = z[0];
+			for (double v : z) max = Math.max(max, v);
+			double sum = 0;
+			for (double v : z) sum += Math.exp((v - max) / temperature);
+			total += Math.log(sum) - (z[desiredOutputs[i]] - max) / temperature;
+		}
+		return total / outputSums.length;
+	}
+	
+	/**
+	 * Classify a given instance.
+	 * 
+	 * @param input The input for a given instance
+	 * @return The classification according to the snapshot
+	 */
+	public int classify(double[] input) {
+		return classify(input, newActivations());
+	}
+	
+	/**
+	 * Classify a given instance.
+	 * 
+	 * @param input The input for a given instance
+	 * @return The classification according to the snapshot
+	 */
+	public int classify(ArrayList<Double> input) {
+		double[] array = new double[input.size()];
+		for (int i = 0; i < array.length; i++) array[i] = input.get(i);
+		return classify(array);
+	}
+	
+	/**
+	 * @param values The values at each output unit
+	 * @return The index of the highest value; ties go to the lowest index
+	 */
+	static int argmax(double[] values) {
+		int index = 0;
+		for (int i = 1; i < values.length; i++) {
+			if (values[i] > values[index]) index = i;
+		}
+		return index;
+	}
+	
+	/**
+	 * Writes the snapshot, including its temperature, to a binary checkpoint file that 
+	 * readCheckpoint() can load. The version is not written; it is assigned again when the 
+	 * checkpoint is published.
+	 * 
+	 * @param fileName The name of the checkpoint file
+	 * @throws IOException
+	 */
+	public void writeCheckpoint(String fileName) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream( 
+				new FileOutputStream(fileName)));
+		try {
+			out.writeInt(CHECKPOINT_MAGIC);
+			out.writeInt(unitsPerLayer.length);
+			for (int units : unitsPerLayer) out.writeInt(units);
+			for (int function : activationFunctions) out.writeInt(function);
+			for (double[] layerWeights : weights) {
+				for (double weight : layerWeights) out.writeDouble(weight);
+			}
+			out.writeDouble(temperature);
+		}
+		finally {
+			out.close();
+		}
+	}
+	
+	/**
+	 * Reads a checkpoint file written by writeCheckpoint().
+	 * 
+	 * @param fileName The name of the checkpoint file
+	 * @return The snapshot stored in the file, with version 0
+	 * @throws IOException If the file cannot be read or is not a checkpoint
+	 */
+	public static WeightSnapshot readCheckpoint(String fileName) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream( 
+				new FileInputStream(fileName)));
+		try {
+			int magic = in.readInt();
+			if (magic != CHECKPOINT_MAGIC) throw new IOException(fileName + " is not a checkpoint file");
+			int[] unitsPerLayer = new int[in.readInt()];
+			for (int i = 0; i < unitsPerLayer.length; i++) unitsPerLayer[i] = in.readInt();
+			int[] activationFunctions = new int[unitsPerLayer.length - 1];
+			for (int i = 0; i < activationFunctions.length; i++) activationFunctions[i] = in.readInt();
+			double[][] weights = new double[unitsPerLayer.length - 1][];
+			for (int i = 0; i < weights.length; i++) {
+				weights[i] = new double[unitsPerLayer[i + 1] * (unitsPerLayer[i] + 1)];
+				for (int j = 0; j < weights[i].length; j++) weights[i][j] = in.readDouble();
+			}
+			double temperature = in.readDouble();
+			return new WeightSnapshot(0, unitsPerLayer, activationFunctions, weights, temperature);
+		}
+		finally {
+			in.close();
+		}
+	}
+}
@@ -0,0 +1,162 @@
+//*****************************************************************************
+// Host-side driver for the MCU classifier. Links against a copy of main.c 
+// built with the stubs in tm4c_host.c, so the exported weights and the 
+// preprocessing and inference code can be checked on a PC. Used by 
+// McuSimulator in "Java Training", which generates that copy.
+//
+// Usage: host_sim classify|incremental|preprocess < images
+//
+// Every line of input is an image as 64 hex digits, the most significant bit 
+// of the first digit being the upper-left pixel.
+//   classify:   prints "<class> <output 0> ... <output 9> <ns>" per image
+//   incremental: treats the images as successive frames of one drawing: 
+//               update_live_input() changes the live input from the previous 
+//               image to each one, and classify_live_input() classifies it. 
+//               Prints the same fields as classify, followed by the number of 
+//               pixels that flipped
+//   preprocess: draws each image on the pixel map as 12x16-pixel blocks, runs 
+//               find_boundaries() and create_nn_input() and prints the 
+//               resulting network input in hex
+//*****************************************************************************
+
+#include <stdarg.h>
+#include <time.h>
+#include "main.h"
+
+#define BLOCK_WIDTH		12		// Screen pixels per image pixel when drawing
+#define BLOCK_HEIGHT	16
+#define ORIGIN_X		24
+#define ORIGIN_Y		32
+
+// Defined in main.c
+extern uint32_t pixel_map[SCREEN_HEIGHT/32][SCREEN_WIDTH];
+void map_coordinates(uint16_t x, uint16_t y);
+void find_boundaries(uint16_t *upper_bound, uint16_t *lower_bound, uint16_t *left_bound, uint16_t *right_bound);
+bool *create_nn_input(uint16_t upper_bound, uint16_t lower_bound, uint16_t left_bound, uint16_t right_bound);
+#if !defined(SPARSE_WEIGHTS) && !defined(BINARY_WEIGHTS)
+double ***create_weights(void);
+#endif
+uint8_t classify(bool *nn_input, double ***weights);
+void reset_live_input(double ***weights);
+uint16_t update_live_input(bool *nn_input, double ***weights);
+uint8_t classify_live_input(double ***weights, double *outputs);
+
+// Output values captured from the debugging printf() in classify()
+static double outputs[NUM_OUTPUT_UNITS];
+
+
+//*****************************************************************************
+// Replaces printf() in main.c. Records the output node values and discards 
+// everything else.
+//*****************************************************************************
+int sim_printf(const char *format, ...) {
+	va_list args;
+	if (strncmp(format, "Output node", 11) == 0) {
+		va_start(args, format);
+		int i = va_arg(args, int);
+		double value = va_arg(args, double);
+		va_end(args);
+		if (i >= 0 && i < NUM_OUTPUT_UNITS) outputs[i] = value;
+	}
+	return 0;
+}
+
+
+//*****************************************************************************
+// Parses a line of 64 hex digits into 256 pixels. Returns false if the line 
+// is malformed.
+//*****************************************************************************
+static bool parse_hex(const char *line, bool *pixels) {
+	uint16_t pixel = 0;
+	int bit, digit;
+	for (; *line && pixel <= NUM_INPUT_UNITS; line++) {
+		if (*line >= '0' && *line <= '9') digit = *line - '0';
+		else if (*line >= 'a' && *line <= 'f') digit = *line - 'a' + 10;
+		else if (*line >= 'A' && *line <= 'F') digit = *line - 'A' + 10;
+		else continue;
+		if (pixel == NUM_INPUT_UNITS) return false;
+		for (bit = 3; bit >= 0; bit--) pixels[pixel++] = (digit >> bit) & 1;
+	}
+	return pixel == NUM_INPUT_UNITS;
+}
+
+
+static void print_hex(const bool *pixels) {
+	uint16_t i;
+	for (i = 0; i < NUM_INPUT_UNITS; i += 4) {
+		putchar("0123456789abcdef"[pixels[i] << 3 | pixels[i + 1] << 2 | pixels[i + 2] << 1 | pixels[i + 3]]);
+	}
+	putchar('\n');
+}
+
+
+static long long elapsed_ns(struct timespec *start, struct timespec *end) {
+	return (end->tv_sec - start->tv_sec) * 1000000000LL + (end->tv_nsec - start->tv_nsec);
+}
+
+
+int main(int argc, char **argv) {
+	char line[256];
+	bool pixels[NUM_INPUT_UNITS];
+	bool preprocess, incremental;
+	uint16_t i, x, y, upper_bound, lower_bound, left_bound, right_bound;
+	
+	if (argc != 2 || (strcmp(argv[1], "classify") != 0 && strcmp(argv[1], "incremental") != 0 && 
+			strcmp(argv[1], "preprocess") != 0)) {
+		fprintf(stderr, "Usage: host_sim classify|incremental|preprocess < images\n");
+		return 2;
+	}
+	preprocess = strcmp(argv[1], "preprocess") == 0;
+	incremental = strcmp(argv[1], "incremental") == 0;
+#if defined(SPARSE_WEIGHTS)
+	double ***weights = NULL;			// classify() reads weights_sparse.h
+#elif defined(BINARY_WEIGHTS)
+	double ***weights = NULL;			// classify() reads weights_binary.h
+#else
+	double ***weights = preprocess ? NULL : create_weights();
+#endif
+	if (incremental) reset_live_input(weights);
+	
+	while (fgets(line, sizeof(line), stdin)) {
+		if (!parse_hex(line, pixels)) {
+			fprintf(stderr, "Expected 64 hex digits: %s", line);
+			return 1;
+		}
+		if (preprocess) {
+			memset(pixel_map, 0, sizeof(pixel_map));
+			for (i = 0; i < NUM_INPUT_UNITS; i++) {
+				if (!pixels[i]) continue;
+				for (x = 0; x < BLOCK_WIDTH; x++) {
+					for (y = 0; y < BLOCK_HEIGHT; y++) {
+						map_coordinates(ORIGIN_X + (i % 16) * BLOCK_WIDTH + x, ORIGIN_Y + (i / 16) * BLOCK_HEIGHT + y);
+					}
+				}
+			}
+			find_boundaries(&upper_bound, &lower_bound, &left_bound, &right_bound);
+			bool *nn_input = create_nn_input(upper_bound, lower_bound, left_bound, right_bound);
+			if (NULL == nn_input) return 1;
+			print_hex(nn_input);
+			free(nn_input);
+		}
+		else if (incremental) {
+			struct timespec start, end;
+			clock_gettime(CLOCK_MONOTONIC, &start);
+			uint16_t flipped = update_live_input(pixels, weights);
+			uint8_t classification = classify_live_input(weights, outputs);
+			clock_gettime(CLOCK_MONOTONIC, &end);
+			printf("%d", classification);
+			for (i = 0; i < NUM_OUTPUT_UNITS; i++) printf(" %.17g", outputs[i]);
+			printf(" %lld %d\n", elapsed_ns(&start, &end), flipped);
+		}
+		else {
+			struct timespec start, end;
+			clock_gettime(CLOCK_MONOTONIC, &start);
+			uint8_t classification = classify(pixels, weights);
+			clock_gettime(CLOCK_MONOTONIC, &end);
+			printf("%d", classification);
+			for (i = 0; i < NUM_OUTPUT_UNITS; i++) printf(" %.17g", outputs[i]);
+			printf(" %lld\n", elapsed_ns(&start, &end));
+		}
+	}
+	return 0;
+}
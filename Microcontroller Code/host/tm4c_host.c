@@ -0,0 +1,31 @@
+//*****************************************************************************
+// Do-nothing implementations of the hardware functions declared in 
+// tm4c_host.h.
+//*****************************************************************************
+
+#include "tm4c_host.h"
+
+static TIMER0_Type timer0;
+TIMER0_Type *TIMER0 = &timer0;
+
+bool gp_timer_config_16(uint32_t base, uint32_t mode, bool count_up, bool enable_interrupts, 
+	uint16_t load, uint16_t prescaler) {
+	return true;
+}
+
+void lp_io_init(void) {}
+bool lp_io_read_pin(uint8_t pin_number) { return true; }
+
+void lcd_config_gpio(void) {}
+void lcd_config_screen(void) {}
+void lcd_clear_screen(uint16_t color) {}
+void lcd_draw_image(uint16_t x_start, uint16_t image_width_bits, uint16_t y_start, 
+	uint16_t image_height_pixels, const uint8_t *image, uint16_t fg_color, uint16_t bg_color) {}
+void lcd_print_stringXY(char *msg, int8_t X, int8_t Y, uint16_t fg_color, uint16_t bg_color) {}
+
+bool ft6x06_init(void) { return true; }
+uint8_t ft6x06_read_td_status(void) { return 0; }
+uint16_t ft6x06_read_x(void) { return 0; }
+uint16_t ft6x06_read_y(void) { return 0; }
+
+bool init_serial_debug(bool enable_rx_irq, bool enable_tx_irq) { return true; }
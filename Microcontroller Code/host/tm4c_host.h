@@ -0,0 +1,56 @@
+//*****************************************************************************
+// Host stand-ins for the TM4C123 and board support headers included by 
+// main.h, so that main.c can be compiled and run on a PC by host_sim.c. 
+// Every hardware function does nothing.
+//*****************************************************************************
+
+#ifndef __TM4C_HOST_H__
+#define __TM4C_HOST_H__
+
+#include <stdlib.h>
+#include <stdint.h>
+#include <stdbool.h>
+
+// TM4C123.h
+typedef struct {
+	volatile uint32_t ICR;
+} TIMER0_Type;
+extern TIMER0_Type *TIMER0;
+
+#define TIMER0_BASE					0x40030000
+#define TIMER_TAMR_TAMR_PERIOD		0x00000002
+#define TIMER_TBMR_TBMR_PERIOD		0x00000002
+#define TIMER_ICR_TATOCINT			0x00000001
+#define TIMER_ICR_TBTOCINT			0x00000100
+
+// timers.h
+bool gp_timer_config_16(uint32_t base, uint32_t mode, bool count_up, bool enable_interrupts, 
+	uint16_t load, uint16_t prescaler);
+
+// launchpad_io.h
+#define SW2_BIT						0
+void lp_io_init(void);
+bool lp_io_read_pin(uint8_t pin_number);
+
+// lcd.h
+#define LCD_COLOR_BLACK				0x0000
+#define LCD_COLOR_BLUE				0x001F
+#define LCD_COLOR_RED				0xF800
+#define LCD_COLOR_GREEN				0x07E0
+void lcd_config_gpio(void);
+void lcd_config_screen(void);
+void lcd_clear_screen(uint16_t color);
+void lcd_draw_image(uint16_t x_start, uint16_t image_width_bits, uint16_t y_start, 
+	uint16_t image_height_pixels, const uint8_t *image, uint16_t fg_color, uint16_t bg_color);
+void lcd_print_stringXY(char *msg, int8_t X, int8_t Y, uint16_t fg_color, uint16_t bg_color);
+
+// ft6x06.h
+bool ft6x06_init(void);
+uint8_t ft6x06_read_td_status(void);
+uint16_t ft6x06_read_x(void);
+uint16_t ft6x06_read_y(void);
+
+// serial_debug.h
+bool init_serial_debug(bool enable_rx_irq, bool enable_tx_irq);
+
+#endif
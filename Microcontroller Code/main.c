@@ -211,56 +211,108 @@ void draw_boundaries(uint16_t upper_bound, uint16_t lower_bound, uint16_t left_b
 
 
 //*****************************************************************************
-// Creates input for the neural network by normalizing the touchscreen data. 
-// If calloc() cannot allocate the needed memory, terminates the program.
+// For each offset along an axis of the bounding box, 'extent' + 1 pixels long, 
+// sets a bit in masks[offset] for every cell of the 16x16 grid the offset maps 
+// to. Cell i covers offsets floor(i * extent / 16) through 
+// ceil((i + 1) * extent / 16), computed here in integer arithmetic.
 //*****************************************************************************
-bool *create_nn_input(uint16_t upper_bound, uint16_t lower_bound, uint16_t left_bound, uint16_t right_bound) {
-	bool *nn_input = calloc(256, sizeof(bool));
-	if (NULL == nn_input) return NULL;
+void cell_masks(uint16_t extent, uint16_t *masks) {
+	uint16_t i, offset, first, last;
 	
-	double delta_x = (right_bound - left_bound) / 16.0, delta_y = (lower_bound - upper_bound) / 16.0;
+	memset(masks, 0, (extent + 1) * sizeof(uint16_t));
+	for (i = 0; i < 16; i++) {
+		first = i * extent >> 4;
+		last = ((i + 1) * extent + 15) >> 4;
+		if (last > extent) last = extent;
+		for (offset = first; offset <= last; offset++) masks[offset] |= 1 << i;
+	}
+}
+
+
+//*****************************************************************************
+// Normalizes the touchscreen data within the boundaries into 'nn_input': a cell 
+// of the 16x16 grid is set if any lit pixel maps to it. The rows and columns 
+// each pixel maps to are looked up in masks from cell_masks(), and the pixel 
+// map is read a word of 32 rows at a time, so no floating-point arithmetic or 
+// heap memory is needed and the live classification can call this often.
+//*****************************************************************************
+void fill_nn_input(uint16_t upper_bound, uint16_t lower_bound, uint16_t left_bound, uint16_t right_bound, bool *nn_input) {
+	static uint16_t column_masks[SCREEN_WIDTH], row_masks[SCREEN_HEIGHT];
+	uint16_t cells[16];				// cells[i] collects the rows column i is lit in
+	uint16_t x, i, j, word, bit, rows;
+	uint32_t bits;
 	
-	uint16_t x, y, i, j;
+	memset(nn_input, 0, 256 * sizeof(bool));
+	if (left_bound > right_bound) return;	// Nothing has been drawn
+	memset(cells, 0, sizeof(cells));
+	cell_masks(right_bound - left_bound, column_masks);
+	cell_masks(lower_bound - upper_bound, row_masks);
 	
-	// Iterate through all coordinates within the boundaries
-	for (x = left_bound ; x <= right_bound; x++) {
-		for (y = upper_bound; y <= lower_bound; y++) {
-			// If a pixel within the boundaries is lit up, map it to 'nn_input'
-			if (read_from_map(x, y)) {
-				// Iterate through "columns" within 'nn_input'
-				for (i = 0; i < 16; i++) {
-					if ((left_bound + floor(i*delta_x) <= x) && (x <= left_bound + ceil((i+1) * delta_x))) {
-						// Iterate through "rows" within 'nn_input'
-						for (j = 0; j < 16; j++) {
-							if ((upper_bound + floor(j*delta_y) <= y) && (y <= upper_bound + ceil((j+1)*delta_y))) {
-								nn_input[16*j + i] = true;
-							}
-						}
-					}
-				}
+	for (x = left_bound; x <= right_bound; x++) {
+		// Union of the rows hit by every lit pixel in this screen column
+		rows = 0;
+		for (word = upper_bound / 32; word <= lower_bound / 32; word++) {
+			for (bits = pixel_map[word][x], bit = 0; bits != 0; bits >>= 1, bit++) {
+				if (bits & 1) rows |= row_masks[word * 32 + bit - upper_bound];
 			}
 		}
+		if (!rows) continue;
+		for (i = 0; i < 16; i++) {
+			if (column_masks[x - left_bound] >> i & 1) cells[i] |= rows;
+		}
 	}
+	for (i = 0; i < 16; i++) {
+		for (j = 0; j < 16; j++) nn_input[16*j + i] = cells[i] >> j & 1;
+	}
+}
+
+
+//*****************************************************************************
+// Creates input for the neural network by normalizing the touchscreen data. 
+// Returns NULL if calloc() cannot allocate the needed memory.
+//*****************************************************************************
+bool *create_nn_input(uint16_t upper_bound, uint16_t lower_bound, uint16_t left_bound, uint16_t right_bound) {
+	bool *nn_input = calloc(256, sizeof(bool));
+	if (NULL == nn_input) return NULL;
 	
+	fill_nn_input(upper_bound, lower_bound, left_bound, right_bound, nn_input);
 	return nn_input;
 }
 
 
+#if !defined(SPARSE_WEIGHTS) && !defined(BINARY_WEIGHTS)
+#ifdef CONV_LAYERS
+// kernel_weights[f][c] holds the weights of kernel c of feature layer f, in the 
+// order of the Java ConvLayer with the bias last; NULL for pooling layers
+static double ***kernel_weights;
+#endif
+
+
 //*****************************************************************************
 // Returns a 3D array of edge weights.
 //*****************************************************************************
 double ***create_weights(void) {
-	// Allocate heap space for the weights
-	uint16_t i;
-	double ***weights = malloc(2 * sizeof(double **));
-	weights[0] = malloc(NUM_HIDDEN_UNITS * sizeof(double *));
-	weights[1] = malloc(NUM_OUTPUT_UNITS * sizeof(double *));
-	for (i = 0; i < NUM_HIDDEN_UNITS; i++) {
-		weights[0][i] = malloc((NUM_INPUT_UNITS + 1) * sizeof(double));
+	// Allocate heap space for the weights; weights[l][j] holds the weights feeding into node j 
+	// of layer l + 1, with the bias node's weight last
+	uint16_t l, i;
+	double ***weights = malloc(NUM_WEIGHT_LAYERS * sizeof(double **));
+	for (l = 0; l < NUM_WEIGHT_LAYERS; l++) {
+		weights[l] = malloc(layer_sizes[l + 1] * sizeof(double *));
+		for (i = 0; i < layer_sizes[l + 1]; i++) {
+			weights[l][i] = malloc((layer_sizes[l] + 1) * sizeof(double));
+		}
 	}
-	for (i = 0; i < NUM_OUTPUT_UNITS; i++) {
-		weights[1][i] = malloc((NUM_HIDDEN_UNITS + 1) * sizeof(double));
+#ifdef CONV_LAYERS
+	kernel_weights = malloc(NUM_FEATURE_LAYERS * sizeof(double **));
+	for (l = 0; l < NUM_FEATURE_LAYERS; l++) {
+		kernel_weights[l] = NULL;
+		if (CONV != feature_types[l]) continue;
+		kernel_weights[l] = malloc(feature_channels[l + 1] * sizeof(double *));
+		for (i = 0; i < feature_channels[l + 1]; i++) {
+			kernel_weights[l][i] = malloc((feature_channels[l] * feature_sizes[l] * feature_sizes[l] + 1) * sizeof(double));
+		}
 	}
+#endif
 	
 	// Set the weights accordingly
 	// Weights from layer 0 to layer 1
@@ -2993,8 +3045,22 @@ double ***create_weights(void) {
 // Frees the heap memory allocated by create_weights().
 //*****************************************************************************
 void free_weights(double ***weights) {
-	// TODO
+	uint16_t l, i;
+	for (l = 0; l < NUM_WEIGHT_LAYERS; l++) {
+		for (i = 0; i < layer_sizes[l + 1]; i++) free(weights[l][i]);
+		free(weights[l]);
+	}
+	free(weights);
+#ifdef CONV_LAYERS
+	for (l = 0; l < NUM_FEATURE_LAYERS; l++) {
+		if (NULL == kernel_weights[l]) continue;
+		for (i = 0; i < feature_channels[l + 1]; i++) free(kernel_weights[l][i]);
+		free(kernel_weights[l]);
+	}
+	free(kernel_weights);
+#endif
 }
+#endif
 
 
 //*****************************************************************************
@@ -3017,55 +3083,348 @@ double sigmoid(double x) {
 
 
 //*****************************************************************************
-// Classify an instance.
+// Applies the activation function of a layer, as listed in 'layer_activations'.
 //*****************************************************************************
-uint8_t classify(bool *nn_input, double ***weights) {
-	uint8_t classification;
+double activate(double x, uint8_t function) {
+	if (RELU == function) return x > 0 ? x : 0;
+	return sigmoid(x);
+}
+
+
+#ifdef CONV_LAYERS
+//*****************************************************************************
+// Runs the convolution and pooling layers on the input image, writing the 
+// output of the last one to 'features'. Images are stored channel by channel, 
+// each channel row by row, as in the Java Layers. Zero inputs, which include 
+// the unlit pixels and the padding, add nothing to a convolution.
+//*****************************************************************************
+void extract_features(const bool *nn_input, double *features) {
+	uint16_t f, c, o, oy, ox, ky, kx, size, in_height, in_width, out_height, out_width;
+	int16_t y, x;
+	double sum, value;
+	double *layer_inputs = malloc(NUM_INPUT_UNITS * sizeof(double));
+	double *layer_outputs;
+	
+	for (c = 0; c < NUM_INPUT_UNITS; c++) layer_inputs[c] = nn_input[c];
+	
+	for (f = 0; f < NUM_FEATURE_LAYERS; f++) {
+		size = feature_sizes[f];
+		in_height = feature_heights[f];
+		in_width = feature_widths[f];
+		out_height = feature_heights[f + 1];
+		out_width = feature_widths[f + 1];
+		layer_outputs = f == NUM_FEATURE_LAYERS - 1 ? features : 
+				malloc(feature_channels[f + 1] * out_height * out_width * sizeof(double));
+		
+		for (o = 0; o < feature_channels[f + 1]; o++) {
+			for (oy = 0; oy < out_height; oy++) {
+				for (ox = 0; ox < out_width; ox++) {
+					if (CONV == feature_types[f]) {
+						// Kernel o spans every input channel
+						sum = 0;
+						for (c = 0; c < feature_channels[f]; c++) {
+							for (ky = 0; ky < size; ky++) {
+								y = oy * feature_strides[f] + ky - feature_paddings[f];
+								if (y < 0 || y >= in_height) continue;
+								for (kx = 0; kx < size; kx++) {
+									x = ox * feature_strides[f] + kx - feature_paddings[f];
+									if (x < 0 || x >= in_width) continue;
+									value = layer_inputs[(c * in_height + y) * in_width + x];
+									if (value != 0) sum += kernel_weights[f][o][(c * size + ky) * size + kx] * value;
+								}
+							}
+						}
+						sum += kernel_weights[f][o][feature_channels[f] * size * size];	// Bias
+						value = activate(sum, feature_activations[f]);
+					}
+					else {
+						// Pooling keeps the channels, each window taking the maximum or the average
+						value = MAX_POOL == feature_types[f] ? 
+								layer_inputs[(o * in_height + oy * size) * in_width + ox * size] : 0;
+						for (ky = 0; ky < size; ky++) {
+							for (kx = 0; kx < size; kx++) {
+								sum = layer_inputs[(o * in_height + oy * size + ky) * in_width + ox * size + kx];
+								if (AVERAGE_POOL == feature_types[f]) value += sum;
+								else if (sum > value) value = sum;
+							}
+						}
+						if (AVERAGE_POOL == feature_types[f]) value /= size * size;
+					}
+					layer_outputs[(o * out_height + oy) * out_width + ox] = value;
+				}
+			}
+		}
+		
+		free(layer_inputs);
+		layer_inputs = layer_outputs;
+	}
+}
+#endif
+
+
+//*****************************************************************************
+// Computes the weighted sum at each unit of the first layer after the input 
+// layer. The inputs are binary, so the sums only add the weights of lit pixels. 
+// With CONV_LAYERS the first dense layer takes the features the convolution 
+// and pooling layers extract from the input instead.
+//*****************************************************************************
+void first_layer_sums(bool *nn_input, double ***weights, double *sums) {
 	uint16_t i, j;
-	double sum, max;
-	double *hidden_layer_outputs = malloc(NUM_HIDDEN_UNITS * sizeof(double));
-	double *output_layer_outputs = malloc(NUM_OUTPUT_UNITS * sizeof(double));
-	for (i = 0; i < NUM_HIDDEN_UNITS; i++) {
+	double sum;
+	
+#ifdef CONV_LAYERS
+	double *features = malloc(layer_sizes[0] * sizeof(double));
+	extract_features(nn_input, features);
+	for (i = 0; i < layer_sizes[1]; i++) {
 		sum = 0;
+		for (j = 0; j < layer_sizes[0]; j++) {
+			sum += weights[0][i][j] * features[j];
+		}
+		sums[i] = sum + weights[0][i][layer_sizes[0]];	// Bias node
+	}
+	free(features);
+#else
+	for (i = 0; i < layer_sizes[1]; i++) {
+		sum = 0;
+#ifdef SPARSE_WEIGHTS
+		// Only the weights that survived pruning are stored, 'sparse_columns' naming their inputs
+		for (j = sparse_row_start[0][i]; j < sparse_row_start[0][i + 1]; j++) {
+			if (nn_input[sparse_columns[0][j]]) sum += sparse_values[0][j];
+		}
+		sum += sparse_biases[0][i];
+#else
 		for (j = 0; j < NUM_INPUT_UNITS; j++) {
 			if (nn_input[j]) sum += weights[0][i][j];
 		}
 		sum += weights[0][i][NUM_INPUT_UNITS];	// Bias node
-		hidden_layer_outputs[i] = sigmoid(sum);
+#endif
+		sums[i] = sum;
 	}
-	for (i = 0; i < NUM_OUTPUT_UNITS; i++) {
-		sum = 0;
-		for (j = 0; j < NUM_HIDDEN_UNITS; j++) {
-			sum += weights[1][i][j] * hidden_layer_outputs[j];
+#endif
+}
+
+
+//*****************************************************************************
+// Classify an instance from the weighted sums of the first layer after the 
+// input layer, writing the value at each output unit to 'outputs'.
+//*****************************************************************************
+uint8_t classify_from_sums(const double *first_sums, double ***weights, double *outputs) {
+	uint8_t classification;
+	uint16_t l, i, j;
+	double sum, max;
+	double *layer_inputs = malloc(MAX_LAYER_UNITS * sizeof(double));
+	double *layer_outputs = malloc(MAX_LAYER_UNITS * sizeof(double));
+	double *swap;
+	
+	for (i = 0; i < layer_sizes[1]; i++) layer_outputs[i] = activate(first_sums[i], layer_activations[0]);
+	
+	// Every later layer takes the outputs of the one before it
+	for (l = 1; l < NUM_WEIGHT_LAYERS; l++) {
+		swap = layer_inputs;
+		layer_inputs = layer_outputs;
+		layer_outputs = swap;
+		for (i = 0; i < layer_sizes[l + 1]; i++) {
+			sum = 0;
+#ifdef SPARSE_WEIGHTS
+			for (j = sparse_row_start[l][i]; j < sparse_row_start[l][i + 1]; j++) {
+				sum += sparse_values[l][j] * layer_inputs[sparse_columns[l][j]];
+			}
+			sum += sparse_biases[l][i];
+#else
+			for (j = 0; j < layer_sizes[l]; j++) {
+				sum += weights[l][i][j] * layer_inputs[j];
+			}
+			sum += weights[l][i][layer_sizes[l]];	// Bias node
+#endif
+			layer_outputs[i] = activate(sum, layer_activations[l]);
 		}
-		sum += weights[1][i][NUM_HIDDEN_UNITS];	// Bias node
-		output_layer_outputs[i] = sigmoid(sum);
-		printf("Output node %d's value: %g\n", i, output_layer_outputs[i]);	// For debugging
 	}
+	
 	classification = 0;
-	max = output_layer_outputs[0];
-	for (i = 1; i < NUM_OUTPUT_UNITS; i++) {
-		if (output_layer_outputs[i] > max) {
+	max = layer_outputs[0];
+	for (i = 0; i < NUM_OUTPUT_UNITS; i++) {
+		outputs[i] = layer_outputs[i];
+		if (layer_outputs[i] > max) {
 			classification = i;
-			max = output_layer_outputs[i];
+			max = layer_outputs[i];
 		}
 	}
 	
 	// Free allocated memory
-	free(hidden_layer_outputs);
-	free(output_layer_outputs);
+	free(layer_inputs);
+	free(layer_outputs);
+	
+	return classification;
+}
+
+
+#ifdef BINARY_WEIGHTS
+//*****************************************************************************
+// Counts the bits set in 'x'. The Cortex-M4 has no population count 
+// instruction, so the bits are added in pairs, then nibbles, then bytes.
+//*****************************************************************************
+uint8_t popcount32(uint32_t x) {
+	x = x - ((x >> 1) & 0x55555555);
+	x = (x & 0x33333333) + ((x >> 2) & 0x33333333);
+	x = (x + (x >> 4)) & 0x0f0f0f0f;
+	return (x * 0x01010101) >> 24;
+}
+
+
+//*****************************************************************************
+// Classify an instance with the binarized network in weights_binary.h, writing 
+// the score of each output unit to 'outputs'. The inputs of each layer are 
+// packed 32 to a word, a set bit standing for +1 and a clear bit for -1, so a 
+// unit takes an XOR and a popcount per word instead of a multiply-add per 
+// input: the bits set are the inputs whose sign differs from their weight's.
+//*****************************************************************************
+uint8_t classify_binary(const bool *nn_input, double *outputs) {
+	uint32_t layer_inputs[BINARY_MAX_WORDS], layer_outputs[BINARY_MAX_WORDS];
+	uint16_t l, i, j, words, mismatches;
+	int16_t score, max = 0;
+	uint8_t classification = 0;
+	
+	memset(layer_outputs, 0, sizeof(layer_outputs));
+	for (j = 0; j < NUM_INPUT_UNITS; j++) {
+		if (nn_input[j]) layer_outputs[j >> 5] |= (uint32_t) 1 << (j & 31);
+	}
+	
+	for (l = 0; l < NUM_WEIGHT_LAYERS; l++) {
+		memcpy(layer_inputs, layer_outputs, sizeof(layer_inputs));
+		memset(layer_outputs, 0, sizeof(layer_outputs));
+		words = (layer_sizes[l] + 31) / 32;
+		for (i = 0; i < layer_sizes[l + 1]; i++) {
+			mismatches = 0;
+			for (j = 0; j < words; j++) {
+				mismatches += popcount32(layer_inputs[j] ^ binary_weights[l][i * words + j]);
+			}
+			if (l < NUM_WEIGHT_LAYERS - 1) {
+				// A hidden unit fires if few enough signs disagree
+				if (mismatches <= binary_thresholds[l][i]) layer_outputs[i >> 5] |= (uint32_t) 1 << (i & 31);
+			}
+			else {
+				score = layer_sizes[l] - 2 * mismatches + binary_thresholds[l][i];
+				outputs[i] = score;
+				if (0 == i || score > max) {
+					classification = i;
+					max = score;
+				}
+			}
+		}
+	}
+	
+	return classification;
+}
+#endif
+
+
+//*****************************************************************************
+// Classify an instance.
+//*****************************************************************************
+uint8_t classify(bool *nn_input, double ***weights) {
+	static double first_sums[MAX_LAYER_UNITS];
+	double outputs[NUM_OUTPUT_UNITS];
+	uint8_t classification;
+	uint16_t i;
 	
+#ifdef BINARY_WEIGHTS
+	classification = classify_binary(nn_input, outputs);
+#else
+	first_layer_sums(nn_input, weights, first_sums);
+	classification = classify_from_sums(first_sums, weights, outputs);
+#endif
+	for (i = 0; i < NUM_OUTPUT_UNITS; i++) {
+		printf("Output node %d's value: %g\n", i, outputs[i]);	// For debugging
+	}
 	return classification;
 }
 
 
+//*****************************************************************************
+// Live classification while a digit is being drawn. 'live_sums' holds the 
+// first layer's weighted sums for the network input in 'live_input'. When the 
+// input changes, only the weights of the pixels that flipped are added or 
+// subtracted: layer_sizes[1] additions per changed pixel instead of 
+// 256 * layer_sizes[1] for the whole layer. Every LIVE_REFRESH_FLIPS flips the 
+// sums are recomputed to discard rounding error. With SPARSE_WEIGHTS the 
+// weights are stored by row, so the sums are recomputed whenever the input 
+// changes, which visits only the nonzero weights. With CONV_LAYERS a pixel 
+// reaches the first dense layer through the features, so the sums are 
+// recomputed whenever the input changes. With BINARY_WEIGHTS a whole 
+// classification is cheaper than keeping the sums, so the live input is 
+// classified anew.
+//*****************************************************************************
+static bool live_input[NUM_INPUT_UNITS];
+static double live_sums[MAX_LAYER_UNITS];
+static uint16_t live_flips;
+
+
+//*****************************************************************************
+// Clears the live input, setting the live sums to the biases.
+//*****************************************************************************
+void reset_live_input(double ***weights) {
+	memset(live_input, 0, sizeof(live_input));
+#ifndef BINARY_WEIGHTS
+	first_layer_sums(live_input, weights, live_sums);
+#endif
+	live_flips = 0;
+}
+
+
+//*****************************************************************************
+// Changes the live input to 'nn_input' and updates the live sums. Returns the 
+// number of pixels that flipped.
+//*****************************************************************************
+uint16_t update_live_input(bool *nn_input, double ***weights) {
+	uint16_t i, j, flipped = 0;
+	
+	for (j = 0; j < NUM_INPUT_UNITS; j++) {
+		if (nn_input[j] == live_input[j]) continue;
+		live_input[j] = nn_input[j];
+		flipped++;
+#if !defined(SPARSE_WEIGHTS) && !defined(BINARY_WEIGHTS) && !defined(CONV_LAYERS)
+		if (nn_input[j]) {
+			for (i = 0; i < layer_sizes[1]; i++) live_sums[i] += weights[0][i][j];
+		}
+		else {
+			for (i = 0; i < layer_sizes[1]; i++) live_sums[i] -= weights[0][i][j];
+		}
+#endif
+	}
+#if defined(BINARY_WEIGHTS)
+	// classify_live_input() reads 'live_input' itself
+#elif defined(SPARSE_WEIGHTS) || defined(CONV_LAYERS)
+	if (flipped) first_layer_sums(live_input, weights, live_sums);
+#else
+	live_flips += flipped;
+	if (live_flips >= LIVE_REFRESH_FLIPS) {
+		first_layer_sums(live_input, weights, live_sums);
+		live_flips = 0;
+	}
+#endif
+	return flipped;
+}
+
+
+//*****************************************************************************
+// Classify the live input, writing the value at each output unit to 'outputs'.
+//*****************************************************************************
+uint8_t classify_live_input(double ***weights, double *outputs) {
+#ifdef BINARY_WEIGHTS
+	return classify_binary(live_input, outputs);
+#else
+	return classify_from_sums(live_sums, weights, outputs);
+#endif
+}
+
+
 //*****************************************************************************
 // Prints classification on LCD screen.
 //*****************************************************************************
 void display_classification(int classification) {
-	char output;
-	sprintf(&output, "%d", classification);
-	lcd_print_stringXY(&output, 0, 0, LCD_COLOR_BLUE, LCD_COLOR_BLACK);
+	char output[4];
+	sprintf(output, "%d", classification);
+	lcd_print_stringXY(output, 0, 0, LCD_COLOR_BLUE, LCD_COLOR_BLACK);
 }
 
 
@@ -3078,7 +3437,22 @@ int main(void) {
 	uint16_t x, y, upper_bound, lower_bound, left_bound, right_bound;
 	uint8_t classification;
 	bool *nn_input;
+#if defined(SPARSE_WEIGHTS)
+	double ***weights = NULL;			// classify() reads the constant arrays of weights_sparse.h
+#elif defined(BINARY_WEIGHTS)
+	double ***weights = NULL;			// classify() reads the packed weights of weights_binary.h
+#else
 	double ***weights = create_weights();
+#endif
+	
+	// Bounds of the digit drawn so far, kept as pixels are mapped so the live 
+	// classification does not have to scan the whole screen with find_boundaries()
+	uint16_t live_upper = SCREEN_HEIGHT, live_lower = 0, live_left = SCREEN_WIDTH, live_right = 0;
+	bool drawn_since_update = false;
+	bool live_nn_input[NUM_INPUT_UNITS];
+	uint8_t live_ticks = 0;
+	double live_outputs[NUM_OUTPUT_UNITS];
+	reset_live_input(weights);
 	
 	while (true) {
 		if (ALERT_TIMER0A_UPDATE) {
@@ -3090,10 +3464,27 @@ int main(void) {
 				y = SCREEN_HEIGHT - ft6x06_read_y();
 				
 				map_coordinates(x, y);
+				if (y < live_upper) live_upper = y;
+				if (y > live_lower) live_lower = y;
+				if (x < live_left) live_left = x;
+				if (x > live_right) live_right = x;
+				drawn_since_update = true;
 			}
 			ALERT_TIMER0A_UPDATE = false;
 		}
 		if (ALERT_TIMER0B_UPDATE) {
+			// While the digit is being drawn, show the current classification. Only 
+			// the network input pixels that changed since the last update are 
+			// re-weighed in the first layer
+			if (++live_ticks >= LIVE_UPDATE_TICKS) {
+				live_ticks = 0;
+				if (drawn_since_update) {
+					fill_nn_input(live_upper, live_lower, live_left, live_right, live_nn_input);
+					update_live_input(live_nn_input, weights);
+					display_classification(classify_live_input(weights, live_outputs));
+					drawn_since_update = false;
+				}
+			}
 			if (sw2_pressed()) {
 				draw_digit();
 				find_boundaries(&upper_bound, &lower_bound, &left_bound, &right_bound);
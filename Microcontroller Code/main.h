@@ -30,9 +30,20 @@
 #define SCREEN_WIDTH				240			// Dimensions of LCD screen in pixels
 #define SCREEN_HEIGHT				320
 
-#define NUM_INPUT_UNITS			256			// Constants related to the neural net
-#define NUM_HIDDEN_UNITS		10
-#define NUM_OUTPUT_UNITS		10
+#define LIVE_UPDATE_TICKS		10			// Classify the digit being drawn every 100 ms
+#define LIVE_REFRESH_FLIPS	4096		// Recompute the live sums after this many pixel flips
+
+#ifdef BINARY_WEIGHTS
+#include "weights_binary.h"					// Binarized neural net, which also describes its shape
+#else
+#include "network.h"						// Shape of the neural net, written with weights.txt
+#endif
+#if defined(CONV_LAYERS) && (defined(SPARSE_WEIGHTS) || defined(BINARY_WEIGHTS))
+#error "Convolution layers only run with the dense weights of weights.txt"
+#endif
+#ifdef SPARSE_WEIGHTS
+#include "weights_sparse.h"					// Pruned weights, in flash instead of on the heap
+#endif
 
 
 #endif
@@ -0,0 +1,16 @@
+// Shape of the network whose weights are in weights.txt: 256-10:sigmoid-10:sigmoid
+#ifndef __NETWORK_H__
+#define __NETWORK_H__
+
+#define SIGMOID					1			// Activation functions
+#define RELU					2
+
+#define NUM_WEIGHT_LAYERS		2
+#define NUM_INPUT_UNITS			256
+#define NUM_OUTPUT_UNITS		10
+#define MAX_LAYER_UNITS			10			// Largest layer after the input layer
+
+static const uint16_t layer_sizes[NUM_WEIGHT_LAYERS + 1] = {256, 10, 10};
+static const uint8_t layer_activations[NUM_WEIGHT_LAYERS] = {1, 1};
+
+#endif
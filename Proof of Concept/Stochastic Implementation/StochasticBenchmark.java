@@ -0,0 +1,87 @@
+import java.util.Random;
+
+/**
+ * Measures how accurately each StochasticNumberGenerator represents numbers and products at 
+ * bitstream lengths from 16 to 2048 bits, to find how short the streams can be. For random 
+ * pairs of magnitudes x and y, it reports the root-mean-square error of converting x to a 
+ * bitstream and back, of multiplying x and y by ANDing the streams of two inputs, and of the 
+ * same product with both streams generated for one input, i.e., correlated. Last, it lists the 
+ * shortest length at which each generator multiplies as accurately as the shuffled and LFSR 
+ * streams do at BASELINE_LENGTH bits.
+ * 
+ * Usage: java StochasticBenchmark [number of pairs]; run with -Dstochastic.seed=<integer> to 
+ * repeat a run exactly.
+ * 
+ * @author Zachary Zhou
+ */
+public class StochasticBenchmark {
+	private static final int MIN_LENGTH = 16;
+	private static final int MAX_LENGTH = 2048;
+	private static final int BASELINE_LENGTH = 1024;
+	private static final int NUM_PAIRS = 2000;
+	private static final String SEED_PROPERTY = "stochastic.seed";
+	
+	public static void main(String[] args) {
+		int numPairs = args.length > 0 ? Integer.parseInt(args[0]) : NUM_PAIRS;
+		long seed = Long.getLong(SEED_PROPERTY, new Random().nextLong());
+		System.out.println("Random seed " + seed);
+		Random random = new Random(seed);
+		double[] x = new double[numPairs], y = new double[numPairs];
+		for (int i = 0; i < numPairs; i++) {
+			x[i] = random.nextDouble();
+			y[i] = random.nextDouble();
+		}
+		
+		StochasticNumberGenerator[] generators = StochasticNumberGenerator.values();
+		int numLengths = Integer.numberOfTrailingZeros(MAX_LENGTH / MIN_LENGTH) + 1;
+		double[][] productErrors = new double[generators.length][numLengths];
+		System.out.printf("%-8s %6s %12s %12s %12s\n", "", "length", "conversion", "product", 
+				"correlated");
+		for (int g = 0; g < generators.length; g++) {
+			for (int n = 0, length = MIN_LENGTH; length <= MAX_LENGTH; n++, length *= 2) {
+				double conversion = 0, product = 0, correlated = 0;
+				for (int i = 0; i < numPairs; i++) {
+					boolean[] a = generators[g].bitstream(x[i], length, 0, random);
+					boolean[] b = generators[g].bitstream(y[i], length, 1, random);
+					boolean[] c = generators[g].bitstream(y[i], length, 0, random);
+					int ones = 0, products = 0, correlatedProducts = 0;
+					for (int t = 0; t < length; t++) {
+						if (a[t]) ones++;
+						if (a[t] && b[t]) products++;
+						if (a[t] && c[t]) correlatedProducts++;
+					}
+					conversion += square((double) ones / length - x[i]);
+					product += square((double) products / length - x[i] * y[i]);
+					correlated += square((double) correlatedProducts / length - x[i] * y[i]);
+				}
+				productErrors[g][n] = Math.sqrt(product / numPairs);
+				System.out.printf("%-8s %6d %12.6f %12.6f %12.6f\n", generators[g].getName(), length, 
+						Math.sqrt(conversion / numPairs), productErrors[g][n],
+						Math.sqrt(correlated / numPairs));
+			}
+			System.out.println();
+		}
+		
+		// Shortest length matching the product error of the baselines at BASELINE_LENGTH bits
+		int baselineIndex = Integer.numberOfTrailingZeros(BASELINE_LENGTH / MIN_LENGTH);
+		StochasticNumberGenerator[] baselines = {StochasticNumberGenerator.SHUFFLE, 
+				StochasticNumberGenerator.LFSR};
+		for (StochasticNumberGenerator baseline : baselines) {
+			int b = 0;
+			while (generators[b] != baseline) b++;
+			double target = productErrors[b][baselineIndex];
+			System.out.printf("Shortest length multiplying as accurately as %s at %d bits (%.6f):\n", 
+					baseline.getName(), BASELINE_LENGTH, target);
+			for (int g = 0; g < generators.length; g++) {
+				int n = 0;
+				while (n < numLengths && productErrors[g][n] > target) n++;
+				System.out.printf("  %-8s %s\n", generators[g].getName(), 
+						n < numLengths ? Integer.toString(MIN_LENGTH << n) : "over " + MAX_LENGTH);
+			}
+		}
+	}
+	
+	private static double square(double x) {
+		return x * x;
+	}
+}
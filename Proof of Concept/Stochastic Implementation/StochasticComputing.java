@@ -1,5 +1,4 @@
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.Random;
 
 /**
@@ -13,8 +12,50 @@ import java.util.Random;
  * @author Zachary Zhou
  */
 public class StochasticComputing {
-	private static final int BITSTREAM_LENGTH = 1024;
-	private static Random randGen = new Random();
+	// Run with -Dstochastic.length=<bits> to change the length of the bitstreams, sign bit included
+	private static final String LENGTH_PROPERTY = "stochastic.length";
+	private static final int BITSTREAM_LENGTH = Integer.getInteger(LENGTH_PROPERTY, 1024);
+	
+	// Run with -Dstochastic.generator=<name> to generate the bitstreams with another 
+	// StochasticNumberGenerator, e.g., sobol
+	private static final String GENERATOR_PROPERTY = "stochastic.generator";
+	private static final StochasticNumberGenerator generator = newGenerator();
+	
+	// Run with -Dstochastic.decorrelate=false to generate both factors of a product as the same 
+	// input, which shows the error correlated bitstreams cause
+	private static final String DECORRELATE_PROPERTY = "stochastic.decorrelate";
+	private static final boolean decorrelate = 
+			Boolean.parseBoolean(System.getProperty(DECORRELATE_PROPERTY, "true"));
+	
+	// Run with -Dstochastic.seed=<integer> to repeat a run's bitstreams and samples exactly
+	private static final String SEED_PROPERTY = "stochastic.seed";
+	private static Random randGen = newRandGen();
+	
+	/**
+	 * @return A generator seeded from the stochastic.seed system property, or from a random seed 
+	 * if it is not set; the seed used is printed so a run can be repeated
+	 */
+	private static Random newRandGen() {
+		long seed = Long.getLong(SEED_PROPERTY, new Random().nextLong());
+		System.out.println("Random seed " + seed);
+		return new Random(seed);
+	}
+	
+	/**
+	 * @return The generator named by the stochastic.generator system property, or the shuffling 
+	 * generator if it is not set
+	 */
+	private static StochasticNumberGenerator newGenerator() {
+		String name = System.getProperty(GENERATOR_PROPERTY, StochasticNumberGenerator.SHUFFLE.getName());
+		try {
+			return StochasticNumberGenerator.forName(name);
+		}
+		catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.exit(0);
+			return null;
+		}
+	}
 	
 	/* The below methods implement operations related to stochastic computing. */
 	
@@ -22,20 +63,31 @@ public class StochasticComputing {
 	 * Converts a real number to a stochastic number.
 	 * 
 	 * @param x The real number
+	 * @param input The number of the input the stochastic number is for; the bitstreams of 
+	 * different inputs are uncorrelated, see StochasticNumberGenerator
 	 * @return A stochastic number representing x
 	 */
-	private static ArrayList<Boolean> numberToBitstream(double x) {
+	private static ArrayList<Boolean> numberToBitstream(double x, int input) {
 		ArrayList<Boolean> bitstream = new ArrayList<Boolean>();
 		
-		// Add the correct number of 1's and 0's
-		int numTrue = Math.abs((int) (x * (BITSTREAM_LENGTH - 1)));
-		for (int i = 0; i < BITSTREAM_LENGTH - 1; i++) bitstream.add(i < numTrue);
-		
-		Collections.shuffle(bitstream);
+		// Add the magnitude's 1's and 0's as the generator places them
+		for (boolean b : generator.bitstream(Math.abs(x), BITSTREAM_LENGTH - 1, input, randGen)) {
+			bitstream.add(b);
+		}
 		bitstream.add(x < 0);	// Add the sign bit
 		return bitstream;
 	}
 	
+	/**
+	 * Converts a real number to a stochastic number for input 0.
+	 * 
+	 * @param x The real number
+	 * @return A stochastic number representing x
+	 */
+	private static ArrayList<Boolean> numberToBitstream(double x) {
+		return numberToBitstream(x, 0);
+	}
+	
 	/**
 	 * Converts a stochastic number to a real number.
 	 * 
@@ -84,7 +136,8 @@ public class StochasticComputing {
 			y *= 2;
 			bShifts++;
 		}
-		double product = bitstreamToNumber(multiplyBitstreams(numberToBitstream(x), numberToBitstream(y)));
+		double product = bitstreamToNumber(multiplyBitstreams(numberToBitstream(x, 0), 
+				numberToBitstream(y, decorrelate ? 1 : 0)));
 		
 		// Arithmetically shift 'product' right (divide by 2) enough times to compensate for the LSLs
 		for (int i = 0; i < aShifts + bShifts; i++) product /= 2;
@@ -104,7 +157,7 @@ public class StochasticComputing {
 	private static double add(double x[]) {
 		// Create a list of stochastic numbers
 		ArrayList<ArrayList<Boolean>> stochasticNumbers = new ArrayList<ArrayList<Boolean>>();
-		for (double d : x) stochasticNumbers.add(numberToBitstream(d));
+		for (int i = 0; i < x.length; i++) stochasticNumbers.add(numberToBitstream(x[i], i));
 		
 		// Compute the average of the stochastic numbers
 		ArrayList<Boolean> average = new ArrayList<Boolean>();
@@ -129,7 +182,7 @@ public class StochasticComputing {
 	private static double add(double x[], int numSamples) {
 		// Create a list of stochastic numbers
 		ArrayList<ArrayList<Boolean>> stochasticNumbers = new ArrayList<ArrayList<Boolean>>();
-		for (double d : x) stochasticNumbers.add(numberToBitstream(d));
+		for (int i = 0; i < x.length; i++) stochasticNumbers.add(numberToBitstream(x[i], i));
 		
 		// Compute the average of the stochastic numbers
 		ArrayList<Boolean> average = new ArrayList<Boolean>();
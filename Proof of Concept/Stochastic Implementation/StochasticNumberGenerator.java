@@ -0,0 +1,220 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Random;
+
+/**
+ * Scheme for turning a magnitude from 0 to 1 into a bitstream whose fraction of 1's is that 
+ * magnitude. Most schemes compare the magnitude against a sequence of numbers from 0 to 1, one 
+ * per bit, as a comparator in hardware would: pseudo-random sequences give an error that decays 
+ * like 1 / sqrt(length), while low-discrepancy and deterministic sequences spread the numbers 
+ * evenly and decay like 1 / length, so much shorter streams reach the same accuracy.
+ * 
+ * Multiplying two stochastic numbers with an AND gate is only accurate when their bitstreams are 
+ * uncorrelated. Each bitstream is therefore generated for an input number: streams of different 
+ * inputs come from different sequences, e.g., different Sobol dimensions or Halton bases, while 
+ * streams of the same input share one and are maximally correlated.
+ * 
+ * @author Zachary Zhou
+ */
+public abstract class StochasticNumberGenerator {
+	// Bits of the binary numbers fed to the FPGA's weighted binary generator
+	public static final int RESOLUTION_BITS = 10;
+	
+	private final String name;
+	
+	/**
+	 * Sets exactly length * magnitude bits, truncated, and shuffles them; the scheme 
+	 * StochasticComputing used before the others existed. Every conversion is exact up to 
+	 * truncation, but the positions of the 1's are random, so products are not.
+	 */
+	public static final StochasticNumberGenerator SHUFFLE = new StochasticNumberGenerator("shuffle") {
+		@Override
+		public boolean[] bitstream(double magnitude, int length, int input, Random random) {
+			ArrayList<Boolean> bits = new ArrayList<Boolean>();
+			int numTrue = (int) (magnitude * length);
+			for (int i = 0; i < length; i++) bits.add(i < numTrue);
+			Collections.shuffle(bits, random);
+			boolean[] bitstream = new boolean[length];
+			for (int i = 0; i < length; i++) bitstream[i] = bits.get(i);
+			return bitstream;
+		}
+	};
+	
+	/**
+	 * Compares against uniform pseudo-random numbers, so each bit is 1 with probability 
+	 * 'magnitude' independently of the others.
+	 */
+	public static final StochasticNumberGenerator RANDOM = new StochasticNumberGenerator("random") {
+		@Override
+		public boolean[] bitstream(double magnitude, int length, int input, Random random) {
+			boolean[] bitstream = new boolean[length];
+			for (int i = 0; i < length; i++) bitstream[i] = magnitude > random.nextDouble();
+			return bitstream;
+		}
+	};
+	
+	/**
+	 * The 32-bit LFSR of 'lfsr.v' feeding the weighted binary generator of 
+	 * 'weighted_binary_generator.v', cycle for cycle: the register starts at all 1's, and each bit 
+	 * of the stream is the bit of the 10-bit magnitude at the position of the leading 1 of 
+	 * RESOLUTION_BITS bits of the register. Input i reads the bits from 10 * (i % 3) up, and 
+	 * starts 1000 * (i / 3) cycles into the sequence, so every input sees a different sequence.
+	 */
+	public static final StochasticNumberGenerator LFSR = new StochasticNumberGenerator("lfsr") {
+		@Override
+		public boolean[] bitstream(double magnitude, int length, int input, Random random) {
+			final int TAPS = 0x08810139;	// Bits 27, 23, 16, 8, 5, 4 and 3 take the output, bit 0 is it
+			int binaryNumber = Math.min((1 << RESOLUTION_BITS) - 1, (int) (magnitude * (1 << RESOLUTION_BITS)));
+			int register = 0xffffffff, shift = RESOLUTION_BITS * (input % 3);
+			for (int i = 0; i < 1000 * (input / 3); i++) register = (register << 1) ^ (register < 0 ? TAPS : 0);
+			boolean[] bitstream = new boolean[length];
+			for (int i = 0; i < length; i++) {
+				int randomNumber = register >>> shift & ((1 << RESOLUTION_BITS) - 1);
+				if (0 != randomNumber) {
+					bitstream[i] = 0 != (binaryNumber & Integer.highestOneBit(randomNumber));
+				}
+				register = (register << 1) ^ (register < 0 ? TAPS : 0);
+			}
+			return bitstream;
+		}
+	};
+	
+	/**
+	 * Compares against a Sobol sequence, input i using dimension i + 1. The first eight inputs 
+	 * get mutually uncorrelated dimensions; later ones reuse them.
+	 */
+	public static final StochasticNumberGenerator SOBOL = new StochasticNumberGenerator("sobol") {
+		// Degree, coefficients and initial direction numbers of the primitive polynomial of each 
+		// dimension from the second on, from Joe and Kuo's table
+		private final int[] DEGREES = {1, 2, 3, 3, 4, 4, 5};
+		private final int[] COEFFICIENTS = {0, 1, 1, 2, 1, 4, 2};
+		private final int[][] INITIAL = {{1}, {1, 3}, {1, 3, 1}, {1, 1, 1}, {1, 1, 3, 3}, {1, 3, 5, 13}, 
+				{1, 1, 5, 5, 17}};
+		
+		@Override
+		public boolean[] bitstream(double magnitude, int length, int input, Random random) {
+			// directions[k] is the direction number of bit k of the index, scaled to 32 bits
+			int dimension = input % (DEGREES.length + 1);
+			int[] directions = new int[32];
+			for (int k = 0; k < 32; k++) {
+				if (0 == dimension) directions[k] = 1 << (31 - k);
+				else {
+					int s = DEGREES[dimension - 1], a = COEFFICIENTS[dimension - 1];
+					if (k < s) directions[k] = INITIAL[dimension - 1][k] << (31 - k);
+					else {
+						int v = directions[k - s] ^ (directions[k - s] >>> s);
+						for (int j = 1; j < s; j++) {
+							if (0 != (a >>> (s - 1 - j) & 1)) v ^= directions[k - j];
+						}
+						directions[k] = v;
+					}
+				}
+			}
+			
+			// Gray code order: each point differs from the last in one direction number
+			boolean[] bitstream = new boolean[length];
+			int point = 0;
+			for (int i = 0; i < length; i++) {
+				bitstream[i] = magnitude > (point & 0xffffffffL) / 4294967296.0;
+				point ^= directions[Integer.numberOfTrailingZeros(~i)];
+			}
+			return bitstream;
+		}
+	};
+	
+	/**
+	 * Compares against a Halton sequence, input i using the radical inverse in the (i + 1)-th 
+	 * prime base: 2, 3, 5 and so on.
+	 */
+	public static final StochasticNumberGenerator HALTON = new StochasticNumberGenerator("halton") {
+		@Override
+		public boolean[] bitstream(double magnitude, int length, int input, Random random) {
+			int base = prime(input);
+			boolean[] bitstream = new boolean[length];
+			for (int i = 0; i < length; i++) {
+				double radicalInverse = 0, digitValue = 1.0 / base;
+				for (int n = i; n > 0; n /= base) {
+					radicalInverse += (n % base) * digitValue;
+					digitValue /= base;
+				}
+				bitstream[i] = magnitude > radicalInverse;
+			}
+			return bitstream;
+		}
+	};
+	
+	/**
+	 * Deterministic unary streams with clock division. The stream is split into periods of P 
+	 * bits, P being the largest power of 2 with P * P bits fitting in the stream. Input 0 is a 
+	 * unary number repeated every period, i.e., the first magnitude * P bits of each period, rounded, 
+	 * are 1; input 1 holds each bit of a unary number for a whole period. ANDed together they give 
+	 * the product exactly to within 1 / P. Further inputs alternate between the two.
+	 */
+	public static final StochasticNumberGenerator UNARY = new StochasticNumberGenerator("unary") {
+		@Override
+		public boolean[] bitstream(double magnitude, int length, int input, Random random) {
+			int period = 1 << (31 - Integer.numberOfLeadingZeros(length)) / 2;
+			int divider = 0 == input % 2 ? 1 : period;
+			boolean[] bitstream = new boolean[length];
+			for (int i = 0; i < length; i++) {
+				bitstream[i] = magnitude > (i / divider % period + 0.5) / period;
+			}
+			return bitstream;
+		}
+	};
+	
+	protected StochasticNumberGenerator(String name) {
+		this.name = name;
+	}
+	
+	/**
+	 * @return The name of the scheme, as accepted by forName()
+	 */
+	public String getName() {
+		return name;
+	}
+	
+	/**
+	 * Generates a bitstream.
+	 * 
+	 * @param magnitude The number to represent, from 0 to 1
+	 * @param length The number of bits
+	 * @param input The number of the input the stream is for; streams for different inputs are 
+	 * uncorrelated, streams for the same input correlated
+	 * @param random The generator to draw from, for pseudo-random schemes
+	 * @return The bitstream
+	 */
+	public abstract boolean[] bitstream(double magnitude, int length, int input, Random random);
+	
+	/**
+	 * @return Every scheme
+	 */
+	public static StochasticNumberGenerator[] values() {
+		return new StochasticNumberGenerator[] {SHUFFLE, RANDOM, LFSR, SOBOL, HALTON, UNARY};
+	}
+	
+	/**
+	 * @param name The name of a scheme, e.g., "sobol"
+	 * @return The scheme
+	 */
+	public static StochasticNumberGenerator forName(String name) {
+		for (StochasticNumberGenerator generator : values()) {
+			if (generator.name.equalsIgnoreCase(name)) return generator;
+		}
+		throw new IllegalArgumentException("Unknown stochastic number generator: " + name);
+	}
+	
+	/**
+	 * @return The n-th prime, counting 2 as the 0th
+	 */
+	private static int prime(int n) {
+		int candidate = 1;
+		for (int found = -1; found < n; ) {
+			candidate++;
+			boolean isPrime = true;
+			for (int d = 2; d * d <= candidate && isPrime; d++) isPrime = 0 != candidate % d;
+			if (isPrime) found++;
+		}
+		return candidate;
+	}
+}